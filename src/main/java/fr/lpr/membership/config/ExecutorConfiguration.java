@@ -0,0 +1,101 @@
+package fr.lpr.membership.config;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Executors running work split in parallel chunks, in every profile (unlike the asynchronous methods).
+ */
+@Configuration
+public class ExecutorConfiguration implements EnvironmentAware {
+
+    private final Logger log = LoggerFactory.getLogger(ExecutorConfiguration.class);
+
+    private RelaxedPropertyResolver propertyResolver;
+
+    private RelaxedPropertyResolver exportPropertyResolver;
+
+    private RelaxedPropertyResolver importPropertyResolver;
+
+    private RelaxedPropertyResolver mailOutboxPropertyResolver;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.propertyResolver = new RelaxedPropertyResolver(environment, "statistics.");
+        this.exportPropertyResolver = new RelaxedPropertyResolver(environment, "export.");
+        this.importPropertyResolver = new RelaxedPropertyResolver(environment, "import.");
+        this.mailOutboxPropertyResolver = new RelaxedPropertyResolver(environment, "mail.outbox.");
+    }
+
+    /**
+     * Bounded executor computing the chunks of the sale statistics. When it is full, the caller computes the chunk itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor statisticsExecutor() {
+        log.debug("Creating Statistics Task Executor");
+        int poolSize = propertyResolver.getProperty("poolSize", Integer.class, 4);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(propertyResolver.getProperty("queueCapacity", Integer.class, 100));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("membership-Statistics-");
+        return executor;
+    }
+
+    /**
+     * Bounded executor running the export jobs. When it is full, new jobs are rejected rather than run on a request thread.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor exportExecutor() {
+        log.debug("Creating Export Task Executor");
+        int poolSize = exportPropertyResolver.getProperty("poolSize", Integer.class, 2);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(exportPropertyResolver.getProperty("queueCapacity", Integer.class, 10));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setThreadNamePrefix("membership-Export-");
+        return executor;
+    }
+
+    /**
+     * Bounded executor running the imports of adherents, one at a time by default. When it is full, new imports are rejected.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor importExecutor() {
+        log.debug("Creating Import Task Executor");
+        int poolSize = importPropertyResolver.getProperty("poolSize", Integer.class, 1);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(importPropertyResolver.getProperty("queueCapacity", Integer.class, 2));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setThreadNamePrefix("membership-Import-");
+        return executor;
+    }
+
+    /**
+     * Executor of the workers sending the e-mails of the outbox, a thread per worker. A worker still busy is not queued again.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mailExecutor() {
+        log.debug("Creating Mail Task Executor");
+        int workers = mailOutboxPropertyResolver.getProperty("workers", Integer.class, 1);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setThreadNamePrefix("membership-Mail-");
+        return executor;
+    }
+}
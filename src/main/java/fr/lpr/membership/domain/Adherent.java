@@ -6,6 +6,8 @@ import java.util.*;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -103,6 +105,21 @@ public class Adherent implements Serializable {
 	@JsonIgnore
 	private LocalDate lastAdhesion;
 
+	/** End of the last adhesion, kept with its status so that the adherents can be filtered by status in the database */
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentLocalDate")
+	@Column(name = "fin_adhesion")
+	private LocalDate finAdhesion;
+
+	/** Status of the last adhesion, rolled over each night as the end of the adhesion comes closer */
+	@Enumerated(EnumType.STRING)
+	@Column(name = "statut_adhesion")
+	private StatutAdhesion statutAdhesion;
+
+	/** Identifier of the adherent in the legacy system, set by the import */
+	@Column(name = "external_id")
+	@JsonIgnore
+	private String externalId;
+
 	public Long getId() {
 		return id;
 	}
@@ -210,8 +227,21 @@ public class Adherent implements Serializable {
 		resetLastAdhesion();
 	}
 
-	private void resetLastAdhesion() {
-		this.lastAdhesion = lastAdhesion().map(Adhesion::getDateAdhesion).orElse(null);
+	public void removeAdhesion(Adhesion adhesion) {
+		if (this.adhesions != null) {
+			this.adhesions.remove(adhesion);
+		}
+		resetLastAdhesion();
+	}
+
+	/**
+	 * Compute again the date and the status of the last adhesion, after one of the adhesions was modified.
+	 */
+	public void resetLastAdhesion() {
+		final Optional<Adhesion> last = lastAdhesion();
+		this.lastAdhesion = last.map(Adhesion::getDateAdhesion).orElse(null);
+		this.finAdhesion = last.map(Adhesion::getDateFinAdhesion).orElse(null);
+		this.statutAdhesion = StatutAdhesion.of(finAdhesion, LocalDate.now());
 	}
 
 	/**
@@ -227,28 +257,29 @@ public class Adherent implements Serializable {
 
 	@JsonIgnore
 	public Optional<Adhesion> lastAdhesion() {
-		if (this.adhesions == null || this.adhesions.isEmpty()) {
+		if (this.adhesions == null) {
 			return Optional.empty();
-		} else {
-			final SortedSet<Adhesion> orderedAdhesions = new TreeSet<>(Comparator.comparing(Adhesion::getDateAdhesion).reversed());
-			orderedAdhesions.addAll(adhesions);
-			return Optional.of(orderedAdhesions.first());
 		}
+		return adhesions.stream().max(Comparator.comparing(Adhesion::getDateAdhesion));
+	}
+
+	/**
+	 * The end of the last adhesion.
+	 *
+	 * @return the end of the last adhesion
+	 */
+	@JsonIgnore
+	public LocalDate getFinAdhesion() {
+		return finAdhesion;
 	}
 
 	@JsonProperty
 	public StatutAdhesion getStatutAdhesion() {
-		final Optional<Adhesion> lastAdhesion = lastAdhesion();
-
-		if (!lastAdhesion.isPresent()) {
-			return StatutAdhesion.NONE;
-		} else if (lastAdhesion.get().getDateFinAdhesion().isBefore(LocalDate.now())) {
-			return StatutAdhesion.RED;
-		} else if (lastAdhesion.get().getDateFinAdhesion().isBefore(LocalDate.now().plusMonths(1))) {
-			return StatutAdhesion.ORANGE;
-		} else {
-			return StatutAdhesion.GREEN;
+		if (statutAdhesion == null) {
+			// Not computed yet
+			return StatutAdhesion.of(lastAdhesion().map(Adhesion::getDateFinAdhesion).orElse(null), LocalDate.now());
 		}
+		return statutAdhesion;
 	}
 
 	/**
@@ -266,6 +297,14 @@ public class Adherent implements Serializable {
 		this.reminderEmail = reminderEmail;
 	}
 
+	public String getExternalId() {
+		return externalId;
+	}
+
+	public void setExternalId(String externalId) {
+		this.externalId = externalId;
+	}
+
 	@Field(analyzer = @Analyzer(definition = "nameAnalyzer"))
 	@Transient
 	@JsonIgnore
@@ -0,0 +1,150 @@
+package fr.lpr.membership.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Type;
+import org.joda.time.DateTime;
+
+/**
+ * E-mail waiting in the outbox to be sent.
+ *
+ * <p>
+ * Saved in the same transaction as the change it tells about, so that no e-mail is sent for a change rolled back and none is lost when
+ * the SMTP server is down. Deleted once sent, kept as failed once its attempts are exhausted.
+ * </p>
+ */
+@Entity
+@Table(name = "MAIL_OUTBOX")
+public class OutboxMail {
+
+	public enum Status {
+		PENDING, FAILED
+	}
+
+	/** Longest recipient and subject */
+	public static final int MAX_HEADER_LENGTH = 255;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+
+	@Column(nullable = false, length = MAX_HEADER_LENGTH)
+	private String recipient;
+
+	@Column(nullable = false, length = MAX_HEADER_LENGTH)
+	private String subject;
+
+	/** Clob of any length, read as a string: text on PostgreSQL rather than a large object */
+	@Lob
+	@Type(type = "org.hibernate.type.TextType")
+	@Column(nullable = false, columnDefinition = "clob")
+	private String content;
+
+	@Column(nullable = false)
+	private boolean multipart;
+
+	@Column(nullable = false)
+	private boolean html;
+
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false)
+	private Status status = Status.PENDING;
+
+	@Column(nullable = false)
+	private int attempts;
+
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentDateTime")
+	@Column(nullable = false)
+	private DateTime createdAt;
+
+	/** The e-mail is not sent before, pushed back after each failed attempt */
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentDateTime")
+	@Column(nullable = false)
+	private DateTime nextAttemptAt;
+
+	private String lastError;
+
+	protected OutboxMail() {
+	}
+
+	public OutboxMail(String recipient, String subject, String content, boolean multipart, boolean html) {
+		this.recipient = recipient;
+		this.subject = subject;
+		this.content = content;
+		this.multipart = multipart;
+		this.html = html;
+		this.createdAt = DateTime.now();
+		this.nextAttemptAt = createdAt;
+	}
+
+	/**
+	 * Record a failed attempt: the e-mail is tried again after a delay, or fails for good once it was tried maxAttempts times.
+	 */
+	public void attemptFailed(String error, DateTime nextAttemptAt, int maxAttempts) {
+		this.attempts++;
+		this.lastError = error == null || error.length() <= 255 ? error : error.substring(0, 255);
+		this.nextAttemptAt = nextAttemptAt;
+		if (attempts >= maxAttempts) {
+			this.status = Status.FAILED;
+		}
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getRecipient() {
+		return recipient;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public boolean isMultipart() {
+		return multipart;
+	}
+
+	public boolean isHtml() {
+		return html;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public DateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public DateTime getNextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	@Override
+	public String toString() {
+		return "OutboxMail{id=" + id + ", recipient='" + recipient + "', subject='" + subject + "', status=" + status + ", attempts="
+				+ attempts + "}";
+	}
+
+}
@@ -1,5 +1,25 @@
 package fr.lpr.membership.domain;
 
+import org.joda.time.LocalDate;
+
 public enum StatutAdhesion {
-	NONE, GREEN, ORANGE, RED
+	NONE, GREEN, ORANGE, RED;
+
+	/**
+	 * Status of an adhesion on a day: expiring during the following month, expired once its end is past.
+	 *
+	 * @param finAdhesion
+	 *            the end of the last adhesion, null without adhesion
+	 */
+	public static StatutAdhesion of(LocalDate finAdhesion, LocalDate day) {
+		if (finAdhesion == null) {
+			return NONE;
+		} else if (finAdhesion.isBefore(day)) {
+			return RED;
+		} else if (finAdhesion.isBefore(day.plusMonths(1))) {
+			return ORANGE;
+		} else {
+			return GREEN;
+		}
+	}
 }
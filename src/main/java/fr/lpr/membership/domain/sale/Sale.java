@@ -19,6 +19,8 @@ import javax.validation.constraints.NotNull;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.annotations.Type;
 import org.joda.time.DateTime;
 
@@ -31,7 +33,11 @@ import fr.lpr.membership.domain.Article;
 public class Sale {
 
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sale_sequence")
+	@GenericGenerator(name = "sale_sequence", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "hibernate_sequence"),
+			@Parameter(name = "increment_size", value = "50"),
+			@Parameter(name = "optimizer", value = "pooled-lo") })
 	private Long id;
 
 	@ManyToOne(optional = false)
@@ -0,0 +1,129 @@
+package fr.lpr.membership.domain.sale;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Type;
+import org.joda.time.LocalDate;
+
+/**
+ * Monthly sale totals of an item (article or adhesion) for a payment type.
+ *
+ * <p>
+ * Maintained from the sale and adhesion events so that statistics never have to scan every sale.
+ * </p>
+ */
+@Entity
+@Table(name = "SALE_ROLLUP")
+public class SaleRollup {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+
+	/** First day of the month */
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentLocalDate")
+	@Column(nullable = false)
+	private LocalDate month;
+
+	@NotNull
+	@Column(nullable = false)
+	private String itemName;
+
+	@Enumerated(EnumType.STRING)
+	@NotNull
+	@Column(nullable = false)
+	private PaymentType paymentType;
+
+	@Column(nullable = false)
+	private int quantity;
+
+	@Column(nullable = false)
+	private long amount;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public SaleRollup id(Long id) {
+		setId(id);
+		return this;
+	}
+
+	public LocalDate getMonth() {
+		return month;
+	}
+
+	public void setMonth(LocalDate month) {
+		this.month = month;
+	}
+
+	public SaleRollup month(LocalDate month) {
+		setMonth(month);
+		return this;
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+
+	public void setItemName(String itemName) {
+		this.itemName = itemName;
+	}
+
+	public SaleRollup itemName(String itemName) {
+		setItemName(itemName);
+		return this;
+	}
+
+	public PaymentType getPaymentType() {
+		return paymentType;
+	}
+
+	public void setPaymentType(PaymentType paymentType) {
+		this.paymentType = paymentType;
+	}
+
+	public SaleRollup paymentType(PaymentType paymentType) {
+		setPaymentType(paymentType);
+		return this;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public SaleRollup quantity(int quantity) {
+		setQuantity(quantity);
+		return this;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	public void setAmount(long amount) {
+		this.amount = amount;
+	}
+
+	public SaleRollup amount(long amount) {
+		setAmount(amount);
+		return this;
+	}
+
+}
@@ -13,6 +13,8 @@ import javax.persistence.Table;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import fr.lpr.membership.domain.Article;
 import fr.lpr.membership.domain.stock.StockHistory;
@@ -23,7 +25,11 @@ import fr.lpr.membership.domain.stock.StockHistory;
 public class SoldItem {
 
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sold_item_sequence")
+	@GenericGenerator(name = "sold_item_sequence", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "hibernate_sequence"),
+			@Parameter(name = "increment_size", value = "50"),
+			@Parameter(name = "optimizer", value = "pooled-lo") })
 	private Long id;
 
 	@ManyToOne(optional = false)
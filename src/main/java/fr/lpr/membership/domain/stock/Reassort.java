@@ -2,11 +2,15 @@ package fr.lpr.membership.domain.stock;
 
 import javax.validation.constraints.NotNull;
 
+/**
+ * Quantity to add to the stock of an article, given by its identifier or by its reference at its provider.
+ */
 public class Reassort {
 
-	@NotNull
 	private Long id;
 
+	private String reference;
+
 	@NotNull
 	private Integer quantity;
 
@@ -23,6 +27,19 @@ public class Reassort {
 		return this;
 	}
 
+	public String getReference() {
+		return reference;
+	}
+
+	public void setReference(String reference) {
+		this.reference = reference;
+	}
+
+	public Reassort reference(String reference) {
+		setReference(reference);
+		return this;
+	}
+
 	public Integer getQuantity() {
 		return quantity;
 	}
@@ -0,0 +1,94 @@
+package fr.lpr.membership.domain.stock;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Type;
+import org.joda.time.LocalDate;
+
+import fr.lpr.membership.domain.Article;
+
+/**
+ * Stock of an article at the end of a day.
+ *
+ * <p>
+ * Taken every night so that the stock on a past date is read from the closest checkpoint and the few stock history entries since then,
+ * instead of the whole history.
+ * </p>
+ */
+@Entity
+@Table(name = "STOCK_CHECKPOINT")
+public class StockCheckpoint {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private Long id;
+
+	@ManyToOne(optional = false)
+	private Article article;
+
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentLocalDate")
+	@Column(nullable = false)
+	private LocalDate day;
+
+	@Column(nullable = false)
+	private int quantity;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public StockCheckpoint id(Long id) {
+		setId(id);
+		return this;
+	}
+
+	public Article getArticle() {
+		return article;
+	}
+
+	public void setArticle(Article article) {
+		this.article = article;
+	}
+
+	public StockCheckpoint article(Article article) {
+		setArticle(article);
+		return this;
+	}
+
+	public LocalDate getDay() {
+		return day;
+	}
+
+	public void setDay(LocalDate day) {
+		this.day = day;
+	}
+
+	public StockCheckpoint day(LocalDate day) {
+		setDay(day);
+		return this;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public StockCheckpoint quantity(int quantity) {
+		setQuantity(quantity);
+		return this;
+	}
+
+}
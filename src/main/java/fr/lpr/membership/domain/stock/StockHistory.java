@@ -13,6 +13,8 @@ import javax.validation.constraints.NotNull;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.annotations.Type;
 import org.joda.time.DateTime;
 
@@ -24,7 +26,11 @@ import fr.lpr.membership.domain.Article;
 public class StockHistory {
 
 	@Id
-	@GeneratedValue(strategy=GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_history_sequence")
+	@GenericGenerator(name = "stock_history_sequence", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "hibernate_sequence"),
+			@Parameter(name = "increment_size", value = "50"),
+			@Parameter(name = "optimizer", value = "pooled-lo") })
 	private Long id;
 
 	@Enumerated(EnumType.STRING)
@@ -1,10 +1,19 @@
 package fr.lpr.membership.repository;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.joda.time.LocalDate;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
 import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.StatutAdhesion;
 
 /**
  * Spring Data JPA repository for the Adherent entity.
@@ -13,4 +22,47 @@ public interface AdherentRepository extends JpaRepository<Adherent, Long> {
 
 	Page<Adherent> findByNomContainingOrPrenomContainingAllIgnoreCase(String nom, String prenom, Pageable pageable);
 
+	Slice<Adherent> findAllByOrderByIdAsc(Pageable pageable);
+
+	Slice<Adherent> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+	List<Adherent> findByStatutAdhesionIsNull();
+
+	/**
+	 * Change the status of the adherents whose adhesion ends before a date.
+	 *
+	 * @return the number of adherents changed
+	 */
+	@Modifying(clearAutomatically = true)
+	@Query("update Adherent a set a.statutAdhesion = ?2 where a.statutAdhesion in ?1 and a.finAdhesion < ?3")
+	int updateStatutAdhesion(Collection<StatutAdhesion> statuts, StatutAdhesion statut, LocalDate finAdhesionBefore);
+
+	/**
+	 * Identifiers of the adherents having an email whose adhesion ends in [finFrom, finTo) and who were not reminded since a date.
+	 */
+	@Query("select a.id from Adherent a join a.coordonnees c where a.finAdhesion >= ?1 and a.finAdhesion < ?2"
+			+ " and (a.reminderEmail is null or a.reminderEmail < ?3) and c.email is not null and c.email <> '' order by a.id")
+	List<Long> findIdsToRemind(LocalDate finFrom, LocalDate finTo, LocalDate remindedBefore);
+
+	/**
+	 * Identifiers of the adherents having an email whose adhesion ends in [finFrom, finTo).
+	 */
+	@Query("select a.id from Adherent a join a.coordonnees c where a.finAdhesion >= ?1 and a.finAdhesion < ?2"
+			+ " and c.email is not null and c.email <> '' order by a.id")
+	List<Long> findIdsWithFinAdhesionBetween(LocalDate finFrom, LocalDate finTo);
+
+	/**
+	 * Adherents with their coordinates and adhesions, read in a single query.
+	 */
+	@Query("select distinct a from Adherent a left join fetch a.coordonnees left join fetch a.adhesions where a.id in ?1")
+	List<Adherent> findWithAdhesionsByIdIn(Collection<Long> ids);
+
+	/**
+	 * Set the day the adherents were reminded to renew their adhesion, the adherents read before being detached.
+	 */
+	@Modifying(clearAutomatically = true)
+	@Transactional
+	@Query("update Adherent a set a.reminderEmail = ?2 where a.id in ?1")
+	int updateReminderEmail(Collection<Long> ids, LocalDate day);
+
 }
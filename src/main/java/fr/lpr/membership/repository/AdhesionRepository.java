@@ -1,6 +1,8 @@
 package fr.lpr.membership.repository;
 
+import org.joda.time.LocalDate;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.querydsl.QueryDslPredicateExecutor;
 
 import fr.lpr.membership.domain.Adhesion;
@@ -10,4 +12,7 @@ import fr.lpr.membership.domain.Adhesion;
  */
 public interface AdhesionRepository extends JpaRepository<Adhesion, Long>, QueryDslPredicateExecutor<Adhesion> {
 
+	@Query("select min(a.dateAdhesion) from Adhesion a")
+	LocalDate findFirstAdhesionDate();
+
 }
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 
 import fr.lpr.membership.domain.Article;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ArticleRepository extends JpaRepository<Article, Long> {
@@ -14,17 +15,11 @@ public interface ArticleRepository extends JpaRepository<Article, Long> {
     @Query("select a from Article a where a.disabled = false")
     List<Article> findAll(Sort sort);
 
+    List<Article> findByReferenceIn(Collection<String> references);
+
+    List<Article> findByProviderIdAndReferenceIn(Long providerId, Collection<String> references);
+
     @Modifying
     @Query("update Article a set a.disabled = true where a.id = ?1")
     void delete(Long id);
-    
-	/**
-	 * Change the quantity of an article by adding the given quantity
-	 *
-	 * @param id the identifier of the article
-	 * @param quantity the quantity to add, can be negative
-	 */
-	@Modifying
-	@Query("update Article a set a.quantity = a.quantity + ?2 where a.id = ?1")
-	void updateQuantity(Long id, int quantity);
 }
@@ -0,0 +1,28 @@
+package fr.lpr.membership.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import fr.lpr.membership.domain.OutboxMail;
+
+public interface OutboxMailRepository extends JpaRepository<OutboxMail, Long> {
+
+	/**
+	 * E-mails of a status due at a time, oldest first, among the ones of a worker (identifier modulo the number of workers).
+	 */
+	@Query("select m from OutboxMail m where m.status = ?1 and m.nextAttemptAt <= ?2 and mod(m.id, ?3) = ?4 order by m.id")
+	List<OutboxMail> findDue(OutboxMail.Status status, DateTime now, int workers, int worker, Pageable pageable);
+
+	long countByStatus(OutboxMail.Status status);
+
+	@Modifying
+	@Query("delete from OutboxMail m where m.id in ?1")
+	int deleteByIdIn(Collection<Long> ids);
+
+}
@@ -0,0 +1,92 @@
+package fr.lpr.membership.repository;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Approximate number of rows of the paginated lists, read from the statistics of the PostgreSQL planner instead of counting them.
+ *
+ * <p>
+ * The query of a list is only explained: the planner estimates its rows from the statistics gathered by {@code ANALYZE}, which costs
+ * nothing whatever the size of the table but may be off by a few percents. There is no estimate on the other databases.
+ * </p>
+ *
+ * <p>
+ * An estimate is kept {@link #TTL_SECONDS} seconds, so that browsing the pages of a list explains its query once.
+ * </p>
+ */
+@Repository
+@Slf4j
+public class RowCountEstimator {
+
+	private static final String EXPLAIN = "explain (format json) ";
+
+	private static final int TTL_SECONDS = 60;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	/** Estimates by query and arguments */
+	private final Cache<String, Long> estimates = CacheBuilder.newBuilder()
+			.expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+			.maximumSize(1000)
+			.build();
+
+	private final boolean supported;
+
+	public RowCountEstimator(JdbcTemplate jdbcTemplate, @Value("${spring.jpa.database:}") String database) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.supported = "POSTGRESQL".equalsIgnoreCase(database);
+	}
+
+	public OptionalLong estimateAdherents() {
+		return estimate("select id from adherent");
+	}
+
+	public OptionalLong estimateFinishedSales() {
+		return estimate("select id from sale where finished = true");
+	}
+
+	public OptionalLong estimateStockHistory(Long articleId) {
+		return estimate("select id from stock_history where article_id = ?", articleId);
+	}
+
+	private OptionalLong estimate(String query, Object... args) {
+		if (!supported) {
+			return OptionalLong.empty();
+		}
+		String key = query + Arrays.toString(args);
+		Long estimate = estimates.getIfPresent(key);
+		if (estimate != null) {
+			return OptionalLong.of(estimate);
+		}
+		try {
+			String plan = jdbcTemplate.queryForObject(EXPLAIN + query, String.class, args);
+			JsonNode rows = objectMapper.readTree(plan).path(0).path("Plan").path("Plan Rows");
+			if (!rows.isNumber()) {
+				return OptionalLong.empty();
+			}
+			estimates.put(key, rows.asLong());
+			return OptionalLong.of(rows.asLong());
+		} catch (DataAccessException | IOException e) {
+			log.warn("Impossible d'estimer le nombre de lignes de {} : {}", query, e.getMessage());
+			return OptionalLong.empty();
+		}
+	}
+
+}
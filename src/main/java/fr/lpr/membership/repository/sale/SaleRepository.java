@@ -1,10 +1,25 @@
 package fr.lpr.membership.repository.sale;
 
+import org.joda.time.DateTime;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.querydsl.QueryDslPredicateExecutor;
 
 import fr.lpr.membership.domain.sale.Sale;
 
 public interface SaleRepository extends JpaRepository<Sale, Long>, QueryDslPredicateExecutor<Sale> {
 
+	@Query("select min(s.createdAt) from Sale s where s.finished = true")
+	DateTime findFirstFinishedSaleDate();
+
+	Slice<Sale> findByFinishedTrueOrderByCreatedAtDescIdDesc(Pageable pageable);
+
+	/**
+	 * Finished sales following the given one, most recent first.
+	 */
+	@Query("select s from Sale s where s.finished = true and (s.createdAt < ?1 or (s.createdAt = ?1 and s.id < ?2)) order by s.createdAt desc, s.id desc")
+	Slice<Sale> findFinishedAfter(DateTime createdAt, Long id, Pageable pageable);
+
 }
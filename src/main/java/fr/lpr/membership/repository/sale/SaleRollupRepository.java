@@ -0,0 +1,28 @@
+package fr.lpr.membership.repository.sale;
+
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import fr.lpr.membership.domain.sale.SaleRollup;
+
+public interface SaleRollupRepository extends JpaRepository<SaleRollup, Long> {
+
+	/**
+	 * Find the rollups of the months in [from, to).
+	 *
+	 * @param from the first month (included)
+	 * @param to the last month (excluded)
+	 * @return the rollups ordered by month
+	 */
+	@Query("select r from SaleRollup r where r.month >= ?1 and r.month < ?2 order by r.month, r.itemName")
+	List<SaleRollup> findByMonthRange(LocalDate from, LocalDate to);
+
+	@Modifying
+	@Query("delete from SaleRollup r where r.month = ?1")
+	void deleteByMonth(LocalDate month);
+
+}
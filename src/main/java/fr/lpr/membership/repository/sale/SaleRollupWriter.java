@@ -0,0 +1,64 @@
+package fr.lpr.membership.repository.sale;
+
+import java.sql.Date;
+
+import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+
+/**
+ * Increments the monthly sale rollups, creating them when missing, without failing when a concurrent transaction creates them too.
+ *
+ * <p>
+ * An update followed by an insert when no row was updated lets two transactions selling the first item of a month both insert it, the
+ * second one then failing on the unique constraint. PostgreSQL merges the row itself ({@code insert ... on conflict do update}); on the
+ * other databases (H2), whose {@code merge} cannot add to the existing values, the update is tried again when the insert conflicts.
+ * </p>
+ */
+@Repository
+public class SaleRollupWriter {
+
+	/** The rollups take their identifiers from the sequence of the entities, like Hibernate does on PostgreSQL */
+	private static final String UPSERT_POSTGRESQL = "insert into sale_rollup (id, month, item_name, payment_type, quantity, amount)"
+			+ " values (nextval('hibernate_sequence'), ?, ?, ?, ?, ?)"
+			+ " on conflict (month, item_name, payment_type)"
+			+ " do update set quantity = sale_rollup.quantity + excluded.quantity, amount = sale_rollup.amount + excluded.amount";
+
+	private static final String UPDATE = "update sale_rollup set quantity = quantity + ?, amount = amount + ?"
+			+ " where month = ? and item_name = ? and payment_type = ?";
+
+	private static final String INSERT = "insert into sale_rollup (month, item_name, payment_type, quantity, amount) values (?, ?, ?, ?, ?)";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final boolean postgresql;
+
+	public SaleRollupWriter(JdbcTemplate jdbcTemplate, @Value("${spring.jpa.database:}") String database) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.postgresql = "POSTGRESQL".equalsIgnoreCase(database);
+	}
+
+	/**
+	 * Add a quantity and an amount to a rollup, created with them if it does not exist yet.
+	 */
+	public void increment(LocalDate month, String itemName, PaymentType paymentType, int quantity, long amount) {
+		final Date day = new Date(month.toDate().getTime());
+		if (postgresql) {
+			jdbcTemplate.update(UPSERT_POSTGRESQL, day, itemName, paymentType.name(), quantity, amount);
+			return;
+		}
+		if (jdbcTemplate.update(UPDATE, quantity, amount, day, itemName, paymentType.name()) == 0) {
+			try {
+				jdbcTemplate.update(INSERT, day, itemName, paymentType.name(), quantity, amount);
+			} catch (DuplicateKeyException e) {
+				// Inserted meanwhile by another transaction, which the failed insert does not abort on these databases
+				jdbcTemplate.update(UPDATE, quantity, amount, day, itemName, paymentType.name());
+			}
+		}
+	}
+
+}
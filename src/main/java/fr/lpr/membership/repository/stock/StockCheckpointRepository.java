@@ -0,0 +1,29 @@
+package fr.lpr.membership.repository.stock;
+
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import fr.lpr.membership.domain.stock.StockCheckpoint;
+
+public interface StockCheckpointRepository extends JpaRepository<StockCheckpoint, Long> {
+
+	boolean existsByDay(LocalDate day);
+
+	@Query("select max(c.day) from StockCheckpoint c where c.day <= ?1")
+	LocalDate findLatestDayUntil(LocalDate day);
+
+	@Query("select min(c.day) from StockCheckpoint c where c.day > ?1")
+	LocalDate findEarliestDayAfter(LocalDate day);
+
+	/**
+	 * Stock of the articles at the end of a day.
+	 *
+	 * @return the identifier of the article and its quantity
+	 */
+	@Query("select c.article.id, c.quantity from StockCheckpoint c where c.day = ?1")
+	List<Object[]> findQuantitiesByDay(LocalDate day);
+
+}
@@ -1,14 +1,57 @@
 package fr.lpr.membership.repository.stock;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.joda.time.DateTime;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import fr.lpr.membership.domain.Article;
 import fr.lpr.membership.domain.stock.StockHistory;
 
 public interface StockHistoryRepository extends JpaRepository<StockHistory, Long> {
 
+	String REASSORT = "fr.lpr.membership.domain.stock.StockEvent.REASSORT";
+
 	Page<StockHistory> findByArticle(Article article, Pageable pageRequest);
 
+	Slice<StockHistory> findByArticleOrderByCreatedAtDescIdDesc(Article article, Pageable pageRequest);
+
+	/**
+	 * History of an article following the given entry, most recent first.
+	 */
+	@Query("select h from StockHistory h where h.article = ?1 and (h.createdAt < ?2 or (h.createdAt = ?2 and h.id < ?3)) order by h.createdAt desc, h.id desc")
+	Slice<StockHistory> findByArticleAfter(Article article, DateTime createdAt, Long id, Pageable pageRequest);
+
+	/**
+	 * Stock changes by article in [from, to): the reassorts add to the stock, the sales and the articles used for repairing remove from it.
+	 *
+	 * @return the identifier of the article and the sum of its changes
+	 */
+	@Query("select h.article.id, sum(case when h.event = " + REASSORT + " then h.quantity else -h.quantity end) from StockHistory h"
+			+ " where h.createdAt >= ?1 and h.createdAt < ?2 group by h.article.id")
+	List<Object[]> sumChangesBetween(DateTime from, DateTime to);
+
+	/**
+	 * Stock changes by article since the given date.
+	 *
+	 * @return the identifier of the article and the sum of its changes
+	 */
+	@Query("select h.article.id, sum(case when h.event = " + REASSORT + " then h.quantity else -h.quantity end) from StockHistory h"
+			+ " where h.createdAt >= ?1 group by h.article.id")
+	List<Object[]> sumChangesSince(DateTime from);
+
+	/**
+	 * Stock changes of the given articles since the given date.
+	 *
+	 * @return the identifier of the article and the sum of its changes
+	 */
+	@Query("select h.article.id, sum(case when h.event = " + REASSORT + " then h.quantity else -h.quantity end) from StockHistory h"
+			+ " where h.createdAt >= ?1 and h.article.id in ?2 group by h.article.id")
+	List<Object[]> sumChangesSince(DateTime from, Collection<Long> articleIds);
+
 }
@@ -0,0 +1,181 @@
+package fr.lpr.membership.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import fr.lpr.membership.domain.QAdherent;
+import fr.lpr.membership.domain.QCoordonnees;
+import fr.lpr.membership.service.ExportService.AdherentDto;
+import fr.lpr.membership.service.exception.ExportException;
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columns to read for the exported properties of the adherents, and how to copy them to the exported adherent.
+ *
+ * <p>
+ * Only the columns of the requested properties are selected, the coordinates being joined only if one of their properties is requested.
+ * The adhesions are read separately, for a chunk of adherents at once (see {@link ExportService}).
+ * </p>
+ */
+final class AdherentExportPlan {
+
+    private static final QAdherent ADHERENT = QAdherent.adherent;
+
+    private static final QCoordonnees COORDONNEES = QCoordonnees.coordonnees;
+
+    private static final Joiner ADRESSE_JOINER = Joiner.on(' ').skipNulls();
+
+    private static final Map<String, Property> PROPERTIES = ImmutableMap.<String, Property>builder()
+        .put("id", new Property(false, (dto, values) -> dto.setId((Long) values[0]), ADHERENT.id))
+        .put("nom", new Property(false, (dto, values) -> dto.setNom((String) values[0]), ADHERENT.nom))
+        .put("prenom", new Property(false, (dto, values) -> dto.setPrenom((String) values[0]), ADHERENT.prenom))
+        .put("estBenevole", new Property(false, (dto, values) -> dto.setEstBenevole((Boolean) values[0]), ADHERENT.benevole))
+        .put("adresse", new Property(true, (dto, values) -> dto.setAdresse(ADRESSE_JOINER.join(values[0], values[1])), COORDONNEES.adresse1,
+            COORDONNEES.adresse2))
+        .put("codePostal", new Property(true, (dto, values) -> dto.setCodePostal((String) values[0]), COORDONNEES.codePostal))
+        .put("ville", new Property(true, (dto, values) -> dto.setVille((String) values[0]), COORDONNEES.ville))
+        .put("email", new Property(true, (dto, values) -> dto.setEmail((String) values[0]), COORDONNEES.email))
+        .put("telephone", new Property(true, (dto, values) -> dto.setTelephone((String) values[0]), COORDONNEES.telephone))
+        .put("adhesions", new Property(false, (dto, values) -> dto.setLastAdhesion((LocalDate) values[0]), ADHERENT.lastAdhesion))
+        .build();
+
+    /** Selected columns, the identifier of the adherent first */
+    private final List<Expression<?>> columns = new ArrayList<>();
+
+    private final List<ColumnWriter> writers = new ArrayList<>();
+
+    private boolean coordonnees;
+
+    private boolean adhesions;
+
+    private AdherentExportPlan() {
+        columns.add(ADHERENT.id);
+    }
+
+    /**
+     * Plan the export of some properties.
+     *
+     * @throws ExportException
+     *             if a property is unknown
+     */
+    static AdherentExportPlan of(List<String> properties) {
+        AdherentExportPlan plan = new AdherentExportPlan();
+        properties.forEach(plan::add);
+        return plan;
+    }
+
+    private void add(String name) {
+        Property property = PROPERTIES.get(name);
+        if (property == null) {
+            throw new ExportException("Propriété d'export inconnue : " + name);
+        }
+
+        int[] indexes = new int[property.columns.length];
+        for (int i = 0; i < indexes.length; i++) {
+            int index = columns.indexOf(property.columns[i]);
+            if (index < 0) {
+                index = columns.size();
+                columns.add(property.columns[i]);
+            }
+            indexes[i] = index;
+        }
+        writers.add(new ColumnWriter(indexes, property.copier));
+        coordonnees |= property.coordonnees;
+        adhesions |= "adhesions".equals(name);
+    }
+
+    /**
+     * The query of the columns of the exported adherents, sorted by identifier.
+     */
+    JPAQuery<?> query(JPAQueryFactory queryFactory, Predicate predicate) {
+        JPAQuery<?> query = queryFactory.select(columns.toArray(new Expression<?>[columns.size()])).from(ADHERENT);
+        if (coordonnees) {
+            query.leftJoin(ADHERENT.coordonnees, COORDONNEES);
+        }
+        return query.where(predicate).orderBy(ADHERENT.id.asc());
+    }
+
+    /**
+     * Whether the adhesions of the adherents are exported.
+     */
+    boolean hasAdhesions() {
+        return adhesions;
+    }
+
+    /**
+     * The exported adherent of a row of the query.
+     */
+    AdherentDto toDto(Object[] row) {
+        AdherentDto dto = new AdherentDto();
+        for (ColumnWriter writer : writers) {
+            writer.write(row, dto);
+        }
+        return dto;
+    }
+
+    /**
+     * Identifier of the adherent of a row of the query.
+     */
+    static Long adherentId(Object[] row) {
+        return (Long) row[0];
+    }
+
+    @FunctionalInterface
+    private interface Copier {
+
+        void copy(AdherentDto dto, Object[] values);
+
+    }
+
+    private static class Property {
+
+        private final boolean coordonnees;
+
+        private final Copier copier;
+
+        private final Expression<?>[] columns;
+
+        Property(boolean coordonnees, Copier copier, Expression<?>... columns) {
+            this.coordonnees = coordonnees;
+            this.copier = copier;
+            this.columns = columns;
+        }
+
+    }
+
+    /**
+     * Copies the columns of a property, at the indexes planned for the query, to the exported adherent.
+     */
+    private static class ColumnWriter {
+
+        private final int[] indexes;
+
+        private final Copier copier;
+
+        private final Object[] values;
+
+        ColumnWriter(int[] indexes, Copier copier) {
+            this.indexes = indexes;
+            this.copier = copier;
+            this.values = new Object[indexes.length];
+        }
+
+        void write(Object[] row, AdherentDto dto) {
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = row[indexes[i]];
+            }
+            copier.copy(dto, values);
+            Arrays.fill(values, null);
+        }
+
+    }
+
+}
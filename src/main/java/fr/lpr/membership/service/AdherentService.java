@@ -1,104 +1,162 @@
 package fr.lpr.membership.service;
 
-import com.google.common.base.Strings;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
 import fr.lpr.membership.domain.Adherent;
-import fr.lpr.membership.domain.StatutAdhesion;
 import fr.lpr.membership.repository.AdherentRepository;
-import fr.lpr.membership.web.rest.util.PaginationUtil;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.Page;
+import org.joda.time.LocalDate;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.mail.MessagingException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static org.joda.time.LocalDate.now;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class AdherentService {
 
+	/** Adherents read and sent their email at once by the mailing batches */
+	private static final int CHUNK_SIZE = 100;
+
 	private final AdherentRepository adherentRepository;
 
 	private final MailService mailService;
 
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final MetricRegistry metricRegistry;
+
+	private final PlatformTransactionManager transactionManager;
+
+	/**
+	 * Remind the adherents whose adhesion expires during the following month, at most once a month.
+	 */
 	@Scheduled(cron = "0 0 9 * * *", zone = "GMT")
 	public void remindAdhesionExpiring() {
+		remindAdhesionExpiring(LocalDate.now());
+	}
+
+	/**
+	 * Remind the adherents whose adhesion expires during the month following a day. The candidates are found by their end of adhesion
+	 * (indexed), then read by chunks, their emails being saved in the outbox in the transaction marking them as reminded.
+	 */
+	public MailRun remindAdhesionExpiring(LocalDate today) {
 		log.info("Démarrage du batch d'envoi d'email de rappel de cotisation");
+		final List<Long> ids = adherentRepository.findIdsToRemind(today, today.plusMonths(1), today.minusMonths(1));
+		final MailRun run = send("reminder", ids, mailService::sendAdhesionExpiringEmail,
+				queued -> adherentRepository.updateReminderEmail(queued, today));
+		log.info("{} emails de rappel de cotisation mis en attente d'envoi sur {} adhérents ({} échecs) en {} ms", run.getQueued(), run.getCandidates(),
+				run.getFailed(), run.getDuration());
+		return run;
+	}
 
-		// Get Adherents
-		final List<Adherent> adherents = new ArrayList<>();
-
-		Page<Adherent> page = null;
-		do {
-			page = adherentRepository.findAll(page == null ? PaginationUtil.generatePageRequest(0, 100) : page.nextPageable());
-
-			adherents.addAll(page.getContent().stream()
-                .filter(ad -> ad.getStatutAdhesion() == StatutAdhesion.ORANGE)
-				.filter(ad -> !Strings.isNullOrEmpty(ad.getCoordonnees().getEmail()))
-				.filter(ad -> ad.getReminderEmail() == null || ad.getReminderEmail().isBefore(now().minusMonths(1)))
-				.collect(Collectors.toList()));
-		} while (page.hasNext());
-
-		// Send mail for each adherents
-		adherents.forEach(ad -> {
-			try {
-				sendReminderMail(ad);
-			} catch (final Exception ex) {
-				log.error("E-mail could not be sent to adherent '{}', exception is: {}", ad.getPrenom() + " " + ad.getNom(), ex.getMessage());
-			}
+	/**
+	 * Notify the adherents whose adhesion expired yesterday.
+	 */
+	@Scheduled(cron = "0 0 9 * * *", zone = "GMT")
+	public void adhesionExpired() {
+		adhesionExpired(LocalDate.now());
+	}
+
+	/**
+	 * Notify the adherents whose adhesion expired the day before a day, so that each one is notified once.
+	 */
+	public MailRun adhesionExpired(LocalDate today) {
+		log.info("Démarrage du batch d'envoi d'email des adhérents dont l'adhésion vient d'expirer");
+		final List<Long> ids = adherentRepository.findIdsWithFinAdhesionBetween(today.minusDays(1), today);
+		final MailRun run = send("expired", ids, mailService::sendAdhesionExpiredEmail, queued -> {
 		});
+		log.info("{} emails de fin d'adhésion mis en attente d'envoi sur {} adhérents ({} échecs) en {} ms", run.getQueued(), run.getCandidates(),
+				run.getFailed(), run.getDuration());
+		return run;
+	}
 
-		log.info("{} emails de rappel de cotisation envoyés", adherents.size());
+	private MailRun send(String batch, List<Long> ids, Mail mail, Consumer<List<Long>> onQueued) {
+		final long start = System.nanoTime();
+		final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		final int[] failed = new int[1];
+		int queued = 0;
+		for (List<Long> chunk : Lists.partition(ids, CHUNK_SIZE)) {
+			// The e-mails of a chunk are saved in the outbox with the reminder dates
+			queued += transactionTemplate.execute(status -> {
+				final List<Long> queuedIds = new ArrayList<>();
+				for (Adherent ad : adherentRepository.findWithAdhesionsByIdIn(chunk)) {
+					try {
+						mail.send(ad);
+						queuedIds.add(ad.getId());
+					} catch (final MessagingException ex) {
+						// Rejected before being saved, so the transaction of the chunk is still sound
+						failed[0]++;
+						log.error("E-mail could not be sent to adherent '{}', exception is: {}", ad.getPrenom() + " " + ad.getNom(), ex.getMessage());
+					}
+				}
+				if (!queuedIds.isEmpty()) {
+					onQueued.accept(queuedIds);
+				}
+				return queuedIds.size();
+			});
+		}
+		final long duration = System.nanoTime() - start;
+
+		final String prefix = MetricRegistry.name(AdherentService.class, batch);
+		metricRegistry.histogram(prefix + ".candidates").update(ids.size());
+		metricRegistry.histogram(prefix + ".queued").update(queued);
+		metricRegistry.histogram(prefix + ".failed").update(failed[0]);
+		metricRegistry.timer(prefix + ".duration").update(duration, TimeUnit.NANOSECONDS);
+		return new MailRun(ids.size(), queued, failed[0], TimeUnit.NANOSECONDS.toMillis(duration));
 	}
 
-    @Scheduled(cron = "0 0 9 * * *", zone = "GMT")
-    public void adhesionExpired() {
-        log.info("Démarrage du batch d'envoi d'email des adhérents dont l'adhésion vient d'expirer");
-
-        // Get Adherents
-        final List<Adherent> adherents = new ArrayList<>();
-
-        Page<Adherent> page = null;
-        do {
-            page = adherentRepository.findAll(page == null ? PaginationUtil.generatePageRequest(0, 100) : page.nextPageable());
-
-            adherents.addAll(page.getContent().stream()
-                .filter(ad -> ad.getStatutAdhesion() == StatutAdhesion.RED)
-				.filter(ad -> !Strings.isNullOrEmpty(ad.getCoordonnees().getEmail()))
-				.filter(ad -> ad.lastAdhesion().map(adh -> adh.getDateFinAdhesion().isAfter(now().minusDays(1))).orElse(false))
-				.collect(Collectors.toList()));
-        } while (page.hasNext());
-
-        // Send mail for each adherents
-        adherents.forEach(ad -> {
-            try {
-                mailService.sendAdhesionExpiredEmail(ad);
-            } catch (final Exception ex) {
-                log.error("E-mail could not be sent to adherent '{}', exception is: {}", ad.getPrenom() + " " + ad.getNom(), ex.getMessage());
-            }
-        });
-
-        log.info("{} emails de fin d'adhésion envoyés", adherents.size());
-    }
+	@FunctionalInterface
+	private interface Mail {
+		void send(Adherent adherent) throws MessagingException;
+	}
+
+	/**
+	 * Outcome of a run of a mailing batch.
+	 */
+	@Value
+	public static class MailRun {
+		/** Adherents found to send the email to */
+		int candidates;
+		/** E-mails saved in the outbox */
+		int queued;
+		int failed;
+		/** In milliseconds */
+		long duration;
+	}
 
 	@Transactional
 	public void sendReminderMail(Adherent adherent) throws MessagingException {
 		mailService.sendAdhesionExpiringEmail(adherent);
-		adherent.setReminderEmail(now());
+		adherent.setReminderEmail(LocalDate.now());
 		adherentRepository.save(adherent);
 	}
 
 	@Transactional
     public Adherent createAdherent(Adherent adherent) throws MessagingException {
         Adherent created = adherentRepository.save(adherent);
+        eventPublisher.publishEvent(AdhesionChangedEvent.of(created));
         mailService.sendFirstAdhesionEmail(created);
         return created;
     }
+
+	@Transactional
+	public void delete(Long id) {
+		final Adherent adherent = adherentRepository.findOne(id);
+		final AdhesionChangedEvent event = AdhesionChangedEvent.of(adherent);
+		adherentRepository.delete(adherent);
+		eventPublisher.publishEvent(event);
+	}
 }
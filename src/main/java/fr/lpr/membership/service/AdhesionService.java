@@ -0,0 +1,111 @@
+package fr.lpr.membership.service;
+
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.StatutAdhesion;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.LocalDate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Service for managing adhesions, fires an {@link AdhesionChangedEvent} on each modification.
+ *
+ * <p>
+ * The status of the last adhesion of an adherent is saved with it on each modification, and rolled over each night for the adherents whose
+ * adhesion starts expiring or expires that day.
+ * </p>
+ */
+@Service
+@Slf4j
+@Transactional
+@RequiredArgsConstructor
+public class AdhesionService {
+
+	private final AdhesionRepository adhesionRepository;
+
+	private final AdherentRepository adherentRepository;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	public Adhesion create(Adhesion adhesion) {
+		final Adherent adherent = adherentRepository.findOne(adhesion.getAdherent().getId());
+		adhesion.setAdherent(adherent);
+
+		// Added once saved, adhesions are hashed by identifier
+		final Adhesion saved = adhesionRepository.save(adhesion);
+		adherent.addAdhesion(saved);
+
+		eventPublisher.publishEvent(new AdhesionChangedEvent().adhesion(saved));
+		return saved;
+	}
+
+	public Adhesion update(Adhesion adhesion) {
+		final Adhesion existing = adhesionRepository.findOne(adhesion.getId());
+		final LocalDate previousDate = existing == null ? null : existing.getDateAdhesion();
+
+		final Adhesion saved = adhesionRepository.save(adhesion);
+		if (saved.getAdherent() != null) {
+			saved.getAdherent().resetLastAdhesion();
+		}
+
+		eventPublisher.publishEvent(new AdhesionChangedEvent().adhesion(saved).date(previousDate));
+		return saved;
+	}
+
+	public void delete(Long id) {
+		final Adhesion adhesion = adhesionRepository.findOne(id);
+		final AdhesionChangedEvent event = new AdhesionChangedEvent().adhesion(adhesion);
+
+		// The adherent cascades to its adhesions, it would save the adhesion again if it still held it
+		if (adhesion.getAdherent() != null) {
+			adhesion.getAdherent().removeAdhesion(adhesion);
+		}
+		adhesion.setAdherent(null);
+		adhesionRepository.delete(adhesion);
+
+		eventPublisher.publishEvent(event);
+	}
+
+	/**
+	 * Change the status of the adherents whose adhesion starts expiring or expires today.
+	 */
+	@Scheduled(cron = "${adhesionStatus.cron:0 0 0 * * *}")
+	public void rollover() {
+		rollover(LocalDate.now());
+	}
+
+	/**
+	 * Change the status of the adherents on a day, only the adherents whose status changes are updated.
+	 */
+	public void rollover(LocalDate day) {
+		final int expired = adherentRepository.updateStatutAdhesion(EnumSet.of(StatutAdhesion.GREEN, StatutAdhesion.ORANGE), StatutAdhesion.RED, day);
+		final int expiring = adherentRepository.updateStatutAdhesion(EnumSet.of(StatutAdhesion.GREEN), StatutAdhesion.ORANGE, day.plusMonths(1));
+		log.info("Statut d'adhésion du {} : {} adhésions expirées, {} bientôt expirées", day, expired, expiring);
+	}
+
+	/**
+	 * Compute the status of the adherents saved before it was kept.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void initializeStatutAdhesion() {
+		final List<Adherent> adherents = adherentRepository.findByStatutAdhesionIsNull();
+		if (!adherents.isEmpty()) {
+			adherents.forEach(Adherent::resetLastAdhesion);
+			adherentRepository.save(adherents);
+			log.info("Statut d'adhésion calculé pour {} adhérents", adherents.size());
+		}
+	}
+
+}
@@ -3,43 +3,67 @@ package fr.lpr.membership.service;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.google.common.collect.ImmutableMap;
 import com.opencsv.CSVWriter;
-import fr.lpr.membership.domain.Adherent;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import fr.lpr.membership.domain.QAdherent;
+import fr.lpr.membership.domain.QAdhesion;
 import fr.lpr.membership.domain.StatutAdhesion;
 import fr.lpr.membership.domain.TypeAdhesion;
 import fr.lpr.membership.domain.util.CustomLocalDateSerializer;
 import fr.lpr.membership.domain.util.LocalDateAdapter;
-import fr.lpr.membership.repository.AdherentRepository;
 import fr.lpr.membership.service.exception.ExportException;
+import fr.lpr.membership.service.export.ExportProgress;
 import fr.lpr.membership.web.rest.dto.ExportRequest.AdhesionState;
-import fr.lpr.membership.web.rest.util.PaginationUtil;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.joda.time.LocalDate;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
+/**
+ * Export of the adherents.
+ *
+ * <p>
+ * Only the columns of the exported properties are read (see {@link AdherentExportPlan}), through a forward-only cursor. The adherents are
+ * written by chunks as soon as they are read, with the adhesions of a chunk read at once, so that the memory used does not depend on the
+ * number of adherents.
+ * </p>
+ */
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class ExportService {
 
@@ -47,21 +71,15 @@ public class ExportService {
     public static final String XML = "xml";
     public static final String JSON = "json";
 
-    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    /** Adherents read from the database at once, and written by chunk */
+    private static final int FETCH_SIZE = 100;
 
-    private static final Map<String, BiConsumer<Adherent, AdherentDto>> DTO_MAPPER = ImmutableMap.<String, BiConsumer<Adherent, AdherentDto>>builder()
-        .put("id", (a, dto) -> dto.id = a.getId()).put("nom", (a, dto) -> dto.nom = a.getNom()).put("prenom", (a, dto) -> dto.prenom = a.getPrenom())
-        .put("estBenevole", (a, dto) -> dto.estBenevole = a.getBenevole())
-        .put("adresse", (a, dto) -> dto.adresse = a.getCoordonnees().getAdresseComplete())
-        .put("codePostal", (a, dto) -> dto.codePostal = a.getCoordonnees().getCodePostal())
-        .put("ville", (a, dto) -> dto.ville = a.getCoordonnees().getVille())
-        .put("email", (a, dto) -> dto.email = a.getCoordonnees().getEmail())
-        .put("telephone", (a, dto) -> dto.telephone = a.getCoordonnees().getTelephone()).put("adhesions", (a, dto) -> {
-            dto.adhesions = a.getAdhesions().stream().map(ad -> new AdhesionDto(ad.getTypeAdhesion(), ad.getDateAdhesion())).collect(Collectors.toList());
-            dto.lastAdhesion = a.getLastAdhesion();
-        }).build();
+    /** Thread safe, unlike its marshallers */
+    private static final JAXBContext JAXB_CONTEXT = createJaxbContext();
 
-	private final AdherentRepository adherentRepository;
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+	private final JPAQueryFactory queryFactory;
 
 	private final ObjectMapper objectMapper;
 
@@ -71,94 +89,216 @@ public class ExportService {
      * @param format        the format (json, xml, csv)
      * @param properties    the properties to export
      * @param adhesionState export adherents with this specified adhesion state
-     * @param response      the http response
-     * @throws Exception if an error occurs
+     * @param outputStream  the stream receiving the export
+     * @param progress      receives the number of adherents exported
+     * @throws ExportException if an error occurs
      */
-    public void export(final String format, final List<String> properties, final AdhesionState adhesionState, final HttpServletResponse response) {
-        try {
-            final List<AdherentDto> adherents = new ArrayList<>();
-
-            Page<Adherent> page = null;
-            do {
-                page = adherentRepository.findAll(page == null ? PaginationUtil.generatePageRequest(0, 100) : page.nextPageable());
-
-                adherents.addAll(page.getContent().stream().filter(ad -> filterAdhesionState(ad, adhesionState)).map(ad -> mapDto(ad, properties))
-                    .collect(Collectors.toList()));
-            } while (page.hasNext());
-
-            switch (format) {
-                case CSV:
-                    exportCsv(adherents, properties, response);
-                    break;
-                case XML:
-                    exportXml(adherents, response);
-                    break;
-                case JSON:
-                    exportJson(adherents, response);
-                    break;
-                default:
-                    exportCsv(adherents, properties, response);
+    @Transactional(readOnly = true)
+    public void export(final String format, final List<String> properties, final AdhesionState adhesionState, final OutputStream outputStream,
+        final ExportProgress progress) {
+        final AdherentExportPlan plan = AdherentExportPlan.of(properties);
+        final Predicate predicate = adhesionStatePredicate(QAdherent.adherent, adhesionState);
+        final long total = queryFactory.selectFrom(QAdherent.adherent).where(predicate).fetchCount();
+        try (AdherentWriter writer = writer(format, outputStream)) {
+            final ScrollableResults results = plan.query(queryFactory, predicate)
+                .createQuery()
+                .unwrap(org.hibernate.Query.class)
+                .setFetchSize(FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+            int count = 0;
+            final Map<Long, AdherentDto> chunk = new LinkedHashMap<>();
+            try {
+                while (results.next()) {
+                    // Rows are transformed to tuples by QueryDSL
+                    final Object[] row = ((Tuple) results.get(0)).toArray();
+                    chunk.put(AdherentExportPlan.adherentId(row), plan.toDto(row));
+                    if (chunk.size() == FETCH_SIZE) {
+                        count += writeChunk(chunk, plan, writer);
+                        progress.update(count, total);
+                    }
+                }
+                count += writeChunk(chunk, plan, writer);
+                progress.update(count, total);
+            } finally {
+                results.close();
             }
-        } catch (IOException | JAXBException ex) {
+            log.info("{} adhérents exportés en {}", count, format);
+        } catch (IOException | JAXBException | XMLStreamException ex) {
             throw new ExportException("Export failed", ex);
         }
     }
 
-	private AdherentDto mapDto(Adherent adherent, final List<String> properties) {
-		final AdherentDto adherentDto = new AdherentDto();
-		properties.forEach(p -> DTO_MAPPER.get(p).accept(adherent, adherentDto));
-		return adherentDto;
-	}
-
-    private boolean filterAdhesionState(Adherent ad, AdhesionState adhesionState) {
-        if (adhesionState == AdhesionState.all) {
-            return true;
-        } else if (adhesionState == AdhesionState.valid) {
-            return ad.getStatutAdhesion() == StatutAdhesion.GREEN;
+    /**
+     * Content type of an export format.
+     */
+    public static String contentType(final String format) {
+        if (XML.equals(format)) {
+            return "text/xml";
+        } else if (JSON.equals(format)) {
+            return "application/json";
+        }
+        return "text/csv";
+    }
+
+    /**
+     * Write a chunk of adherents, with their adhesions read at once if they are exported.
+     */
+    private int writeChunk(Map<Long, AdherentDto> chunk, AdherentExportPlan plan, AdherentWriter writer)
+        throws IOException, JAXBException, XMLStreamException {
+        if (plan.hasAdhesions() && !chunk.isEmpty()) {
+            chunk.values().forEach(dto -> dto.setAdhesions(new ArrayList<>()));
+            final QAdhesion adhesion = QAdhesion.adhesion;
+            for (Tuple tuple : queryFactory.select(adhesion.adherent.id, adhesion.typeAdhesion, adhesion.dateAdhesion)
+                .from(adhesion)
+                .where(adhesion.adherent.id.in(chunk.keySet()))
+                .orderBy(adhesion.dateAdhesion.asc())
+                .fetch()) {
+                chunk.get(tuple.get(adhesion.adherent.id)).getAdhesions()
+                    .add(new AdhesionDto(tuple.get(adhesion.typeAdhesion), tuple.get(adhesion.dateAdhesion)));
+            }
+        }
+
+        for (AdherentDto dto : chunk.values()) {
+            writer.write(dto);
+        }
+        final int size = chunk.size();
+        chunk.clear();
+        return size;
+    }
+
+    /**
+     * The adherents of a state, selected from their saved adhesion status.
+     */
+    private static Predicate adhesionStatePredicate(QAdherent adherent, AdhesionState adhesionState) {
+        if (adhesionState == AdhesionState.valid) {
+            return adherent.statutAdhesion.eq(StatutAdhesion.GREEN);
         } else if (adhesionState == AdhesionState.expiring) {
-            return ad.getStatutAdhesion() == StatutAdhesion.ORANGE;
+            return adherent.statutAdhesion.eq(StatutAdhesion.ORANGE);
         } else if (adhesionState == AdhesionState.expired) {
-            return ad.getStatutAdhesion() == StatutAdhesion.RED;
+            return adherent.statutAdhesion.eq(StatutAdhesion.RED);
         } else if (adhesionState == AdhesionState.recently_expired) {
-            final LocalDate lastAdhesion = ad.getLastAdhesion();
-            if (lastAdhesion != null) {
-                return ad.getStatutAdhesion() == StatutAdhesion.RED && ad.getLastAdhesion().plusYears(1).isAfter(LocalDate.now().minusMonths(1));
-            } else {
-                return false;
-            }
+            // Expired, the last adhesion made less than a year and a month ago
+            return adherent.statutAdhesion.eq(StatutAdhesion.RED).and(adherent.lastAdhesion.after(LocalDate.now().minusMonths(1).minusYears(1)));
         }
-        return true;
+        return null;
+    }
+
+    private AdherentWriter writer(String format, OutputStream outputStream) throws IOException, JAXBException, XMLStreamException {
+        if (XML.equals(format)) {
+            return new XmlWriter(outputStream);
+        } else if (JSON.equals(format)) {
+            return new JsonWriter(objectMapper, outputStream);
+        } else {
+            return new CsvWriter(outputStream);
+        }
+    }
+
+    private static JAXBContext createJaxbContext() {
+        try {
+            return JAXBContext.newInstance(AdherentDto.class);
+        } catch (JAXBException ex) {
+            throw new IllegalStateException("Failed to create the JAXB context of the adherent export", ex);
+        }
+    }
+
+    /**
+     * Writes the exported adherents one by one. The beginning of the document is sent as soon as the writer is created.
+     */
+    private interface AdherentWriter extends AutoCloseable {
+
+        void write(AdherentDto adherent) throws IOException, JAXBException, XMLStreamException;
+
+        @Override
+        void close() throws IOException, XMLStreamException;
+
     }
 
-    private void exportCsv(List<AdherentDto> dtos, List<String> properties, HttpServletResponse response) throws IOException {
-        response.setHeader(CONTENT_TYPE_HEADER, "text/csv");
+    private static class CsvWriter implements AdherentWriter {
+
+        private final CSVWriter csvWriter;
 
-        try (CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(response.getOutputStream()), ';')) {
+        CsvWriter(OutputStream outputStream) throws IOException {
+            csvWriter = new CSVWriter(new OutputStreamWriter(outputStream), ';');
             csvWriter.writeNext(new String[]{"ID", "Nom", "Prénom", "Adresse", "Code Postal", "Ville", "Date de dernière adhésion", "Email", "Téléphone"});
+            csvWriter.flush();
+        }
 
-            dtos.forEach(a -> csvWriter.writeNext(new String[]{a.id.toString(), a.nom, a.prenom, a.adresse, a.codePostal, a.ville, a.formatLastAdhesion(),
-                a.email, a.telephone}));
+        @Override
+        public void write(AdherentDto a) {
+            csvWriter.writeNext(new String[]{a.id == null ? null : a.id.toString(), a.nom, a.prenom, a.adresse, a.codePostal, a.ville, a.formatLastAdhesion(),
+                a.email, a.telephone});
         }
+
+        @Override
+        public void close() throws IOException {
+            csvWriter.close();
+        }
+
     }
 
-    private void exportXml(List<AdherentDto> dtos, HttpServletResponse response) throws JAXBException, IOException {
-        response.setHeader(CONTENT_TYPE_HEADER, "text/xml");
+    private static class JsonWriter implements AdherentWriter {
+
+        private final ObjectWriter objectWriter;
 
-        final JAXBContext context = JAXBContext.newInstance(Adherents.class);
-        final Marshaller m = context.createMarshaller();
-        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        private final JsonGenerator generator;
+
+        JsonWriter(ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+            // Flushed once at the end rather than after each adherent
+            objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.writeStartArray();
+            generator.flush();
+        }
+
+        @Override
+        public void write(AdherentDto adherent) throws IOException {
+            objectWriter.writeValue(generator, adherent);
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.writeEndArray();
+            generator.close();
+        }
 
-        m.marshal(new Adherents(dtos), response.getOutputStream());
     }
 
-    private void exportJson(List<AdherentDto> dtos, HttpServletResponse response) throws IOException {
-        response.setHeader(CONTENT_TYPE_HEADER, "application/json");
-        objectMapper.writeValue(response.getOutputStream(), dtos);
+    private static class XmlWriter implements AdherentWriter {
+
+        private static final QName ADHERENT = new QName("adherent");
+
+        private final XMLStreamWriter xmlWriter;
+
+        private final Marshaller marshaller;
+
+        XmlWriter(OutputStream outputStream) throws JAXBException, XMLStreamException {
+            marshaller = JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            xmlWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
+            xmlWriter.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            xmlWriter.writeStartElement("adherents");
+            xmlWriter.flush();
+        }
+
+        @Override
+        public void write(AdherentDto adherent) throws JAXBException {
+            marshaller.marshal(new JAXBElement<>(ADHERENT, AdherentDto.class, adherent), xmlWriter);
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            xmlWriter.writeEndElement();
+            xmlWriter.writeEndDocument();
+            xmlWriter.close();
+        }
+
     }
 
     @Getter
     @Setter
     @JsonInclude(Include.NON_NULL)
+    @XmlAccessorType(XmlAccessType.FIELD)
     static class AdherentDto implements Serializable {
 
         private Long id;
@@ -186,6 +326,7 @@ public class ExportService {
 
     @Getter
     @Setter
+    @XmlAccessorType(XmlAccessType.FIELD)
     static class AdhesionDto {
 
         private TypeAdhesion typeAdhesion;
@@ -194,6 +335,9 @@ public class ExportService {
         @XmlJavaTypeAdapter(LocalDateAdapter.class)
         private LocalDate dateAdhesion;
 
+        AdhesionDto() {
+        }
+
         public AdhesionDto(TypeAdhesion typeAdhesion, LocalDate dateAdhesion) {
             super();
             this.typeAdhesion = typeAdhesion;
@@ -202,29 +346,4 @@ public class ExportService {
 
     }
 
-    @XmlRootElement
-    static class Adherents implements Serializable {
-
-        private static final long serialVersionUID = 1L;
-
-        private List<AdherentDto> adherent;
-
-        public Adherents() {
-        }
-
-        public Adherents(List<AdherentDto> adherent) {
-            super();
-            this.adherent = adherent;
-        }
-
-        public List<AdherentDto> getAdherent() {
-            return adherent;
-        }
-
-        public void setAdherent(List<AdherentDto> adherent) {
-            this.adherent = adherent;
-        }
-
-    }
-
 }
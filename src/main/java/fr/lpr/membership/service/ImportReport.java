@@ -0,0 +1,97 @@
+package fr.lpr.membership.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and errors of an import of adherents.
+ *
+ * <p>
+ * The report is written by the thread running the import, and by the threads mapping the rows for the errors, and read by the requests
+ * following it. Only the first errors are kept.
+ * </p>
+ */
+@Getter
+public class ImportReport {
+
+	static final int MAX_ERRORS = 100;
+
+	public enum Status {
+		QUEUED, RUNNING, DONE, FAILED
+	}
+
+	private final String id;
+
+	private volatile Status status = Status.QUEUED;
+
+	/** Rows read from the file */
+	private volatile int read;
+
+	/** Adherents created */
+	private volatile int imported;
+
+	/** Adherents already saved, updated by the rows */
+	private volatile int updated;
+
+	/** Rows without adhesion type, ignored */
+	private volatile int skipped;
+
+	private volatile int errorCount;
+
+	private final List<String> errors = new ArrayList<>();
+
+	/** When the import finished, 0 while it has not */
+	@JsonIgnore
+	private volatile long finishedAt;
+
+	ImportReport(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * The first errors, a row being rejected or the whole import having failed.
+	 */
+	public synchronized List<String> getErrors() {
+		return new ArrayList<>(errors);
+	}
+
+	void start() {
+		status = Status.RUNNING;
+	}
+
+	void chunk(int read, int imported, int updated) {
+		this.read += read;
+		this.imported += imported;
+		this.updated += updated;
+	}
+
+	synchronized void skip() {
+		skipped++;
+	}
+
+	synchronized void error(String message) {
+		errorCount++;
+		if (errors.size() < MAX_ERRORS) {
+			errors.add(message);
+		}
+	}
+
+	void finish(long now) {
+		status = Status.DONE;
+		finishedAt = now;
+	}
+
+	void fail(String message, long now) {
+		error(message);
+		status = Status.FAILED;
+		finishedAt = now;
+	}
+
+	boolean finishedBefore(long time) {
+		return finishedAt != 0 && finishedAt < time;
+	}
+
+}
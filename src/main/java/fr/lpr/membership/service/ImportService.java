@@ -1,101 +1,432 @@
 package fr.lpr.membership.service;
 
-import com.google.common.collect.ImmutableSet;
 import com.opencsv.CSVReader;
+import com.querydsl.jpa.impl.JPAQueryFactory;
 import fr.lpr.membership.domain.Adherent;
 import fr.lpr.membership.domain.Adhesion;
 import fr.lpr.membership.domain.Coordonnees;
+import fr.lpr.membership.domain.QAdherent;
 import fr.lpr.membership.domain.TypeAdhesion;
-import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.joda.time.LocalDate;
 import org.joda.time.format.ISODateTimeFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Import of the adherents of the legacy CSV files.
+ *
+ * <p>
+ * The file is read as a stream, by chunks of {@code import.chunkSize} rows. The rows of a chunk are checked and mapped in parallel, then
+ * the adherents of the chunk are saved in their own transaction: the inserts are sent in JDBC batches by the single flush of the chunk,
+ * and the full-text index is updated once per chunk when it commits. The persistence context is cleared after each chunk, so that the
+ * memory used does not depend on the size of the file.
+ * </p>
+ *
+ * <p>
+ * In upsert mode, the rows of the adherents already saved update them: the adherents are found in an index loaded once per import (see
+ * {@link AdherentKeyIndex}) by their identifier in the legacy system, or else by their normalized email and name, and those matched by a
+ * chunk are read in a single query. A row without email is never matched by its name alone, which other adherents may share. Only the
+ * changed values are copied, and the adhesions which are not saved yet are added.
+ * </p>
+ *
+ * <p>
+ * Each import has its own {@link ImportReport}, giving its progress and the rejected rows. The imports queued by
+ * {@link #submit(Path, boolean)} are run in the background, their reports are kept {@code import.ttl} milliseconds once finished.
+ * </p>
+ */
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class ImportService {
 
-	private int id;
-	private int name;
-	private int street;
-	private int street2;
-	private int zip;
-	private int city;
-	private int email;
-	private int phone;
-	private int typeAdhesion;
-	private int dateAdhesion;
-	private int dateAdhesionToParse;
-
-	private int compteur;
-
-	private final AdherentRepository adherentRepository;
-
-	public void importCsv(InputStream inputStream) throws IOException {
-		final CSVReader reader = new CSVReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-		parseHeader(Arrays.asList(reader.readNext()));
-		reader.forEach(this::readAdherent);
-		reader.close();
-
-		System.out.println("Adhérents sans type : " + compteur);
-		compteur = 0;
-	}
-
-	private void parseHeader(List<String> readNext) {
-		this.id = readNext.indexOf("id");
-		this.name = readNext.indexOf("name");
-		this.street = readNext.indexOf("street");
-		this.street2 = readNext.indexOf("street2");
-		this.zip = readNext.indexOf("zip");
-		this.city = readNext.indexOf("city");
-		this.email = readNext.indexOf("email");
-		this.phone = readNext.indexOf("phone");
-		this.typeAdhesion = readNext.indexOf("member_lines/membership_id");
-		this.dateAdhesion = readNext.indexOf("member_lines/date");
-		this.dateAdhesionToParse = readNext.indexOf("member_lines/id");
-	}
-
-	private void readAdherent(String[] csv) {
-		// Do nothing if no identifier in the CSV file
-		if (csv[id].isEmpty()) {
+	private static final QAdherent ADHERENT = QAdherent.adherent;
+
+	private final PlatformTransactionManager transactionManager;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final JPAQueryFactory queryFactory;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final ThreadPoolTaskExecutor importExecutor;
+
+	private final ConcurrentMap<String, ImportReport> reports = new ConcurrentHashMap<>();
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${import.chunkSize:500}")
+	private int chunkSize;
+
+	@Value("${import.ttl:3600000}")
+	private long ttl;
+
+	/**
+	 * Queue the import of a file, deleted once imported.
+	 *
+	 * @param upsert whether the rows of the adherents already saved update them, rather than creating other adherents
+	 * @return the report of the queued import
+	 * @throws TaskRejectedException if too many imports are already queued
+	 */
+	public ImportReport submit(Path file, boolean upsert) {
+		ImportReport report = new ImportReport(UUID.randomUUID().toString());
+		reports.put(report.getId(), report);
+		try {
+			importExecutor.execute(() -> {
+				try (InputStream inputStream = Files.newInputStream(file)) {
+					importCsv(inputStream, upsert, report);
+				} catch (IOException | RuntimeException e) {
+					log.error("Échec de l'import {}", report.getId(), e);
+					report.fail(e.getMessage(), System.currentTimeMillis());
+				} finally {
+					delete(file);
+				}
+			});
+		} catch (TaskRejectedException e) {
+			reports.remove(report.getId());
+			throw e;
+		}
+		return report;
+	}
+
+	/**
+	 * Report of an import queued by {@link #submit(Path, boolean)}.
+	 */
+	public Optional<ImportReport> get(String id) {
+		return Optional.ofNullable(reports.get(id));
+	}
+
+	@Scheduled(fixedDelayString = "${import.evictionInterval:600000}")
+	public void evict() {
+		long finishedBefore = System.currentTimeMillis() - ttl;
+		reports.values().removeIf(report -> report.finishedBefore(finishedBefore));
+	}
+
+	/**
+	 * Import a file in the current thread.
+	 *
+	 * @param upsert whether the rows of the adherents already saved update them, rather than creating other adherents
+	 * @return the report of the import
+	 */
+	public ImportReport importCsv(InputStream inputStream, boolean upsert) {
+		ImportReport report = new ImportReport(UUID.randomUUID().toString());
+		importCsv(inputStream, upsert, report);
+		return report;
+	}
+
+	private void importCsv(InputStream inputStream, boolean upsert, ImportReport report) {
+		report.start();
+		// A single event for the whole import, so that each month is computed again only once
+		final AdhesionChangedEvent adhesionChangedEvent = new AdhesionChangedEvent();
+		try {
+			try {
+				readCsv(inputStream, upsert ? loadIndex() : null, report, adhesionChangedEvent);
+			} finally {
+				if (!adhesionChangedEvent.isEmpty()) {
+					eventPublisher.publishEvent(adhesionChangedEvent);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Whatever the failure, the report must end so that it is not followed forever
+			log.error("Échec de l'import {}", report.getId(), e);
+			report.fail(e.getMessage(), System.currentTimeMillis());
 			return;
 		}
-		// Do nothing if typeAdhesion and dateAdhesion are empty
-		if (csv[typeAdhesion].isEmpty()) {
-			++compteur;
+
+		report.finish(System.currentTimeMillis());
+		log.info("Import {} : {} adhérents importés et {} mis à jour sur {} lignes, {} sans type d'adhésion, {} erreurs", report.getId(),
+				report.getImported(), report.getUpdated(), report.getRead(), report.getSkipped(), report.getErrorCount());
+	}
+
+	private void readCsv(InputStream inputStream, AdherentKeyIndex index, ImportReport report, AdhesionChangedEvent adhesionChangedEvent)
+			throws IOException {
+		try (CSVReader reader = new CSVReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+			final String[] header = reader.readNext();
+			if (header == null) {
+				throw new ImportFormatException("Fichier vide");
+			}
+			final Columns columns = new Columns(Arrays.asList(header));
+
+			// The header is the first line of the file
+			int line = 1;
+			final List<Row> chunk = new ArrayList<>(chunkSize);
+			String[] csv;
+			while ((csv = reader.readNext()) != null) {
+				chunk.add(new Row(++line, csv));
+				if (chunk.size() == chunkSize) {
+					importChunk(chunk, columns, index, report, adhesionChangedEvent);
+				}
+			}
+			importChunk(chunk, columns, index, report, adhesionChangedEvent);
+		}
+	}
+
+	private void importChunk(List<Row> chunk, Columns columns, AdherentKeyIndex index, ImportReport report,
+			AdhesionChangedEvent adhesionChangedEvent) {
+		if (chunk.isEmpty()) {
 			return;
 		}
 
-		final Coordonnees coordonnees = new Coordonnees();
-		coordonnees.setAdresse1(csv[street]);
-		coordonnees.setAdresse2(csv[street2]);
-		coordonnees.setCodePostal(csv[zip]);
-		coordonnees.setVille(csv[city]);
-		coordonnees.setEmail(csv[email]);
-		coordonnees.setTelephone(csv[phone]);
+		final List<Adherent> adherents = chunk.parallelStream()
+				.map(row -> readAdherent(row, columns, report))
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+
+		final List<Adhesion> adhesions = new ArrayList<>();
+		final int[] counts = new int[2];
+		try {
+			new TransactionTemplate(transactionManager).execute(status -> {
+				if (index == null) {
+					adherents.forEach(entityManager::persist);
+					adherents.forEach(adherent -> adhesions.addAll(adherent.getAdhesions()));
+					counts[0] = adherents.size();
+				} else {
+					upsert(adherents, index, adhesions, counts);
+				}
+				entityManager.flush();
+				entityManager.clear();
+				return null;
+			});
+			adhesions.forEach(adhesionChangedEvent::adhesion);
+		} catch (RuntimeException e) {
+			log.warn("Échec de l'enregistrement des lignes {} à {}", chunk.get(0).line, chunk.get(chunk.size() - 1).line, e);
+			report.error("Lignes " + chunk.get(0).line + " à " + chunk.get(chunk.size() - 1).line + " non enregistrées : " + e.getMessage());
+			counts[0] = 0;
+			counts[1] = 0;
+		}
+		report.chunk(chunk.size(), counts[0], counts[1]);
+		chunk.clear();
+	}
+
+	/**
+	 * Keys of the adherents already saved, read without loading the entities.
+	 */
+	private AdherentKeyIndex loadIndex() {
+		final Integer count = jdbcTemplate.queryForObject("select count(*) from adherent", Integer.class);
+		// Up to two keys per adherent
+		final AdherentKeyIndex index = new AdherentKeyIndex(count == null ? 0 : 2 * count);
+		jdbcTemplate.query("select a.id, a.nom, c.email, a.external_id from adherent a left join coordonnees c on c.id = a.coordonnees_id",
+				(RowCallbackHandler) rs -> addKeys(index, rs.getLong(1), rs.getString(4), rs.getString(3), rs.getString(2)));
+		log.debug("{} adhérents indexés pour l'import", index.size());
+		return index;
+	}
+
+	/**
+	 * Save the adherents of a chunk, updating those already saved. The adherents matched by the chunk are read at once.
+	 *
+	 * @param adhesions receives the new adhesions
+	 * @param counts    receives the numbers of adherents created and updated
+	 */
+	private void upsert(List<Adherent> adherents, AdherentKeyIndex index, List<Adhesion> adhesions, int[] counts) {
+		final Map<Long, Adherent> saved = new HashMap<>();
+		final Set<Long> ids = adherents.stream()
+				.flatMap(adherent -> Stream.of(index.get(AdherentKeyIndex.externalKey(adherent.getExternalId())), index.get(key(adherent))))
+				.filter(id -> id != AdherentKeyIndex.ABSENT)
+				.collect(Collectors.toSet());
+		if (!ids.isEmpty()) {
+			queryFactory.selectFrom(ADHERENT).distinct()
+					.leftJoin(ADHERENT.coordonnees).fetchJoin()
+					.leftJoin(ADHERENT.adhesions).fetchJoin()
+					.where(ADHERENT.id.in(ids))
+					.fetch()
+					.forEach(adherent -> saved.put(adherent.getId(), adherent));
+		}
+
+		for (Adherent adherent : adherents) {
+			final Adherent existing = find(adherent, index, saved);
+			if (existing == null) {
+				entityManager.persist(adherent);
+				addKeys(index, adherent.getId(), adherent.getExternalId(), email(adherent), adherent.getNom());
+				saved.put(adherent.getId(), adherent);
+				adhesions.addAll(adherent.getAdhesions());
+				counts[0]++;
+			} else if (merge(existing, adherent, adhesions)) {
+				counts[1]++;
+			}
+		}
+	}
+
+	/**
+	 * The adherent already saved of a row, null if none. The adherent found in the index may be another one with the same hash, or have been
+	 * created by a chunk which failed.
+	 */
+	private static Adherent find(Adherent row, AdherentKeyIndex index, Map<Long, Adherent> saved) {
+		final Adherent byExternalId = saved.get(index.get(AdherentKeyIndex.externalKey(row.getExternalId())));
+		if (byExternalId != null && row.getExternalId().equals(byExternalId.getExternalId())) {
+			return byExternalId;
+		}
+		if (!hasEmail(row)) {
+			return null;
+		}
+		// Entered in the application or imported before the legacy identifiers were kept, not another adherent of the legacy system
+		final Adherent byEmail = saved.get(index.get(key(row)));
+		if (byEmail != null && byEmail.getExternalId() == null && sameKey(byEmail, row)) {
+			return byEmail;
+		}
+		return null;
+	}
+
+	private static void addKeys(AdherentKeyIndex index, long id, String externalId, String email, String nom) {
+		if (externalId != null) {
+			index.put(AdherentKeyIndex.externalKey(externalId), id);
+		}
+		if (!AdherentKeyIndex.normalize(email).isEmpty()) {
+			index.put(AdherentKeyIndex.key(email, nom), id);
+		}
+	}
+
+	/**
+	 * Copy the new values of a row to the adherent already saved, and add its adhesion if it is new. The values missing from the row are
+	 * kept, so that those entered in the application are not erased.
+	 *
+	 * @return true if the adherent changed
+	 */
+	private boolean merge(Adherent existing, Adherent row, List<Adhesion> adhesions) {
+		boolean changed = false;
+		if (existing.getExternalId() == null) {
+			existing.setExternalId(row.getExternalId());
+			changed = true;
+		}
+		final Coordonnees coordonnees = row.getCoordonnees();
+		final Coordonnees existingCoordonnees = existing.getCoordonnees();
+		if (existingCoordonnees == null) {
+			existing.setCoordonnees(coordonnees);
+			changed = true;
+		} else {
+			changed |= update(existingCoordonnees.getAdresse1(), coordonnees.getAdresse1(), existingCoordonnees::setAdresse1);
+			changed |= update(existingCoordonnees.getAdresse2(), coordonnees.getAdresse2(), existingCoordonnees::setAdresse2);
+			changed |= update(existingCoordonnees.getCodePostal(), coordonnees.getCodePostal(), existingCoordonnees::setCodePostal);
+			changed |= update(existingCoordonnees.getVille(), coordonnees.getVille(), existingCoordonnees::setVille);
+			changed |= update(existingCoordonnees.getTelephone(), coordonnees.getTelephone(), existingCoordonnees::setTelephone);
+		}
+
+		final Adhesion adhesion = row.getAdhesions().iterator().next();
+		final boolean known = existing.getAdhesions() != null && existing.getAdhesions().stream()
+				.anyMatch(a -> a.getTypeAdhesion() == adhesion.getTypeAdhesion() && adhesion.getDateAdhesion().equals(a.getDateAdhesion()));
+		if (!known) {
+			// Saved before being added, the adhesions being hashed by identifier
+			adhesion.setAdherent(existing);
+			entityManager.persist(adhesion);
+			existing.addAdhesion(adhesion);
+			adhesions.add(adhesion);
+			changed = true;
+		}
+		return changed;
+	}
+
+	private static boolean update(String value, String newValue, Consumer<String> setter) {
+		if (newValue.isEmpty() || newValue.equals(value)) {
+			return false;
+		}
+		setter.accept(newValue);
+		return true;
+	}
+
+	private static long key(Adherent adherent) {
+		return AdherentKeyIndex.key(email(adherent), adherent.getNom());
+	}
+
+	private static boolean sameKey(Adherent existing, Adherent row) {
+		return AdherentKeyIndex.normalize(email(existing)).equals(AdherentKeyIndex.normalize(email(row)))
+				&& AdherentKeyIndex.normalize(existing.getNom()).equals(AdherentKeyIndex.normalize(row.getNom()));
+	}
+
+	private static boolean hasEmail(Adherent adherent) {
+		return !AdherentKeyIndex.normalize(email(adherent)).isEmpty();
+	}
+
+	private static String email(Adherent adherent) {
+		return adherent.getCoordonnees() == null ? null : adherent.getCoordonnees().getEmail();
+	}
+
+	/**
+	 * The adherent of a row, null if the row is ignored or rejected.
+	 */
+	private static Adherent readAdherent(Row row, Columns columns, ImportReport report) {
+		final String[] csv = row.csv;
+		// Do nothing if no identifier in the CSV file
+		if (columns.get(csv, columns.id).isEmpty()) {
+			return null;
+		}
+		// Do nothing if typeAdhesion and dateAdhesion are empty
+		final String typeAdhesionCsv = columns.get(csv, columns.typeAdhesion);
+		if (typeAdhesionCsv.isEmpty()) {
+			report.skip();
+			return null;
+		}
+
+		final TypeAdhesion typeAdhesion = getTypeAdhesion(typeAdhesionCsv);
+		if (typeAdhesion == null) {
+			report.error("Ligne " + row.line + " : type d'adhésion inconnu " + typeAdhesionCsv);
+			return null;
+		}
+		final LocalDate dateAdhesion;
+		try {
+			dateAdhesion = getDateAdhesion(columns.get(csv, columns.dateAdhesion), columns.get(csv, columns.dateAdhesionToParse));
+		} catch (IllegalArgumentException e) {
+			report.error("Ligne " + row.line + " : date d'adhésion invalide");
+			return null;
+		}
+		if (dateAdhesion == null) {
+			report.error("Ligne " + row.line + " : date d'adhésion manquante");
+			return null;
+		}
 
-		final Adhesion adhesion = new Adhesion();
-		adhesion.setTypeAdhesion(getTypeAdhesion(csv[typeAdhesion]));
-		adhesion.setDateAdhesion(getDateAdhesion(csv[dateAdhesion], csv[dateAdhesionToParse]));
+		final Coordonnees coordonnees = new Coordonnees();
+		coordonnees.setAdresse1(columns.get(csv, columns.street));
+		coordonnees.setAdresse2(columns.get(csv, columns.street2));
+		coordonnees.setCodePostal(columns.get(csv, columns.zip));
+		coordonnees.setVille(columns.get(csv, columns.city));
+		coordonnees.setEmail(columns.get(csv, columns.email));
+		coordonnees.setTelephone(columns.get(csv, columns.phone));
 
 		final Adherent adherent = new Adherent();
 		adherent.setPrenom(" ");
-		adherent.setNom(csv[name]);
+		adherent.setNom(columns.get(csv, columns.name));
+		adherent.setExternalId(columns.get(csv, columns.id));
 		adherent.setCoordonnees(coordonnees);
-		adherent.setAdhesions(ImmutableSet.of(adhesion));
-
-		adherentRepository.save(adherent);
+		// The legacy adhesions have no payment type
+		adherent.addAdhesion(new Adhesion().typeAdhesion(typeAdhesion).dateAdhesion(dateAdhesion).paymentType(PaymentType.NotSpecified).adherent(adherent));
+		return adherent;
 	}
 
-	private TypeAdhesion getTypeAdhesion(String typeAdhesionCsv) {
+	private static TypeAdhesion getTypeAdhesion(String typeAdhesionCsv) {
 		if ("[001] Adhésion classique".equals(typeAdhesionCsv)) {
 			return TypeAdhesion.Simple;
 		} else if ("[002] Adhésion famille".equals(typeAdhesionCsv)) {
@@ -105,13 +436,93 @@ public class ImportService {
 		}
 	}
 
-	private LocalDate getDateAdhesion(String dateAdhesionCsv, String dateAdhesionCsvToParse) {
+	private static LocalDate getDateAdhesion(String dateAdhesionCsv, String dateAdhesionCsvToParse) {
 		if (!dateAdhesionCsv.isEmpty()) {
 			return LocalDate.parse(dateAdhesionCsv, ISODateTimeFormat.dateParser());
-		} else if (!dateAdhesionCsvToParse.isEmpty()) {
+		} else if (dateAdhesionCsvToParse.length() >= 10) {
 			return LocalDate.parse(dateAdhesionCsvToParse.substring(dateAdhesionCsvToParse.length() - 10), ISODateTimeFormat.dateParser());
 		} else {
 			return null;
 		}
 	}
+
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Impossible de supprimer le fichier importé {}", file, e);
+		}
+	}
+
+	/**
+	 * Indexes of the columns, read from the header of a file.
+	 */
+	private static class Columns {
+
+		private final int id;
+		private final int name;
+		private final int street;
+		private final int street2;
+		private final int zip;
+		private final int city;
+		private final int email;
+		private final int phone;
+		private final int typeAdhesion;
+		private final int dateAdhesion;
+		private final int dateAdhesionToParse;
+
+		Columns(List<String> header) {
+			this.id = required(header, "id");
+			this.name = header.indexOf("name");
+			this.street = header.indexOf("street");
+			this.street2 = header.indexOf("street2");
+			this.zip = header.indexOf("zip");
+			this.city = header.indexOf("city");
+			this.email = header.indexOf("email");
+			this.phone = header.indexOf("phone");
+			this.typeAdhesion = required(header, "member_lines/membership_id");
+			this.dateAdhesion = header.indexOf("member_lines/date");
+			this.dateAdhesionToParse = header.indexOf("member_lines/id");
+		}
+
+		private static int required(List<String> header, String column) {
+			int index = header.indexOf(column);
+			if (index < 0) {
+				throw new ImportFormatException("Colonne manquante : " + column);
+			}
+			return index;
+		}
+
+		/**
+		 * Value of a column, empty if the column or the value is missing.
+		 */
+		String get(String[] csv, int column) {
+			return column >= 0 && column < csv.length && csv[column] != null ? csv[column] : "";
+		}
+
+	}
+
+	private static class Row {
+
+		private final int line;
+
+		private final String[] csv;
+
+		Row(int line, String[] csv) {
+			this.line = line;
+			this.csv = csv;
+		}
+
+	}
+
+	private static class ImportFormatException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ImportFormatException(String message) {
+			super(message);
+		}
+
+	}
+
 }
@@ -0,0 +1,265 @@
+package fr.lpr.membership.service;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.RateLimiter;
+import fr.lpr.membership.domain.OutboxMail;
+import fr.lpr.membership.repository.OutboxMailRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.CharEncoding;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outbox of the e-mails.
+ *
+ * <p>
+ * The e-mails are saved in the transaction of the change they tell about, then sent by {@code mail.outbox.workers} workers, each one
+ * sending the pending e-mails whose identifier modulo the number of workers is its own. A worker sends its e-mails by batches of
+ * {@code mail.outbox.batchSize}, on a single SMTP connection per batch, and the workers together send at most
+ * {@code mail.outbox.ratePerSecond} e-mails per second. An e-mail which could not be sent is tried again after a delay doubled at each
+ * attempt, and left as failed after {@code mail.outbox.maxAttempts} attempts.
+ * </p>
+ *
+ * <p>
+ * An e-mail is deleted once sent: if the application stops between both, it is sent again. The outbox is drained by a single instance of
+ * the application.
+ * </p>
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class MailOutbox {
+
+	private final OutboxMailRepository outboxMailRepository;
+
+	private final JavaMailSenderImpl javaMailSender;
+
+	private final PlatformTransactionManager transactionManager;
+
+	private final ThreadPoolTaskExecutor mailExecutor;
+
+	private final MetricRegistry metricRegistry;
+
+	@Value("${mail.from:membership@localhost}")
+	private String from;
+
+	@Value("${mail.outbox.workers:1}")
+	private int workers;
+
+	@Value("${mail.outbox.batchSize:50}")
+	private int batchSize;
+
+	@Value("${mail.outbox.ratePerSecond:5}")
+	private double ratePerSecond;
+
+	@Value("${mail.outbox.maxAttempts:8}")
+	private int maxAttempts;
+
+	@Value("${mail.outbox.backoff:60000}")
+	private long backoff;
+
+	@Value("${mail.outbox.maxBackoff:3600000}")
+	private long maxBackoff;
+
+	private TransactionTemplate transactionTemplate;
+
+	private RateLimiter rateLimiter;
+
+	/** Whether each worker is sending */
+	private AtomicBoolean[] draining;
+
+	/** Time from the e-mail being saved to it being sent */
+	private Timer latency;
+
+	private Meter sent;
+
+	private Meter retried;
+
+	private Meter failed;
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		rateLimiter = RateLimiter.create(ratePerSecond);
+		draining = new AtomicBoolean[workers];
+		for (int worker = 0; worker < workers; worker++) {
+			draining[worker] = new AtomicBoolean();
+		}
+
+		latency = metricRegistry.timer(MetricRegistry.name(MailOutbox.class, "latency"));
+		sent = metricRegistry.meter(MetricRegistry.name(MailOutbox.class, "sent"));
+		retried = metricRegistry.meter(MetricRegistry.name(MailOutbox.class, "retried"));
+		failed = metricRegistry.meter(MetricRegistry.name(MailOutbox.class, "failed"));
+		metricRegistry.register(MetricRegistry.name(MailOutbox.class, "depth"), new CachedGauge<Long>(10, TimeUnit.SECONDS) {
+			@Override
+			protected Long loadValue() {
+				return outboxMailRepository.countByStatus(OutboxMail.Status.PENDING);
+			}
+		});
+	}
+
+	/**
+	 * Save an e-mail to send, in the current transaction if any: it is only sent once the transaction commits, and not at all if it
+	 * rolls back.
+	 */
+	@Transactional
+	public OutboxMail enqueue(String to, String subject, String content, boolean isMultipart, boolean isHtml) {
+		return outboxMailRepository.save(new OutboxMail(to, subject, content, isMultipart, isHtml));
+	}
+
+	/**
+	 * Start the workers which are not sending yet.
+	 */
+	@Scheduled(fixedDelayString = "${mail.outbox.pollInterval:10000}", initialDelayString = "${mail.outbox.pollInterval:10000}")
+	public void drain() {
+		for (int worker = 0; worker < workers; worker++) {
+			final int current = worker;
+			if (draining[current].compareAndSet(false, true)) {
+				try {
+					mailExecutor.execute(() -> {
+						try {
+							drain(current);
+						} finally {
+							draining[current].set(false);
+						}
+					});
+				} catch (TaskRejectedException e) {
+					draining[current].set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the due e-mails of a worker in the current thread.
+	 *
+	 * @return the number of e-mails sent
+	 */
+	public int drain(int worker) {
+		int count = 0;
+		List<OutboxMail> batch;
+		do {
+			batch = outboxMailRepository.findDue(OutboxMail.Status.PENDING, DateTime.now(), workers, worker, new PageRequest(0, batchSize));
+			if (!batch.isEmpty()) {
+				count += send(batch);
+			}
+		} while (batch.size() == batchSize);
+		return count;
+	}
+
+	private int send(List<OutboxMail> batch) {
+		final List<Long> sentIds = new ArrayList<>();
+		final List<OutboxMail> failures = new ArrayList<>();
+		Transport transport = null;
+		int next = 0;
+		try {
+			for (; next < batch.size(); next++) {
+				final OutboxMail mail = batch.get(next);
+				if (transport == null || !transport.isConnected()) {
+					close(transport);
+					transport = connect();
+				}
+				rateLimiter.acquire();
+				try {
+					final MimeMessage message = toMessage(mail);
+					transport.sendMessage(message, message.getAllRecipients());
+					sentIds.add(mail.getId());
+					latency.update(System.currentTimeMillis() - mail.getCreatedAt().getMillis(), TimeUnit.MILLISECONDS);
+				} catch (final Exception e) {
+					failures.add(attemptFailed(mail, e));
+				}
+			}
+		} catch (final MessagingException e) {
+			log.warn("Connexion au serveur SMTP impossible : {}", e.getMessage());
+			// The e-mails left are tried again later, as if they had failed
+			for (; next < batch.size(); next++) {
+				failures.add(attemptFailed(batch.get(next), e));
+			}
+		} finally {
+			close(transport);
+		}
+
+		transactionTemplate.execute(status -> {
+			if (!sentIds.isEmpty()) {
+				outboxMailRepository.deleteByIdIn(sentIds);
+			}
+			outboxMailRepository.save(failures);
+			return null;
+		});
+		sent.mark(sentIds.size());
+		log.debug("{} e-mails envoyés, {} en échec", sentIds.size(), failures.size());
+		return sentIds.size();
+	}
+
+	private Transport connect() throws MessagingException {
+		// Same protocol and credentials as the sender, which takes an empty user or password as none
+		String protocol = javaMailSender.getProtocol();
+		if (protocol == null) {
+			protocol = javaMailSender.getSession().getProperty("mail.transport.protocol");
+		}
+		final Transport transport = javaMailSender.getSession().getTransport(protocol == null ? "smtp" : protocol);
+		final String username = "".equals(javaMailSender.getUsername()) ? null : javaMailSender.getUsername();
+		final String password = "".equals(javaMailSender.getPassword()) ? null : javaMailSender.getPassword();
+		transport.connect(javaMailSender.getHost(), javaMailSender.getPort(), username, password);
+		return transport;
+	}
+
+	private MimeMessage toMessage(OutboxMail mail) throws MessagingException {
+		final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+		final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, mail.isMultipart(), CharEncoding.UTF_8);
+		message.setTo(mail.getRecipient());
+		message.setFrom(from);
+		message.setSubject(mail.getSubject());
+		message.setText(mail.getContent(), mail.isHtml());
+		mimeMessage.saveChanges();
+		return mimeMessage;
+	}
+
+	private OutboxMail attemptFailed(OutboxMail mail, Exception e) {
+		final long delay = Math.min(maxBackoff, backoff << Math.min(mail.getAttempts(), 20));
+		mail.attemptFailed(e.getMessage(), DateTime.now().plus(delay), maxAttempts);
+		if (mail.getStatus() == OutboxMail.Status.FAILED) {
+			failed.mark();
+			log.error("E-mail could not be sent to '{}' after {} attempts, exception is: {}", mail.getRecipient(), mail.getAttempts(),
+					e.getMessage());
+		} else {
+			retried.mark();
+			log.warn("E-mail could not be sent to '{}', tried again in {} ms, exception is: {}", mail.getRecipient(), delay, e.getMessage());
+		}
+		return mail;
+	}
+
+	private static void close(Transport transport) {
+		if (transport != null && transport.isConnected()) {
+			try {
+				transport.close();
+			} catch (final MessagingException e) {
+				log.debug("Fermeture de la connexion SMTP : {}", e.getMessage());
+			}
+		}
+	}
+
+}
@@ -2,22 +2,17 @@ package fr.lpr.membership.service;
 
 import com.google.common.base.Strings;
 import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.OutboxMail;
 import fr.lpr.membership.domain.User;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang.CharEncoding;
 import org.springframework.context.MessageSource;
 import org.springframework.core.env.Environment;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
-import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.thymeleaf.context.Context;
 import org.thymeleaf.spring4.SpringTemplateEngine;
 
-import javax.annotation.PostConstruct;
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeMessage;
 import java.util.Locale;
 
 /**
@@ -25,7 +20,8 @@ import java.util.Locale;
  * Service for sending e-mails.
  * </p>
  * <p>
- * We use the @Async annotation to send e-mails asynchronously.
+ * The e-mails are rendered at once and saved in the {@link MailOutbox}, in the transaction of the caller if any, then sent by the workers
+ * of the outbox.
  * </p>
  */
 @Service
@@ -35,51 +31,44 @@ public class MailService {
 
 	private final Environment env;
 
-	private final JavaMailSenderImpl javaMailSender;
-
 	private final MessageSource messageSource;
 
 	private final SpringTemplateEngine templateEngine;
 
+	private final MailOutbox mailOutbox;
+
 	/**
-	 * System default email address that sends the e-mails.
+	 * Save an e-mail in the outbox, nothing is saved without recipient.
+	 *
+	 * <p>
+	 * The e-mail is checked before being saved: a failed save would roll back the transaction of the caller.
+	 * </p>
+	 *
+	 * @throws MessagingException if the recipient or the subject is too long to be saved
 	 */
-	private String from;
-
-	@PostConstruct
-	public void init() {
-		this.from = env.getProperty("mail.from");
-	}
-
-	@Async
 	public void sendEmail(String to, String subject, String content, boolean isMultipart, boolean isHtml) throws MessagingException {
         if (Strings.isNullOrEmpty(to)) {
             return;
         }
+		if (to.length() > OutboxMail.MAX_HEADER_LENGTH) {
+			throw new MessagingException("E-mail recipient too long: " + to.length() + " characters");
+		}
+		if (subject.length() > OutboxMail.MAX_HEADER_LENGTH) {
+			throw new MessagingException("E-mail subject too long: " + subject.length() + " characters");
+		}
 
-		log.debug("Send e-mail[multipart '{}' and html '{}'] to '{}' with subject '{}' and content={}", isMultipart, isHtml, to, subject, content);
-
-		// Prepare message using a Spring helper
-		final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
-		final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, isMultipart, CharEncoding.UTF_8);
-		message.setTo(to);
-		message.setFrom(from);
-		message.setSubject(subject);
-		message.setText(content, isHtml);
-		javaMailSender.send(mimeMessage);
-		log.debug("Sent e-mail to User '{}'", to);
+		log.debug("Queue e-mail[multipart '{}' and html '{}'] to '{}' with subject '{}' and content={}", isMultipart, isHtml, to, subject, content);
+		mailOutbox.enqueue(to, subject, content, isMultipart, isHtml);
 	}
 
-	@Async
 	public void sendEmailQuietly(String to, String subject, String content, boolean isMultipart, boolean isHtml) {
 		try {
 			sendEmail(to, subject, content, isMultipart, isHtml);
-		} catch (final Exception e) {
+		} catch (final MessagingException e) {
 			log.warn("E-mail could not be sent to user '{}', exception is: {}", to, e.getMessage());
 		}
 	}
 
-	@Async
 	public void sendActivationEmail(User user, String baseUrl) {
 		log.debug("Sending activation e-mail to '{}'", user.getEmail());
 		final Locale locale = Locale.forLanguageTag(user.getLangKey());
@@ -91,7 +80,6 @@ public class MailService {
 		sendEmailQuietly(user.getEmail(), subject, content, false, true);
 	}
 
-	@Async
 	public void sendPasswordResetMail(User user, String baseUrl) {
 		log.debug("Sending password reset e-mail to '{}'", user.getEmail());
 		final Locale locale = Locale.forLanguageTag(user.getLangKey());
@@ -103,32 +91,36 @@ public class MailService {
 		sendEmailQuietly(user.getEmail(), subject, content, false, true);
 	}
 
-	@Async
 	public void sendAdhesionExpiringEmail(Adherent adherent) throws MessagingException {
-		log.debug("Sending adhesion expiring e-mail to '{}'", adherent.getCoordonnees().getEmail());
+		log.debug("Sending adhesion expiring e-mail to '{}'", email(adherent));
 		final Context context = new Context(Locale.FRENCH);
 		context.setVariable("adherent", adherent);
 		context.setVariable("survey", env.getProperty("survey"));
 		final String content = templateEngine.process("adhesionExpiringEmail", context);
 		final String subject = messageSource.getMessage("email.expiring.title", null, Locale.FRENCH);
-		sendEmail(adherent.getCoordonnees().getEmail(), subject, content, false, true);
+		sendEmail(email(adherent), subject, content, false, true);
 	}
 
-    @Async
     public void sendAdhesionExpiredEmail(Adherent adherent) throws MessagingException {
-        log.debug("Sending adhesion expired e-mail to '{}'", adherent.getCoordonnees().getEmail());
+        log.debug("Sending adhesion expired e-mail to '{}'", email(adherent));
         final Context context = new Context(Locale.FRENCH);
         final String content = templateEngine.process("adhesionExpiredEmail", context);
         final String subject = messageSource.getMessage("email.expired.title", null, Locale.FRENCH);
-        sendEmail(adherent.getCoordonnees().getEmail(), subject, content, false, true);
+        sendEmail(email(adherent), subject, content, false, true);
     }
 
-    @Async
     public void sendFirstAdhesionEmail(Adherent adherent) throws MessagingException {
-        log.debug("Sending first adhesion e-mail to '{}'", adherent.getCoordonnees().getEmail());
+        log.debug("Sending first adhesion e-mail to '{}'", email(adherent));
         final Context context = new Context(Locale.FRENCH);
         final String content = templateEngine.process("firstAdhesionEmail", context);
         final String subject = messageSource.getMessage("email.firstAdhesion.title", null, Locale.FRENCH);
-        sendEmail(adherent.getCoordonnees().getEmail(), subject, content, false, true);
+        sendEmail(email(adherent), subject, content, false, true);
     }
+
+	/**
+	 * @return the address of an adherent, null without coordinates
+	 */
+	private static String email(Adherent adherent) {
+		return adherent.getCoordonnees() == null ? null : adherent.getCoordonnees().getEmail();
+	}
 }
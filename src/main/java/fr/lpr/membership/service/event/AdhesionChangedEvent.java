@@ -0,0 +1,65 @@
+package fr.lpr.membership.service.event;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.joda.time.LocalDate;
+
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+
+/**
+ * Fired when adhesions are created, updated or deleted.
+ *
+ * <p>
+ * The event gives the adherents whose adhesions changed and every adhesion date affected by the change (including the previous date of an
+ * updated adhesion).
+ * </p>
+ */
+public class AdhesionChangedEvent {
+
+	private final Set<Long> adherentIds = new HashSet<>();
+
+	private final Set<LocalDate> dates = new HashSet<>();
+
+	public static AdhesionChangedEvent of(Adherent adherent) {
+		AdhesionChangedEvent event = new AdhesionChangedEvent();
+		if (adherent.getAdhesions() != null) {
+			adherent.getAdhesions().forEach(event::adhesion);
+		}
+		return event.adherent(adherent);
+	}
+
+	public AdhesionChangedEvent adherent(Adherent adherent) {
+		if (adherent != null && adherent.getId() != null) {
+			adherentIds.add(adherent.getId());
+		}
+		return this;
+	}
+
+	public AdhesionChangedEvent adhesion(Adhesion adhesion) {
+		adherent(adhesion.getAdherent());
+		return date(adhesion.getDateAdhesion());
+	}
+
+	public AdhesionChangedEvent date(LocalDate date) {
+		if (date != null) {
+			dates.add(date);
+		}
+		return this;
+	}
+
+	public Set<Long> getAdherentIds() {
+		return Collections.unmodifiableSet(adherentIds);
+	}
+
+	public Set<LocalDate> getDates() {
+		return Collections.unmodifiableSet(dates);
+	}
+
+	public boolean isEmpty() {
+		return dates.isEmpty();
+	}
+
+}
@@ -0,0 +1,15 @@
+package fr.lpr.membership.service.exception;
+
+/**
+ * A delivery note cannot be read.
+ */
+public class DeliveryNoteException extends RuntimeException {
+
+    public DeliveryNoteException(String message) {
+        super(message);
+    }
+
+    public DeliveryNoteException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
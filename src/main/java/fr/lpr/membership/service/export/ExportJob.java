@@ -0,0 +1,93 @@
+package fr.lpr.membership.service.export;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * Export run in the background, its result spooled to a file.
+ *
+ * <p>
+ * The state is written by the thread running the export and read by the requests following it.
+ * </p>
+ */
+@Getter
+public class ExportJob {
+
+	public enum Status {
+		QUEUED, RUNNING, DONE, FAILED
+	}
+
+	private final String id;
+
+	private final String fileName;
+
+	private final String contentType;
+
+	@JsonIgnore
+	private final String owner;
+
+	@JsonIgnore
+	private final Path file;
+
+	private volatile Status status = Status.QUEUED;
+
+	private volatile long done;
+
+	private volatile long total;
+
+	private volatile String error;
+
+	/** When the job finished, 0 while it has not */
+	@JsonIgnore
+	private volatile long finishedAt;
+
+	ExportJob(String id, String fileName, String contentType, String owner, Path file) {
+		this.id = id;
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.owner = owner;
+		this.file = file;
+	}
+
+	/**
+	 * Progress in percent, 100 once done.
+	 */
+	public int getPercent() {
+		if (status == Status.DONE) {
+			return 100;
+		}
+		return total > 0 ? (int) Math.min(99, done * 100 / total) : 0;
+	}
+
+	void start() {
+		status = Status.RUNNING;
+	}
+
+	/**
+	 * @return true if the percentage changed, so that it is worth being published
+	 */
+	boolean progress(long done, long total) {
+		int percent = getPercent();
+		this.done = done;
+		this.total = total;
+		return getPercent() != percent;
+	}
+
+	void finish(long now) {
+		status = Status.DONE;
+		finishedAt = now;
+	}
+
+	void fail(String error, long now) {
+		this.error = error;
+		status = Status.FAILED;
+		finishedAt = now;
+	}
+
+	boolean finishedBefore(long time) {
+		return finishedAt != 0 && finishedAt < time;
+	}
+
+}
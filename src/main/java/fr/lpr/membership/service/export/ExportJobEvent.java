@@ -0,0 +1,13 @@
+package fr.lpr.membership.service.export;
+
+import lombok.Value;
+
+/**
+ * An export job was queued, progressed or finished.
+ */
+@Value
+public class ExportJobEvent {
+
+	ExportJob job;
+
+}
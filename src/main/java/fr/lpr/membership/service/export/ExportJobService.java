@@ -0,0 +1,151 @@
+package fr.lpr.membership.service.export;
+
+import fr.lpr.membership.security.SecurityUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Exports run in the background by a bounded executor, so that neither a request thread nor a database connection waits for the client.
+ *
+ * <p>
+ * The result of a job is spooled to a file of {@code export.directory}, served once the job is done. The progress of the jobs is published
+ * (see {@link ExportJobEvent}) and pushed to their owner. The jobs and their files are evicted {@code export.ttl} milliseconds after they
+ * finished, the files left by a previous run are deleted at startup.
+ * </p>
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ExportJobService {
+
+	private final ThreadPoolTaskExecutor exportExecutor;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final ConcurrentMap<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+	@Value("${export.directory:${java.io.tmpdir}/membership-exports}")
+	private String directory;
+
+	@Value("${export.ttl:3600000}")
+	private long ttl;
+
+	@PostConstruct
+	public void initialize() throws IOException {
+		Path path = Paths.get(directory);
+		Files.createDirectories(path);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/**
+	 * Queue an export.
+	 *
+	 * @param fileName    name of the file to download
+	 * @param contentType content type of the file
+	 * @param exporter    writes the file
+	 * @return the queued job
+	 * @throws TaskRejectedException if too many jobs are already queued
+	 */
+	public ExportJob submit(String fileName, String contentType, Exporter exporter) {
+		String id = UUID.randomUUID().toString();
+		ExportJob job = new ExportJob(id, fileName, contentType, SecurityUtils.getCurrentLogin(), Paths.get(directory, id));
+		jobs.put(id, job);
+		try {
+			exportExecutor.execute(() -> run(job, exporter));
+		} catch (TaskRejectedException e) {
+			jobs.remove(id);
+			throw e;
+		}
+		eventPublisher.publishEvent(new ExportJobEvent(job));
+		return job;
+	}
+
+	private void run(ExportJob job, Exporter exporter) {
+		job.start();
+		eventPublisher.publishEvent(new ExportJobEvent(job));
+		try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(job.getFile()))) {
+			exporter.export(outputStream, (done, total) -> {
+				if (job.progress(done, total)) {
+					eventPublisher.publishEvent(new ExportJobEvent(job));
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			log.error("Échec de l'export {}", job.getFileName(), e);
+			delete(job);
+			job.fail(e.getMessage(), System.currentTimeMillis());
+			eventPublisher.publishEvent(new ExportJobEvent(job));
+			return;
+		}
+		job.finish(System.currentTimeMillis());
+		log.info("Export {} terminé", job.getFileName());
+		eventPublisher.publishEvent(new ExportJobEvent(job));
+	}
+
+	/**
+	 * A job started by the current user.
+	 */
+	public Optional<ExportJob> get(String id) {
+		return Optional.ofNullable(jobs.get(id)).filter(job -> Objects.equals(job.getOwner(), SecurityUtils.getCurrentLogin()));
+	}
+
+	@Scheduled(fixedDelayString = "${export.evictionInterval:600000}")
+	public void evict() {
+		evict(System.currentTimeMillis() - ttl);
+	}
+
+	/**
+	 * Evict the jobs finished before a time, with their file.
+	 */
+	public void evict(long finishedBefore) {
+		jobs.values().removeIf(job -> {
+			if (!job.finishedBefore(finishedBefore)) {
+				return false;
+			}
+			delete(job);
+			return true;
+		});
+	}
+
+	private void delete(ExportJob job) {
+		try {
+			Files.deleteIfExists(job.getFile());
+		} catch (IOException e) {
+			log.warn("Impossible de supprimer le fichier de l'export {}", job.getFileName(), e);
+		}
+	}
+
+	/**
+	 * Writes the result of an export.
+	 */
+	@FunctionalInterface
+	public interface Exporter {
+
+		void export(OutputStream outputStream, ExportProgress progress) throws IOException;
+
+	}
+
+}
@@ -0,0 +1,14 @@
+package fr.lpr.membership.service.export;
+
+/**
+ * Receives the progress of an export, in units chosen by the export (adherents, days...).
+ */
+@FunctionalInterface
+public interface ExportProgress {
+
+	ExportProgress NONE = (done, total) -> {
+	};
+
+	void update(long done, long total);
+
+}
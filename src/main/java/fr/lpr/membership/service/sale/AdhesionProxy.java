@@ -38,8 +38,9 @@ public class AdhesionProxy implements SalableItem {
 
 	@Override
 	public int getUnitPrice() {
-        return Optional.ofNullable(adhesion.getTypeAdhesion().getPrice())
+        Integer price = Optional.ofNullable(adhesion.getTypeAdhesion().getPrice())
             .orElse(adhesion.getPrice());
+        return price == null ? 0 : price;
 	}
 
 	@Override
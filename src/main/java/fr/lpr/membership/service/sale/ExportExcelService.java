@@ -1,17 +1,19 @@
 package fr.lpr.membership.service.sale;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import fr.lpr.membership.domain.Article;
 import fr.lpr.membership.domain.TypeAdhesion;
 import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.service.export.ExportProgress;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.joda.time.DateTime;
-import org.joda.time.YearMonth;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -24,49 +26,89 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ExportExcelService {
 
+	/** Number of rows kept in memory, the previous ones are flushed to a temporary file */
+	static final int ROW_ACCESS_WINDOW = 100;
+
+	static final String CURRENCY_FORMAT = "#,##0.00 €";
+
 	private final ArticleRepository articleRepository;
 
 	private final SaleStatisticsService saleStatisticsService;
 
-	public void export(DateTime from, OutputStream outputStream) {
-		// Create the Excel file (format XSLX)
-		try (XSSFWorkbook workbook = new XSSFWorkbook()) {
-			Sheet sheet = workbook.createSheet("Statistiques");
+	/**
+	 * Export the sale statistics of a range.
+	 *
+	 * @param progress receives the number of days of the range written
+	 * @throws IOException if the file cannot be written
+	 */
+	public void export(DateTime from, DateTime to, Granularity granularity, OutputStream outputStream, ExportProgress progress) throws IOException {
+		// Create the Excel file (format XSLX), streamed so that only the last rows are held in memory
+		SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+		workbook.setCompressTempFiles(true);
+		try {
+			write(workbook, from, to, granularity, progress);
+			workbook.write(outputStream);
+			log.info("Statistiques de vente exportées du {} au {}", from.toLocalDate(), to.toLocalDate());
+		} finally {
+			// Delete the temporary files
+			workbook.dispose();
+		}
+	}
 
-			// Get statistics by month
-			SaleStatistics<YearMonth> itemsByMonth = saleStatisticsService.statsByMonths(from);
+	void write(SXSSFWorkbook workbook, DateTime from, DateTime to, Granularity granularity) {
+		write(workbook, from, to, granularity, ExportProgress.NONE);
+	}
 
-			List<String> columnNames = getItemNames();
-			int currentSheetRow = 0;
+	private void write(SXSSFWorkbook workbook, DateTime from, DateTime to, Granularity granularity, ExportProgress progress) {
+		Sheet sheet = workbook.createSheet("Statistiques");
 
-			// Write header
-			Row header = sheet.createRow(currentSheetRow);
-			for (int index = 0; index != columnNames.size(); ++index) {
-				String column = columnNames.get(index);
-				header.createCell(index + 1).setCellValue(column);
-			}
-			++ currentSheetRow;
+		List<String> columnNames = getItemNames();
+		int currentSheetRow = 0;
 
-			// Write a row
-			for (YearMonth month : itemsByMonth.getItemsByPeriod().keySet()) {
-				Multimap<String, SalableItem> statsByItem = monthlyStatByItem(itemsByMonth.getItemsByPeriod().get(month));
+		// Write header
+		Row header = sheet.createRow(currentSheetRow);
+		for (int index = 0; index != columnNames.size(); ++index) {
+			String column = columnNames.get(index);
+			header.createCell(index + 1).setCellValue(column);
+		}
+		++ currentSheetRow;
+
+		// Amounts are numbers displayed as euros, so that they can be summed in the sheet
+		CellStyle currencyStyle = workbook.createCellStyle();
+		currencyStyle.setDataFormat(workbook.createDataFormat().getFormat(CURRENCY_FORMAT));
+
+		// Read the statistics chunk by chunk, so that a long range never is entirely in memory
+		SaleStatisticsMatrix matrix = new SaleStatisticsMatrix(granularity, columnNames);
+		int days = Days.daysBetween(from, to).getDays();
+		DateTime chunkEnd;
+		for (DateTime chunkStart = from; chunkStart.isBefore(to); chunkStart = chunkEnd) {
+			// Chunks end at the start of a period, so that a period is never split on two rows
+			chunkEnd = granularity.periodStart(chunkStart.plus(granularity.getChunk()).toLocalDate()).toDateTimeAtStartOfDay();
+			if (chunkEnd.isAfter(to) || !chunkEnd.isAfter(chunkStart)) {
+				chunkEnd = to;
+			}
+			matrix.reset(chunkStart.toLocalDate(), chunkEnd.toLocalDate());
+			saleStatisticsService.statistics(chunkStart, chunkEnd, granularity).forEach(matrix::add);
+
+			// Write a row for each period having sales
+			for (int periodRow = 0; periodRow != matrix.getRowCount(); ++periodRow) {
+				LocalDate period = matrix.getPeriod(periodRow);
+				if (period == null) {
+					continue;
+				}
 
 				Row row = sheet.createRow(currentSheetRow);
-				row.createCell(0).setCellValue(month.toString("MMMM yyyy"));
+				row.createCell(0).setCellValue(granularity.label(period));
 
-				for (int index = 0; index != columnNames.size(); ++index) {
-					String column = columnNames.get(index);
-					int totalPrice = statsByItem.get(column).stream().map(SalableItem::getTotalPrice).reduce(Integer::sum).orElse(0);
-
-					row.createCell(index + 1).setCellValue("€" + (totalPrice / 100) + "." + (totalPrice % 100));
+				for (int column = 0; column != matrix.getColumnCount(); ++column) {
+					Cell cell = row.createCell(column + 1);
+					cell.setCellValue(matrix.getTotal(periodRow, column) / 100d);
+					cell.setCellStyle(currencyStyle);
 				}
 
 				++currentSheetRow;
 			}
-
-			workbook.write(outputStream);
-		} catch (IOException ex) {
-			log.error("Failed to export sale statistics", ex);
+			progress.update(Days.daysBetween(from, chunkEnd).getDays(), days);
 		}
 	}
 
@@ -79,12 +121,4 @@ public class ExportExcelService {
 		return itemNames;
 	}
 
-	private Multimap<String, SalableItem> monthlyStatByItem(Collection<SalableItem> items) {
-		Multimap<String, SalableItem> statsByItem = HashMultimap.create();
-		for (SalableItem item : items) {
-			statsByItem.put(item.getName(), item);
-		}
-		return statsByItem;
-	}
-
 }
@@ -0,0 +1,117 @@
+package fr.lpr.membership.service.sale;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+import org.joda.time.Months;
+import org.joda.time.ReadablePeriod;
+import org.joda.time.Years;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Length of the periods the sale statistics are grouped by.
+ */
+public enum Granularity {
+
+	DAY(Months.ONE, "dd/MM/yyyy", false) {
+		@Override
+		public LocalDate periodStart(LocalDate date) {
+			return date;
+		}
+
+		@Override
+		public int index(LocalDate date) {
+			return (int) (ISOChronology.getInstanceUTC().getDateTimeMillis(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), 0)
+					/ DateTimeConstants.MILLIS_PER_DAY);
+		}
+	},
+	WEEK(Years.ONE, "'semaine du' dd/MM/yyyy", false) {
+		@Override
+		public LocalDate periodStart(LocalDate date) {
+			return date.withDayOfWeek(DateTimeConstants.MONDAY);
+		}
+
+		@Override
+		public int index(LocalDate date) {
+			// 1970-01-01 is a thursday, weeks start on monday
+			return Math.floorDiv(DAY.index(date) + 3, 7);
+		}
+	},
+	MONTH(Years.ONE, "MMMM yyyy", true) {
+		@Override
+		public LocalDate periodStart(LocalDate date) {
+			return date.withDayOfMonth(1);
+		}
+
+		@Override
+		public int index(LocalDate date) {
+			return date.getYear() * 12 + date.getMonthOfYear() - 1;
+		}
+	},
+	QUARTER(Years.ONE, null, true) {
+		@Override
+		public LocalDate periodStart(LocalDate date) {
+			return new LocalDate(date.getYear(), (date.getMonthOfYear() - 1) / 3 * 3 + 1, 1);
+		}
+
+		@Override
+		public int index(LocalDate date) {
+			return date.getYear() * 4 + (date.getMonthOfYear() - 1) / 3;
+		}
+
+		@Override
+		public String label(LocalDate periodStart) {
+			return "T" + ((periodStart.getMonthOfYear() - 1) / 3 + 1) + " " + periodStart.getYear();
+		}
+	},
+	YEAR(Years.years(10), "yyyy", true) {
+		@Override
+		public LocalDate periodStart(LocalDate date) {
+			return date.withDayOfYear(1);
+		}
+
+		@Override
+		public int index(LocalDate date) {
+			return date.getYear();
+		}
+	};
+
+	/** Length of the ranges read one after the other from the database during an export */
+	private final ReadablePeriod chunk;
+
+	private final String labelPattern;
+
+	/** Whether the periods are made of whole months, so that they can be computed from the monthly rollups */
+	private final boolean monthly;
+
+	Granularity(ReadablePeriod chunk, String labelPattern, boolean monthly) {
+		this.chunk = chunk;
+		this.labelPattern = labelPattern;
+		this.monthly = monthly;
+	}
+
+	public ReadablePeriod getChunk() {
+		return chunk;
+	}
+
+	/**
+	 * Granularity the statistics are read at before being grouped by period: days or months.
+	 */
+	public Granularity base() {
+		return monthly ? MONTH : DAY;
+	}
+
+	/**
+	 * First day of the period containing the given date.
+	 */
+	public abstract LocalDate periodStart(LocalDate date);
+
+	/**
+	 * Number of the period containing the given date, consecutive periods having consecutive numbers. Does not allocate anything.
+	 */
+	public abstract int index(LocalDate date);
+
+	public String label(LocalDate periodStart) {
+		return periodStart.toString(labelPattern);
+	}
+
+}
@@ -0,0 +1,317 @@
+package fr.lpr.membership.service.sale;
+
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.service.sale.event.SaleCreatedEvent;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+import fr.lpr.membership.web.rest.dto.SaleDTO;
+import fr.lpr.membership.web.rest.dto.SoldItemDTO;
+import fr.lpr.membership.web.rest.dto.mapper.SaleMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Open carts of the cash desks, that is the sales which are not finished yet.
+ *
+ * <p>
+ * The carts are served and edited in memory, and their changes are saved in the background at most {@code openCarts.writeBehindDelay}
+ * milliseconds later, so that editing a cart does not wait for the database. Finishing a cart saves it immediately. The carts which have
+ * not been modified for {@code openCarts.expiration} milliseconds are considered abandoned and deleted together.
+ * </p>
+ *
+ * <p>
+ * A cart is sent back whole by the cash desk, the sold items which were saved meanwhile get their identifier from the previous state of
+ * the cart so that they are not added twice.
+ * </p>
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class OpenCartRegistry {
+
+	private final SaleService saleService;
+
+	private final SaleMapper saleMapper;
+
+	private final ConcurrentMap<Long, OpenCart> carts = new ConcurrentHashMap<>();
+
+	@Value("${openCarts.expiration:14400000}")
+	private long expiration;
+
+	/**
+	 * Load the sales which are not finished.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void initialize() {
+		saleService.getTemporarySales().forEach(this::register);
+		log.info("{} ventes en cours chargées", carts.size());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleCreated(SaleCreatedEvent event) {
+		if (!event.getSale().isFinished()) {
+			register(event.getSale());
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleUpdated(SaleUpdatedEvent event) {
+		Sale sale = event.getSale();
+		if (sale.isFinished()) {
+			carts.remove(sale.getId());
+		} else if (!carts.containsKey(sale.getId())) {
+			// The carts of the registry are more recent than the database, only a sale opened again is taken
+			register(sale);
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleDeleted(SaleDeletedEvent event) {
+		carts.remove(event.getSale().getId());
+	}
+
+	/**
+	 * Open carts, ordered by identifier.
+	 */
+	public List<SaleDTO> openCarts() {
+		return carts.values().stream()
+				.map(OpenCart::getState)
+				.sorted(Comparator.comparing(SaleDTO::getId))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Apply the new state of a cart. An unfinished cart is only modified in memory, a finished one is saved before returning.
+	 *
+	 * <p>
+	 * The cart is edited, and removed once finished, atomically with its purge: an edit is never applied to a purged cart.
+	 * </p>
+	 *
+	 * @return false if the sale is not an open cart, it must then be updated directly
+	 */
+	public boolean update(SaleDTO saleDTO) {
+		OpenCart[] finished = new OpenCart[1];
+		OpenCart cart = carts.computeIfPresent(saleDTO.getId(), (id, current) -> {
+			current.edit(saleDTO);
+			if (saleDTO.isFinished()) {
+				finished[0] = current;
+				return null;
+			}
+			return current;
+		});
+
+		if (finished[0] != null) {
+			try {
+				flush(finished[0]);
+			} catch (RuntimeException e) {
+				carts.putIfAbsent(saleDTO.getId(), finished[0]);
+				throw e;
+			}
+			return true;
+		}
+		return cart != null;
+	}
+
+	/**
+	 * Save the carts modified since their last save.
+	 */
+	@Scheduled(fixedDelayString = "${openCarts.writeBehindDelay:1000}")
+	@PreDestroy
+	public void flushCarts() {
+		for (OpenCart cart : carts.values()) {
+			if (cart.isDirty()) {
+				try {
+					flush(cart);
+				} catch (RuntimeException e) {
+					// Kept dirty, saved again on the next run
+					log.warn("Impossible d'enregistrer la vente en cours {} : {}", cart.getId(), e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete the carts which have not been modified for the configured expiration.
+	 */
+	@Scheduled(fixedDelayString = "${openCarts.purgeInterval:600000}")
+	public void purgeAbandonedCarts() {
+		purge(System.currentTimeMillis() - expiration);
+	}
+
+	void purge(long modifiedBefore) {
+		List<Long> abandoned = new ArrayList<>();
+		for (OpenCart cart : carts.values()) {
+			if (cart.getLastModified() < modifiedBefore && remove(cart, modifiedBefore)) {
+				// Wait for a save in progress, the sale must not be saved again once deleted
+				cart.flushLock.lock();
+				cart.flushLock.unlock();
+				abandoned.add(cart.getId());
+			}
+		}
+
+		if (!abandoned.isEmpty()) {
+			saleService.delete(abandoned);
+			log.info("{} ventes en cours abandonnées supprimées", abandoned.size());
+		}
+	}
+
+	/**
+	 * Remove a cart if still not modified since a time, atomically with its edits.
+	 */
+	private boolean remove(OpenCart cart, long modifiedBefore) {
+		boolean[] removed = new boolean[1];
+		carts.computeIfPresent(cart.getId(), (id, current) -> {
+			removed[0] = current == cart && current.getLastModified() < modifiedBefore;
+			return removed[0] ? null : current;
+		});
+		return removed[0];
+	}
+
+	private void register(Sale sale) {
+		carts.putIfAbsent(sale.getId(), new OpenCart(saleMapper.saleToSaleDto(sale), sale.getUpdatedAt().getMillis()));
+	}
+
+	private void flush(OpenCart cart) {
+		cart.flushLock.lock();
+		try {
+			long version = cart.getVersion();
+			if (version == cart.getFlushedVersion()) {
+				return;
+			}
+			SaleDTO state = cart.getState();
+			Sale savedSale = saleService.update(saleMapper.saleDtoToSale(state));
+			if (savedSale == null) {
+				// Deleted meanwhile
+				carts.remove(cart.getId(), cart);
+				return;
+			}
+			cart.flushed(version, savedSale.getSoldItems().stream().map(saleMapper::soldItemToDto).collect(Collectors.toList()));
+		} finally {
+			cart.flushLock.unlock();
+		}
+	}
+
+	private static SaleDTO copy(SaleDTO saleDTO) {
+		SaleDTO copy = new SaleDTO();
+		copy.setId(saleDTO.getId());
+		copy.setDate(saleDTO.getDate());
+		copy.setAdherentId(saleDTO.getAdherentId());
+		copy.setAdherentFullName(saleDTO.getAdherentFullName());
+		copy.setPaymentType(saleDTO.getPaymentType());
+		copy.setFinished(saleDTO.isFinished());
+		copy.setSoldItems(saleDTO.getSoldItems().stream().map(OpenCartRegistry::copy).collect(Collectors.toList()));
+		return copy;
+	}
+
+	private static SoldItemDTO copy(SoldItemDTO soldItemDTO) {
+		SoldItemDTO copy = new SoldItemDTO();
+		copy.setId(soldItemDTO.getId());
+		copy.setArticleId(soldItemDTO.getArticleId());
+		copy.setName(soldItemDTO.getName());
+		copy.setQuantity(soldItemDTO.getQuantity());
+		copy.setPrice(soldItemDTO.getPrice());
+		return copy;
+	}
+
+	/**
+	 * Give to the items without identifier the one of a saved item of the same article and price.
+	 */
+	private static void fillMissingIds(List<SoldItemDTO> items, Collection<SoldItemDTO> savedItems) {
+		Set<Long> usedIds = items.stream().map(SoldItemDTO::getId).filter(Objects::nonNull).collect(Collectors.toCollection(HashSet::new));
+		for (SoldItemDTO item : items) {
+			if (item.getId() == null) {
+				savedItems.stream()
+						.filter(savedItem -> savedItem.getId() != null && !usedIds.contains(savedItem.getId()))
+						.filter(savedItem -> savedItem.getArticleId().equals(item.getArticleId()) && savedItem.getPrice().equals(item.getPrice()))
+						.findFirst()
+						.ifPresent(savedItem -> {
+							item.setId(savedItem.getId());
+							usedIds.add(savedItem.getId());
+						});
+			}
+		}
+	}
+
+	/**
+	 * State of a cart. Its modifications only lock the cart, the saves are serialized by the flush lock so that a cart is never saved by
+	 * two threads.
+	 */
+	private static class OpenCart {
+
+		final ReentrantLock flushLock = new ReentrantLock();
+
+		private SaleDTO state;
+
+		/** Number of modifications */
+		private long version;
+
+		/** Modifications already saved */
+		private long flushedVersion;
+
+		private long lastModified;
+
+		OpenCart(SaleDTO state, long lastModified) {
+			this.state = state;
+			this.lastModified = lastModified;
+		}
+
+		Long getId() {
+			return state.getId();
+		}
+
+		synchronized SaleDTO getState() {
+			return copy(state);
+		}
+
+		synchronized long getVersion() {
+			return version;
+		}
+
+		synchronized long getFlushedVersion() {
+			return flushedVersion;
+		}
+
+		synchronized long getLastModified() {
+			return lastModified;
+		}
+
+		synchronized boolean isDirty() {
+			return version != flushedVersion;
+		}
+
+		synchronized void edit(SaleDTO newState) {
+			SaleDTO copy = copy(newState);
+			// The items saved meanwhile are not known by the cash desk yet
+			fillMissingIds(copy.getSoldItems(), state.getSoldItems());
+			state = copy;
+			version++;
+			lastModified = System.currentTimeMillis();
+		}
+
+		synchronized void flushed(long version, List<SoldItemDTO> savedItems) {
+			flushedVersion = Math.max(flushedVersion, version);
+			fillMissingIds(state.getSoldItems(), savedItems);
+		}
+
+	}
+
+}
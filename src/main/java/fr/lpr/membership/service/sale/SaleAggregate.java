@@ -0,0 +1,58 @@
+package fr.lpr.membership.service.sale;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import fr.lpr.membership.domain.sale.PaymentType;
+import org.joda.time.LocalDate;
+
+/**
+ * Quantity and amount sold of an item (article or adhesion) for a payment type during a period (day or month).
+ */
+public class SaleAggregate {
+
+	/** First day of the period */
+	private final LocalDate period;
+
+	private final String name;
+
+	private final PaymentType paymentType;
+
+	private final long quantity;
+
+	private final long totalPrice;
+
+	public SaleAggregate(LocalDate period, String name, PaymentType paymentType, long quantity, long totalPrice) {
+		this.period = period;
+		this.name = name;
+		this.paymentType = paymentType;
+		this.quantity = quantity;
+		this.totalPrice = totalPrice;
+	}
+
+	@JsonIgnore
+	public LocalDate getPeriod() {
+		return period;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public PaymentType getPaymentType() {
+		return paymentType;
+	}
+
+	public long getQuantity() {
+		return quantity;
+	}
+
+	public long getTotalPrice() {
+		return totalPrice;
+	}
+
+	@Override
+	public String toString() {
+		return "SaleAggregate{period=" + period + ", name='" + name + "', paymentType=" + paymentType + ", quantity=" + quantity + ", totalPrice="
+				+ totalPrice + "}";
+	}
+
+}
@@ -0,0 +1,631 @@
+package fr.lpr.membership.service.sale;
+
+import com.google.common.collect.Lists;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import fr.lpr.membership.domain.QAdherent;
+import fr.lpr.membership.domain.QAdhesion;
+import fr.lpr.membership.domain.QArticle;
+import fr.lpr.membership.domain.QProvider;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.QSale;
+import fr.lpr.membership.domain.sale.QSoldItem;
+import fr.lpr.membership.domain.stock.QStockHistory;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
+import fr.lpr.membership.service.sale.event.AbstractSaleEvent;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.LocalDate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory cube of the finished sales and adhesions, to group and filter them by any dimension without querying the database.
+ *
+ * <p>
+ * Each sold item or adhesion is a row stored in parallel primitive arrays (day, item, provider, payment type, volunteer status, quantity and
+ * amount), so that a query is a single pass over contiguous arrays. The cube is loaded when the application starts, then the rows of a sale
+ * or of the adhesions of an adherent are reloaded once their modification is committed. The provider and the volunteer status are the
+ * ones known when the row was loaded.
+ * </p>
+ *
+ * <p>
+ * The rows of each sale and of the adhesions of each adherent are indexed, so that reloading them does not scan the whole cube. The carts
+ * still open are not in the cube, their changes are ignored.
+ * </p>
+ *
+ * <p>
+ * The rows are read outside of the lock, so each load is numbered before reading them: the rows of a sale or of an adherent are only replaced
+ * by a later load than the one they come from. A reload finishing after a newer one, or a sale reloaded while the whole cube is read, thus
+ * keeps its newest rows.
+ * </p>
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SaleCube {
+
+	/**
+	 * Dimensions the cube can be grouped by.
+	 */
+	public enum Dimension {
+		PERIOD, ITEM, PROVIDER, PAYMENT_TYPE, BENEVOLE
+	}
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** Identifier of a missing sale or provider */
+	private static final long NONE = 0;
+
+	/** Payment type of a row without one */
+	private static final byte NO_PAYMENT_TYPE = -1;
+
+	/** Number of adherents whose adhesions are reloaded by a single query */
+	private static final int ADHERENTS_CHUNK = 500;
+
+	private static final Comparator<SaleCubeCell> CELL_ORDER = Comparator
+			.comparing(SaleCubeCell::getPeriod, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(SaleCubeCell::getName, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(SaleCubeCell::getProviderName, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(SaleCubeCell::getPaymentType, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(SaleCubeCell::getBenevole, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	private final JPAQueryFactory queryFactory;
+
+	private final PlatformTransactionManager transactionManager;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<Long, String> articleNames = new ConcurrentHashMap<>();
+
+	private final Map<Long, String> providerNames = new ConcurrentHashMap<>();
+
+	private int size;
+
+	/** Rows removed since the last compaction */
+	private final BitSet removedRows = new BitSet();
+
+	/** Rows of each sale */
+	private final Map<Long, List<Integer>> saleRows = new HashMap<>();
+
+	/** Rows of the adhesions of each adherent */
+	private final Map<Long, List<Integer>> adhesionRows = new HashMap<>();
+
+	/** Number of the last load started */
+	private final AtomicLong loads = new AtomicLong();
+
+	/** Load the whole cube comes from */
+	private long cubeLoad;
+
+	/** Load the rows of each sale reloaded since the whole cube was loaded come from */
+	private final Map<Long, Long> saleLoads = new HashMap<>();
+
+	/** Load the rows of the adhesions of each adherent reloaded since the whole cube was loaded come from */
+	private final Map<Long, Long> adhesionLoads = new HashMap<>();
+
+	/** Day of the sale, as given by {@link Granularity#DAY} */
+	private int[] days = new int[INITIAL_CAPACITY];
+
+	/** Sale of the row, {@link #NONE} for an adhesion */
+	private long[] saleIds = new long[INITIAL_CAPACITY];
+
+	private long[] adherentIds = new long[INITIAL_CAPACITY];
+
+	/** Identifier of the article, or opposite of the ordinal + 1 of the type of an adhesion */
+	private long[] items = new long[INITIAL_CAPACITY];
+
+	private long[] providerIds = new long[INITIAL_CAPACITY];
+
+	private byte[] paymentTypes = new byte[INITIAL_CAPACITY];
+
+	private boolean[] benevoles = new boolean[INITIAL_CAPACITY];
+
+	private int[] quantities = new int[INITIAL_CAPACITY];
+
+	private long[] amounts = new long[INITIAL_CAPACITY];
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void initialize() {
+		long start = System.currentTimeMillis();
+		long load = nextLoad();
+		List<Fact> facts = inTransaction(() -> {
+			List<Fact> all = new ArrayList<>(soldItems(null));
+			all.addAll(adhesions(null));
+			return all;
+		});
+
+		load(load, facts);
+		log.info("Cube des ventes chargé : {} lignes en {} ms", facts.size(), System.currentTimeMillis() - start);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleEvent(AbstractSaleEvent event) {
+		if (!event.concernsFinishedSale()) {
+			return;
+		}
+		long saleId = event.getSale().getId();
+		long load = nextLoad();
+		reloadSale(load, saleId, inTransaction(() -> soldItems(QSale.sale.id.eq(saleId))));
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleAdhesionChanged(AdhesionChangedEvent event) {
+		for (List<Long> chunk : Lists.partition(new ArrayList<>(event.getAdherentIds()), ADHERENTS_CHUNK)) {
+			long load = nextLoad();
+			reloadAdhesions(load, chunk, inTransaction(() -> adhesions(QAdherent.adherent.id.in(chunk))));
+		}
+	}
+
+	/**
+	 * Number a load, before reading its rows.
+	 */
+	long nextLoad() {
+		return loads.incrementAndGet();
+	}
+
+	/**
+	 * Replace the whole cube by the rows read by a load, except the sales and adherents reloaded since by a later load.
+	 */
+	void load(long load, List<Fact> facts) {
+		lock.writeLock().lock();
+		try {
+			if (load < cubeLoad) {
+				log.debug("Chargement {} du cube des ventes ignoré, le chargement {} est plus récent", load, cubeLoad);
+				return;
+			}
+			removeRows(row -> lastLoad(saleIds[row], adherentIds[row]) < load);
+			facts.stream()
+					.filter(fact -> lastLoad(fact.getSaleId(), fact.getAdherentId()) < load)
+					.forEach(this::append);
+
+			cubeLoad = load;
+			saleLoads.values().removeIf(last -> last < load);
+			adhesionLoads.values().removeIf(last -> last < load);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the rows of a sale by the ones read by a load, unless a later load already replaced them.
+	 */
+	void reloadSale(long load, long saleId, List<Fact> facts) {
+		lock.writeLock().lock();
+		try {
+			if (lastLoad(saleId, NONE) > load) {
+				log.debug("Rechargement {} de la vente {} ignoré, ses lignes sont plus récentes", load, saleId);
+				return;
+			}
+			removeSale(saleId);
+			facts.forEach(this::append);
+			saleLoads.put(saleId, load);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the rows of the adhesions of some adherents by the ones read by a load, except for the adherents a later load already reloaded.
+	 */
+	void reloadAdhesions(long load, Collection<Long> adherentIds, List<Fact> facts) {
+		lock.writeLock().lock();
+		try {
+			Set<Long> reloaded = new HashSet<>();
+			for (Long adherentId : adherentIds) {
+				if (lastLoad(NONE, adherentId) < load) {
+					removeAdhesions(adherentId);
+					adhesionLoads.put(adherentId, load);
+					reloaded.add(adherentId);
+				}
+			}
+			facts.stream()
+					.filter(fact -> reloaded.contains(fact.getAdherentId()))
+					.forEach(this::append);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Load the rows of a sale, or of the adhesions of an adherent without sale, come from. The write lock must be held.
+	 */
+	private long lastLoad(long saleId, long adherentId) {
+		Long last = saleId != NONE ? saleLoads.get(saleId) : adhesionLoads.get(adherentId);
+		return last != null ? last : cubeLoad;
+	}
+
+	/**
+	 * Quantity and amount sold by combination of the dimensions the query is grouped by, sorted by period, name, provider, payment type and
+	 * volunteer status.
+	 */
+	public List<SaleCubeCell> query(SaleCubeQuery query) {
+		int fromDay = Granularity.DAY.index(query.getFrom());
+		int toDay = Granularity.DAY.index(query.getTo());
+		if (toDay <= fromDay) {
+			return Collections.emptyList();
+		}
+
+		// Period and first day of the period of each day of the range, computed once instead of for each row
+		Granularity granularity = query.getGranularity();
+		int[] periodOfDay = new int[toDay - fromDay];
+		Map<Integer, LocalDate> periodStarts = new HashMap<>();
+		LocalDate date = query.getFrom();
+		for (int day = 0; day < periodOfDay.length; day++, date = date.plusDays(1)) {
+			periodOfDay[day] = granularity.index(date);
+			periodStarts.putIfAbsent(periodOfDay[day], granularity.periodStart(date));
+		}
+
+		boolean[] acceptedPaymentTypes = new boolean[PaymentType.values().length + 1];
+		Arrays.fill(acceptedPaymentTypes, query.getPaymentTypes().isEmpty());
+		query.getPaymentTypes().forEach(paymentType -> acceptedPaymentTypes[paymentType.ordinal() + 1] = true);
+		long[] articleFilter = query.getArticleIds();
+		long[] providerFilter = query.getProviderIds();
+		Boolean benevoleFilter = query.getBenevole();
+
+		boolean byPeriod = query.isGroupedBy(Dimension.PERIOD);
+		boolean byItem = query.isGroupedBy(Dimension.ITEM);
+		boolean byProvider = query.isGroupedBy(Dimension.PROVIDER);
+		boolean byPaymentType = query.isGroupedBy(Dimension.PAYMENT_TYPE);
+		boolean byBenevole = query.isGroupedBy(Dimension.BENEVOLE);
+
+		Map<CellKey, long[]> totals = new HashMap<>();
+		CellKey probe = new CellKey();
+		lock.readLock().lock();
+		try {
+			for (int row = 0; row < size; row++) {
+				int day = days[row];
+				if (day < fromDay || day >= toDay || removedRows.get(row)
+						|| !acceptedPaymentTypes[paymentTypes[row] + 1]
+						|| articleFilter.length > 0 && Arrays.binarySearch(articleFilter, items[row]) < 0
+						|| providerFilter.length > 0 && Arrays.binarySearch(providerFilter, providerIds[row]) < 0
+						|| benevoleFilter != null && benevoleFilter != benevoles[row]) {
+					continue;
+				}
+
+				probe.period = byPeriod ? periodOfDay[day - fromDay] : 0;
+				probe.item = byItem ? items[row] : NONE;
+				probe.providerId = byProvider ? providerIds[row] : NONE;
+				probe.paymentType = byPaymentType ? paymentTypes[row] : NO_PAYMENT_TYPE;
+				probe.benevole = byBenevole && benevoles[row];
+
+				long[] total = totals.get(probe);
+				if (total == null) {
+					total = new long[2];
+					totals.put(probe.copy(), total);
+				}
+				total[0] += quantities[row];
+				total[1] += amounts[row];
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return totals.entrySet().stream()
+				.map(entry -> toCell(entry.getKey(), entry.getValue(), query, periodStarts))
+				.sorted(CELL_ORDER)
+				.collect(Collectors.toList());
+	}
+
+	private SaleCubeCell toCell(CellKey key, long[] total, SaleCubeQuery query, Map<Integer, LocalDate> periodStarts) {
+		Long articleId = null;
+		String name = null;
+		if (query.isGroupedBy(Dimension.ITEM)) {
+			if (key.item > 0) {
+				articleId = key.item;
+				name = articleNames.get(key.item);
+			} else {
+				name = TypeAdhesion.values()[(int) -key.item - 1].getLabel();
+			}
+		}
+
+		Long providerId = query.isGroupedBy(Dimension.PROVIDER) && key.providerId != NONE ? key.providerId : null;
+		return new SaleCubeCell(
+				query.isGroupedBy(Dimension.PERIOD) ? periodStarts.get(key.period) : null,
+				articleId,
+				name,
+				providerId,
+				providerId != null ? providerNames.get(providerId) : null,
+				key.paymentType != NO_PAYMENT_TYPE ? PaymentType.values()[key.paymentType] : null,
+				query.isGroupedBy(Dimension.BENEVOLE) ? key.benevole : null,
+				total[0],
+				total[1]);
+	}
+
+	/**
+	 * Add a row, the write lock must be held.
+	 */
+	void append(Fact fact) {
+		if (size == days.length) {
+			int capacity = size * 2;
+			days = Arrays.copyOf(days, capacity);
+			saleIds = Arrays.copyOf(saleIds, capacity);
+			adherentIds = Arrays.copyOf(adherentIds, capacity);
+			items = Arrays.copyOf(items, capacity);
+			providerIds = Arrays.copyOf(providerIds, capacity);
+			paymentTypes = Arrays.copyOf(paymentTypes, capacity);
+			benevoles = Arrays.copyOf(benevoles, capacity);
+			quantities = Arrays.copyOf(quantities, capacity);
+			amounts = Arrays.copyOf(amounts, capacity);
+		}
+
+		days[size] = fact.getDay();
+		saleIds[size] = fact.getSaleId();
+		adherentIds[size] = fact.getAdherentId();
+		items[size] = fact.getItem();
+		providerIds[size] = fact.getProviderId();
+		paymentTypes[size] = fact.getPaymentType();
+		benevoles[size] = fact.isBenevole();
+		quantities[size] = fact.getQuantity();
+		amounts[size] = fact.getAmount();
+		index(size);
+		size++;
+	}
+
+	private void index(int row) {
+		Map<Long, List<Integer>> rows = saleIds[row] != NONE ? saleRows : adhesionRows;
+		rows.computeIfAbsent(saleIds[row] != NONE ? saleIds[row] : adherentIds[row], key -> new ArrayList<>(2)).add(row);
+	}
+
+	/**
+	 * Remove the matching rows, the write lock must be held. The arrays are compacted once half of the rows are removed.
+	 */
+	void removeRows(IntPredicate predicate) {
+		for (int row = 0; row < size; row++) {
+			if (!removedRows.get(row) && predicate.test(row)) {
+				removedRows.set(row);
+			}
+		}
+
+		compactIfNeeded();
+	}
+
+	/**
+	 * Remove the rows of a sale, the write lock must be held.
+	 */
+	void removeSale(long saleId) {
+		removeIndexedRows(saleRows.remove(saleId));
+	}
+
+	/**
+	 * Remove the rows of the adhesions of an adherent, the write lock must be held.
+	 */
+	void removeAdhesions(long adherentId) {
+		removeIndexedRows(adhesionRows.remove(adherentId));
+	}
+
+	private void removeIndexedRows(List<Integer> rows) {
+		if (rows != null) {
+			rows.forEach(removedRows::set);
+			compactIfNeeded();
+		}
+	}
+
+	private void compactIfNeeded() {
+		int removed = removedRows.cardinality();
+		if (removed > 0 && removed >= size / 2) {
+			compact();
+		}
+	}
+
+	private void compact() {
+		saleRows.clear();
+		adhesionRows.clear();
+		int live = 0;
+		for (int row = 0; row < size; row++) {
+			if (!removedRows.get(row)) {
+				days[live] = days[row];
+				saleIds[live] = saleIds[row];
+				adherentIds[live] = adherentIds[row];
+				items[live] = items[row];
+				providerIds[live] = providerIds[row];
+				paymentTypes[live] = paymentTypes[row];
+				benevoles[live] = benevoles[row];
+				quantities[live] = quantities[row];
+				amounts[live] = amounts[row];
+				index(live);
+				live++;
+			}
+		}
+		size = live;
+		removedRows.clear();
+	}
+
+	/**
+	 * Number of rows in the cube.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size - removedRows.cardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	void name(Long articleId, String articleName, Long providerId, String providerName) {
+		if (articleId != null && articleName != null) {
+			articleNames.put(articleId, articleName);
+		}
+		if (providerId != null && providerName != null) {
+			providerNames.put(providerId, providerName);
+		}
+	}
+
+	private List<Fact> soldItems(Predicate where) {
+		QSoldItem soldItem = QSoldItem.soldItem;
+		QSale sale = QSale.sale;
+		QAdherent adherent = QAdherent.adherent;
+		QStockHistory stockHistory = QStockHistory.stockHistory;
+		QArticle article = QArticle.article;
+		QProvider provider = QProvider.provider;
+
+		List<Tuple> tuples = queryFactory
+				.select(sale.id, sale.createdAt, adherent.id, adherent.benevole, sale.paymentType, article.id, article.name, provider.id, provider.name,
+						stockHistory.quantity, soldItem.price)
+				.from(soldItem)
+				.join(soldItem.sale, sale)
+				.join(sale.adherent, adherent)
+				.join(soldItem.stockHistory, stockHistory)
+				.join(stockHistory.article, article)
+				.leftJoin(article.provider, provider)
+				.where(sale.finished.isTrue(), where)
+				.fetch();
+
+		List<Fact> facts = new ArrayList<>(tuples.size());
+		for (Tuple tuple : tuples) {
+			Long articleId = tuple.get(article.id);
+			Long providerId = tuple.get(provider.id);
+			name(articleId, tuple.get(article.name), providerId, tuple.get(provider.name));
+
+			int quantity = tuple.get(stockHistory.quantity);
+			facts.add(Fact.soldItem(
+					tuple.get(sale.createdAt).toLocalDate(),
+					tuple.get(sale.id),
+					tuple.get(adherent.id),
+					articleId,
+					providerId != null ? providerId : NONE,
+					tuple.get(sale.paymentType),
+					Boolean.TRUE.equals(tuple.get(adherent.benevole)),
+					quantity,
+					(long) quantity * tuple.get(soldItem.price)));
+		}
+		return facts;
+	}
+
+	private List<Fact> adhesions(Predicate where) {
+		QAdhesion adhesion = QAdhesion.adhesion;
+		QAdherent adherent = QAdherent.adherent;
+
+		List<Tuple> tuples = queryFactory
+				.select(adhesion.dateAdhesion, adherent.id, adherent.benevole, adhesion.paymentType, adhesion.typeAdhesion, adhesion.price)
+				.from(adhesion)
+				.join(adhesion.adherent, adherent)
+				.where(adhesion.dateAdhesion.isNotNull(), adhesion.typeAdhesion.isNotNull(), where)
+				.fetch();
+
+		List<Fact> facts = new ArrayList<>(tuples.size());
+		for (Tuple tuple : tuples) {
+			TypeAdhesion typeAdhesion = tuple.get(adhesion.typeAdhesion);
+			Integer price = tuple.get(adhesion.price);
+			// The price of the type of adhesion prevails over the price given at the subscription
+			long amount = typeAdhesion.getPrice() != null ? typeAdhesion.getPrice() : price != null ? price : 0;
+
+			facts.add(Fact.adhesion(
+					tuple.get(adhesion.dateAdhesion),
+					tuple.get(adherent.id),
+					typeAdhesion,
+					tuple.get(adhesion.paymentType),
+					Boolean.TRUE.equals(tuple.get(adherent.benevole)),
+					amount));
+		}
+		return facts;
+	}
+
+	private static byte paymentType(PaymentType paymentType) {
+		return paymentType == null ? NO_PAYMENT_TYPE : (byte) paymentType.ordinal();
+	}
+
+	/**
+	 * Read the rows in a new read-only transaction: after a commit, the transaction of the event is not usable anymore.
+	 */
+	private List<Fact> inTransaction(Supplier<List<Fact>> query) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		transactionTemplate.setReadOnly(true);
+		return transactionTemplate.execute(status -> query.get());
+	}
+
+	/**
+	 * A sold item or an adhesion, before being stored in the columns of the cube.
+	 */
+	@Value
+	static class Fact {
+
+		int day;
+
+		long saleId;
+
+		long adherentId;
+
+		long item;
+
+		long providerId;
+
+		byte paymentType;
+
+		boolean benevole;
+
+		int quantity;
+
+		long amount;
+
+		static Fact soldItem(LocalDate date, long saleId, long adherentId, long articleId, long providerId, PaymentType paymentType,
+				boolean benevole, int quantity, long amount) {
+			return new Fact(Granularity.DAY.index(date), saleId, adherentId, articleId, providerId, SaleCube.paymentType(paymentType), benevole,
+					quantity, amount);
+		}
+
+		static Fact adhesion(LocalDate date, long adherentId, TypeAdhesion typeAdhesion, PaymentType paymentType, boolean benevole, long amount) {
+			return new Fact(Granularity.DAY.index(date), NONE, adherentId, -(typeAdhesion.ordinal() + 1L), NONE, SaleCube.paymentType(paymentType),
+					benevole, 1, amount);
+		}
+
+	}
+
+	/**
+	 * Values of the grouped dimensions of a row, mutable so that a single instance is used to probe the totals.
+	 */
+	@EqualsAndHashCode
+	private static class CellKey {
+
+		int period;
+
+		long item;
+
+		long providerId;
+
+		byte paymentType;
+
+		boolean benevole;
+
+		CellKey copy() {
+			CellKey copy = new CellKey();
+			copy.period = period;
+			copy.item = item;
+			copy.providerId = providerId;
+			copy.paymentType = paymentType;
+			copy.benevole = benevole;
+			return copy;
+		}
+
+	}
+
+}
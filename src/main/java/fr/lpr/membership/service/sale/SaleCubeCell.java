@@ -0,0 +1,88 @@
+package fr.lpr.membership.service.sale;
+
+import org.joda.time.LocalDate;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+
+/**
+ * Quantity and amount sold for a combination of the dimensions of the sales cube. The dimensions the query is not grouped by are null.
+ */
+public class SaleCubeCell {
+
+	/** First day of the period */
+	private final LocalDate period;
+
+	/** Identifier of the article, null for an adhesion */
+	private final Long articleId;
+
+	/** Name of the article or label of the adhesion */
+	private final String name;
+
+	private final Long providerId;
+
+	private final String providerName;
+
+	private final PaymentType paymentType;
+
+	private final Boolean benevole;
+
+	private final long quantity;
+
+	private final long amount;
+
+	SaleCubeCell(LocalDate period, Long articleId, String name, Long providerId, String providerName, PaymentType paymentType, Boolean benevole,
+			long quantity, long amount) {
+		this.period = period;
+		this.articleId = articleId;
+		this.name = name;
+		this.providerId = providerId;
+		this.providerName = providerName;
+		this.paymentType = paymentType;
+		this.benevole = benevole;
+		this.quantity = quantity;
+		this.amount = amount;
+	}
+
+	public LocalDate getPeriod() {
+		return period;
+	}
+
+	public Long getArticleId() {
+		return articleId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Long getProviderId() {
+		return providerId;
+	}
+
+	public String getProviderName() {
+		return providerName;
+	}
+
+	public PaymentType getPaymentType() {
+		return paymentType;
+	}
+
+	public Boolean getBenevole() {
+		return benevole;
+	}
+
+	public long getQuantity() {
+		return quantity;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	@Override
+	public String toString() {
+		return "SaleCubeCell{period=" + period + ", name='" + name + "', providerName='" + providerName + "', paymentType=" + paymentType
+				+ ", benevole=" + benevole + ", quantity=" + quantity + ", amount=" + amount + "}";
+	}
+
+}
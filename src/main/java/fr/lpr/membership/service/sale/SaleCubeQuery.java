@@ -0,0 +1,121 @@
+package fr.lpr.membership.service.sale;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.service.sale.SaleCube.Dimension;
+
+/**
+ * Dimensions to group the sales cube by and filters to apply, over the days [from, to).
+ *
+ * <p>
+ * An empty filter keeps every value of its dimension. The range spans at most {@link #MAX_DAYS} days, the query computing the period of
+ * each of them.
+ * </p>
+ */
+public class SaleCubeQuery {
+
+	/** Longest range, about twenty years */
+	public static final int MAX_DAYS = 20 * 366;
+
+	private final LocalDate from;
+
+	private final LocalDate to;
+
+	private Granularity granularity = Granularity.MONTH;
+
+	private final Set<Dimension> groupBy = EnumSet.noneOf(Dimension.class);
+
+	private final Set<PaymentType> paymentTypes = EnumSet.noneOf(PaymentType.class);
+
+	private long[] articleIds = new long[0];
+
+	private long[] providerIds = new long[0];
+
+	private Boolean benevole;
+
+	/**
+	 * @throws IllegalArgumentException if the range is longer than {@link #MAX_DAYS} days
+	 */
+	public SaleCubeQuery(LocalDate from, LocalDate to) {
+		if (Days.daysBetween(from, to).getDays() > MAX_DAYS) {
+			throw new IllegalArgumentException("Période trop longue, " + MAX_DAYS + " jours au plus");
+		}
+		this.from = from;
+		this.to = to;
+	}
+
+	public SaleCubeQuery granularity(Granularity granularity) {
+		this.granularity = granularity;
+		return this;
+	}
+
+	public SaleCubeQuery groupBy(Collection<Dimension> dimensions) {
+		groupBy.addAll(dimensions);
+		return this;
+	}
+
+	public SaleCubeQuery paymentTypes(Collection<PaymentType> paymentTypes) {
+		this.paymentTypes.addAll(paymentTypes);
+		return this;
+	}
+
+	public SaleCubeQuery articleIds(Collection<Long> articleIds) {
+		this.articleIds = sorted(articleIds);
+		return this;
+	}
+
+	public SaleCubeQuery providerIds(Collection<Long> providerIds) {
+		this.providerIds = sorted(providerIds);
+		return this;
+	}
+
+	public SaleCubeQuery benevole(Boolean benevole) {
+		this.benevole = benevole;
+		return this;
+	}
+
+	public LocalDate getFrom() {
+		return from;
+	}
+
+	public LocalDate getTo() {
+		return to;
+	}
+
+	public Granularity getGranularity() {
+		return granularity;
+	}
+
+	public boolean isGroupedBy(Dimension dimension) {
+		return groupBy.contains(dimension);
+	}
+
+	public Set<PaymentType> getPaymentTypes() {
+		return paymentTypes;
+	}
+
+	/** Sorted identifiers of the articles to keep */
+	long[] getArticleIds() {
+		return articleIds;
+	}
+
+	/** Sorted identifiers of the providers to keep */
+	long[] getProviderIds() {
+		return providerIds;
+	}
+
+	public Boolean getBenevole() {
+		return benevole;
+	}
+
+	private static long[] sorted(Collection<Long> ids) {
+		return ids.stream().mapToLong(Long::longValue).sorted().toArray();
+	}
+
+}
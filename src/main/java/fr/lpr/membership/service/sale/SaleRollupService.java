@@ -0,0 +1,217 @@
+package fr.lpr.membership.service.sale;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.domain.sale.SaleRollup;
+import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.repository.sale.SaleRollupRepository;
+import fr.lpr.membership.repository.sale.SaleRollupWriter;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
+import fr.lpr.membership.service.sale.event.SaleCreatedEvent;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.YearMonth;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the monthly sale rollups.
+ *
+ * <p>
+ * Created and deleted sales are applied as deltas. Updated sales and adhesion changes rebuild the months they touch from the aggregates
+ * computed by the database, as the previous state is not known anymore.
+ * </p>
+ *
+ * <p>
+ * The deltas of a transaction are merged by rollup and applied just before the commit, each one by a single upsert so that concurrent
+ * transactions creating the same rollup do not conflict.
+ * </p>
+ */
+@Service
+@Slf4j
+@Transactional
+@RequiredArgsConstructor
+public class SaleRollupService {
+
+	private final SaleRollupRepository saleRollupRepository;
+
+	private final SaleRollupWriter saleRollupWriter;
+
+	private final SaleRepository saleRepository;
+
+	private final AdhesionRepository adhesionRepository;
+
+	private final SaleStatisticsService saleStatisticsService;
+
+	@EventListener
+	public void handleSaleCreated(SaleCreatedEvent event) {
+		Sale sale = event.getSale();
+		if (sale.isFinished()) {
+			apply(sale, 1);
+		}
+	}
+
+	@EventListener
+	public void handleSaleUpdated(SaleUpdatedEvent event) {
+		Sale sale = event.getSale();
+		if (sale.isFinished() || event.wasFinished()) {
+			// Make the modifications of the sale visible to the rebuild queries
+			saleRepository.flush();
+			rebuild(new YearMonth(sale.getCreatedAt()));
+		}
+	}
+
+	@EventListener
+	public void handleSaleDeleted(SaleDeletedEvent event) {
+		Sale sale = event.getSale();
+		if (sale.isFinished()) {
+			apply(sale, -1);
+		}
+	}
+
+	@EventListener
+	public void handleAdhesionChanged(AdhesionChangedEvent event) {
+		adhesionRepository.flush();
+		event.getDates().stream().map(YearMonth::new).distinct().forEach(this::rebuild);
+	}
+
+	/**
+	 * Fill the rollups from the existing sales and adhesions when the table is empty.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void initialize() {
+		if (saleRollupRepository.count() != 0) {
+			return;
+		}
+
+		DateTime firstSaleDate = saleRepository.findFirstFinishedSaleDate();
+		TreeSet<LocalDate> firstDates = Stream.of(firstSaleDate == null ? null : firstSaleDate.toLocalDate(), adhesionRepository.findFirstAdhesionDate())
+				.filter(Objects::nonNull)
+				.collect(Collectors.toCollection(TreeSet::new));
+
+		if (!firstDates.isEmpty()) {
+			YearMonth firstMonth = new YearMonth(firstDates.first());
+			log.info("Initialisation des statistiques de vente depuis {}", firstMonth);
+			DateTime from = firstMonth.toLocalDate(1).toDateTimeAtStartOfDay();
+			save(saleStatisticsService.aggregate(from, new YearMonth().plusMonths(1).toLocalDate(1).toDateTimeAtStartOfDay(), Granularity.MONTH));
+		}
+	}
+
+	/**
+	 * Compute again the rollups of a month from the sales and adhesions.
+	 */
+	public void rebuild(YearMonth month) {
+		LocalDate monthStart = month.toLocalDate(1);
+		// The rebuild reads the flushed sales, the pending deltas of the month are already in it
+		Map<RollupKey, SaleRollup> deltas = pendingDeltas();
+		if (deltas != null) {
+			deltas.keySet().removeIf(key -> key.getMonth().equals(monthStart));
+		}
+		saleRollupRepository.deleteByMonth(monthStart);
+
+		DateTime from = monthStart.toDateTimeAtStartOfDay();
+		save(saleStatisticsService.aggregate(from, from.plusMonths(1), Granularity.MONTH));
+	}
+
+	private void save(List<SaleAggregate> aggregates) {
+		// An article and an adhesion may share a name, merge them as they share the rollup
+		Map<RollupKey, SaleRollup> rollups = aggregates.stream()
+				.collect(Collectors.toMap(
+						aggregate -> new RollupKey(aggregate.getPeriod(), aggregate.getName(), aggregate.getPaymentType()),
+						aggregate -> newRollup(aggregate.getPeriod(), aggregate.getName(), aggregate.getPaymentType(),
+								(int) aggregate.getQuantity(), aggregate.getTotalPrice()),
+						(r1, r2) -> r1.quantity(r1.getQuantity() + r2.getQuantity()).amount(r1.getAmount() + r2.getAmount())));
+
+		saleRollupRepository.save(rollups.values());
+	}
+
+	private void apply(Sale sale, int sign) {
+		LocalDate month = sale.getCreatedAt().toLocalDate().withDayOfMonth(1);
+		Map<RollupKey, SaleRollup> deltas = bindPendingDeltas();
+		sale.getSoldItems().stream()
+				.map(SoldItemProxy::new)
+				.forEach(item -> deltas.merge(new RollupKey(month, item.getName(), item.getPaymentType()),
+						newRollup(month, item.getName(), item.getPaymentType(), sign * item.getQuantity(), sign * item.getTotalPrice()),
+						(r1, r2) -> r1.quantity(r1.getQuantity() + r2.getQuantity()).amount(r1.getAmount() + r2.getAmount())));
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<RollupKey, SaleRollup> pendingDeltas() {
+		return (Map<RollupKey, SaleRollup>) TransactionSynchronizationManager.getResource(this);
+	}
+
+	private Map<RollupKey, SaleRollup> bindPendingDeltas() {
+		Map<RollupKey, SaleRollup> deltas = pendingDeltas();
+		if (deltas == null) {
+			deltas = new LinkedHashMap<>();
+			TransactionSynchronizationManager.bindResource(this, deltas);
+			TransactionSynchronizationManager.registerSynchronization(new ApplySynchronization());
+		}
+		return deltas;
+	}
+
+	private void applyPendingDeltas() {
+		Map<RollupKey, SaleRollup> deltas = pendingDeltas();
+		if (deltas == null) {
+			return;
+		}
+		// The rollups rebuilt by the transaction go first, the increments being merged with them by the database
+		saleRollupRepository.flush();
+		deltas.values().stream()
+				.filter(delta -> delta.getQuantity() != 0 || delta.getAmount() != 0)
+				.forEach(this::increment);
+		deltas.clear();
+	}
+
+	private void increment(SaleRollup delta) {
+		saleRollupWriter.increment(delta.getMonth(), delta.getItemName(), delta.getPaymentType(), delta.getQuantity(), delta.getAmount());
+	}
+
+	private static SaleRollup newRollup(LocalDate month, String itemName, PaymentType paymentType, int quantity, long amount) {
+		return new SaleRollup().month(month).itemName(itemName).paymentType(paymentType).quantity(quantity).amount(amount);
+	}
+
+	@Value
+	private static class RollupKey {
+
+		LocalDate month;
+
+		String itemName;
+
+		PaymentType paymentType;
+
+	}
+
+	private class ApplySynchronization extends TransactionSynchronizationAdapter {
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			applyPendingDeltas();
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(SaleRollupService.this);
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 package fr.lpr.membership.service.sale;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -12,6 +13,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
@@ -26,6 +28,7 @@ import fr.lpr.membership.service.sale.event.SaleCreatedEvent;
 import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
 import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
 import fr.lpr.membership.service.stock.StockQuantityChangedEvent;
+import fr.lpr.membership.web.rest.util.Cursor;
 import fr.lpr.membership.web.rest.util.PaginationUtil;
 
 @Service
@@ -56,6 +59,16 @@ public class SaleService {
 		return savedSale;
 	}
 
+	/**
+	 * Save new sales in a single transaction, for example the sales recorded by a cash desk while it was offline.
+	 *
+	 * @param sales
+	 * @return the saved sales
+	 */
+	public List<Sale> newSales(List<Sale> sales) {
+		return sales.stream().map(this::newSale).collect(Collectors.toList());
+	}
+
 	/**
 	 * Update a sale.
 	 *
@@ -68,6 +81,7 @@ public class SaleService {
 			// FIXME Exception
 			return null;
 		}
+		boolean wasFinished = existingSale.isFinished();
 
 		// TODO Code à placer dans l'entité Sale ?
 		for (SoldItem item : sale.getSoldItems()) {
@@ -97,7 +111,7 @@ public class SaleService {
 		existingSale.setFinished(sale.isFinished());
 		existingSale.setPaymentType(sale.getPaymentType());
 
-		eventPublisher.publishEvent(new SaleUpdatedEvent(existingSale));
+		eventPublisher.publishEvent(new SaleUpdatedEvent(existingSale, wasFinished));
 		return saleRepository.save(existingSale);
 	}
 
@@ -114,6 +128,24 @@ public class SaleService {
 		return saleRepository.findAll(QSale.sale.finished.isTrue(), pageRequest);
 	}
 
+	/**
+	 * Finished sales, most recent first, by offset without counting them.
+	 */
+	public Slice<Sale> historyWithoutCount(Integer offset, Integer limit) {
+		return saleRepository.findByFinishedTrueOrderByCreatedAtDescIdDesc(PaginationUtil.generatePageRequest(offset, limit));
+	}
+
+	/**
+	 * Finished sales, most recent first, following the given one if any.
+	 */
+	public Slice<Sale> history(Cursor after, Integer limit) {
+		final Pageable pageRequest = PaginationUtil.generateSliceRequest(limit);
+		if (after == null) {
+			return saleRepository.findByFinishedTrueOrderByCreatedAtDescIdDesc(pageRequest);
+		}
+		return saleRepository.findFinishedAfter(after.getCreatedAt(), after.getId(), pageRequest);
+	}
+
 	public List<Sale> getTemporarySales() {
 		return Lists.newArrayList(saleRepository.findAll(QSale.sale.finished.isFalse()));
 	}
@@ -124,4 +156,15 @@ public class SaleService {
 		eventPublisher.publishEvent(new SaleDeletedEvent(sale));
 	}
 
+	/**
+	 * Delete many sales in a single transaction.
+	 *
+	 * @param saleIds
+	 */
+	public void delete(Collection<Long> saleIds) {
+		List<Sale> sales = saleRepository.findAll(saleIds);
+		saleRepository.delete(sales);
+		sales.forEach(sale -> eventPublisher.publishEvent(new SaleDeletedEvent(sale)));
+	}
+
 }
@@ -1,25 +1,24 @@
 package fr.lpr.membership.service.sale;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-
-import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class SaleStatistics<T extends Comparable<?>> {
 
-	private final Multimap<T, SalableItem> itemsByPeriod;
+	private final SortedMap<T, List<SaleAggregate>> itemsByPeriod;
 
 	public SaleStatistics() {
-		this.itemsByPeriod = TreeMultimap.create();
+		this.itemsByPeriod = new TreeMap<>();
 	}
 
-	public Multimap<T, SalableItem> getItemsByPeriod() {
+	public SortedMap<T, List<SaleAggregate>> getItemsByPeriod() {
 		return itemsByPeriod;
 	}
 
-	public void addItems(Map<T, List<SalableItem>> soldItemsByMonth) {
-		soldItemsByMonth.entrySet().stream().forEach(e -> itemsByPeriod.putAll(e.getKey(), e.getValue()));
+	public void addItem(T period, SaleAggregate item) {
+		itemsByPeriod.computeIfAbsent(period, p -> new ArrayList<>()).add(item);
 	}
 
 }
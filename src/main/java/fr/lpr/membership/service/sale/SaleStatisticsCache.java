@@ -0,0 +1,167 @@
+package fr.lpr.membership.service.sale;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.service.event.AdhesionChangedEvent;
+import fr.lpr.membership.service.sale.event.AbstractSaleEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Serialized sale statistics of each year, with their ETag.
+ *
+ * <p>
+ * A year is computed once and kept until a finished sale or an adhesion of that year is modified, so that past years are almost never
+ * computed again. Years are evicted once the modification is committed. The past years are computed when the application starts.
+ * </p>
+ *
+ * <p>
+ * Only the years from the first sale or adhesion to the current one are cached, any other year is computed on each request.
+ * </p>
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SaleStatisticsCache {
+
+	private final SaleStatisticsService saleStatisticsService;
+
+	private final SaleRepository saleRepository;
+
+	private final AdhesionRepository adhesionRepository;
+
+	private final ObjectMapper objectMapper;
+
+	private final ConcurrentMap<Integer, YearStatistics> statisticsByYear = new ConcurrentHashMap<>();
+
+	/** Incremented on each eviction of a year, so that its statistics computed before an eviction are not cached */
+	private final ConcurrentMap<Integer, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	/** First year cached, none until the application has started */
+	private volatile int firstYear = Integer.MAX_VALUE;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void initialize() {
+		DateTime firstSaleDate = saleRepository.findFirstFinishedSaleDate();
+		int currentYear = LocalDate.now().getYear();
+		int first = Stream.of(firstSaleDate == null ? null : firstSaleDate.toLocalDate(), adhesionRepository.findFirstAdhesionDate())
+				.filter(Objects::nonNull)
+				.mapToInt(LocalDate::getYear)
+				.min()
+				.orElse(currentYear);
+		lowerFirstYear(first);
+
+		if (first == currentYear) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		for (int year = first; year < currentYear; year++) {
+			get(year);
+		}
+		log.info("Statistiques de vente de {} à {} calculées en {} ms", first, currentYear - 1, System.currentTimeMillis() - start);
+	}
+
+	public YearStatistics get(int year) {
+		YearStatistics statistics = statisticsByYear.get(year);
+		if (statistics != null) {
+			return statistics;
+		}
+
+		if (year < firstYear || year > LocalDate.now().getYear()) {
+			return compute(year);
+		}
+
+		AtomicLong generation = generation(year);
+		long currentGeneration = generation.get();
+		statistics = compute(year);
+		if (generation.get() == currentGeneration) {
+			YearStatistics existing = statisticsByYear.putIfAbsent(year, statistics);
+			return existing != null ? existing : statistics;
+		}
+		return statistics;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleEvent(AbstractSaleEvent event) {
+		// The carts still open are not in the statistics
+		if (event.concernsFinishedSale()) {
+			evict(event.getSale().getCreatedAt().getYear());
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleAdhesionChanged(AdhesionChangedEvent event) {
+		event.getDates().stream().map(LocalDate::getYear).distinct().forEach(this::evict);
+	}
+
+	private void evict(int year) {
+		generation(year).incrementAndGet();
+		if (statisticsByYear.remove(year) != null) {
+			log.debug("Statistiques de vente de {} à recalculer", year);
+		}
+		// A sale or an adhesion dated before the first one
+		if (firstYear != Integer.MAX_VALUE) {
+			lowerFirstYear(year);
+		}
+	}
+
+	private synchronized void lowerFirstYear(int year) {
+		if (year < firstYear) {
+			firstYear = year;
+		}
+	}
+
+	private AtomicLong generation(int year) {
+		return generations.computeIfAbsent(year, key -> new AtomicLong());
+	}
+
+	private YearStatistics compute(int year) {
+		DateTime from = DateTime.now().withYear(year).withMonthOfYear(1).withDayOfMonth(1).withTimeAtStartOfDay();
+		try {
+			byte[] json = objectMapper.writeValueAsBytes(saleStatisticsService.statsByMonths(from));
+			return new YearStatistics(json, "\"" + DigestUtils.md5DigestAsHex(json) + "\"");
+		} catch (JsonProcessingException ex) {
+			throw new IllegalStateException("Failed to serialize sale statistics of " + year, ex);
+		}
+	}
+
+	/**
+	 * Statistics of a year serialized as JSON, with a strong ETag computed from the content.
+	 */
+	public static class YearStatistics {
+
+		private final byte[] json;
+
+		private final String etag;
+
+		YearStatistics(byte[] json, String etag) {
+			this.json = json;
+			this.etag = etag;
+		}
+
+		public byte[] getJson() {
+			return json.clone();
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package fr.lpr.membership.service.sale;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.LocalDate;
+
+/**
+ * Total price sold by period and item over a range of periods, stored in a dense {@code long[periods][items]} matrix.
+ *
+ * <p>
+ * The item columns are given once, and the matrix is reused for each range by calling {@link #reset(LocalDate, LocalDate)}. Adding an
+ * aggregate is a dictionary lookup and an addition, with no allocation.
+ * </p>
+ */
+public class SaleStatisticsMatrix {
+
+	private final Granularity granularity;
+
+	/** Column of each item name */
+	private final Map<String, Integer> columns;
+
+	private final int columnCount;
+
+	private long[][] totals = new long[0][];
+
+	/** Start of each period having sales, null if the period has no sale */
+	private LocalDate[] periods = new LocalDate[0];
+
+	private int firstIndex;
+
+	private int rowCount;
+
+	public SaleStatisticsMatrix(Granularity granularity, List<String> columnNames) {
+		this.granularity = granularity;
+		this.columnCount = columnNames.size();
+		this.columns = new HashMap<>(columnCount * 2);
+		for (int column = 0; column != columnCount; ++column) {
+			columns.put(columnNames.get(column), column);
+		}
+	}
+
+	/**
+	 * Empty the matrix and make it cover the periods of [from, to).
+	 */
+	public void reset(LocalDate from, LocalDate to) {
+		firstIndex = granularity.index(from);
+		rowCount = granularity.index(to.minusDays(1)) - firstIndex + 1;
+
+		if (totals.length < rowCount) {
+			totals = new long[rowCount][columnCount];
+			periods = new LocalDate[rowCount];
+		} else {
+			for (int row = 0; row != rowCount; ++row) {
+				Arrays.fill(totals[row], 0L);
+			}
+			Arrays.fill(periods, null);
+		}
+	}
+
+	/**
+	 * Add the total price of an aggregate to its period and item. Items without column are ignored.
+	 */
+	public void add(SaleAggregate aggregate) {
+		Integer column = columns.get(aggregate.getName());
+		if (column == null) {
+			return;
+		}
+
+		int row = granularity.index(aggregate.getPeriod()) - firstIndex;
+		totals[row][column] += aggregate.getTotalPrice();
+		periods[row] = aggregate.getPeriod();
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * Start of the period of the row, null if nothing has been sold during that period.
+	 */
+	public LocalDate getPeriod(int row) {
+		return periods[row];
+	}
+
+	public long getTotal(int row, int column) {
+		return totals[row][column];
+	}
+
+}
@@ -1,58 +1,246 @@
 package fr.lpr.membership.service.sale;
 
-import com.querydsl.core.BooleanBuilder;
+import com.google.common.collect.ObjectArrays;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
 import fr.lpr.membership.domain.QAdhesion;
+import fr.lpr.membership.domain.QArticle;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
 import fr.lpr.membership.domain.sale.QSale;
-import fr.lpr.membership.repository.AdhesionRepository;
-import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.domain.sale.QSoldItem;
+import fr.lpr.membership.domain.stock.QStockHistory;
+import fr.lpr.membership.repository.sale.SaleRollupRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.joda.time.YearMonth;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 @Service
 @Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class SaleStatisticsService {
 
-	private final SaleRepository saleRepository;
+	private final JPAQueryFactory queryFactory;
 
-	private final AdhesionRepository adhesionRepository;
+	private final SaleRollupRepository saleRollupRepository;
 
+	private final PlatformTransactionManager transactionManager;
+
+	private final ThreadPoolTaskExecutor statisticsExecutor;
+
+	/**
+	 * Statistics of the year starting at 'from', read from the monthly rollups.
+	 */
 	public SaleStatistics<YearMonth> statsByMonths(DateTime from) {
-        DateTime to = from.plusYears(1);
-
-		// Search finished sales created after 'from' date
-		BooleanBuilder salePredicate = new BooleanBuilder();
-		salePredicate.and(QSale.sale.createdAt.between(from, to));
-		salePredicate.and(QSale.sale.finished.isTrue());
-
-		Map<YearMonth, List<SalableItem>> soldItemsByMonth =
-				StreamSupport
-						.stream(saleRepository.findAll(salePredicate).spliterator(), false)
-						.flatMap(s -> s.getSoldItems().stream())
-						.map(SoldItemProxy::new)
-						.collect(Collectors.groupingBy(item -> new YearMonth(item.getSaleDate())));
-
-		// Search adhesions created after 'from' date
-		Map<YearMonth, List<SalableItem>> adhesionsByMonth =
-				StreamSupport
-						.stream(adhesionRepository.findAll(
-								QAdhesion.adhesion.dateAdhesion.between(from.toLocalDate(), to.toLocalDate()))
-								.spliterator(), false)
-						.map(AdhesionProxy::new)
-						.collect(Collectors.groupingBy(a -> new YearMonth(a.getSaleDate())));
-
-		SaleStatistics<YearMonth> itemsByMonth = new SaleStatistics<>();
-		itemsByMonth.addItems(soldItemsByMonth);
-		itemsByMonth.addItems(adhesionsByMonth);
-		return itemsByMonth;
+		SaleStatistics<YearMonth> statistics = new SaleStatistics<>();
+		statistics(from, from.plusYears(1), Granularity.MONTH).forEach(aggregate -> statistics.addItem(new YearMonth(aggregate.getPeriod()), aggregate));
+		return statistics;
+	}
+
+	/**
+	 * Statistics of [from, to) grouped by period of the given granularity.
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public SaleStatistics<LocalDate> statsByPeriods(DateTime from, DateTime to, Granularity granularity) {
+		SaleStatistics<LocalDate> statistics = new SaleStatistics<>();
+		statistics(from, to, granularity).forEach(aggregate -> statistics.addItem(aggregate.getPeriod(), aggregate));
+		return statistics;
+	}
+
+	/**
+	 * Quantity and amount sold in [from, to) by period, item and payment type, sorted by period and name.
+	 *
+	 * <p>
+	 * The range is split in chunks computed in parallel: whole months are read from the monthly rollups when the granularity allows it, the
+	 * rest is aggregated by the database month by month, sales and adhesions being queried concurrently. The chunks are then grouped by
+	 * period of the given granularity.
+	 * </p>
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public List<SaleAggregate> statistics(DateTime from, DateTime to, Granularity granularity) {
+		Granularity base = granularity.base();
+		List<CompletableFuture<List<SaleAggregate>>> chunks = new ArrayList<>();
+
+		DateTime rollupsFrom = monthStart(from).isBefore(from) ? monthStart(from).plusMonths(1) : from;
+		DateTime rollupsTo = monthStart(to);
+		boolean useRollups = base == Granularity.MONTH && rollupsFrom.isBefore(rollupsTo);
+		if (useRollups) {
+			chunks.add(supply(() -> rollups(rollupsFrom, rollupsTo)));
+		}
+
+		DateTime chunkStart = from;
+		while (chunkStart.isBefore(to)) {
+			if (useRollups && chunkStart.equals(rollupsFrom)) {
+				chunkStart = rollupsTo;
+				continue;
+			}
+			DateTime start = chunkStart;
+			DateTime end = monthStart(chunkStart).plusMonths(1).isBefore(to) ? monthStart(chunkStart).plusMonths(1) : to;
+			chunks.add(supply(() -> aggregateSoldItems(start, end, base)));
+			chunks.add(supply(() -> aggregateAdhesions(start, end, base)));
+			chunkStart = end;
+		}
+
+		// Group the chunks by period, a period may be split over several chunks
+		Map<AggregateKey, SaleAggregate> aggregates = new HashMap<>();
+		for (CompletableFuture<List<SaleAggregate>> chunk : chunks) {
+			for (SaleAggregate aggregate : chunk.join()) {
+				LocalDate period = granularity.periodStart(aggregate.getPeriod());
+				aggregates.merge(new AggregateKey(period, aggregate.getName(), aggregate.getPaymentType()),
+						new SaleAggregate(period, aggregate.getName(), aggregate.getPaymentType(), aggregate.getQuantity(), aggregate.getTotalPrice()),
+						(a1, a2) -> new SaleAggregate(period, a1.getName(), a1.getPaymentType(), a1.getQuantity() + a2.getQuantity(),
+								a1.getTotalPrice() + a2.getTotalPrice()));
+			}
+		}
+
+		return aggregates.values().stream()
+				.sorted(Comparator.comparing(SaleAggregate::getPeriod).thenComparing(SaleAggregate::getName))
+				.collect(Collectors.toList());
+	}
+
+	private List<SaleAggregate> rollups(DateTime from, DateTime to) {
+		return saleRollupRepository.findByMonthRange(from.toLocalDate(), to.toLocalDate()).stream()
+				.map(rollup -> new SaleAggregate(rollup.getMonth(), rollup.getItemName(), rollup.getPaymentType(), rollup.getQuantity(),
+						rollup.getAmount()))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Run a chunk on the statistics executor, in its own read-only transaction.
+	 */
+	private CompletableFuture<List<SaleAggregate>> supply(Supplier<List<SaleAggregate>> chunk) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(true);
+		return CompletableFuture.supplyAsync(() -> transactionTemplate.execute(status -> chunk.get()), statisticsExecutor);
+	}
+
+	private static DateTime monthStart(DateTime date) {
+		return date.withDayOfMonth(1).withTimeAtStartOfDay();
+	}
+
+	/**
+	 * Quantity and amount sold in [from, to) by period, item and payment type, aggregated by the database from the sales and adhesions.
+	 */
+	List<SaleAggregate> aggregate(DateTime from, DateTime to, Granularity granularity) {
+		List<SaleAggregate> aggregates = new ArrayList<>();
+		aggregates.addAll(aggregateSoldItems(from, to, granularity));
+		aggregates.addAll(aggregateAdhesions(from, to, granularity));
+		return aggregates;
+	}
+
+	private List<SaleAggregate> aggregateSoldItems(DateTime from, DateTime to, Granularity granularity) {
+		QSoldItem soldItem = QSoldItem.soldItem;
+		QSale sale = QSale.sale;
+		QStockHistory stockHistory = QStockHistory.stockHistory;
+		QArticle article = QArticle.article;
+
+		Expression<?>[] groups = groupBy(period(granularity, sale.createdAt.year(), sale.createdAt.month(), sale.createdAt.dayOfMonth()),
+				article.name, sale.paymentType);
+		List<Tuple> tuples = queryFactory
+				.select(ObjectArrays.concat(groups, new Expression<?>[] { stockHistory.quantity.sum(), soldItem.price.multiply(stockHistory.quantity).sum() },
+						Expression.class))
+				.from(soldItem)
+				.join(soldItem.sale, sale)
+				.join(soldItem.stockHistory, stockHistory)
+				.join(stockHistory.article, article)
+				.where(sale.finished.isTrue(), sale.createdAt.goe(from), sale.createdAt.lt(to))
+				.groupBy(groups)
+				.fetch();
+
+		int index = groups.length - 2;
+		List<SaleAggregate> aggregates = new ArrayList<>(tuples.size());
+		for (Tuple tuple : tuples) {
+			aggregates.add(new SaleAggregate(
+					toPeriod(tuple, granularity),
+					tuple.get(index, String.class),
+					tuple.get(index + 1, PaymentType.class),
+					toLong(tuple.get(index + 2, Number.class)),
+					toLong(tuple.get(index + 3, Number.class))));
+		}
+		return aggregates;
+	}
+
+	private List<SaleAggregate> aggregateAdhesions(DateTime from, DateTime to, Granularity granularity) {
+		QAdhesion adhesion = QAdhesion.adhesion;
+
+		Expression<?>[] groups = groupBy(
+				period(granularity, adhesion.dateAdhesion.year(), adhesion.dateAdhesion.month(), adhesion.dateAdhesion.dayOfMonth()),
+				adhesion.typeAdhesion, adhesion.paymentType);
+		List<Tuple> tuples = queryFactory
+				.select(ObjectArrays.concat(groups, new Expression<?>[] { adhesion.count(), adhesion.price.sum() }, Expression.class))
+				.from(adhesion)
+				.where(adhesion.dateAdhesion.goe(from.toLocalDate()), adhesion.dateAdhesion.lt(to.toLocalDate()))
+				.groupBy(groups)
+				.fetch();
+
+		int index = groups.length - 2;
+		List<SaleAggregate> aggregates = new ArrayList<>(tuples.size());
+		for (Tuple tuple : tuples) {
+			TypeAdhesion typeAdhesion = tuple.get(index, TypeAdhesion.class);
+			long count = toLong(tuple.get(index + 2, Number.class));
+			// The price of the type of adhesion prevails over the price given at the subscription
+			long amount = typeAdhesion.getPrice() != null ? count * typeAdhesion.getPrice() : toLong(tuple.get(index + 3, Number.class));
+
+			aggregates.add(new SaleAggregate(
+					toPeriod(tuple, granularity),
+					typeAdhesion.getLabel(),
+					tuple.get(index + 1, PaymentType.class),
+					count,
+					amount));
+		}
+		return aggregates;
+	}
+
+	/**
+	 * Year and month, plus the day of month for a daily granularity.
+	 */
+	private static Expression<?>[] period(Granularity granularity, Expression<Integer> year, Expression<Integer> month, Expression<Integer> day) {
+		return granularity == Granularity.DAY ? new Expression<?>[] { year, month, day } : new Expression<?>[] { year, month };
+	}
+
+	private static Expression<?>[] groupBy(Expression<?>[] period, Expression<?> name, Expression<?> paymentType) {
+		return ObjectArrays.concat(period, new Expression<?>[] { name, paymentType }, Expression.class);
+	}
+
+	/**
+	 * First day of the period from the year, month and day selected at the beginning of the tuple.
+	 */
+	private static LocalDate toPeriod(Tuple tuple, Granularity granularity) {
+		int day = granularity == Granularity.DAY ? tuple.get(2, Number.class).intValue() : 1;
+		return new LocalDate(tuple.get(0, Number.class).intValue(), tuple.get(1, Number.class).intValue(), day);
+	}
+
+	private static long toLong(Number number) {
+		return number == null ? 0 : number.longValue();
+	}
+
+	@Value
+	private static class AggregateKey {
+
+		LocalDate period;
+
+		String name;
+
+		PaymentType paymentType;
+
 	}
 
 }
@@ -0,0 +1,173 @@
+package fr.lpr.membership.service.sale;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.QSale;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.service.sale.event.SaleCreatedEvent;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Running revenue of the day by payment type and by article.
+ *
+ * <p>
+ * The totals are {@link LongAdder} counters, updated without locking once a sale modification is committed. The amounts each sale of the
+ * day added are kept, so that an update or a deletion of the sale replaces them. The totals start again from zero when the day changes.
+ * </p>
+ */
+@Component
+@RequiredArgsConstructor
+public class SaleTotals {
+
+	private final SaleRepository saleRepository;
+
+	private final AtomicReference<DayTotals> current = new AtomicReference<>(new DayTotals(LocalDate.now()));
+
+	/**
+	 * Sum the sales already finished today.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void initialize() {
+		DayTotals totals = today();
+		DateTime dayStart = totals.getDay().toDateTimeAtStartOfDay();
+		QSale sale = QSale.sale;
+		saleRepository.findAll(sale.finished.isTrue().and(sale.createdAt.goe(dayStart)).and(sale.createdAt.lt(dayStart.plusDays(1))))
+				.forEach(finishedSale -> totals.replace(finishedSale.getId(), contributions(finishedSale)));
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleCreated(SaleCreatedEvent event) {
+		update(event.getSale());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleUpdated(SaleUpdatedEvent event) {
+		update(event.getSale());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleSaleDeleted(SaleDeletedEvent event) {
+		today().remove(event.getSale().getId());
+	}
+
+	/**
+	 * Totals of the day.
+	 */
+	public SaleTotalsSnapshot snapshot() {
+		return today().snapshot();
+	}
+
+	private void update(Sale sale) {
+		DayTotals totals = today();
+		if (sale.isFinished() && totals.getDay().equals(sale.getCreatedAt().toLocalDate())) {
+			totals.replace(sale.getId(), contributions(sale));
+		} else {
+			totals.remove(sale.getId());
+		}
+	}
+
+	private DayTotals today() {
+		DayTotals totals = current.get();
+		LocalDate today = LocalDate.now();
+		if (!totals.getDay().equals(today)) {
+			DayTotals newTotals = new DayTotals(today);
+			totals = current.compareAndSet(totals, newTotals) ? newTotals : current.get();
+		}
+		return totals;
+	}
+
+	private static List<Contribution> contributions(Sale sale) {
+		return sale.getSoldItems().stream()
+				.map(soldItem -> new Contribution(sale.getPaymentType(), soldItem.getArticle().getId(), (long) soldItem.getQuantity() * soldItem.getPrice()))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Amount a sold item added to the totals.
+	 */
+	@Value
+	private static class Contribution {
+
+		PaymentType paymentType;
+
+		long articleId;
+
+		long amount;
+
+	}
+
+	private static class DayTotals {
+
+		private final LocalDate day;
+
+		/** Filled once, only the counters are modified afterwards */
+		private final Map<PaymentType, LongAdder> byPaymentType = new EnumMap<>(PaymentType.class);
+
+		private final ConcurrentMap<Long, LongAdder> byArticle = new ConcurrentHashMap<>();
+
+		private final ConcurrentMap<Long, List<Contribution>> contributionsBySale = new ConcurrentHashMap<>();
+
+		DayTotals(LocalDate day) {
+			this.day = day;
+			for (PaymentType paymentType : PaymentType.values()) {
+				byPaymentType.put(paymentType, new LongAdder());
+			}
+		}
+
+		LocalDate getDay() {
+			return day;
+		}
+
+		void replace(long saleId, List<Contribution> contributions) {
+			add(contributionsBySale.put(saleId, contributions), -1);
+			add(contributions, 1);
+		}
+
+		void remove(long saleId) {
+			add(contributionsBySale.remove(saleId), -1);
+		}
+
+		private void add(List<Contribution> contributions, int sign) {
+			if (contributions == null) {
+				return;
+			}
+			for (Contribution contribution : contributions) {
+				if (contribution.getPaymentType() != null) {
+					byPaymentType.get(contribution.getPaymentType()).add(sign * contribution.getAmount());
+				}
+				byArticle.computeIfAbsent(contribution.getArticleId(), articleId -> new LongAdder()).add(sign * contribution.getAmount());
+			}
+		}
+
+		SaleTotalsSnapshot snapshot() {
+			Map<PaymentType, Long> paymentTypeTotals = new EnumMap<>(PaymentType.class);
+			byPaymentType.forEach((paymentType, total) -> paymentTypeTotals.put(paymentType, total.sum()));
+			Map<Long, Long> articleTotals = new HashMap<>();
+			byArticle.forEach((articleId, total) -> articleTotals.put(articleId, total.sum()));
+			return new SaleTotalsSnapshot(day, true, paymentTypeTotals, articleTotals);
+		}
+
+	}
+
+}
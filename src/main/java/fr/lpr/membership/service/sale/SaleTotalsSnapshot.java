@@ -0,0 +1,92 @@
+package fr.lpr.membership.service.sale;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.LocalDate;
+
+import fr.lpr.membership.domain.sale.PaymentType;
+
+/**
+ * Revenue of a day by payment type and by article: either the totals, or the changes since the previous snapshot when it is a delta.
+ */
+public class SaleTotalsSnapshot {
+
+	private final LocalDate day;
+
+	/** Whether the amounts are totals, replacing everything known of the day, rather than changes */
+	private final boolean full;
+
+	private final Map<PaymentType, Long> byPaymentType;
+
+	/** Amounts by article identifier */
+	private final Map<Long, Long> byArticle;
+
+	SaleTotalsSnapshot(LocalDate day, boolean full, Map<PaymentType, Long> byPaymentType, Map<Long, Long> byArticle) {
+		this.day = day;
+		this.full = full;
+		this.byPaymentType = Collections.unmodifiableMap(byPaymentType);
+		this.byArticle = Collections.unmodifiableMap(byArticle);
+	}
+
+	/**
+	 * Changes from the given totals to these totals, only the amounts that changed being kept. These totals are returned as they are when the
+	 * previous ones are not of the same day.
+	 */
+	public SaleTotalsSnapshot since(SaleTotalsSnapshot previous) {
+		if (previous == null || !previous.day.equals(day)) {
+			return this;
+		}
+
+		Map<PaymentType, Long> paymentTypeChanges = new EnumMap<>(PaymentType.class);
+		byPaymentType.forEach((paymentType, amount) -> {
+			long change = amount - previous.byPaymentType.getOrDefault(paymentType, 0L);
+			if (change != 0) {
+				paymentTypeChanges.put(paymentType, change);
+			}
+		});
+
+		Map<Long, Long> articleChanges = new HashMap<>();
+		byArticle.forEach((articleId, amount) -> {
+			long change = amount - previous.byArticle.getOrDefault(articleId, 0L);
+			if (change != 0) {
+				articleChanges.put(articleId, change);
+			}
+		});
+		previous.byArticle.forEach((articleId, amount) -> {
+			if (!byArticle.containsKey(articleId) && amount != 0) {
+				articleChanges.put(articleId, -amount);
+			}
+		});
+
+		return new SaleTotalsSnapshot(day, false, paymentTypeChanges, articleChanges);
+	}
+
+	public boolean isEmpty() {
+		return !full && byPaymentType.isEmpty() && byArticle.isEmpty();
+	}
+
+	public LocalDate getDay() {
+		return day;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public Map<PaymentType, Long> getByPaymentType() {
+		return byPaymentType;
+	}
+
+	public Map<Long, Long> getByArticle() {
+		return byArticle;
+	}
+
+	@Override
+	public String toString() {
+		return "SaleTotalsSnapshot{day=" + day + ", full=" + full + ", byPaymentType=" + byPaymentType + ", byArticle=" + byArticle + "}";
+	}
+
+}
@@ -15,4 +15,11 @@ public abstract class AbstractSaleEvent {
 		return sale;
 	}
 
+	/**
+	 * @return true if the sale is finished, or was before this event: the carts still open are left out of the sales figures
+	 */
+	public boolean concernsFinishedSale() {
+		return sale.isFinished();
+	}
+
 }
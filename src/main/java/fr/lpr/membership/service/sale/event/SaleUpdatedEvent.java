@@ -4,8 +4,23 @@ import fr.lpr.membership.domain.sale.Sale;
 
 public class SaleUpdatedEvent extends AbstractSaleEvent {
 
-	public SaleUpdatedEvent(Sale sale) {
+	private final boolean wasFinished;
+
+	public SaleUpdatedEvent(Sale sale, boolean wasFinished) {
 		super(sale);
+		this.wasFinished = wasFinished;
+	}
+
+	/**
+	 * @return true if the sale was already finished before this update
+	 */
+	public boolean wasFinished() {
+		return wasFinished;
+	}
+
+	@Override
+	public boolean concernsFinishedSale() {
+		return wasFinished || super.concernsFinishedSale();
 	}
 
 }
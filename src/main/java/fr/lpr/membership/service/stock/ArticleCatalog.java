@@ -0,0 +1,123 @@
+package fr.lpr.membership.service.stock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.lpr.membership.repository.ArticleRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The articles sorted by name, serialized once as JSON and gzipped JSON, with their ETag.
+ *
+ * <p>
+ * The catalog is read by every cash desk but rarely changes: a snapshot is built on the first read after a modification of an article or
+ * a committed stock change, then replaced at once, so that the following reads only write its bytes. A burst of stock changes makes a
+ * single rebuild.
+ * </p>
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ArticleCatalog {
+
+	private final ArticleRepository articleRepository;
+
+	private final ObjectMapper objectMapper;
+
+	private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+	/** Incremented on each modification, a snapshot built from an older generation is outdated */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * The up to date catalog, rebuilt if an article changed since the last snapshot.
+	 */
+	public Snapshot snapshot() {
+		Snapshot snapshot = current.get();
+		if (snapshot != null && snapshot.version == generation.get()) {
+			return snapshot;
+		}
+
+		synchronized (this) {
+			snapshot = current.get();
+			long version = generation.get();
+			if (snapshot == null || snapshot.version != version) {
+				snapshot = build(version);
+				current.set(snapshot);
+			}
+			return snapshot;
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void handleStockQuantityChanged(StockQuantityChangedEvent event) {
+		invalidate();
+	}
+
+	/**
+	 * An article was created, modified or deleted.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+	}
+
+	private Snapshot build(long version) {
+		try {
+			byte[] json = objectMapper.writeValueAsBytes(articleRepository.findAll(new Sort("name")));
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream(json.length / 4);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+				gzip.write(json);
+			}
+			String hash = DigestUtils.md5DigestAsHex(json);
+			log.debug("Catalogue des articles reconstruit : {} octets, {} compressés", json.length, gzipped.size());
+			return new Snapshot(version, json, gzipped.toByteArray(), hash);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Failed to serialize the article catalog", ex);
+		}
+	}
+
+	/**
+	 * Catalog serialized as JSON, with a strong ETag computed from the content. The gzipped representation has its own ETag.
+	 */
+	public static class Snapshot {
+
+		private final long version;
+
+		private final byte[] json;
+
+		private final byte[] gzippedJson;
+
+		private final String hash;
+
+		Snapshot(long version, byte[] json, byte[] gzippedJson, String hash) {
+			this.version = version;
+			this.json = json;
+			this.gzippedJson = gzippedJson;
+			this.hash = hash;
+		}
+
+		/**
+		 * The serialized catalog, shared by all the requests: it must not be modified.
+		 */
+		public byte[] getJson(boolean gzipped) {
+			return gzipped ? gzippedJson : json;
+		}
+
+		public String getEtag(boolean gzipped) {
+			return "\"" + hash + (gzipped ? "-gzip" : "") + "\"";
+		}
+
+	}
+
+}
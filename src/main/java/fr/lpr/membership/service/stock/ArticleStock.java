@@ -0,0 +1,40 @@
+package fr.lpr.membership.service.stock;
+
+/**
+ * Stock of an article on a date.
+ */
+public class ArticleStock {
+
+	private final Long articleId;
+
+	private final String name;
+
+	/** Purchase price, to value the stock */
+	private final Integer unitPrice;
+
+	private final int quantity;
+
+	ArticleStock(Long articleId, String name, Integer unitPrice, int quantity) {
+		this.articleId = articleId;
+		this.name = name;
+		this.unitPrice = unitPrice;
+		this.quantity = quantity;
+	}
+
+	public Long getArticleId() {
+		return articleId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Integer getUnitPrice() {
+		return unitPrice;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+}
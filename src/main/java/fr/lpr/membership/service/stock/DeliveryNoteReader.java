@@ -0,0 +1,210 @@
+package fr.lpr.membership.service.stock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVReader;
+
+import fr.lpr.membership.domain.stock.Reassort;
+import fr.lpr.membership.service.exception.DeliveryNoteException;
+
+/**
+ * Reads the lines of a supplier delivery note, a CSV file or the first sheet of an XLSX file, row by row without loading the whole
+ * document.
+ *
+ * <p>
+ * The first row names the columns: {@code quantity} and either {@code reference}, the reference of the article at its provider, or
+ * {@code id}, the identifier of the article. The other columns are ignored, as are the rows without reference nor identifier. A CSV file
+ * is separated by semicolons if its first row contains one, and by commas otherwise.
+ * </p>
+ */
+final class DeliveryNoteReader {
+
+	private DeliveryNoteReader() {
+	}
+
+	/**
+	 * Read a delivery note, its format given by the extension of the file.
+	 *
+	 * @throws DeliveryNoteException
+	 *             if the file is not a delivery note
+	 */
+	static void read(InputStream inputStream, String fileName, Consumer<Reassort> consumer) throws IOException {
+		String name = fileName == null ? "" : fileName.toLowerCase(Locale.ROOT);
+		if (name.endsWith(".csv")) {
+			readCsv(inputStream, consumer);
+		} else if (name.endsWith(".xlsx")) {
+			readXlsx(inputStream, consumer);
+		} else {
+			throw new DeliveryNoteException("Format de bon de livraison non supporté : " + fileName);
+		}
+	}
+
+	private static void readCsv(InputStream inputStream, Consumer<Reassort> consumer) throws IOException {
+		// Spreadsheets save their CSV files in UTF-8 with a byte order mark, which would be taken for the start of the first column
+		BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new BOMInputStream(inputStream), StandardCharsets.UTF_8));
+		String header = bufferedReader.readLine();
+		if (header == null) {
+			throw new DeliveryNoteException("Bon de livraison vide");
+		}
+		char separator = header.contains(";") ? ';' : ',';
+
+		RowParser parser = new RowParser(Arrays.asList(new CSVParser(separator).parseLine(header)), consumer);
+		CSVReader reader = new CSVReader(bufferedReader, separator);
+		int number = 1;
+		for (Iterator<String[]> rows = reader.iterator(); rows.hasNext();) {
+			parser.row(++number, Arrays.asList(rows.next()));
+		}
+	}
+
+	private static void readXlsx(InputStream inputStream, Consumer<Reassort> consumer) throws IOException {
+		OPCPackage opcPackage;
+		try {
+			opcPackage = OPCPackage.open(inputStream);
+		} catch (OpenXML4JException e) {
+			throw new DeliveryNoteException("Bon de livraison illisible : " + e.getMessage(), e);
+		}
+
+		try {
+			XSSFReader xssfReader = new XSSFReader(opcPackage);
+			Iterator<InputStream> sheets = xssfReader.getSheetsData();
+			if (!sheets.hasNext()) {
+				throw new DeliveryNoteException("Bon de livraison vide");
+			}
+
+			XMLReader xmlReader = SAXHelper.newXMLReader();
+			xmlReader.setContentHandler(new XSSFSheetXMLHandler(xssfReader.getStylesTable(), new ReadOnlySharedStringsTable(opcPackage),
+					new SheetHandler(consumer), new DataFormatter(), false));
+			try (InputStream sheet = sheets.next()) {
+				xmlReader.parse(new InputSource(sheet));
+			}
+		} catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new DeliveryNoteException("Bon de livraison illisible : " + e.getMessage(), e);
+		} finally {
+			// Read only, nothing to save
+			opcPackage.revert();
+		}
+	}
+
+	/**
+	 * Gathers the cells of each row of a sheet, the empty cells being skipped by POI.
+	 */
+	private static class SheetHandler implements SheetContentsHandler {
+
+		private final Consumer<Reassort> consumer;
+
+		private RowParser parser;
+
+		private List<String> cells = new ArrayList<>();
+
+		SheetHandler(Consumer<Reassort> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			cells = new ArrayList<>();
+		}
+
+		@Override
+		public void endRow(int rowNum) {
+			if (parser == null) {
+				parser = new RowParser(cells, consumer);
+			} else {
+				parser.row(rowNum + 1, cells);
+			}
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			int column = cellReference == null ? cells.size() : new CellReference(cellReference).getCol();
+			while (cells.size() < column) {
+				cells.add("");
+			}
+			cells.add(formattedValue);
+		}
+
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+			// Not part of the delivery note
+		}
+
+	}
+
+	/**
+	 * Converts the rows to lines from the columns named by the header.
+	 */
+	private static class RowParser {
+
+		private final int id;
+
+		private final int reference;
+
+		private final int quantity;
+
+		private final Consumer<Reassort> consumer;
+
+		RowParser(List<String> header, Consumer<Reassort> consumer) {
+			List<String> columns = new ArrayList<>();
+			header.forEach(column -> columns.add(column.trim().toLowerCase(Locale.ROOT)));
+			this.id = columns.indexOf("id");
+			this.reference = columns.indexOf("reference");
+			this.quantity = columns.indexOf("quantity");
+			this.consumer = consumer;
+
+			if (quantity < 0 || (id < 0 && reference < 0)) {
+				throw new DeliveryNoteException("Le bon de livraison doit avoir une colonne quantity et une colonne reference ou id");
+			}
+		}
+
+		void row(int number, List<String> cells) {
+			String articleId = cell(cells, id);
+			String articleReference = cell(cells, reference);
+			if (articleId.isEmpty() && articleReference.isEmpty()) {
+				return;
+			}
+
+			try {
+				consumer.accept(new Reassort()
+						.id(articleId.isEmpty() ? null : Long.valueOf(articleId))
+						.reference(articleReference.isEmpty() ? null : articleReference)
+						.quantity(Integer.valueOf(cell(cells, quantity))));
+			} catch (NumberFormatException e) {
+				throw new DeliveryNoteException("Ligne " + number + " du bon de livraison invalide : " + e.getMessage(), e);
+			}
+		}
+
+		private static String cell(List<String> cells, int column) {
+			return column >= 0 && column < cells.size() && cells.get(column) != null ? cells.get(column).trim() : "";
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package fr.lpr.membership.service.stock;
+
+import lombok.Value;
+
+/**
+ * Stock of an article against its warning level.
+ */
+@Value
+public class LowStockArticle {
+
+	private final Long articleId;
+
+	private final String name;
+
+	private final int quantity;
+
+	private final int stockWarningLevel;
+
+	public boolean isLow() {
+		return quantity <= stockWarningLevel;
+	}
+
+	LowStockArticle quantity(int quantity) {
+		return new LowStockArticle(articleId, name, quantity, stockWarningLevel);
+	}
+
+}
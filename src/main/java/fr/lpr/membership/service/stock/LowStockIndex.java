@@ -0,0 +1,126 @@
+package fr.lpr.membership.service.stock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import fr.lpr.membership.domain.Article;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Articles whose quantity is at or below their stock warning level, sorted by increasing quantity.
+ *
+ * <p>
+ * The stock of every article is loaded once at startup, then kept up to date from the committed {@link StockQuantityChangedEvent}s and the
+ * modifications of the articles, without querying the database again. A {@link LowStockTransitionEvent} is published when an article
+ * crosses its warning level.
+ * </p>
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class LowStockIndex {
+
+	private static final String SELECT_ARTICLES = "select id, name, quantity, stock_warning_level from article where disabled = false";
+
+	private static final RowMapper<LowStockArticle> ROW_MAPPER = (rs, rowNum) -> new LowStockArticle(rs.getLong("id"), rs.getString("name"),
+			rs.getInt("quantity"), rs.getInt("stock_warning_level"));
+
+	private static final Comparator<LowStockArticle> ORDER = Comparator.comparingInt(LowStockArticle::getQuantity)
+			.thenComparing(LowStockArticle::getName)
+			.thenComparing(LowStockArticle::getArticleId);
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Stock of every article, by identifier */
+	private final Map<Long, LowStockArticle> articles = new HashMap<>();
+
+	private final NavigableSet<LowStockArticle> lowStock = new TreeSet<>(ORDER);
+
+	/**
+	 * Load the stock of the articles.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void initialize() {
+		articles.clear();
+		lowStock.clear();
+		// Read from the database rather than the entities, whose quantity may be cached
+		jdbcTemplate.query(SELECT_ARTICLES, ROW_MAPPER).forEach(this::put);
+		log.info("{} articles en stock faible sur {}", lowStock.size(), articles.size());
+	}
+
+	/**
+	 * Once committed, a stock change is added to the known quantity: the quantity of the article of the event may predate the change.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public synchronized void handleStockQuantityChanged(StockQuantityChangedEvent event) {
+		Long articleId = event.getArticle().getId();
+		LowStockArticle known = articles.get(articleId);
+		if (known == null) {
+			// Not created through the index, read once
+			jdbcTemplate.query(SELECT_ARTICLES + " and id = ?", ROW_MAPPER, articleId).forEach(this::update);
+		} else {
+			update(known.quantity(known.getQuantity() + event.getQuantity()));
+		}
+	}
+
+	/**
+	 * An article was created or modified, its quantity possibly set directly.
+	 */
+	public synchronized void articleSaved(Article article) {
+		update(new LowStockArticle(article.getId(), article.getName(), article.getQuantity(), article.getStockWarningLevel()));
+	}
+
+	/**
+	 * An article was deleted, its shortage does not matter anymore.
+	 */
+	public synchronized void articleDeleted(Long articleId) {
+		LowStockArticle removed = articles.remove(articleId);
+		if (removed != null) {
+			lowStock.remove(removed);
+		}
+	}
+
+	/**
+	 * Articles at or below their warning level, the lowest quantity first.
+	 */
+	public synchronized List<LowStockArticle> lowStock() {
+		return new ArrayList<>(lowStock);
+	}
+
+	private void update(LowStockArticle article) {
+		LowStockArticle previous = put(article);
+		boolean wasLow = previous != null && previous.isLow();
+		if (article.isLow() != wasLow) {
+			log.debug("Stock de '{}' : {} pour un seuil de {}", article.getName(), article.getQuantity(), article.getStockWarningLevel());
+			eventPublisher.publishEvent(new LowStockTransitionEvent(article, article.isLow()));
+		}
+	}
+
+	private LowStockArticle put(LowStockArticle article) {
+		LowStockArticle previous = articles.put(article.getArticleId(), article);
+		if (previous != null) {
+			lowStock.remove(previous);
+		}
+		if (article.isLow()) {
+			lowStock.add(article);
+		}
+		return previous;
+	}
+
+}
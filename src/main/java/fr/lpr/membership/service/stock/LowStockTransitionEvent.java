@@ -0,0 +1,16 @@
+package fr.lpr.membership.service.stock;
+
+import lombok.Value;
+
+/**
+ * An article fell to its stock warning level, or went back above it.
+ */
+@Value
+public class LowStockTransitionEvent {
+
+	private final LowStockArticle article;
+
+	/** Whether the article is now at or below its warning level */
+	private final boolean low;
+
+}
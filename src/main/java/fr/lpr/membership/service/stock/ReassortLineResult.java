@@ -0,0 +1,70 @@
+package fr.lpr.membership.service.stock;
+
+import fr.lpr.membership.domain.Article;
+
+/**
+ * Outcome of a line of a reassort.
+ */
+public class ReassortLineResult {
+
+	public enum Status {
+		/** The quantity was added to the stock of the article */
+		APPLIED,
+		/** Nothing to add */
+		IGNORED,
+		/** No article has this identifier or reference */
+		UNKNOWN_ARTICLE
+	}
+
+	private final Long articleId;
+
+	/** Reference of the article given by a delivery note */
+	private final String reference;
+
+	private final String name;
+
+	private final int quantity;
+
+	private final Status status;
+
+	private ReassortLineResult(Long articleId, String reference, String name, int quantity, Status status) {
+		this.articleId = articleId;
+		this.reference = reference;
+		this.name = name;
+		this.quantity = quantity;
+		this.status = status;
+	}
+
+	static ReassortLineResult applied(Article article, int quantity) {
+		return new ReassortLineResult(article.getId(), article.getReference(), article.getName(), quantity, Status.APPLIED);
+	}
+
+	static ReassortLineResult ignored(Long articleId, String reference, int quantity) {
+		return new ReassortLineResult(articleId, reference, null, quantity, Status.IGNORED);
+	}
+
+	static ReassortLineResult unknownArticle(Long articleId, String reference, int quantity) {
+		return new ReassortLineResult(articleId, reference, null, quantity, Status.UNKNOWN_ARTICLE);
+	}
+
+	public Long getArticleId() {
+		return articleId;
+	}
+
+	public String getReference() {
+		return reference;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+}
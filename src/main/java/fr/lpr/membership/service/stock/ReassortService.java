@@ -11,12 +11,26 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static fr.lpr.membership.service.stock.StockQuantityChangedEvent.fromReassort;
 
 /**
  * Service de réapprovisionnement du stock.
+ *
+ * <p>
+ * Les articles d'un réassort sont lus en une requête, ses entrées d'historique insérées par lot et les quantités ajoutées au stock une
+ * seule fois par article, à la validation de la transaction (voir {@link StockDeltaBuffer}).
+ * </p>
  */
 @Service
 @Slf4j
@@ -29,20 +43,88 @@ public class ReassortService {
 
 	private final ApplicationEventPublisher eventPublisher;
 
+	/**
+	 * Réassort des articles donnés par leur identifiant ou leur référence.
+	 *
+	 * @return le résultat de chaque ligne, dans l'ordre
+	 */
 	@Transactional
-	public void reassort(List<Reassort> reassorts) {
-		log.info("----- Début de réassort -----");
+	public List<ReassortLineResult> reassort(List<Reassort> reassorts) {
+		return reassort(reassorts, null);
+	}
+
+	/**
+	 * Réassort à partir d'un bon de livraison CSV ou XLSX.
+	 *
+	 * @param providerId
+	 *            le fournisseur des références du bon de livraison, toutes les références des articles sinon
+	 * @return le résultat de chaque ligne, dans l'ordre
+	 */
+	@Transactional
+	public List<ReassortLineResult> reassort(InputStream deliveryNote, String fileName, Long providerId) throws IOException {
+		List<Reassort> reassorts = new ArrayList<>();
+		DeliveryNoteReader.read(deliveryNote, fileName, reassorts::add);
+		return reassort(reassorts, providerId);
+	}
 
+	private List<ReassortLineResult> reassort(List<Reassort> reassorts, Long providerId) {
+		List<Reassort> toApply = reassorts.stream()
+				.filter(reassort -> reassort.getQuantity() != null && reassort.getQuantity() != 0)
+				.collect(Collectors.toList());
+		Map<Long, Article> articlesById = findArticlesById(toApply);
+		Map<String, Article> articlesByReference = findArticlesByReference(toApply, providerId);
+
+		List<ReassortLineResult> results = new ArrayList<>(reassorts.size());
+		List<StockHistory> histories = new ArrayList<>(toApply.size());
 		for (Reassort reassort : reassorts) {
-			if (reassort.getQuantity() != 0) {
-				Article article = articleRepository.findOne(reassort.getId());
+			int quantity = reassort.getQuantity() == null ? 0 : reassort.getQuantity();
+			if (quantity == 0) {
+				results.add(ReassortLineResult.ignored(reassort.getId(), reassort.getReference(), quantity));
+				continue;
+			}
 
-				stockHistoryRepository.save(StockHistory.from(reassort, article));
-				eventPublisher.publishEvent(fromReassort(article, reassort.getQuantity()));
-				log.info("Réassort {} '{}' ", reassort.getQuantity(), article.getName());
+			Article article = reassort.getId() != null ? articlesById.get(reassort.getId()) : articlesByReference.get(reassort.getReference());
+			if (article == null) {
+				results.add(ReassortLineResult.unknownArticle(reassort.getId(), reassort.getReference(), quantity));
+				continue;
 			}
+
+			histories.add(StockHistory.from(reassort, article));
+			eventPublisher.publishEvent(fromReassort(article, quantity));
+			results.add(ReassortLineResult.applied(article, quantity));
+			log.debug("Réassort {} '{}'", quantity, article.getName());
+		}
+
+		stockHistoryRepository.save(histories);
+		log.info("Réassort de {} lignes sur {} : {} articles", histories.size(), reassorts.size(),
+				histories.stream().map(history -> history.getArticle().getId()).distinct().count());
+		return results;
+	}
+
+	private Map<Long, Article> findArticlesById(List<Reassort> reassorts) {
+		Set<Long> ids = reassorts.stream().map(Reassort::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+		if (ids.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return articleRepository.findAll(ids).stream().collect(Collectors.toMap(Article::getId, Function.identity()));
+	}
+
+	private Map<String, Article> findArticlesByReference(List<Reassort> reassorts, Long providerId) {
+		Set<String> references = reassorts.stream()
+				.filter(reassort -> reassort.getId() == null)
+				.map(Reassort::getReference)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toSet());
+		if (references.isEmpty()) {
+			return Collections.emptyMap();
 		}
 
-		log.info("----- Fin de réassort -----");
+		List<Article> articles = providerId != null ? articleRepository.findByProviderIdAndReferenceIn(providerId, references)
+				: articleRepository.findByReferenceIn(references);
+		Map<String, List<Article>> byReference = articles.stream().collect(Collectors.groupingBy(Article::getReference));
+		// A reference shared by several articles does not tell which one is delivered
+		return byReference.entrySet().stream()
+				.filter(entry -> entry.getValue().size() == 1)
+				.collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get(0)));
 	}
 }
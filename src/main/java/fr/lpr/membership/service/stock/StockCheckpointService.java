@@ -0,0 +1,158 @@
+package fr.lpr.membership.service.stock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.stock.StockCheckpoint;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.stock.StockCheckpointRepository;
+import fr.lpr.membership.repository.stock.StockHistoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stock of the articles on a past date.
+ *
+ * <p>
+ * The stock of every article is saved each night for the previous day, from its current quantity and the stock history since the end of
+ * that day. The stock on a date is then read from the closest checkpoint, or from the current quantities when they are closer, and the
+ * stock history between both, so that only a few days of history are read whatever the date.
+ * </p>
+ *
+ * <p>
+ * The quantities modified directly on an article and the deleted sales leave no stock history: they are only taken into account by the
+ * checkpoints taken afterwards.
+ * </p>
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class StockCheckpointService {
+
+	private final ArticleRepository articleRepository;
+
+	private final StockHistoryRepository stockHistoryRepository;
+
+	private final StockCheckpointRepository stockCheckpointRepository;
+
+	/**
+	 * Save the stock of the previous day.
+	 */
+	@Scheduled(cron = "${stockCheckpoints.cron:0 5 0 * * *}")
+	@Transactional(isolation = Isolation.REPEATABLE_READ)
+	public void checkpointYesterday() {
+		checkpoint(LocalDate.now().minusDays(1));
+	}
+
+	/**
+	 * Save the stock at the end of a day, if not saved yet. The current quantities and the stock history are read from the same snapshot.
+	 */
+	@Transactional(isolation = Isolation.REPEATABLE_READ)
+	public void checkpoint(LocalDate day) {
+		if (stockCheckpointRepository.existsByDay(day)) {
+			log.debug("Stock du {} déjà enregistré", day);
+			return;
+		}
+
+		Map<Long, Long> changesSince = toMap(stockHistoryRepository.sumChangesSince(endOf(day)));
+		List<StockCheckpoint> checkpoints = articleRepository.findAll().stream()
+				.map(article -> new StockCheckpoint()
+						.article(article)
+						.day(day)
+						.quantity((int) (article.getQuantity() - changesSince.getOrDefault(article.getId(), 0L))))
+				.collect(Collectors.toList());
+		stockCheckpointRepository.save(checkpoints);
+		log.info("Stock du {} enregistré pour {} articles", day, checkpoints.size());
+	}
+
+	/**
+	 * Stock of the articles at the end of a day, ordered by name. The stock of today or of a future day is the current one.
+	 */
+	@Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+	public List<ArticleStock> stockAt(LocalDate day) {
+		List<Article> articles = articleRepository.findAll(new Sort("name"));
+		Map<Long, Long> quantities = quantitiesAt(day, articles);
+		return articles.stream()
+				.map(article -> new ArticleStock(article.getId(), article.getName(), article.getUnitPrice(), quantities.get(article.getId()).intValue()))
+				.collect(Collectors.toList());
+	}
+
+	private Map<Long, Long> quantitiesAt(LocalDate day, List<Article> articles) {
+		LocalDate today = LocalDate.now();
+		if (!day.isBefore(today)) {
+			return currentQuantities(articles);
+		}
+
+		LocalDate before = stockCheckpointRepository.findLatestDayUntil(day);
+		LocalDate after = stockCheckpointRepository.findEarliestDayAfter(day);
+		int fromNow = Days.daysBetween(day, today).getDays();
+		int fromBefore = before != null ? Days.daysBetween(before, day).getDays() : Integer.MAX_VALUE;
+		int fromAfter = after != null ? Days.daysBetween(day, after).getDays() : Integer.MAX_VALUE;
+
+		Map<Long, Long> quantities;
+		if (fromBefore <= fromAfter && fromBefore < fromNow) {
+			quantities = fromCheckpoint(before, stockHistoryRepository.sumChangesBetween(endOf(before), endOf(day)), 1);
+		} else if (fromAfter < fromNow) {
+			quantities = fromCheckpoint(after, stockHistoryRepository.sumChangesBetween(endOf(day), endOf(after)), -1);
+		} else {
+			return rollBack(currentQuantities(articles), day, null);
+		}
+
+		// Articles created after the checkpoint
+		List<Article> missing = articles.stream().filter(article -> !quantities.containsKey(article.getId())).collect(Collectors.toList());
+		if (!missing.isEmpty()) {
+			quantities.putAll(rollBack(currentQuantities(missing), day, missing));
+		}
+		return quantities;
+	}
+
+	/**
+	 * Quantities of a checkpoint, with the stock changes between the checkpoint and the day added or removed.
+	 */
+	private Map<Long, Long> fromCheckpoint(LocalDate checkpoint, List<Object[]> changes, int sign) {
+		Map<Long, Long> quantities = toMap(stockCheckpointRepository.findQuantitiesByDay(checkpoint));
+		toMap(changes).forEach((id, change) -> quantities.computeIfPresent(id, (articleId, quantity) -> quantity + sign * change));
+		return quantities;
+	}
+
+	/**
+	 * Remove from the current quantities the stock changes after the end of the day.
+	 */
+	private Map<Long, Long> rollBack(Map<Long, Long> quantities, LocalDate day, List<Article> articles) {
+		List<Object[]> changes = articles == null ? stockHistoryRepository.sumChangesSince(endOf(day))
+				: stockHistoryRepository.sumChangesSince(endOf(day), articles.stream().map(Article::getId).collect(Collectors.toList()));
+		toMap(changes).forEach((id, change) -> quantities.computeIfPresent(id, (articleId, quantity) -> quantity - change));
+		return quantities;
+	}
+
+	private static Map<Long, Long> currentQuantities(List<Article> articles) {
+		Map<Long, Long> quantities = new HashMap<>();
+		articles.forEach(article -> quantities.put(article.getId(), (long) article.getQuantity()));
+		return quantities;
+	}
+
+	private static Map<Long, Long> toMap(List<Object[]> rows) {
+		Map<Long, Long> map = new HashMap<>();
+		for (Object[] row : rows) {
+			map.put((Long) row[0], ((Number) row[1]).longValue());
+		}
+		return map;
+	}
+
+	private static DateTime endOf(LocalDate day) {
+		return day.plusDays(1).toDateTimeAtStartOfDay();
+	}
+
+}
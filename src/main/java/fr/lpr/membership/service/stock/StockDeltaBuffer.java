@@ -0,0 +1,119 @@
+package fr.lpr.membership.service.stock;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import fr.lpr.membership.domain.Article;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Merges the stock quantity changes of a transaction by article and applies them in a single JDBC batch just before the commit.
+ *
+ * <p>
+ * A sale or a reassort changes the stock once per line: the changes of an article are summed so that its row is updated, and locked, only
+ * once and as late as possible. The articles are updated by increasing identifier so that concurrent transactions lock them in the same
+ * order. Without transaction, a change is applied immediately.
+ * </p>
+ *
+ * <p>
+ * The updates bypass Hibernate, so the articles updated are evicted from the second level cache, once when they are updated and again after
+ * the commit: with the {@code NONSTRICT_READ_WRITE} strategy, another transaction may put back the old quantity in between.
+ * </p>
+ */
+@Component
+@Slf4j
+public class StockDeltaBuffer {
+
+	private static final String UPDATE_QUANTITY = "update article set quantity = quantity + ? where id = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	public StockDeltaBuffer(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Add a change of the quantity of an article to the current transaction.
+	 */
+	public void add(Long articleId, int quantity) {
+		if (quantity == 0) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+			jdbcTemplate.update(UPDATE_QUANTITY, quantity, articleId);
+			evict(articleId);
+			return;
+		}
+
+		FlushSynchronization synchronization = (FlushSynchronization) TransactionSynchronizationManager.getResource(this);
+		if (synchronization == null) {
+			synchronization = new FlushSynchronization();
+			TransactionSynchronizationManager.bindResource(this, synchronization);
+			TransactionSynchronizationManager.registerSynchronization(synchronization);
+		}
+		synchronization.deltas.merge(articleId, quantity, Integer::sum);
+	}
+
+	/**
+	 * Apply the changes buffered by the current transaction now, so that the following queries of the transaction see the new quantities.
+	 */
+	public void flush() {
+		FlushSynchronization synchronization = (FlushSynchronization) TransactionSynchronizationManager.getResource(this);
+		if (synchronization == null || synchronization.deltas.isEmpty()) {
+			return;
+		}
+		Map<Long, Integer> deltas = synchronization.deltas;
+
+		// Pending entities go first: a new article must exist and a modified one must not overwrite the new quantity afterwards
+		entityManager.flush();
+
+		List<Object[]> parameters = deltas.entrySet().stream()
+				.filter(delta -> delta.getValue() != 0)
+				.map(delta -> new Object[] { delta.getValue(), delta.getKey() })
+				.collect(Collectors.toList());
+		jdbcTemplate.batchUpdate(UPDATE_QUANTITY, parameters);
+		deltas.keySet().forEach(this::evict);
+		synchronization.updatedIds.addAll(deltas.keySet());
+		log.debug("Stock de {} articles mis à jour", parameters.size());
+		deltas.clear();
+	}
+
+	private void evict(Long articleId) {
+		entityManager.getEntityManagerFactory().getCache().evict(Article.class, articleId);
+	}
+
+	private class FlushSynchronization extends TransactionSynchronizationAdapter {
+
+		private final Map<Long, Integer> deltas = new TreeMap<>();
+
+		private final Set<Long> updatedIds = new HashSet<>();
+
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			StockDeltaBuffer.this.flush();
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(StockDeltaBuffer.this);
+			updatedIds.forEach(StockDeltaBuffer.this::evict);
+		}
+
+	}
+
+}
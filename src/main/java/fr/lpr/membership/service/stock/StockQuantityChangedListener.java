@@ -4,17 +4,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import fr.lpr.membership.repository.ArticleRepository;
-
 @Component
 public class StockQuantityChangedListener {
 
 	@Autowired
-	private ArticleRepository articleRepository;
+	private StockDeltaBuffer stockDeltaBuffer;
 
 	@EventListener
 	public void handleStockQuantityChanged(StockQuantityChangedEvent event) {
-		articleRepository.updateQuantity(event.getArticle().getId(), event.getQuantity());
+		stockDeltaBuffer.add(event.getArticle().getId(), event.getQuantity());
 	}
 
 }
@@ -3,11 +3,13 @@ package fr.lpr.membership.service.stock;
 import fr.lpr.membership.domain.Article;
 import fr.lpr.membership.domain.stock.StockHistory;
 import fr.lpr.membership.repository.stock.StockHistoryRepository;
+import fr.lpr.membership.web.rest.util.Cursor;
 import fr.lpr.membership.web.rest.util.PaginationUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
@@ -39,4 +41,22 @@ public class StockService {
 
 		return stockHistoryRepository.findByArticle(article, pageRequest);
 	}
+
+	/**
+	 * Recherche de l'historique d'un article, sans compter ses entrées.
+	 */
+	public Slice<StockHistory> historyWithoutCount(Article article, Integer offset, Integer limit) {
+		return stockHistoryRepository.findByArticleOrderByCreatedAtDescIdDesc(article, PaginationUtil.generatePageRequest(offset, limit));
+	}
+
+	/**
+	 * Recherche de l'historique d'un article, à partir de l'entrée donnée.
+	 */
+	public Slice<StockHistory> history(Article article, Cursor after, Integer limit) {
+		final Pageable pageRequest = PaginationUtil.generateSliceRequest(limit);
+		if (after == null) {
+			return stockHistoryRepository.findByArticleOrderByCreatedAtDescIdDesc(article, pageRequest);
+		}
+		return stockHistoryRepository.findByArticleAfter(article, after.getCreatedAt(), after.getId(), pageRequest);
+	}
 }
@@ -30,7 +30,7 @@ public class GZipServletFilter implements Filter {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
         HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-        if (!isIncluded(httpRequest) && acceptsGZipEncoding(httpRequest) && !response.isCommitted()) {
+        if (!isIncluded(httpRequest) && !isSpooledFile(httpRequest) && acceptsGZipEncoding(httpRequest) && !response.isCommitted()) {
             // Client accepts zipped content
             if (log.isTraceEnabled()) {
                 log.trace("{} Written with gzip compression", httpRequest.getRequestURL());
@@ -48,6 +48,11 @@ public class GZipServletFilter implements Filter {
 
             gzout.close();
 
+            // already written as is
+            if (wrapper.isAlreadyEncoded()) {
+                return;
+            }
+
             // double check one more time before writing out
             // repsonse might have been committed due to error
             if (response.isCommitted()) {
@@ -104,6 +109,14 @@ public class GZipServletFilter implements Filter {
         return includeRequest;
     }
 
+    /**
+     * Checks if the request downloads an export file. Served from disk with byte ranges, it must not be buffered to be compressed.
+     */
+    private boolean isSpooledFile(final HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.contains("/api/exports/") && uri.endsWith("/file");
+    }
+
     private boolean acceptsGZipEncoding(HttpServletRequest httpRequest) {
         String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
         return acceptEncoding != null && acceptEncoding.contains("gzip");
@@ -13,6 +13,7 @@ class GZipServletResponseWrapper extends HttpServletResponseWrapper {
     private GZipServletOutputStream gzipOutputStream = null;
     private PrintWriter printWriter = null;
     private boolean disableFlushBuffer = false;
+    private boolean alreadyEncoded = false;
 
     public GZipServletResponseWrapper(HttpServletResponse response, GZIPOutputStream gzout)
             throws IOException {
@@ -60,8 +61,26 @@ class GZipServletResponseWrapper extends HttpServletResponseWrapper {
         }
     }
 
+    /**
+     * A body already encoded by the application, such as pre-gzipped content, is written as is.
+     */
+    @Override
+    public void setHeader(String name, String value) {
+        alreadyEncoded |= "Content-Encoding".equalsIgnoreCase(name);
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        alreadyEncoded |= "Content-Encoding".equalsIgnoreCase(name);
+        super.addHeader(name, value);
+    }
+
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
+        if (alreadyEncoded) {
+            return getResponse().getOutputStream();
+        }
         if (this.printWriter != null) {
             throw new IllegalStateException(
                     "PrintWriter obtained already - cannot get OutputStream");
@@ -86,7 +105,10 @@ class GZipServletResponseWrapper extends HttpServletResponseWrapper {
 
     @Override
     public void setContentLength(int length) {
-        //ignore, since content length of zipped content
+        if (alreadyEncoded) {
+            super.setContentLength(length);
+        }
+        //otherwise ignore, since content length of zipped content
         //does not match content length of unzipped content.
     }
 
@@ -103,6 +125,13 @@ class GZipServletResponseWrapper extends HttpServletResponseWrapper {
         }
     }
 
+    /**
+     * @return true if the body was encoded by the application and written without compression
+     */
+    public boolean isAlreadyEncoded() {
+        return alreadyEncoded;
+    }
+
     /**
      * Set if the wrapped reponse's buffer flushing should be disabled.
      *
@@ -3,17 +3,24 @@ package fr.lpr.membership.web.rest;
 import com.codahale.metrics.annotation.Timed;
 import fr.lpr.membership.domain.Adherent;
 import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.RowCountEstimator;
 import fr.lpr.membership.repository.SearchAdherentRepository;
 import fr.lpr.membership.security.AuthoritiesConstants;
 import fr.lpr.membership.service.AdherentService;
 import fr.lpr.membership.service.ExportService;
+import fr.lpr.membership.service.ImportReport;
 import fr.lpr.membership.service.ImportService;
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobService;
 import fr.lpr.membership.web.rest.dto.ExportRequest;
+import fr.lpr.membership.web.rest.util.Cursor;
 import fr.lpr.membership.web.rest.util.PaginationUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.http.HttpHeaders;
@@ -24,12 +31,14 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.security.RolesAllowed;
-import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -48,12 +57,16 @@ public class AdherentResource {
 
 	private final SearchAdherentRepository searchAdherentRepository;
 
+	private final RowCountEstimator rowCountEstimator;
+
 	private final AdherentService adherentService;
 
 	private final ExportService exportService;
 
 	private final ImportService importService;
 
+	private final ExportJobService exportJobService;
+
 	/**
 	 * POST /adherents -&gt; Create a new adherent.
 	 *
@@ -91,18 +104,27 @@ public class AdherentResource {
 		if (adherent.getId() == null) {
 			return create(adherent);
 		}
-		adherent.setAdhesions(adherentRepository.findOne(adherent.getId()).getAdhesions());
+		final Adherent existing = adherentRepository.findOne(adherent.getId());
+		adherent.setAdhesions(existing.getAdhesions());
+		adherent.setExternalId(existing.getExternalId());
 		adherentRepository.save(adherent);
 		return ResponseEntity.ok().build();
 	}
 
 	/**
-	 * GET /adherents -&gt; get all the adherents.
+	 * GET /adherents -&gt; get all the adherents by page, or by identifier from the cursor if one is given or if {@code keyset=true}. The
+	 * adherents are counted only when paginated by offset without {@code count=false}, an estimate of their number is given otherwise.
 	 *
 	 * @param offset
 	 *            the offset
+	 * @param cursor
+	 *            the cursor of the last adherent of the previous request
 	 * @param limit
 	 *            max number of adherents
+	 * @param count
+	 *            whether the adherents of the pages are counted
+	 * @param keyset
+	 *            whether the first adherents are requested by identifier, without cursor
 	 * @return the adherents
 	 * @throws URISyntaxException
 	 *             if uris cannot be built
@@ -111,9 +133,28 @@ public class AdherentResource {
 	@Timed
 	public ResponseEntity<List<Adherent>> getAll(
 	    @RequestParam(value = "page", required = false) Integer offset,
-        @RequestParam(value = "per_page", required = false) Integer limit)
+        @RequestParam(value = "cursor", required = false) Cursor cursor,
+        @RequestParam(value = "per_page", required = false) Integer limit,
+        @RequestParam(value = "count", defaultValue = "true") boolean count,
+        @RequestParam(value = "keyset", defaultValue = "false") boolean keyset)
         throws URISyntaxException
     {
+		if (cursor != null || keyset) {
+			final Pageable pageRequest = PaginationUtil.generateSliceRequest(limit);
+			final Slice<Adherent> slice = cursor == null ? adherentRepository.findAllByOrderByIdAsc(pageRequest)
+					: adherentRepository.findByIdGreaterThanOrderByIdAsc(cursor.getId(), pageRequest);
+			final HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(slice, adherent -> Cursor.of(adherent.getId()), "/api/adherents");
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateAdherents());
+			return new ResponseEntity<>(slice.getContent(), headers, HttpStatus.OK);
+		}
+
+		if (!count) {
+			final Slice<Adherent> slice = adherentRepository.findAllByOrderByIdAsc(PaginationUtil.generatePageRequest(offset, limit));
+			final HttpHeaders headers = PaginationUtil.generateSliceHttpHeaders(slice, "/api/adherents", offset, limit);
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateAdherents());
+			return new ResponseEntity<>(slice.getContent(), headers, HttpStatus.OK);
+		}
+
 		final Page<Adherent> page = adherentRepository.findAll(PaginationUtil.generatePageRequest(offset, limit));
 		final HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/adherents", offset, limit);
 
@@ -194,21 +235,22 @@ public class AdherentResource {
 	@RolesAllowed({AuthoritiesConstants.ADMIN, AuthoritiesConstants.WORKSHOP_MANAGER})
 	public void delete(@PathVariable Long id) {
 		log.debug("REST request to delete Adherent : {}", id);
-		adherentRepository.delete(id);
+		adherentService.delete(id);
 	}
 
 	/**
-	 * GET /adherents/export -&gt; Export the adherents
+	 * POST /adherents/export -&gt; Queue the export of the adherents, downloaded from /exports/{id}/file once done
 	 *
 	 * @param request
 	 *            the json payload request
-	 * @param response
-	 *            the http response
+	 * @return the export job, or 503 if too many exports are queued
+	 * @throws URISyntaxException
+	 *             if uri cannot be built
 	 */
 	@RequestMapping(value = "/adherents/export", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
 	@Timed
 	@RolesAllowed(AuthoritiesConstants.ADMIN)
-	public void exportAll(@RequestBody ExportRequest request, HttpServletResponse response) {
+	public ResponseEntity<ExportJob> exportAll(@RequestBody ExportRequest request) throws URISyntaxException {
 		final List<String> properties = new ArrayList<>();
 		for (final Entry<String, Boolean> entry : request.getProperties().entrySet()) {
 			if (entry.getValue()) {
@@ -216,24 +258,62 @@ public class AdherentResource {
 			}
 		}
 
-		exportService.export(request.getFormat(), properties, request.getAdhesionState(), response);
+		final String format = request.getFormat();
+		final ExportJob job;
+		try {
+			job = exportJobService.submit("Adherents." + format, ExportService.contentType(format),
+					(outputStream, progress) -> exportService.export(format, properties, request.getAdhesionState(), outputStream, progress));
+		} catch (TaskRejectedException e) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return ResponseEntity.accepted().location(new URI("/api/exports/" + job.getId())).body(job);
 	}
 
 	/**
-	 * GET /adherents/import -&gt; Import the adherents
+	 * POST /adherents/import -&gt; Queue the import of the adherents, followed at /adherents/import/{id}
 	 *
 	 * @param file
 	 *            the file to import
+	 * @param upsert
+	 *            whether the adherents already saved are updated rather than created again
+	 * @return the report of the import, or 503 if too many imports are queued
+	 * @throws URISyntaxException
+	 *             if uri cannot be built
 	 */
-	@RequestMapping(value = "/adherents/import", method = RequestMethod.POST)
+	@RequestMapping(value = "/adherents/import", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
 	@Timed
 	@RolesAllowed(AuthoritiesConstants.ADMIN)
-	public void importAdherents(@RequestParam("file") MultipartFile file) throws IOException {
-		if (!file.isEmpty()) {
-			try (InputStream inputStream = file.getInputStream()) {
-				importService.importCsv(inputStream);
-			}
+	public ResponseEntity<ImportReport> importAdherents(@RequestParam("file") MultipartFile file,
+			@RequestParam(value = "upsert", defaultValue = "false") boolean upsert) throws IOException, URISyntaxException {
+		if (file.isEmpty()) {
+			return ResponseEntity.badRequest().header("Failure", "The file to import is empty").build();
+		}
+
+		// The uploaded file is deleted at the end of the request, it is kept until imported
+		final Path copy = Files.createTempFile("import-", ".csv");
+		try (InputStream inputStream = file.getInputStream()) {
+			Files.copy(inputStream, copy, StandardCopyOption.REPLACE_EXISTING);
 		}
+		final ImportReport report;
+		try {
+			report = importService.submit(copy, upsert);
+		} catch (TaskRejectedException e) {
+			Files.deleteIfExists(copy);
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return ResponseEntity.accepted().location(new URI("/api/adherents/import/" + report.getId())).body(report);
+	}
+
+	/**
+	 * GET /adherents/import/:id -&gt; Progress and errors of an import
+	 */
+	@RequestMapping(value = "/adherents/import/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@Timed
+	@RolesAllowed(AuthoritiesConstants.ADMIN)
+	public ResponseEntity<ImportReport> getImport(@PathVariable String id) {
+		return importService.get(id)
+				.map(report -> new ResponseEntity<>(report, HttpStatus.OK))
+				.orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 	}
 
 	/**
@@ -1,10 +1,10 @@
 package fr.lpr.membership.web.rest;
 
 import com.codahale.metrics.annotation.Timed;
-import fr.lpr.membership.domain.Adherent;
 import fr.lpr.membership.domain.Adhesion;
 import fr.lpr.membership.repository.AdherentRepository;
 import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.service.AdhesionService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -32,6 +32,8 @@ public class AdhesionResource {
 
 	private final AdherentRepository adherentRepository;
 
+	private final AdhesionService adhesionService;
+
 	/**
 	 * POST /adhesions -&gt; Create a new adhesion.
 	 *
@@ -49,13 +51,9 @@ public class AdhesionResource {
 			return ResponseEntity.badRequest().header("Failure", "A new adhesion cannot already have an ID").build();
 		}
 
-		final Adherent adherent = adherentRepository.findOne(adhesion.getAdherent().getId());
-		adherent.addAdhesion(adhesion);
-		adhesion.setAdherent(adherent);
-
-		adherentRepository.save(adherent);
+		final Adhesion created = adhesionService.create(adhesion);
 
-		return ResponseEntity.created(new URI("/api/adhesions/" + adhesion.getId())).build();
+		return ResponseEntity.created(new URI("/api/adhesions/" + created.getId())).build();
 	}
 
 	/**
@@ -74,7 +72,7 @@ public class AdhesionResource {
 		if (adhesion.getId() == null) {
 			return create(adhesion);
 		}
-		adhesionRepository.save(adhesion);
+		adhesionService.update(adhesion);
 		return ResponseEntity.ok().build();
 	}
 
@@ -130,8 +128,6 @@ public class AdhesionResource {
 	@Timed
 	public void delete(@PathVariable Long id) {
 		log.debug("REST request to delete Adhesion : {}", id);
-		final Adhesion adhesion = adhesionRepository.findOne(id);
-		adhesion.setAdherent(null);
-		adhesionRepository.delete(adhesion);
+		adhesionService.delete(id);
 	}
 }
@@ -5,23 +5,41 @@ import fr.lpr.membership.domain.Article;
 import fr.lpr.membership.domain.stock.Reassort;
 import fr.lpr.membership.domain.stock.StockHistory;
 import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.RowCountEstimator;
 import fr.lpr.membership.security.AuthoritiesConstants;
+import fr.lpr.membership.service.exception.DeliveryNoteException;
+import fr.lpr.membership.service.stock.ArticleCatalog;
+import fr.lpr.membership.service.stock.ArticleCatalog.Snapshot;
+import fr.lpr.membership.service.stock.ArticleStock;
+import fr.lpr.membership.service.stock.LowStockArticle;
+import fr.lpr.membership.service.stock.LowStockIndex;
+import fr.lpr.membership.service.stock.ReassortLineResult;
 import fr.lpr.membership.service.stock.ReassortService;
+import fr.lpr.membership.service.stock.StockCheckpointService;
 import fr.lpr.membership.service.stock.StockService;
 import fr.lpr.membership.web.rest.dto.StockHistoryDTO;
 import fr.lpr.membership.web.rest.dto.mapper.StockMapper;
+import fr.lpr.membership.web.rest.util.Cursor;
 import fr.lpr.membership.web.rest.util.PaginationUtil;
 import lombok.RequiredArgsConstructor;
+import org.joda.time.LocalDate;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.security.RolesAllowed;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
@@ -44,12 +62,57 @@ public class ArticleResource {
 
 	private final StockService stockService;
 
+	private final StockCheckpointService stockCheckpointService;
+
 	private final StockMapper stockMapper;
 
-    @GetMapping(value="/articles", produces = MediaType.APPLICATION_JSON_VALUE)
+	private final RowCountEstimator rowCountEstimator;
+
+	private final LowStockIndex lowStockIndex;
+
+	private final ArticleCatalog articleCatalog;
+
+	/**
+	 * The catalog sorted by name, written from its last snapshot, gzipped if the client accepts it.
+	 */
+	@GetMapping(value = "/articles", produces = MediaType.APPLICATION_JSON_VALUE)
+	@Timed
+	public ResponseEntity<byte[]> getAll(WebRequest request) {
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		boolean gzipped = acceptEncoding != null && acceptEncoding.contains("gzip");
+		Snapshot catalog = articleCatalog.snapshot();
+		if (request.checkNotModified(catalog.getEtag(gzipped))) {
+			return null;
+		}
+
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.eTag(catalog.getEtag(gzipped))
+				.cacheControl(CacheControl.noCache())
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzipped) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return response.body(catalog.getJson(gzipped));
+	}
+
+	/**
+	 * Stock of the articles at the end of a day, for stock-takes and valuations.
+	 */
+	@GetMapping(value = "/articles/stock", produces = APPLICATION_JSON_VALUE)
+	@RolesAllowed(WORKSHOP_MANAGER)
 	@Timed
-	public List<Article> getAll() {
-		return articleRepository.findAll(new Sort("name"));
+	public List<ArticleStock> stock(@RequestParam("at") @DateTimeFormat(iso = ISO.DATE) LocalDate at) {
+		return stockCheckpointService.stockAt(at);
+	}
+
+	/**
+	 * Articles at or below their stock warning level, the lowest quantity first.
+	 */
+	@GetMapping(value = "/articles/low-stock", produces = APPLICATION_JSON_VALUE)
+	@Timed
+	public List<LowStockArticle> lowStock() {
+		return lowStockIndex.lowStock();
 	}
 
 	@GetMapping(value = "/articles/{id}", produces = APPLICATION_JSON_VALUE)
@@ -65,15 +128,31 @@ public class ArticleResource {
 	@Timed
 	public ResponseEntity<Void> create(@Valid @RequestBody Article article) throws URISyntaxException {
 		Article savedArticle = articleRepository.save(article);
+		lowStockIndex.articleSaved(savedArticle);
+		articleCatalog.invalidate();
 		return ResponseEntity.created(new URI("/api/articles/" + savedArticle.getId())).build();
 	}
 
 	@PostMapping(value = "/articles/reassort", produces = APPLICATION_JSON_VALUE)
 	@RolesAllowed(WORKSHOP_MANAGER)
 	@Timed
-	public ResponseEntity<Void> reassort(@RequestBody List<Reassort> reassorts) {
-		reassortService.reassort(reassorts);
-		return ResponseEntity.ok().build();
+	public ResponseEntity<List<ReassortLineResult>> reassort(@RequestBody List<Reassort> reassorts) {
+		return ResponseEntity.ok(reassortService.reassort(reassorts));
+	}
+
+	/**
+	 * Reassort from a supplier delivery note, a CSV or XLSX file with a quantity column and a reference or id column.
+	 */
+	@PostMapping(value = "/articles/reassort/upload", produces = APPLICATION_JSON_VALUE)
+	@RolesAllowed(WORKSHOP_MANAGER)
+	@Timed
+	public ResponseEntity<List<ReassortLineResult>> reassortFromDeliveryNote(@RequestParam("file") MultipartFile file,
+			@RequestParam(value = "providerId", required = false) Long providerId) throws IOException {
+		try (InputStream inputStream = file.getInputStream()) {
+			return ResponseEntity.ok(reassortService.reassort(inputStream, file.getOriginalFilename(), providerId));
+		} catch (DeliveryNoteException e) {
+			return ResponseEntity.badRequest().header("Failure", e.getMessage()).build();
+		}
 	}
 
 	@PostMapping(value = "/articles/{id}/forRepairing", produces = APPLICATION_JSON_VALUE)
@@ -92,13 +171,36 @@ public class ArticleResource {
 	@GetMapping(value = "/articles/{id}/history", produces = APPLICATION_JSON_VALUE)
 	public ResponseEntity<List<StockHistoryDTO>> stockHistory(@PathVariable(name = "id") Long articleId,
 			@RequestParam(value = "page", required = false) Integer offset,
-			@RequestParam(value = "per_page", required = false) Integer limit) throws URISyntaxException {
+			@RequestParam(value = "cursor", required = false) Cursor cursor,
+			@RequestParam(value = "per_page", required = false) Integer limit,
+			@RequestParam(value = "count", defaultValue = "true") boolean count,
+			@RequestParam(value = "keyset", defaultValue = "false") boolean keyset) throws URISyntaxException {
 		// Find article
 		Article article = articleRepository.findOne(articleId);
 		if (article == null) {
 			return new ResponseEntity<>(NOT_FOUND);
 		}
 
+		// Paginated by keys on request, the clients paginating by offset keep the total count
+		if (cursor != null || keyset) {
+			if (cursor != null && cursor.getCreatedAt() == null) {
+				return ResponseEntity.badRequest().header("Failure", "The cursor of the stock history must hold a date").build();
+			}
+			Slice<StockHistory> slice = stockService.history(article, cursor, limit);
+			HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(slice, history -> Cursor.of(history.getCreatedAt(), history.getId()),
+					"/api/articles/" + articleId + "/history");
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateStockHistory(articleId));
+			return new ResponseEntity<>(slice.getContent().stream().map(stockMapper::stockHistoryToDto).collect(Collectors.toList()), headers, HttpStatus.OK);
+		}
+
+		// Without count, only whether there is a next page is known
+		if (!count) {
+			Slice<StockHistory> slice = stockService.historyWithoutCount(article, offset, limit);
+			HttpHeaders headers = PaginationUtil.generateSliceHttpHeaders(slice, "/api/articles/" + articleId + "/history", offset, limit);
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateStockHistory(articleId));
+			return new ResponseEntity<>(slice.getContent().stream().map(stockMapper::stockHistoryToDto).collect(Collectors.toList()), headers, HttpStatus.OK);
+		}
+
 		Page<StockHistory> page = stockService.history(article, offset, limit);
 
 		HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/articles/" + articleId + "/history", offset, limit);
@@ -109,5 +211,7 @@ public class ArticleResource {
 	@RolesAllowed({AuthoritiesConstants.ADMIN, AuthoritiesConstants.WORKSHOP_MANAGER})
     public void delete(@PathVariable Long articleId) {
         articleRepository.delete(articleId);
+        lowStockIndex.articleDeleted(articleId);
+        articleCatalog.invalidate();
     }
 }
@@ -0,0 +1,122 @@
+package fr.lpr.membership.web.rest;
+
+import com.codahale.metrics.annotation.Timed;
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * REST controller following the export jobs of the current user, and downloading their result.
+ */
+@RestController
+@RequestMapping("/api/exports")
+@RequiredArgsConstructor
+public class ExportJobResource {
+
+	/** Request attributes of Tomcat sending a file itself, without copying it */
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	private final ExportJobService exportJobService;
+
+	/**
+	 * GET /exports/:id -&gt; State and progress of an export job.
+	 */
+	@GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@Timed
+	public ResponseEntity<ExportJob> get(@PathVariable String id) {
+		return exportJobService.get(id)
+				.map(job -> new ResponseEntity<>(job, HttpStatus.OK))
+				.orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+	}
+
+	/**
+	 * GET /exports/:id/file -&gt; File of a finished export job, copied from disk by the file channel (or sent by Tomcat itself when it
+	 * supports sendfile). A single byte range is supported, so that an interrupted download can be resumed.
+	 */
+	@GetMapping("/{id}/file")
+	@Timed
+	public void download(@PathVariable String id, @RequestHeader(value = HttpHeaders.RANGE, required = false) String range, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		Optional<ExportJob> job = exportJobService.get(id);
+		if (!job.isPresent()) {
+			response.setStatus(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+		if (job.get().getStatus() != ExportJob.Status.DONE) {
+			response.setStatus(HttpStatus.CONFLICT.value());
+			return;
+		}
+
+		Path file = job.get().getFile();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			long start = 0;
+			long end = length - 1;
+			List<HttpRange> ranges;
+			try {
+				ranges = HttpRange.parseRanges(range);
+			} catch (IllegalArgumentException e) {
+				ranges = Collections.emptyList();
+			}
+			// Several ranges are rare enough to be answered with the whole file
+			if (ranges.size() == 1) {
+				try {
+					start = ranges.get(0).getRangeStart(length);
+					end = ranges.get(0).getRangeEnd(length);
+				} catch (IllegalArgumentException e) {
+					response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+					response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+					return;
+				}
+				response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+
+			response.setContentType(job.get().getContentType());
+			response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+			response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + job.get().getFileName() + "\"");
+			response.setContentLengthLong(end - start + 1);
+
+			if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+				request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+				request.setAttribute(SENDFILE_START, start);
+				request.setAttribute(SENDFILE_END, end + 1);
+				return;
+			}
+			WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+			for (long position = start; position <= end; ) {
+				position += channel.transferTo(position, end + 1 - position, target);
+			}
+		} catch (NoSuchFileException e) {
+			// Evicted meanwhile
+			response.setStatus(HttpStatus.NOT_FOUND.value());
+		}
+	}
+
+}
@@ -1,32 +1,54 @@
 package fr.lpr.membership.web.rest;
 
 import com.codahale.metrics.annotation.Timed;
+import fr.lpr.membership.domain.sale.PaymentType;
 import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.RowCountEstimator;
 import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobService;
 import fr.lpr.membership.service.sale.ExportExcelService;
+import fr.lpr.membership.service.sale.Granularity;
+import fr.lpr.membership.service.sale.OpenCartRegistry;
+import fr.lpr.membership.service.sale.SaleCube;
+import fr.lpr.membership.service.sale.SaleCube.Dimension;
+import fr.lpr.membership.service.sale.SaleCubeCell;
+import fr.lpr.membership.service.sale.SaleCubeQuery;
 import fr.lpr.membership.service.sale.SaleService;
 import fr.lpr.membership.service.sale.SaleStatistics;
+import fr.lpr.membership.service.sale.SaleStatisticsCache;
+import fr.lpr.membership.service.sale.SaleStatisticsCache.YearStatistics;
 import fr.lpr.membership.service.sale.SaleStatisticsService;
+import fr.lpr.membership.service.sale.SaleTotals;
+import fr.lpr.membership.service.sale.SaleTotalsSnapshot;
+import fr.lpr.membership.web.rest.dto.SaleBatchDTO;
 import fr.lpr.membership.web.rest.dto.SaleDTO;
 import fr.lpr.membership.web.rest.dto.mapper.SaleMapper;
+import fr.lpr.membership.web.rest.util.Cursor;
 import fr.lpr.membership.web.rest.util.PaginationUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.joda.time.DateTime;
-import org.joda.time.YearMonth;
+import org.joda.time.LocalDate;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.security.RolesAllowed;
-import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -43,6 +65,12 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 @RequiredArgsConstructor
 public class SaleResource {
 
+	/** Most periods of the statistics over a range, a year by day */
+	private static final int MAX_STATISTICS_PERIODS = 366;
+
+	/** Most years exported at once */
+	private static final int MAX_EXPORT_YEARS = 10;
+
 	private final SaleRepository saleRepository;
 
 	private final SaleService saleService;
@@ -51,8 +79,20 @@ public class SaleResource {
 
 	private final SaleStatisticsService statisticsService;
 
+	private final SaleStatisticsCache statisticsCache;
+
+	private final SaleCube saleCube;
+
+	private final SaleTotals saleTotals;
+
+	private final OpenCartRegistry openCartRegistry;
+
+	private final RowCountEstimator rowCountEstimator;
+
 	private final ExportExcelService exportExcelService;
 
+	private final ExportJobService exportJobService;
+
 	@PostMapping(consumes = APPLICATION_JSON_VALUE)
 	public ResponseEntity<Void> newSale(@RequestBody @Validated SaleDTO saleDTO) throws URISyntaxException {
 		if (saleDTO.getId() != null) {
@@ -63,20 +103,102 @@ public class SaleResource {
 		return ResponseEntity.created(new URI("/api/sales/" + newSale.getId())).build();
 	}
 
+	/**
+	 * Save many new sales in a single transaction, their identifiers are returned in the same order.
+	 */
+	@PostMapping(value = "/batch", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+	@Transactional
+	public ResponseEntity<List<Long>> newSales(@RequestBody @Validated SaleBatchDTO batch) {
+		if (batch.getSales().stream().anyMatch(saleDTO -> saleDTO.getId() != null)) {
+			return ResponseEntity.badRequest().header("Failure", "A new sale cannot already have an ID").build();
+		}
+
+		// Mapped in the transaction, so that each adherent and article is loaded only once
+		List<Sale> sales = saleService.newSales(batch.getSales().stream().map(saleMapper::saleDtoToSale).collect(Collectors.toList()));
+		return ResponseEntity.status(HttpStatus.CREATED).body(sales.stream().map(Sale::getId).collect(Collectors.toList()));
+	}
+
 	@PutMapping(consumes = APPLICATION_JSON_VALUE)
 	public ResponseEntity<Void> updateSale(@RequestBody @Validated SaleDTO saleDTO) throws URISyntaxException {
 		if (saleDTO.getId() == null) {
 			return newSale(saleDTO);
 		}
 
-		saleService.update(saleMapper.saleDtoToSale(saleDTO));
+		// An open cart is modified in memory and saved later, unless it is finished
+		if (!openCartRegistry.update(saleDTO)) {
+			saleService.update(saleMapper.saleDtoToSale(saleDTO));
+		}
 		return ResponseEntity.ok().build();
 	}
 
 	@GetMapping(value = "/statistics/{year}", produces = APPLICATION_JSON_VALUE)
-	public SaleStatistics<YearMonth> statistics(@PathVariable Integer year) {
-		DateTime from = DateTime.now().withYear(year).withMonthOfYear(1).withDayOfMonth(1).withTimeAtStartOfDay();
-		return statisticsService.statsByMonths(from);
+	public ResponseEntity<byte[]> statistics(@PathVariable Integer year, WebRequest request) {
+		YearStatistics statistics = statisticsCache.get(year);
+		if (request.checkNotModified(statistics.getEtag())) {
+			return null;
+		}
+
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.eTag(statistics.getEtag())
+				.cacheControl(CacheControl.noCache())
+				.body(statistics.getJson());
+	}
+
+	/**
+	 * Statistics of [from, to) by period of the granularity, {@link #MAX_STATISTICS_PERIODS} periods at most.
+	 */
+	@GetMapping(value = "/statistics", produces = APPLICATION_JSON_VALUE)
+	public ResponseEntity<SaleStatistics<LocalDate>> statistics(@RequestParam("from") @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+			@RequestParam("to") @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+			@RequestParam(value = "granularity", defaultValue = "MONTH") Granularity granularity) {
+		if (!from.isBefore(to)) {
+			return ResponseEntity.badRequest().header("Failure", "The start of the range must be before its end").build();
+		}
+		if (granularity.index(to.minusDays(1)) - granularity.index(from) >= MAX_STATISTICS_PERIODS) {
+			return ResponseEntity.badRequest().header("Failure", "The range cannot exceed " + MAX_STATISTICS_PERIODS + " periods").build();
+		}
+		return ResponseEntity.ok(statisticsService.statsByPeriods(from.toDateTimeAtStartOfDay(), to.toDateTimeAtStartOfDay(), granularity));
+	}
+
+	/**
+	 * Revenue of the day by payment type and by article, its changes are then published on /topic/salesTotals.
+	 */
+	@GetMapping(value = "/totals", produces = APPLICATION_JSON_VALUE)
+	public SaleTotalsSnapshot totals() {
+		return saleTotals.snapshot();
+	}
+
+	/**
+	 * Pivot of the sales of [from, to), grouped by the given dimensions and filtered by payment types, articles, providers and volunteer
+	 * status. Computed from the in-memory sales cube, over {@link SaleCubeQuery#MAX_DAYS} days at most.
+	 */
+	@GetMapping(value = "/cube", produces = APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<SaleCubeCell>> cube(@RequestParam("from") @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+			@RequestParam("to") @DateTimeFormat(iso = ISO.DATE) LocalDate to,
+			@RequestParam(value = "granularity", defaultValue = "MONTH") Granularity granularity,
+			@RequestParam(value = "groupBy", required = false) List<Dimension> groupBy,
+			@RequestParam(value = "paymentType", required = false) List<PaymentType> paymentTypes,
+			@RequestParam(value = "articleId", required = false) List<Long> articleIds,
+			@RequestParam(value = "providerId", required = false) List<Long> providerIds,
+			@RequestParam(value = "benevole", required = false) Boolean benevole) {
+		SaleCubeQuery query;
+		try {
+			query = new SaleCubeQuery(from, to);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().header("Failure", "The range cannot exceed " + SaleCubeQuery.MAX_DAYS + " days").build();
+		}
+		return ResponseEntity.ok(saleCube.query(query
+				.granularity(granularity)
+				.groupBy(orEmpty(groupBy))
+				.paymentTypes(orEmpty(paymentTypes))
+				.articleIds(orEmpty(articleIds))
+				.providerIds(orEmpty(providerIds))
+				.benevole(benevole)));
+	}
+
+	private static <T> List<T> orEmpty(List<T> values) {
+		return values != null ? values : Collections.emptyList();
 	}
 
 	@GetMapping(value = "/{id}", produces = APPLICATION_JSON_VALUE)
@@ -88,13 +210,26 @@ public class SaleResource {
 				.orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 	}
 
+	/**
+	 * Queue the export of the statistics of 1 to {@link #MAX_EXPORT_YEARS} years, downloaded from /api/exports/{id}/file once done.
+	 */
 	@RequestMapping(value = "/export/{year}", method = RequestMethod.POST, produces = APPLICATION_JSON_VALUE)
 	@Timed
 	@RolesAllowed({ ADMIN, WORKSHOP_MANAGER })
-	public void exportStatistics(@PathVariable Integer year, HttpServletResponse response) throws IOException {
-        DateTime from = DateTime.now().withYear(year).withMonthOfYear(1).withDayOfMonth(1).withTimeAtStartOfDay();
-		response.setHeader(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-		exportExcelService.export(from, response.getOutputStream());
+	public ResponseEntity<ExportJob> exportStatistics(@PathVariable Integer year, @RequestParam(value = "years", defaultValue = "1") Integer years,
+			@RequestParam(value = "granularity", defaultValue = "MONTH") Granularity granularity) throws URISyntaxException {
+		if (years < 1 || years > MAX_EXPORT_YEARS) {
+			return ResponseEntity.badRequest().header("Failure", "From 1 to " + MAX_EXPORT_YEARS + " years can be exported").build();
+		}
+		DateTime from = DateTime.now().withYear(year).withMonthOfYear(1).withDayOfMonth(1).withTimeAtStartOfDay();
+		ExportJob job;
+		try {
+			job = exportJobService.submit("Statistiques.xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+					(outputStream, progress) -> exportExcelService.export(from, from.plusYears(years), granularity, outputStream, progress));
+		} catch (TaskRejectedException e) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return ResponseEntity.accepted().location(new URI("/api/exports/" + job.getId())).body(job);
 	}
 
 	@DeleteMapping(value = "/{id}")
@@ -105,10 +240,35 @@ public class SaleResource {
 		saleService.delete(id);
 	}
 
+	/**
+	 * Finished sales, most recent first. Paginated by offset, or by keys from the cursor if one is given or if {@code keyset=true}. The sales
+	 * are counted only when paginated by offset without {@code count=false}, an estimate of their number is given otherwise.
+	 */
 	@GetMapping(value = "/history", produces = APPLICATION_JSON_VALUE)
 	@Timed
 	public ResponseEntity<List<SaleDTO>> history(@RequestParam(value = "page", required = false) Integer offset,
-			@RequestParam(value = "per_page", required = false) Integer limit) throws URISyntaxException {
+			@RequestParam(value = "cursor", required = false) Cursor cursor,
+			@RequestParam(value = "per_page", required = false) Integer limit,
+			@RequestParam(value = "count", defaultValue = "true") boolean count,
+			@RequestParam(value = "keyset", defaultValue = "false") boolean keyset) throws URISyntaxException {
+		if (cursor != null || keyset) {
+			if (cursor != null && cursor.getCreatedAt() == null) {
+				return ResponseEntity.badRequest().header("Failure", "The cursor of the sales must hold a date").build();
+			}
+			Slice<Sale> slice = saleService.history(cursor, limit);
+			HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(slice, sale -> Cursor.of(sale.getCreatedAt(), sale.getId()),
+					"/api/sales/history");
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateFinishedSales());
+			return new ResponseEntity<>(slice.getContent().stream().map(saleMapper::saleToSaleDto).collect(Collectors.toList()), headers, OK);
+		}
+
+		if (!count) {
+			Slice<Sale> slice = saleService.historyWithoutCount(offset, limit);
+			HttpHeaders headers = PaginationUtil.generateSliceHttpHeaders(slice, "/api/sales/history", offset, limit);
+			PaginationUtil.addEstimatedTotalCount(headers, rowCountEstimator.estimateFinishedSales());
+			return new ResponseEntity<>(slice.getContent().stream().map(saleMapper::saleToSaleDto).collect(Collectors.toList()), headers, OK);
+		}
+
 		Page<Sale> page = saleService.history(offset, limit);
 
 		HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/sales/history", offset, limit);
@@ -118,7 +278,7 @@ public class SaleResource {
 	@GetMapping(value = "/temporary", produces = APPLICATION_JSON_VALUE)
 	@Timed
 	public List<SaleDTO> getTemporarySales() {
-		return saleService.getTemporarySales().stream().map(saleMapper::saleToSaleDto).collect(Collectors.toList());
+		return openCartRegistry.openCarts();
 	}
 
 }
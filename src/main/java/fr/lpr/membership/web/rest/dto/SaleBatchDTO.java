@@ -0,0 +1,30 @@
+package fr.lpr.membership.web.rest.dto;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Size;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * New sales saved together, for example the sales recorded by a cash desk while it was offline.
+ */
+public class SaleBatchDTO {
+
+	public static final int MAX_SALES = 500;
+
+	@NotEmpty
+	@Size(max = MAX_SALES)
+	@Valid
+	private List<SaleDTO> sales;
+
+	public List<SaleDTO> getSales() {
+		return sales;
+	}
+
+	public void setSales(List<SaleDTO> sales) {
+		this.sales = sales;
+	}
+
+}
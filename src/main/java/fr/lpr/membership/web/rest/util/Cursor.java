@@ -0,0 +1,71 @@
+package fr.lpr.membership.web.rest.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.joda.time.DateTime;
+
+/**
+ * Position in a list paginated by keys, that is the keys of the last element returned: its creation date, if the list is sorted by it,
+ * and its identifier.
+ *
+ * <p>
+ * The cursor is sent to the clients as an opaque string, and converted back by Spring from the {@code cursor} request parameter.
+ * </p>
+ */
+public final class Cursor {
+
+	private static final String SEPARATOR = "_";
+
+	private final DateTime createdAt;
+
+	private final long id;
+
+	private Cursor(DateTime createdAt, long id) {
+		this.createdAt = createdAt;
+		this.id = id;
+	}
+
+	public static Cursor of(DateTime createdAt, Long id) {
+		return new Cursor(createdAt, id);
+	}
+
+	public static Cursor of(Long id) {
+		return new Cursor(null, id);
+	}
+
+	/**
+	 * Decode a cursor returned by {@link #toString()}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value is not a cursor
+	 */
+	public static Cursor valueOf(String value) {
+		try {
+			String[] keys = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.US_ASCII).split(SEPARATOR);
+			if (keys.length == 1) {
+				return of(Long.valueOf(keys[0]));
+			} else if (keys.length == 2) {
+				return of(new DateTime(Long.parseLong(keys[0])), Long.valueOf(keys[1]));
+			}
+		} catch (IllegalArgumentException e) {
+			// Invalid Base64 or number
+		}
+		throw new IllegalArgumentException("Curseur invalide : " + value);
+	}
+
+	public DateTime getCreatedAt() {
+		return createdAt;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		String keys = createdAt != null ? createdAt.getMillis() + SEPARATOR + id : String.valueOf(id);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(keys.getBytes(StandardCharsets.US_ASCII));
+	}
+
+}
@@ -2,10 +2,14 @@ package fr.lpr.membership.web.rest.util;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.Function;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 
@@ -16,6 +20,17 @@ import org.springframework.http.HttpHeaders;
  * Pagination uses the same principles as the <a href="https://developer.github.com/v3/#pagination">Github API</a>, and follow <a
  * href="http://tools.ietf.org/html/rfc5988">RFC 5988 (Link header)</a>.
  * </p>
+ *
+ * <p>
+ * Lists can also be paginated by keys, on request with {@code keyset=true}: a page is requested with the {@link Cursor} of the last element
+ * of the previous one, so that the database seeks to it in an index instead of skipping all the previous rows, and the elements are not
+ * counted.
+ * </p>
+ *
+ * <p>
+ * Lists paginated by offset are not counted either when {@code count=false} is requested: the links only depend on whether there is a next
+ * page, and an approximate total may be given in the {@value #ESTIMATED_TOTAL_COUNT_HEADER} header instead of the exact one.
+ * </p>
  */
 public class PaginationUtil {
 
@@ -27,6 +42,10 @@ public class PaginationUtil {
 
 	public static final int MAX_LIMIT = 100;
 
+	public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+	public static final String ESTIMATED_TOTAL_COUNT_HEADER = "X-Total-Count-Estimate";
+
 	/**
 	 *
 	 * @param offset
@@ -59,6 +78,90 @@ public class PaginationUtil {
 		return generatePageRequest(offset, limit, null);
 	}
 
+	/**
+	 *
+	 * @param limit
+	 *            the max number of elements requested ( must be &lt;= 100)
+	 * @return the Pageable request of the first elements, for the pagination by keys
+	 */
+	public static Pageable generateSliceRequest(Integer limit) {
+		return generatePageRequest(DEFAULT_OFFSET, limit);
+	}
+
+	/**
+	 *
+	 * @param slice
+	 *            the elements returned
+	 * @param cursor
+	 *            the cursor of an element
+	 * @param baseUrl
+	 *            the base URL
+	 * @return the headers, with the link to the next elements if there are more
+	 * @throws URISyntaxException
+	 *             if uris cannot be build
+	 */
+	public static <T> HttpHeaders generateKeysetPaginationHttpHeaders(Slice<T> slice, Function<T, Cursor> cursor, String baseUrl)
+			throws URISyntaxException {
+		final HttpHeaders headers = new HttpHeaders();
+		String link = "";
+		if (slice.hasNext()) {
+			List<T> content = slice.getContent();
+			link = "<" + (new URI(baseUrl + "?cursor=" + cursor.apply(content.get(content.size() - 1)) + "&per_page=" + slice.getSize())).toString()
+					+ ">; rel=\"next\",";
+		}
+		link += "<" + (new URI(baseUrl + "?keyset=true&per_page=" + slice.getSize())).toString() + ">; rel=\"first\"";
+		headers.add(HttpHeaders.LINK, link);
+		return headers;
+	}
+
+	/**
+	 *
+	 * @param slice
+	 *            the page, without its total
+	 * @param baseUrl
+	 *            the base URL
+	 * @param offset
+	 *            offset the offset (must be &gt; 0)
+	 * @param limit
+	 *            limit the max number of elements requested ( must be &lt;= 100)
+	 * @return the headers, without link to the last page
+	 * @throws URISyntaxException
+	 *             if uris cannot be build
+	 */
+	public static HttpHeaders generateSliceHttpHeaders(Slice<?> slice, String baseUrl, Integer offset, Integer limit) throws URISyntaxException {
+
+		if (offset == null || offset < MIN_OFFSET) {
+			offset = DEFAULT_OFFSET;
+		}
+		if (limit == null || limit > MAX_LIMIT) {
+			limit = DEFAULT_LIMIT;
+		}
+		final HttpHeaders headers = new HttpHeaders();
+		String link = "";
+		if (slice.hasNext()) {
+			link = "<" + (new URI(baseUrl + "?page=" + (offset + 1) + "&per_page=" + limit + "&count=false")).toString() + ">; rel=\"next\",";
+		}
+		if (offset > 1) {
+			link += "<" + (new URI(baseUrl + "?page=" + (offset - 1) + "&per_page=" + limit + "&count=false")).toString() + ">; rel=\"prev\",";
+		}
+		link += "<" + (new URI(baseUrl + "?page=" + 1 + "&per_page=" + limit + "&count=false")).toString() + ">; rel=\"first\"";
+		headers.add(HttpHeaders.LINK, link);
+		return headers;
+	}
+
+	/**
+	 *
+	 * @param headers
+	 *            the pagination headers
+	 * @param estimatedTotal
+	 *            the approximate number of elements, if known
+	 * @return the headers
+	 */
+	public static HttpHeaders addEstimatedTotalCount(HttpHeaders headers, OptionalLong estimatedTotal) {
+		estimatedTotal.ifPresent(total -> headers.add(ESTIMATED_TOTAL_COUNT_HEADER, String.valueOf(total)));
+		return headers;
+	}
+
 	/**
 	 *
 	 * @param page
@@ -82,7 +185,7 @@ public class PaginationUtil {
 			limit = DEFAULT_LIMIT;
 		}
 		final HttpHeaders headers = new HttpHeaders();
-		headers.add("X-Total-Count", "" + page.getTotalElements());
+		headers.add(TOTAL_COUNT_HEADER, "" + page.getTotalElements());
 		String link = "";
 		if (offset < page.getTotalPages()) {
 			link = "<" + (new URI(baseUrl + "?page=" + (offset + 1) + "&per_page=" + limit)).toString() + ">; rel=\"next\",";
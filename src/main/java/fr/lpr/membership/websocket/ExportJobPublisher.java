@@ -0,0 +1,27 @@
+package fr.lpr.membership.websocket;
+
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the progress of the export jobs to their owner only, on /user/queue/exportJobs.
+ */
+@Component
+@RequiredArgsConstructor
+public class ExportJobPublisher {
+
+	private final SimpMessagingTemplate template;
+
+	@EventListener
+	public void handleExportJob(ExportJobEvent event) {
+		ExportJob job = event.getJob();
+		if (job.getOwner() != null) {
+			this.template.convertAndSendToUser(job.getOwner(), "/queue/exportJobs", job);
+		}
+	}
+
+}
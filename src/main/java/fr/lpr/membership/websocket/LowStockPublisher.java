@@ -0,0 +1,23 @@
+package fr.lpr.membership.websocket;
+
+import fr.lpr.membership.service.stock.LowStockTransitionEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the articles falling to their stock warning level, or going back above it.
+ */
+@Component
+@RequiredArgsConstructor
+public class LowStockPublisher {
+
+	private final SimpMessagingTemplate template;
+
+	@EventListener
+	public void handleLowStockTransition(LowStockTransitionEvent event) {
+		this.template.convertAndSend("/topic/lowStock", event);
+	}
+
+}
@@ -0,0 +1,38 @@
+package fr.lpr.membership.websocket;
+
+import fr.lpr.membership.service.sale.SaleTotals;
+import fr.lpr.membership.service.sale.SaleTotalsSnapshot;
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the changes of the running sale totals, so that the cash desks do not have to poll for them.
+ */
+@Component
+@RequiredArgsConstructor
+public class SaleTotalsPublisher {
+
+	private final SimpMessagingTemplate template;
+
+	private final SaleTotals saleTotals;
+
+	/** Totals as of the last publication */
+	private volatile SaleTotalsSnapshot published;
+
+	/**
+	 * Send the changes since the last publication, so that all the sales of an interval make a single message. Whole totals are sent when the
+	 * day changes.
+	 */
+	@Scheduled(fixedDelayString = "${saleTotals.publishInterval:1000}")
+	public void publish() {
+		SaleTotalsSnapshot totals = saleTotals.snapshot();
+		SaleTotalsSnapshot changes = totals.since(published);
+		if (!changes.isEmpty()) {
+			this.template.convertAndSend("/topic/salesTotals", changes);
+		}
+		published = totals;
+	}
+
+}
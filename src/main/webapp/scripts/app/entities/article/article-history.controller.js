@@ -6,8 +6,7 @@ angular.module('membershipApp')
 		// View Model
 		$scope.article = null;
 		$scope.history = [];
-		
-		$scope.page = 1;
+		$scope.links = {};
 		
 		// View Functions
 		
@@ -17,16 +16,16 @@ angular.module('membershipApp')
 			$scope.articleId = id;
 			Article.get({id: id}, function(result) {
 				$scope.article = result;
-				$scope.loadPage(1);
+				$scope.loadPage();
 			});
 		}
 		
-		$scope.loadPage = function(page) {
-            $scope.page = page;
-			
+		// The history is paginated by keys, the next entries follow the cursor of the last one loaded
+		$scope.loadPage = function(cursor) {
 			var historyQuery = {
 					id: $scope.articleId,
-					page: $scope.page,
+					keyset: true,
+					cursor: cursor,
 					per_page: 20
 			};
 			
@@ -41,7 +40,7 @@ angular.module('membershipApp')
 		$scope.clear = function() {
 			$scope.article = null;
 			$scope.history = [];
-			$scope.page = 1;
+			$scope.links = {};
 		}
 		
 		$scope.load($stateParams.id);
@@ -1,7 +1,7 @@
 'use strict'
 
 angular.module('membershipApp')
-	.controller('ArticleController', function ($scope, Article, Provider) {
+	.controller('ArticleController', function ($scope, Article, Provider, Upload) {
 		$scope.articles = [];
 		$scope.reverse = false;
 		$scope.propertyName= 'name';
@@ -64,6 +64,23 @@ angular.module('membershipApp')
 			}
 		};
 
+		// Delivery note of a supplier, applied directly, the lines which do not match an article are listed
+		$scope.uploadDeliveryNote = function() {
+			$scope.deliveryNoteError = null;
+			$scope.unknownDeliveryLines = [];
+			Upload.upload({
+				url: 'api/articles/reassort/upload' + ($scope.reassort.providerId ? '?providerId=' + $scope.reassort.providerId : ''),
+				file: $scope.reassort.deliveryNote
+			}).then(function(response) {
+				$scope.loadAll();
+				$scope.unknownDeliveryLines = response.data.filter(function(line) {
+					return line.status === 'UNKNOWN_ARTICLE';
+				});
+			}, function(response) {
+				$scope.deliveryNoteError = response.headers('Failure');
+			});
+		};
+
 		$scope.sortBy = function(propertyName) {
 			$scope.reverse = ($scope.propertyName === propertyName) ? !$scope.reverse : false;
 			$scope.propertyName = propertyName;
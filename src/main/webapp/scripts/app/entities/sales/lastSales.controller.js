@@ -5,7 +5,8 @@ angular.module('membershipApp')
 		
 		// View Model
 		$scope.sales = [];
-		$scope.page = 1;
+		$scope.links = {};
+		$scope.estimatedTotal = null;
 		
 		// View Functions
 		
@@ -23,19 +24,21 @@ angular.module('membershipApp')
 		
 		$scope.clear = function() {
 			$scope.sales = [];
-			$scope.page = 1;
+			$scope.links = {};
 		};
 		
-		$scope.loadPage = function(page) {
-			$scope.page = page;
-			
+		// The sales are paginated by keys, the next ones follow the cursor of the last sale loaded
+		$scope.loadPage = function(cursor) {
 			var query = {
-					page: $scope.page,
+					keyset: true,
+					cursor: cursor,
 					per_page: 20
 			};
 			
 			Sale.history(query, function(result, headers) {
 				$scope.links = ParseLinks.parse(headers('link'));
+				// Approximate, the sales are not counted
+				$scope.estimatedTotal = headers('X-Total-Count-Estimate');
 				for (var i = 0; i < result.length; i++) {
                     $scope.sales.push(Basket.fromJson(result[i]));
                 }
@@ -44,7 +47,7 @@ angular.module('membershipApp')
 		
 		$scope.loadAll = function() {
 			$scope.clear();
-			$scope.loadPage($scope.page);
+			$scope.loadPage();
 		}
 		
 		$scope.loadAll();
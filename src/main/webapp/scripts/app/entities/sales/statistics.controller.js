@@ -1,7 +1,7 @@
 'use strict';
 
 angular.module('membershipApp')
-	.controller('SaleStatisticsController', function ($scope, $http, Sale) {
+	.controller('SaleStatisticsController', function ($scope, $http, Sale, ExportJob) {
 		$scope.salesByMonth = {};
 		$scope.salesAmountByMonth = [];
 
@@ -29,44 +29,15 @@ angular.module('membershipApp')
 		};
 
 		$scope.exportDetails = function () {
-        	$http({
-                url: 'api/sales/export/' + $scope.year,
-                method: "POST",
-                headers: {'Content-type': 'application/json'},
-                responseType: 'arraybuffer'
-                })
-        		.then(function(result) {
-        			downloadFile(new Blob([result.data], { type: result.headers('Content-Type')} ));
-        		}
-        	);
-        };
-
-        // Functions
-        function downloadFile(data) {
-        	var url = window.URL || window.webkitURL;
-        	var uri = url.createObjectURL(data);
-
-            // Now the little tricky part.
-            // you can use either>> window.open(uri);
-            // but this will not work in some browsers
-            // or you will not gAet the correct file extension
-
-            //this trick will generate a temp <a /> tag
-            var link = document.createElement("a");
-            link.href = uri;
-
-            //set the visibility hidden so it will not effect on your web-layout
-            link.style.visibility = "hidden";
-            link.download = "Statistiques.xlsx";
-
-            //this part will append the anchor tag and remove it after automatic click
-            document.body.appendChild(link);
-            link.click();
-            document.body.removeChild(link);
-
-            //revoke the object from URL
-            url.revokeObjectURL(data);
-        }
+			$scope.exportJob = null;
+			$http.post('api/sales/export/' + $scope.year)
+				.then(function(result) {
+					return ExportJob.follow(result.data, function (job) {
+						$scope.exportJob = job;
+					});
+				}
+			);
+		};
 
 		$scope.loadAll();
 	});
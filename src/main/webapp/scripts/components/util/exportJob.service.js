@@ -0,0 +1,105 @@
+'use strict';
+
+angular.module('membershipApp')
+    .factory('ExportJob', function ($http, $q, $rootScope, $timeout) {
+        // The progress is pushed to the owner of the job, polling only catches up when the socket is down
+        var POLL_INTERVAL = 5000;
+        var SOCKET_URL = "/lpr-websocket";
+        var EXPORT_JOBS_QUEUE = "/user/queue/exportJobs";
+
+        // Update function of each followed job, by id
+        var followers = {};
+        var stomp = null;
+
+        function connect() {
+            if (stomp) {
+                return;
+            }
+            stomp = Stomp.over(new SockJS(SOCKET_URL));
+            stomp.connect({}, function () {
+                stomp.subscribe(EXPORT_JOBS_QUEUE, function (message) {
+                    var job = JSON.parse(message.body);
+                    var update = followers[job.id];
+                    if (update) {
+                        $rootScope.$apply(function () {
+                            update(job);
+                        });
+                    }
+                });
+            }, function () {
+                // Connected again by the next export, the current ones are followed by polling meanwhile
+                stomp = null;
+            });
+        }
+
+        // Wait for a job queued by the server, then download its file
+        function follow(job, onProgress) {
+            var deferred = $q.defer();
+            var poll = null;
+
+            function update(current) {
+                if (!followers[job.id]) {
+                    // Already finished, by a pushed or a polled state
+                    return;
+                }
+                if (onProgress) {
+                    onProgress(current);
+                }
+                if (current.status === 'DONE' || current.status === 'FAILED') {
+                    delete followers[job.id];
+                    $timeout.cancel(poll);
+                    deferred.resolve(current.status === 'DONE' ? download(current) : $q.reject(current));
+                }
+            }
+
+            function schedulePoll() {
+                poll = $timeout(angular.noop, POLL_INTERVAL);
+                poll.then(function () {
+                    return $http.get('api/exports/' + job.id);
+                }).then(function (result) {
+                    update(result.data);
+                    if (followers[job.id]) {
+                        schedulePoll();
+                    }
+                }, function (error) {
+                    // Nothing to do once cancelled by a finished job
+                    if (followers[job.id]) {
+                        delete followers[job.id];
+                        deferred.reject(error);
+                    }
+                });
+            }
+
+            followers[job.id] = update;
+            connect();
+            update(job);
+            if (followers[job.id]) {
+                schedulePoll();
+            }
+            return deferred.promise;
+        }
+
+        function download(job) {
+            return $http.get('api/exports/' + job.id + '/file', {responseType: 'arraybuffer'})
+                .then(function (result) {
+                    var url = window.URL || window.webkitURL;
+                    var uri = url.createObjectURL(new Blob([result.data], {type: job.contentType}));
+
+                    //this trick will generate a temp <a /> tag
+                    var link = document.createElement("a");
+                    link.href = uri;
+                    link.style.visibility = "hidden";
+                    link.download = job.fileName;
+
+                    document.body.appendChild(link);
+                    link.click();
+                    document.body.removeChild(link);
+                    url.revokeObjectURL(uri);
+                    return job;
+                });
+        }
+
+        return {
+            follow: follow
+        };
+    });
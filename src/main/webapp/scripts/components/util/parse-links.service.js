@@ -26,8 +26,10 @@ angular.module('membershipApp')
                 if( angular.isString(page) ) {
                     page = parseInt(page);
                 }
+                // Lists paginated by keys link to a cursor instead of a page
+                var cursor = queryString['cursor'];
                 var name = section[1].replace(/rel="(.*)"/, '$1').trim();
-                links[name] = page;
+                links[name] = angular.isString(cursor) ? cursor : page;
             });
 
             return links;
@@ -0,0 +1,62 @@
+package fr.lpr.membership.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.OptionalLong;
+
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Test class for the estimates of the number of rows.
+ *
+ * @see RowCountEstimator
+ */
+public class RowCountEstimatorTest {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+	@Test
+	public void readsTheRowsPlannedByPostgresql() {
+		when(jdbcTemplate.queryForObject(startsWith("explain (format json) select id from stock_history"), eq(String.class), anyVararg()))
+				.thenReturn("[{\"Plan\": {\"Node Type\": \"Index Scan\", \"Plan Rows\": 1234, \"Plan Width\": 8}}]");
+
+		assertThat(new RowCountEstimator(jdbcTemplate, "POSTGRESQL").estimateStockHistory(1L)).isEqualTo(OptionalLong.of(1234));
+	}
+
+	@Test
+	public void explainsAQueryOnceForAllItsPages() {
+		when(jdbcTemplate.queryForObject(startsWith("explain (format json) select id from stock_history"), eq(String.class), anyVararg()))
+				.thenReturn("[{\"Plan\": {\"Plan Rows\": 1234}}]", "[{\"Plan\": {\"Plan Rows\": 42}}]");
+		RowCountEstimator rowCountEstimator = new RowCountEstimator(jdbcTemplate, "POSTGRESQL");
+
+		assertThat(rowCountEstimator.estimateStockHistory(1L)).isEqualTo(OptionalLong.of(1234));
+		assertThat(rowCountEstimator.estimateStockHistory(1L)).isEqualTo(OptionalLong.of(1234));
+		assertThat(rowCountEstimator.estimateStockHistory(2L)).isEqualTo(OptionalLong.of(42));
+		verify(jdbcTemplate, times(2)).queryForObject(anyString(), eq(String.class), anyVararg());
+	}
+
+	@Test
+	public void noEstimateOnOtherDatabases() {
+		assertThat(new RowCountEstimator(jdbcTemplate, "H2").estimateAdherents()).isEqualTo(OptionalLong.empty());
+		verifyZeroInteractions(jdbcTemplate);
+	}
+
+	@Test
+	public void noEstimateWhenExplainFails() {
+		when(jdbcTemplate.queryForObject(anyString(), eq(String.class), anyVararg())).thenThrow(new DataAccessResourceFailureException("down"));
+
+		assertThat(new RowCountEstimator(jdbcTemplate, "POSTGRESQL").estimateFinishedSales()).isEqualTo(OptionalLong.empty());
+	}
+
+}
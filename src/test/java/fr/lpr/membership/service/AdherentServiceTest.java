@@ -0,0 +1,211 @@
+package fr.lpr.membership.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.mail.MessagingException;
+import javax.persistence.EntityManager;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.Coordonnees;
+import fr.lpr.membership.domain.OutboxMail;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.OutboxMailRepository;
+
+/**
+ * Test class for the mailing batches of the adherents.
+ *
+ * @see AdherentService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@Transactional
+public class AdherentServiceTest {
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private PlatformTransactionManager transactionManager;
+
+	@Inject
+	private OutboxMailRepository outboxMailRepository;
+
+	@Inject
+	private EntityManager entityManager;
+
+	/** The services of the application, saving their e-mails in the outbox */
+	@Inject
+	private AdherentService service;
+
+	@Inject
+	private MailService queuingMailService;
+
+	private final MailService mailService = mock(MailService.class);
+
+	private final MetricRegistry metricRegistry = new MetricRegistry();
+
+	private AdherentService adherentService;
+
+	private final LocalDate today = LocalDate.now();
+
+	@Before
+	public void initTest() throws Exception {
+		adherentService = new AdherentService(adherentRepository, mailService, mock(ApplicationEventPublisher.class), metricRegistry,
+				transactionManager);
+		doAnswer(invocation -> {
+			final Adherent adherent = (Adherent) invocation.getArguments()[0];
+			if (adherent.getCoordonnees().getEmail().startsWith("invalide")) {
+				throw new MessagingException("Adresse invalide");
+			}
+			return null;
+		}).when(mailService).sendAdhesionExpiringEmail(any(Adherent.class));
+	}
+
+	@Test
+	public void remindsOnlyTheAdherentsExpiringSoonAndNotRemindedLately() throws Exception {
+		final Adherent expiring = adherent("bientot@lpr.fr", today.plusDays(10), null);
+		final Adherent failing = adherent("invalide@lpr.fr", today.plusDays(10), null);
+		final Adherent reminded = adherent("rappele@lpr.fr", today.plusDays(10), today.minusDays(5));
+		final Adherent remindedLongAgo = adherent("oublie@lpr.fr", today.plusDays(20), today.minusMonths(2));
+		final Adherent withoutEmail = adherent("", today.plusDays(10), null);
+		final Adherent valid = adherent("valide@lpr.fr", today.plusMonths(3), null);
+
+		final AdherentService.MailRun run = adherentService.remindAdhesionExpiring(today);
+
+		assertThat(run.getCandidates()).isEqualTo(3);
+		assertThat(run.getQueued()).isEqualTo(2);
+		assertThat(run.getFailed()).isEqualTo(1);
+		verify(mailService, never()).sendAdhesionExpiringEmail(reminded);
+		verify(mailService, never()).sendAdhesionExpiringEmail(withoutEmail);
+		verify(mailService, never()).sendAdhesionExpiringEmail(valid);
+		assertThat(adherentRepository.findIdsToRemind(today, today.plusMonths(1), today.minusMonths(1))).containsExactly(failing.getId());
+		assertThat(adherentRepository.findOne(expiring.getId()).getReminderEmail()).isEqualTo(today);
+		assertThat(adherentRepository.findOne(remindedLongAgo.getId()).getReminderEmail()).isEqualTo(today);
+		assertThat(metricRegistry.histogram("fr.lpr.membership.service.AdherentService.reminder.queued").getSnapshot().getMax()).isEqualTo(2);
+	}
+
+	@Test
+	public void notifiesTheAdherentsWhoseAdhesionExpiredYesterday() throws Exception {
+		final Adherent expired = adherent("expire@lpr.fr", today.minusDays(1), null);
+		final Adherent expiredLongAgo = adherent("ancien@lpr.fr", today.minusDays(2), null);
+		final Adherent expiringToday = adherent("aujourdhui@lpr.fr", today, null);
+
+		final AdherentService.MailRun run = adherentService.adhesionExpired(today);
+
+		assertThat(run.getCandidates()).isEqualTo(1);
+		assertThat(run.getQueued()).isEqualTo(1);
+		verify(mailService).sendAdhesionExpiredEmail(expired);
+		verify(mailService, never()).sendAdhesionExpiredEmail(expiredLongAgo);
+		verify(mailService, never()).sendAdhesionExpiredEmail(expiringToday);
+	}
+
+	@Test
+	public void createAdherentQueuesTheFirstAdhesionEmail() throws Exception {
+		final long before = outboxMailRepository.count();
+
+		service.createAdherent(newAdherent("nouveau@lpr.fr", today));
+
+		assertThat(outboxMailRepository.count()).isEqualTo(before + 1);
+	}
+
+	@Test
+	public void createAdherentQueuesNoEmailWhenItRollsBack() throws Exception {
+		final long before = outboxMailRepository.count();
+		final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		transactionTemplate.execute(status -> {
+			try {
+				service.createAdherent(newAdherent("annule@lpr.fr", today));
+			} catch (final MessagingException e) {
+				throw new IllegalStateException(e);
+			}
+			status.setRollbackOnly();
+			return null;
+		});
+
+		assertThat(outboxMailRepository.count()).isEqualTo(before);
+	}
+
+	@Test
+	public void tooLongRecipientIsRejectedBeforeBeingSaved() {
+		final long before = outboxMailRepository.count();
+		final StringBuilder recipient = new StringBuilder("adherent@");
+		while (recipient.length() <= OutboxMail.MAX_HEADER_LENGTH) {
+			recipient.append("sous-domaine.");
+		}
+
+		// A failed save would leave the transaction rollback-only, and its commit would fail
+		new TransactionTemplate(transactionManager).execute(status -> {
+			try {
+				queuingMailService.sendEmail(recipient.append("fr").toString(), "Adhésion", "<p>Bonjour</p>", false, true);
+				fail("The recipient should be rejected");
+			} catch (final MessagingException e) {
+				assertThat(e.getMessage()).startsWith("E-mail recipient too long");
+			}
+			return null;
+		});
+
+		assertThat(outboxMailRepository.count()).isEqualTo(before);
+	}
+
+	@Test
+	public void longContentIsSavedWhole() throws MessagingException {
+		final String content = Strings.repeat("<p>Bonjour, votre adhésion arrive à échéance.</p>", 1000);
+
+		queuingMailService.sendEmail("long@lpr.fr", "Adhésion", content, false, true);
+		outboxMailRepository.flush();
+		entityManager.clear();
+
+		assertThat(outboxMailRepository.findAll().stream()
+				.filter(mail -> mail.getRecipient().equals("long@lpr.fr"))
+				.map(OutboxMail::getContent)
+				.collect(Collectors.toList()))
+				.containsExactly(content);
+	}
+
+	private Adherent adherent(String email, LocalDate finAdhesion, LocalDate reminderEmail) {
+		final Adherent adherent = newAdherent(email, finAdhesion.minusMonths(TypeAdhesion.Simple.getDuree()));
+		adherent.setReminderEmail(reminderEmail);
+		return adherentRepository.saveAndFlush(adherent);
+	}
+
+	private static Adherent newAdherent(String email, LocalDate dateAdhesion) {
+		final Coordonnees coordonnees = new Coordonnees();
+		coordonnees.setEmail(email);
+		final Adherent adherent = new Adherent().prenom("Rappel").nom(email).coordonnees(coordonnees);
+		adherent.setAdhesions(Sets.newHashSet(new Adhesion().typeAdhesion(TypeAdhesion.Simple).dateAdhesion(dateAdhesion)
+				.paymentType(PaymentType.Cash)));
+		return adherent;
+	}
+
+}
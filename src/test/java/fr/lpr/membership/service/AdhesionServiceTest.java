@@ -0,0 +1,94 @@
+package fr.lpr.membership.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.inject.Inject;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.StatutAdhesion;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.AdherentRepository;
+
+/**
+ * Test class for the status of the adhesions.
+ *
+ * @see AdhesionService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@Transactional
+public class AdhesionServiceTest {
+
+	@Inject
+	private AdhesionService adhesionService;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	private final LocalDate today = LocalDate.now();
+
+	private Adherent adherent;
+
+	@Before
+	public void initTest() {
+		adherent = adherentRepository.save(new Adherent().prenom("Anne").nom("Roulement").benevole(false));
+	}
+
+	@Test
+	public void statusIsSavedWithTheAdhesions() {
+		// Ends in 10 days
+		Adhesion adhesion = adhesionService.create(monthlyAdhesion(today.minusMonths(1).plusDays(10)));
+		assertThat(statut()).isEqualTo(StatutAdhesion.ORANGE);
+		assertThat(reload().getFinAdhesion()).isEqualTo(adhesion.getDateFinAdhesion());
+
+		adhesionService.update(adhesion.typeAdhesion(TypeAdhesion.Simple));
+		assertThat(statut()).isEqualTo(StatutAdhesion.GREEN);
+
+		adhesionService.delete(adhesion.getId());
+		assertThat(statut()).isEqualTo(StatutAdhesion.NONE);
+	}
+
+	@Test
+	public void rolloverOnlyChangesTheAdherentsWhoseStatusChanges() {
+		// Ends in about 40 days
+		LocalDate fin = adhesionService.create(monthlyAdhesion(today.plusDays(10))).getDateFinAdhesion();
+		assertThat(statut()).isEqualTo(StatutAdhesion.GREEN);
+
+		adhesionService.rollover(fin.minusDays(35));
+		assertThat(statut()).isEqualTo(StatutAdhesion.GREEN);
+
+		adhesionService.rollover(fin.minusDays(25));
+		assertThat(statut()).isEqualTo(StatutAdhesion.ORANGE);
+
+		adhesionService.rollover(fin);
+		assertThat(statut()).isEqualTo(StatutAdhesion.ORANGE);
+
+		adhesionService.rollover(fin.plusDays(1));
+		assertThat(statut()).isEqualTo(StatutAdhesion.RED);
+	}
+
+	private Adhesion monthlyAdhesion(LocalDate date) {
+		return new Adhesion().typeAdhesion(TypeAdhesion.Mensuelle).dateAdhesion(date).paymentType(PaymentType.Cash).adherent(adherent);
+	}
+
+	private StatutAdhesion statut() {
+		return reload().getStatutAdhesion();
+	}
+
+	private Adherent reload() {
+		adherentRepository.flush();
+		return adherentRepository.findOne(adherent.getId());
+	}
+
+}
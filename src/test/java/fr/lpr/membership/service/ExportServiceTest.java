@@ -0,0 +1,132 @@
+package fr.lpr.membership.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Sets;
+import com.jayway.jsonpath.JsonPath;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.Coordonnees;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.service.exception.ExportException;
+import fr.lpr.membership.service.export.ExportProgress;
+import fr.lpr.membership.web.rest.dto.ExportRequest.AdhesionState;
+
+/**
+ * Test class for the streamed export of the adherents.
+ *
+ * @see ExportService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@Transactional
+public class ExportServiceTest {
+
+	private static final List<String> PROPERTIES = Arrays.asList("id", "nom", "prenom", "ville", "adhesions");
+
+	@Inject
+	private ExportService exportService;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private JPAQueryFactory queryFactory;
+
+	private final LocalDate today = LocalDate.now();
+
+	@Before
+	public void initTest() {
+		adherentRepository.save(adherent("Exporte", "Valide", today.minusMonths(2)));
+		adherentRepository.save(adherent("Exporte", "Expire", today.minusYears(3)));
+	}
+
+	@Test
+	public void exportsCsv() throws Exception {
+		String csv = export(ExportService.CSV, AdhesionState.all);
+
+		assertThat(csv).startsWith("\"ID\";\"Nom\";");
+		assertThat(csv).contains("\"Valide\";\"Exporte\";;;\"Lyon\";\"" + today.minusMonths(2).toString("dd/MM/yyyy") + "\";;\n")
+				.contains("\"Expire\";\"Exporte\"");
+	}
+
+	@Test
+	public void exportsJsonOfAnAdhesionState() throws Exception {
+		String json = export(ExportService.JSON, AdhesionState.valid);
+
+		List<String> names = JsonPath.read(json, "$[?(@.prenom == 'Exporte')].nom");
+		assertThat(names).containsExactly("Valide");
+		List<String> dates = JsonPath.read(json, "$[?(@.nom == 'Valide')].adhesions[0].dateAdhesion");
+		assertThat(dates).containsExactly(today.minusMonths(2).toString("dd/MM/yyyy"));
+	}
+
+	@Test
+	public void exportsXml() throws Exception {
+		String xml = export(ExportService.XML, AdhesionState.expired);
+
+		assertThat(xml).startsWith("<?xml").contains("<adherents>").endsWith("</adherents>");
+		assertThat(xml).contains("<nom>Expire</nom><prenom>Exporte</prenom><ville>Lyon</ville><adhesions><typeAdhesion>Simple</typeAdhesion><dateAdhesion>"
+				+ today.minusYears(3).toString("dd/MM/yyyy") + "</dateAdhesion></adhesions></adherent>");
+		assertThat(xml).doesNotContain("<nom>Valide</nom>");
+	}
+
+	@Test
+	public void namesOnlyExportSelectsOnlyTheirColumns() {
+		String query = AdherentExportPlan.of(Arrays.asList("nom", "prenom")).query(queryFactory, null).toString();
+
+		assertThat(query).startsWith("select adherent.id, adherent.nom, adherent.prenom\nfrom Adherent adherent").doesNotContain("join");
+	}
+
+	@Test(expected = ExportException.class)
+	public void rejectsUnknownProperties() {
+		AdherentExportPlan.of(Arrays.asList("nom", "motDePasse"));
+	}
+
+	@Test
+	public void reportsTheProgressOfTheExport() {
+		List<Long> progress = new ArrayList<>();
+		exportService.export(ExportService.CSV, PROPERTIES, AdhesionState.all, new ByteArrayOutputStream(), (done, total) -> {
+			assertThat(done).isLessThanOrEqualTo(total);
+			progress.add(done);
+		});
+
+		assertThat(progress).isNotEmpty();
+		assertThat(progress.get(progress.size() - 1)).isEqualTo(adherentRepository.count());
+	}
+
+	private String export(String format, AdhesionState adhesionState) throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		exportService.export(format, PROPERTIES, adhesionState, outputStream, ExportProgress.NONE);
+		return outputStream.toString(StandardCharsets.UTF_8.name());
+	}
+
+	private static Adherent adherent(String prenom, String nom, LocalDate dateAdhesion) {
+		Coordonnees coordonnees = new Coordonnees();
+		coordonnees.setVille("Lyon");
+		Adherent adherent = new Adherent().prenom(prenom).nom(nom).benevole(false).coordonnees(coordonnees);
+		adherent.setAdhesions(Sets.newHashSet(new Adhesion().typeAdhesion(TypeAdhesion.Simple).dateAdhesion(dateAdhesion).paymentType(PaymentType.Cash)));
+		return adherent;
+	}
+
+}
@@ -0,0 +1,209 @@
+package fr.lpr.membership.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.Coordonnees;
+import fr.lpr.membership.domain.QAdherent;
+import fr.lpr.membership.domain.StatutAdhesion;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.AdherentRepository;
+
+/**
+ * Test class for the import of the adherents.
+ *
+ * @see ImportService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@Transactional
+public class ImportServiceTest {
+
+	private static final String HEADER = "id,name,street,street2,zip,city,email,phone,member_lines/membership_id,member_lines/date,member_lines/id\n";
+
+	@Inject
+	private ImportService importService;
+
+	@Inject
+	private JPAQueryFactory queryFactory;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	private final LocalDate today = LocalDate.now();
+
+	@Test
+	public void importsTheRowsByChunksAndReportsTheRejectedOnes() {
+		ReflectionTestUtils.setField(importService, "chunkSize", 2);
+		try {
+			ImportReport report = importService.importCsv(csv(HEADER
+					+ "1,Importe Classique,1 rue,,69001,Lyon,a@b.fr,0102030405,[001] Adhésion classique," + today.minusMonths(1) + ",\n"
+					+ "2,Importe Famille,,,,,,,[002] Adhésion famille,,__export__.membership_line_" + today.minusYears(2) + "\n"
+					+ "3,Importe SansType,,,,,,,,,\n"
+					+ ",Importe SansId,,,,,,,[001] Adhésion classique,2016-01-01,\n"
+					+ "5,Importe Inconnu,,,,,,,[003] Adhésion inconnue,2016-01-01,\n"
+					+ "6,Importe DateInvalide,,,,,,,[001] Adhésion classique,hier,\n"), false);
+
+			assertThat(report.getStatus()).isEqualTo(ImportReport.Status.DONE);
+			assertThat(report.getRead()).isEqualTo(6);
+			assertThat(report.getImported()).isEqualTo(2);
+			assertThat(report.getSkipped()).isEqualTo(1);
+			assertThat(report.getErrorCount()).isEqualTo(2);
+			assertThat(report.getErrors()).containsOnly("Ligne 6 : type d'adhésion inconnu [003] Adhésion inconnue",
+					"Ligne 7 : date d'adhésion invalide");
+		} finally {
+			ReflectionTestUtils.setField(importService, "chunkSize", 500);
+		}
+
+		Adherent classique = imported("Importe Classique");
+		assertThat(classique.getCoordonnees().getVille()).isEqualTo("Lyon");
+		assertThat(classique.getStatutAdhesion()).isEqualTo(StatutAdhesion.GREEN);
+		Adhesion adhesion = classique.getAdhesions().iterator().next();
+		assertThat(adhesion.getTypeAdhesion()).isEqualTo(TypeAdhesion.Simple);
+		assertThat(adhesion.getPaymentType()).isEqualTo(PaymentType.NotSpecified);
+		assertThat(adhesion.getAdherent().getId()).isEqualTo(classique.getId());
+
+		Adherent famille = imported("Importe Famille");
+		assertThat(famille.getLastAdhesion()).isEqualTo(today.minusYears(2));
+		assertThat(famille.getStatutAdhesion()).isEqualTo(StatutAdhesion.RED);
+	}
+
+	@Test
+	public void upsertUpdatesTheAdherentsAlreadyImported() {
+		importService.importCsv(csv(HEADER
+				+ "1,Importe Deux Fois,1 rue,,69001,Lyon,deux@fois.fr,0102030405,[001] Adhésion classique," + today.minusYears(1).minusMonths(2) + ",\n"), true);
+
+		ImportReport report = importService.importCsv(csv(HEADER
+				+ "1,importe  deux fois,1 rue,,69001,Lyon,Deux@Fois.fr,0605040302,[001] Adhésion classique," + today.minusYears(1).minusMonths(2) + ",\n"
+				+ "1,Importe Deux Fois,1 rue,,69001,Lyon,deux@fois.fr,,[001] Adhésion classique," + today.minusMonths(2) + ",\n"
+				+ "2,Importe Deux Fois,,,,,autre@fois.fr,,[001] Adhésion classique," + today.minusMonths(2) + ",\n"), true);
+
+		assertThat(report.getImported()).isEqualTo(1);
+		assertThat(report.getUpdated()).isEqualTo(2);
+		List<Adherent> adherents = queryFactory.selectFrom(QAdherent.adherent).where(QAdherent.adherent.nom.eq("Importe Deux Fois")).fetch();
+		assertThat(adherents).hasSize(2);
+		Adherent updated = adherents.stream().filter(a -> "deux@fois.fr".equals(a.getCoordonnees().getEmail())).findFirst().get();
+		assertThat(updated.getCoordonnees().getTelephone()).isEqualTo("0605040302");
+		assertThat(updated.getAdhesions()).hasSize(2);
+		assertThat(updated.getLastAdhesion()).isEqualTo(today.minusMonths(2));
+		assertThat(updated.getStatutAdhesion()).isEqualTo(StatutAdhesion.GREEN);
+	}
+
+	@Test
+	public void upsertDoesNotMergeTheAdherentsWithoutEmailSharingTheirName() {
+		final String rows = HEADER
+				+ "11,Importe Homonyme,1 rue,,69001,Lyon,,,[001] Adhésion classique," + today.minusMonths(3) + ",\n"
+				+ "12,Importe Homonyme,2 rue,,69002,Lyon,,,[002] Adhésion famille," + today.minusMonths(2) + ",\n";
+
+		ImportReport report = importService.importCsv(csv(rows), true);
+
+		assertThat(report.getImported()).isEqualTo(2);
+		assertThat(report.getUpdated()).isEqualTo(0);
+
+		// Found again by their legacy identifier
+		report = importService.importCsv(csv(rows), true);
+
+		assertThat(report.getImported()).isEqualTo(0);
+		assertThat(report.getUpdated()).isEqualTo(0);
+		List<Adherent> adherents = queryFactory.selectFrom(QAdherent.adherent).where(QAdherent.adherent.nom.eq("Importe Homonyme")).fetch();
+		assertThat(adherents).extracting(adherent -> adherent.getCoordonnees().getAdresse1()).containsOnly("1 rue", "2 rue");
+		assertThat(adherents).extracting(adherent -> adherent.getAdhesions().size()).containsOnly(1);
+	}
+
+	@Test
+	public void upsertFindsTheAdherentsEnteredInTheApplicationByEmail() {
+		final Coordonnees coordonnees = new Coordonnees();
+		coordonnees.setEmail("saisi@lpr.fr");
+		final Adherent entered = new Adherent();
+		entered.setPrenom("Jeanne");
+		entered.setNom("Importe Saisie");
+		entered.setCoordonnees(coordonnees);
+		adherentRepository.saveAndFlush(entered);
+
+		ImportReport report = importService.importCsv(csv(HEADER
+				+ "21,Importe Saisie,,,,,saisi@lpr.fr,,[001] Adhésion classique," + today.minusMonths(1) + ",\n"
+				+ "22,Importe Saisie,,,,,saisi@lpr.fr,,[001] Adhésion classique," + today.minusMonths(1) + ",\n"), true);
+
+		// The second row has another legacy identifier than the one now kept by the adherent
+		assertThat(report.getImported()).isEqualTo(1);
+		assertThat(report.getUpdated()).isEqualTo(1);
+		Adherent updated = adherentRepository.findOne(entered.getId());
+		assertThat(updated.getPrenom()).isEqualTo("Jeanne");
+		assertThat(updated.getExternalId()).isEqualTo("21");
+		assertThat(updated.getAdhesions()).hasSize(1);
+	}
+
+	@Test
+	public void keyIndexFindsTheNormalizedKeys() {
+		AdherentKeyIndex index = new AdherentKeyIndex(2);
+		for (long id = 1; id <= 100; id++) {
+			index.put(AdherentKeyIndex.key("adherent" + id + "@lpr.fr", "Adhérent " + id), id);
+		}
+
+		assertThat(index.size()).isEqualTo(100);
+		assertThat(index.get(AdherentKeyIndex.key(" ADHERENT42@lpr.fr", "adherent   42"))).isEqualTo(42);
+		assertThat(index.get(AdherentKeyIndex.key("adherent42@lpr.fr", "Adherent 43"))).isEqualTo(AdherentKeyIndex.ABSENT);
+	}
+
+	@Test
+	public void failsWithoutTheRequiredColumns() {
+		ImportReport report = importService.importCsv(csv("id,name\n1,Importe SansColonnes\n"), false);
+
+		assertThat(report.getStatus()).isEqualTo(ImportReport.Status.FAILED);
+		assertThat(report.getErrors()).containsExactly("Colonne manquante : member_lines/membership_id");
+	}
+
+	@Test
+	public void failsOnAnyErrorOfTheDatabase() {
+		final Object jdbcTemplate = ReflectionTestUtils.getField(importService, "jdbcTemplate");
+		final JdbcTemplate failing = mock(JdbcTemplate.class);
+		when(failing.queryForObject(anyString(), eq(Integer.class))).thenThrow(new QueryTimeoutException("Délai dépassé"));
+		ReflectionTestUtils.setField(importService, "jdbcTemplate", failing);
+		try {
+			ImportReport report = importService.importCsv(csv(HEADER
+					+ "1,Importe Timeout,,,,,,,[001] Adhésion classique," + today + ",\n"), true);
+
+			assertThat(report.getStatus()).isEqualTo(ImportReport.Status.FAILED);
+			assertThat(report.getFinishedAt()).isPositive();
+			assertThat(report.getErrors()).containsExactly("Délai dépassé");
+		} finally {
+			ReflectionTestUtils.setField(importService, "jdbcTemplate", jdbcTemplate);
+		}
+	}
+
+	private Adherent imported(String nom) {
+		List<Adherent> adherents = queryFactory.selectFrom(QAdherent.adherent).where(QAdherent.adherent.nom.eq(nom)).fetch();
+		assertThat(adherents).hasSize(1);
+		return adherents.get(0);
+	}
+
+	private static ByteArrayInputStream csv(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,142 @@
+package fr.lpr.membership.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.mail.internet.MimeMessage;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.codahale.metrics.MetricRegistry;
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.OutboxMail;
+import fr.lpr.membership.repository.OutboxMailRepository;
+
+/**
+ * Test class for the outbox of the e-mails, sent to an in-process SMTP server.
+ *
+ * @see MailOutbox
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class MailOutboxTest {
+
+	/** No server listens on this port */
+	private static final int CLOSED_PORT = ServerSetupTest.SMTP.getPort() + 1;
+
+	@Rule
+	public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTP);
+
+	@Inject
+	private MailOutbox mailOutbox;
+
+	@Inject
+	private OutboxMailRepository outboxMailRepository;
+
+	@Inject
+	private JavaMailSenderImpl javaMailSender;
+
+	@Inject
+	private PlatformTransactionManager transactionManager;
+
+	@Inject
+	private MetricRegistry metricRegistry;
+
+	private int port;
+
+	@Before
+	public void initTest() {
+		outboxMailRepository.deleteAll();
+		port = javaMailSender.getPort();
+		javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+	}
+
+	@After
+	public void tearDown() {
+		javaMailSender.setPort(port);
+		outboxMailRepository.deleteAll();
+	}
+
+	@Test
+	public void sendsOnlyTheMailsOfCommittedTransactions() throws Exception {
+		final long sentBefore = metricRegistry.timer(MetricRegistry.name(MailOutbox.class, "latency")).getCount();
+		for (int i = 1; i <= 3; i++) {
+			mailOutbox.enqueue("adherent" + i + "@lpr.fr", "Adhésion " + i, "<p>Bonjour</p>", false, true);
+		}
+		new TransactionTemplate(transactionManager).execute(status -> {
+			mailOutbox.enqueue("annule@lpr.fr", "Annulé", "<p>Bonjour</p>", false, true);
+			status.setRollbackOnly();
+			return null;
+		});
+
+		assertThat(mailOutbox.drain(0)).isEqualTo(3);
+
+		final MimeMessage[] received = greenMail.getReceivedMessages();
+		assertThat(received).hasSize(3);
+		assertThat(received[0].getSubject()).isEqualTo("Adhésion 1");
+		assertThat(received[0].getAllRecipients()[0].toString()).isEqualTo("adherent1@lpr.fr");
+		assertThat(outboxMailRepository.count()).isEqualTo(0);
+		assertThat(metricRegistry.timer(MetricRegistry.name(MailOutbox.class, "latency")).getCount()).isEqualTo(sentBefore + 3);
+	}
+
+	@Test
+	public void triesAgainAfterADelayWhenTheServerIsDown() {
+		javaMailSender.setPort(CLOSED_PORT);
+		final OutboxMail mail = mailOutbox.enqueue("adherent@lpr.fr", "Adhésion", "<p>Bonjour</p>", false, true);
+
+		assertThat(mailOutbox.drain(0)).isEqualTo(0);
+		OutboxMail pending = outboxMailRepository.findOne(mail.getId());
+		assertThat(pending.getStatus()).isEqualTo(OutboxMail.Status.PENDING);
+		assertThat(pending.getAttempts()).isEqualTo(1);
+		assertThat(pending.getLastError()).isNotNull();
+		assertThat(pending.getNextAttemptAt().isAfter(DateTime.now().plusSeconds(30))).isTrue();
+
+		// Not due yet, even once the server is up
+		javaMailSender.setPort(ServerSetupTest.SMTP.getPort());
+		assertThat(mailOutbox.drain(0)).isEqualTo(0);
+		assertThat(greenMail.getReceivedMessages()).isEmpty();
+		assertThat(outboxMailRepository.findOne(mail.getId()).getAttempts()).isEqualTo(1);
+	}
+
+	@Test
+	public void failsAfterTheLastAttempt() {
+		final MailOutbox target = AopTestUtils.getTargetObject(mailOutbox);
+		ReflectionTestUtils.setField(target, "backoff", 0L);
+		ReflectionTestUtils.setField(target, "maxAttempts", 2);
+		try {
+			javaMailSender.setPort(CLOSED_PORT);
+			final OutboxMail mail = mailOutbox.enqueue("adherent@lpr.fr", "Adhésion", "<p>Bonjour</p>", false, true);
+
+			mailOutbox.drain(0);
+			mailOutbox.drain(0);
+			mailOutbox.drain(0);
+
+			final OutboxMail failed = outboxMailRepository.findOne(mail.getId());
+			assertThat(failed.getStatus()).isEqualTo(OutboxMail.Status.FAILED);
+			assertThat(failed.getAttempts()).isEqualTo(2);
+			final List<OutboxMail> due = outboxMailRepository.findAll();
+			assertThat(due).hasSize(1);
+		} finally {
+			ReflectionTestUtils.setField(target, "backoff", 60000L);
+			ReflectionTestUtils.setField(target, "maxAttempts", 8);
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.ArticleRepository;
+
+/**
+ * Test class for the streamed Excel export.
+ *
+ * @see ExportExcelService
+ */
+public class ExportExcelServiceTest {
+
+	private static final int ARTICLES = 200;
+
+	private static final DateTime FROM = new DateTime(2010, 1, 1, 0, 0);
+
+	private static final DateTime TO = FROM.plusYears(5);
+
+	/** Heap the export may retain while it runs, far below what the rows of the whole workbook take */
+	private static final long MEMORY_BUDGET = 16 * 1024 * 1024;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private long peakRetainedHeap;
+
+	@Mock
+	private ArticleRepository articleRepository;
+
+	@Mock
+	private SaleStatisticsService saleStatisticsService;
+
+	private ExportExcelService exportExcelService;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		exportExcelService = new ExportExcelService(articleRepository, saleStatisticsService);
+
+		List<Article> articles = IntStream.range(0, ARTICLES).mapToObj(i -> new Article().name("Article " + i)).collect(Collectors.toList());
+		when(articleRepository.findAll()).thenReturn(articles);
+
+		// Every article and an adhesion sold each day of the requested range
+		when(saleStatisticsService.statistics(any(DateTime.class), any(DateTime.class), eq(Granularity.DAY))).thenAnswer(invocation -> {
+			// Measured before each month is read, when the previous months have been written
+			peakRetainedHeap = Math.max(peakRetainedHeap, retainedHeap());
+
+			LocalDate from = invocation.getArgumentAt(0, DateTime.class).toLocalDate();
+			LocalDate to = invocation.getArgumentAt(1, DateTime.class).toLocalDate();
+			List<SaleAggregate> aggregates = new ArrayList<>();
+			for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+				for (Article article : articles) {
+					aggregates.add(new SaleAggregate(day, article.getName(), PaymentType.Cash, 1, 500));
+				}
+				aggregates.add(new SaleAggregate(day, TypeAdhesion.Simple.getLabel(), PaymentType.Check, 1, 2000));
+			}
+			return aggregates;
+		});
+	}
+
+	@Test
+	public void exportFiveYearsByDayStaysWithinItsMemoryBudget() throws Exception {
+		int days = Days.daysBetween(FROM, TO).getDays();
+
+		SXSSFWorkbook workbook = new SXSSFWorkbook(ExportExcelService.ROW_ACCESS_WINDOW);
+		try {
+			long initialHeap = retainedHeap();
+			exportExcelService.write(workbook, FROM, TO, Granularity.DAY);
+
+			assertThat(peakRetainedHeap - initialHeap).isLessThan(MEMORY_BUDGET);
+
+			SXSSFSheet sheet = workbook.getSheetAt(0);
+			assertThat(sheet.getLastRowNum()).isEqualTo(days);
+
+			// Only the last rows are held in memory, the other ones have been flushed to disk
+			List<Row> rowsInMemory = Lists.newArrayList(sheet.iterator());
+			assertThat(rowsInMemory).hasSize(ExportExcelService.ROW_ACCESS_WINDOW);
+			assertThat(rowsInMemory.get(0).getRowNum()).isEqualTo(days - ExportExcelService.ROW_ACCESS_WINDOW + 1);
+			assertThat((Object) sheet.getRow(0)).isNull();
+
+			// Amounts are numeric cells formatted as euros
+			Row lastRow = sheet.getRow(days);
+			assertThat(lastRow.getCell(0).getStringCellValue()).isEqualTo(TO.minusDays(1).toString("dd/MM/yyyy"));
+			assertThat(IntStream.range(1, lastRow.getLastCellNum()).mapToObj(i -> lastRow.getCell(i).getNumericCellValue()).collect(Collectors.toSet()))
+					.containsOnly(0d, 5d, 20d);
+			assertThat(lastRow.getCell(1).getCellStyle().getDataFormatString()).isEqualTo(ExportExcelService.CURRENCY_FORMAT);
+
+			workbook.write(ByteStreams.nullOutputStream());
+		} finally {
+			workbook.dispose();
+		}
+
+		// The statistics are read month by month
+		verify(saleStatisticsService, times(60)).statistics(any(DateTime.class), any(DateTime.class), eq(Granularity.DAY));
+	}
+
+	/**
+	 * Heap still used after a garbage collection.
+	 */
+	private long retainedHeap() {
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+}
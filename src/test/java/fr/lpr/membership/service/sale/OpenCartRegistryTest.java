@@ -0,0 +1,155 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.web.rest.dto.SaleDTO;
+import fr.lpr.membership.web.rest.dto.SoldItemDTO;
+
+/**
+ * Test class for the open carts.
+ *
+ * @see OpenCartRegistry
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class OpenCartRegistryTest {
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	@Inject
+	private OpenCartRegistry openCartRegistry;
+
+	@Inject
+	private SaleService saleService;
+
+	@Inject
+	private SaleRepository saleRepository;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	private Adherent adherent;
+
+	private Article article;
+
+	private Sale sale;
+
+	@Before
+	public void initTest() {
+		adherent = new Adherent();
+		adherent.setPrenom("firstName");
+		adherent.setNom("lastName");
+		adherent = adherentRepository.save(adherent);
+		article = articleRepository.save(new Article().name("Patin de frein " + ARTICLE_COUNTER.incrementAndGet()).quantity(10).salePrice(400));
+
+		Sale cart = new Sale().adherent(adherent).paymentType(PaymentType.Cash).finished(false);
+		cart.addSoldItem(article, 2, 400);
+		sale = saleService.newSale(cart);
+	}
+
+	@After
+	public void cleanup() {
+		if (saleRepository.exists(sale.getId())) {
+			saleService.delete(sale.getId());
+		}
+		articleRepository.delete(article);
+		adherentRepository.delete(adherent);
+	}
+
+	@Test
+	public void editsAreSavedLaterAndFinishedCartsImmediately() {
+		SaleDTO cart = openCart();
+		assertThat(cart.getSoldItems()).hasSize(1);
+
+		// More of the same article and a new one
+		cart.getSoldItems().get(0).setQuantity(3);
+		cart.getSoldItems().add(newItem(1));
+		assertThat(openCartRegistry.update(cart)).isTrue();
+
+		assertThat(openCart().getSoldItems()).extracting(SoldItemDTO::getQuantity).containsExactly(3, 1);
+		assertThat(saleRepository.findOne(sale.getId()).getSoldItems()).hasSize(1);
+		assertThat(stock()).isEqualTo(8);
+
+		openCartRegistry.flushCarts();
+		assertThat(saleRepository.findOne(sale.getId()).getSoldItems()).hasSize(2);
+		assertThat(stock()).isEqualTo(6);
+		assertThat(openCart().getSoldItems()).extracting(SoldItemDTO::getId).doesNotContainNull();
+
+		// The cash desk does not know the identifier of the saved item yet, it must not be added again
+		cart.getSoldItems().get(1).setQuantity(2);
+		cart.setFinished(true);
+		assertThat(openCartRegistry.update(cart)).isTrue();
+
+		Sale finishedSale = saleRepository.findOne(sale.getId());
+		assertThat(finishedSale.isFinished()).isTrue();
+		assertThat(finishedSale.getSoldItems()).hasSize(2);
+		assertThat(stock()).isEqualTo(5);
+		assertThat(openCartRegistry.openCarts()).extracting(SaleDTO::getId).doesNotContain(sale.getId());
+	}
+
+	@Test
+	public void abandonedCartsArePurged() {
+		openCartRegistry.purge(System.currentTimeMillis() - 60_000);
+		SaleDTO cart = openCart();
+
+		openCartRegistry.purge(System.currentTimeMillis() + 60_000);
+		assertThat(openCartRegistry.openCarts()).extracting(SaleDTO::getId).doesNotContain(sale.getId());
+		assertThat(saleRepository.exists(sale.getId())).isFalse();
+		assertThat(stock()).isEqualTo(10);
+
+		// Finishing a purged cart is not taken for done, the cash desk updates the sale directly
+		cart.setFinished(true);
+		assertThat(openCartRegistry.update(cart)).isFalse();
+	}
+
+	@Test
+	public void deletedSalesAreNotOpenCartsAnymore() {
+		SaleDTO saleDTO = openCart();
+		saleService.delete(sale.getId());
+
+		assertThat(openCartRegistry.openCarts()).extracting(SaleDTO::getId).doesNotContain(sale.getId());
+		assertThat(openCartRegistry.update(saleDTO)).isFalse();
+	}
+
+	private SaleDTO openCart() {
+		return openCartRegistry.openCarts().stream()
+				.filter(cart -> cart.getId().equals(sale.getId()))
+				.findFirst()
+				.orElseThrow(() -> new AssertionError("Vente en cours absente"));
+	}
+
+	private SoldItemDTO newItem(int quantity) {
+		SoldItemDTO item = new SoldItemDTO();
+		item.setArticleId(article.getId());
+		item.setQuantity(quantity);
+		item.setPrice(300);
+		return item;
+	}
+
+	private int stock() {
+		return articleRepository.findOne(article.getId()).getQuantity();
+	}
+
+}
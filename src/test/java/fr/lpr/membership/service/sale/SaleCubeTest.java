@@ -0,0 +1,158 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.service.sale.SaleCube.Dimension;
+import fr.lpr.membership.service.sale.SaleCube.Fact;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+
+/**
+ * Test class for the grouping and filtering of the sales cube, without database.
+ *
+ * @see SaleCube
+ */
+public class SaleCubeTest {
+
+	private static final LocalDate YEAR_START = new LocalDate(2010, 1, 1);
+
+	private SaleCube saleCube;
+
+	@Before
+	public void initTest() {
+		saleCube = new SaleCube(null, null);
+		saleCube.name(1L, "Chambre à air", 10L, "Michelin");
+		saleCube.name(2L, "Pompe", null, null);
+
+		saleCube.append(Fact.soldItem(new LocalDate(2010, 3, 5), 100, 1000, 1, 10, PaymentType.Cash, true, 2, 1000));
+		saleCube.append(Fact.soldItem(new LocalDate(2010, 3, 20), 101, 1001, 1, 10, PaymentType.Check, false, 1, 500));
+		saleCube.append(Fact.soldItem(new LocalDate(2010, 3, 20), 101, 1001, 2, 0, PaymentType.Check, false, 1, 2500));
+		saleCube.append(Fact.soldItem(new LocalDate(2010, 7, 1), 102, 1000, 1, 10, PaymentType.Cash, true, 4, 2000));
+		saleCube.append(Fact.adhesion(new LocalDate(2010, 3, 10), 1001, TypeAdhesion.Simple, PaymentType.Cash, false, 2000));
+		saleCube.append(Fact.soldItem(new LocalDate(2011, 1, 1), 103, 1000, 1, 10, PaymentType.Cash, true, 1, 500));
+	}
+
+	@Test
+	public void groupByPeriodAndItem() {
+		assertThat(saleCube.query(yearQuery().granularity(Granularity.QUARTER).groupBy(Arrays.asList(Dimension.PERIOD, Dimension.ITEM))))
+				.extracting("period", "articleId", "name", "quantity", "amount")
+				.containsExactly(
+						tuple(new LocalDate(2010, 1, 1), null, "Adhésion simple", 1L, 2000L),
+						tuple(new LocalDate(2010, 1, 1), 1L, "Chambre à air", 3L, 1500L),
+						tuple(new LocalDate(2010, 1, 1), 2L, "Pompe", 1L, 2500L),
+						tuple(new LocalDate(2010, 7, 1), 1L, "Chambre à air", 4L, 2000L));
+	}
+
+	@Test
+	public void filterByProviderAndVolunteerStatus() {
+		assertThat(saleCube.query(yearQuery().groupBy(Collections.singleton(Dimension.PROVIDER)).benevole(true)))
+				.extracting("providerId", "providerName", "paymentType", "benevole", "quantity", "amount")
+				.containsExactly(tuple(10L, "Michelin", null, null, 6L, 3000L));
+
+		assertThat(saleCube.query(yearQuery().groupBy(Collections.singleton(Dimension.PAYMENT_TYPE))
+				.providerIds(Collections.singleton(10L))
+				.paymentTypes(Collections.singleton(PaymentType.Check))))
+				.extracting("paymentType", "quantity", "amount")
+				.containsExactly(tuple(PaymentType.Check, 1L, 500L));
+	}
+
+	@Test
+	public void removedRowsAreIgnored() {
+		saleCube.removeRows(row -> row == 0 || row == 1);
+		assertThat(saleCube.size()).isEqualTo(4);
+		assertThat(saleCube.query(yearQuery().articleIds(Collections.singleton(1L))))
+				.extracting("quantity", "amount")
+				.containsExactly(tuple(4L, 2000L));
+
+		// Half of the rows removed, the cube is compacted
+		saleCube.removeRows(row -> row == 2);
+		assertThat(saleCube.size()).isEqualTo(3);
+		assertThat(saleCube.query(yearQuery().groupBy(Collections.singleton(Dimension.ITEM))))
+				.extracting("name", "quantity", "amount")
+				.containsExactly(tuple("Adhésion simple", 1L, 2000L), tuple("Chambre à air", 4L, 2000L));
+	}
+
+	@Test
+	public void removedSalesAreFoundAfterACompaction() {
+		saleCube.removeSale(101);
+		assertThat(saleCube.size()).isEqualTo(4);
+
+		// Half of the rows removed, the cube is compacted and its rows numbered again
+		saleCube.removeSale(100);
+		saleCube.removeAdhesions(1001);
+		assertThat(saleCube.size()).isEqualTo(2);
+
+		saleCube.removeSale(102);
+		assertThat(saleCube.size()).isEqualTo(1);
+		assertThat(saleCube.query(new SaleCubeQuery(YEAR_START, YEAR_START.plusYears(2)).groupBy(Collections.singleton(Dimension.PERIOD))))
+				.extracting("period", "quantity", "amount")
+				.containsExactly(tuple(new LocalDate(2011, 1, 1), 1L, 500L));
+	}
+
+	@Test
+	public void openCartsAreIgnored() {
+		// Not even read from the database, which the test has not
+		saleCube.handleSaleEvent(new SaleUpdatedEvent(new Sale().finished(false), false));
+		saleCube.handleSaleEvent(new SaleDeletedEvent(new Sale().finished(false)));
+
+		assertThat(saleCube.size()).isEqualTo(6);
+	}
+
+	@Test
+	public void reloadsReadBeforeANewerOneAreDiscarded() {
+		long older = saleCube.nextLoad();
+		long newer = saleCube.nextLoad();
+
+		saleCube.reloadSale(newer, 100, Collections.singletonList(Fact.soldItem(new LocalDate(2010, 3, 5), 100, 1000, 1, 10, PaymentType.Cash, true, 3, 1500)));
+		saleCube.reloadSale(older, 100, Collections.emptyList());
+		saleCube.reloadAdhesions(newer, Collections.singleton(1001L), Collections.emptyList());
+		saleCube.reloadAdhesions(older, Collections.singleton(1001L),
+				Collections.singletonList(Fact.adhesion(new LocalDate(2010, 3, 10), 1001, TypeAdhesion.Simple, PaymentType.Cash, false, 2000)));
+
+		assertThat(saleCube.query(yearQuery().groupBy(Collections.singleton(Dimension.ITEM))))
+				.extracting("name", "quantity", "amount")
+				.containsExactly(tuple("Chambre à air", 8L, 4000L), tuple("Pompe", 1L, 2500L));
+	}
+
+	@Test
+	public void salesReloadedWhileTheCubeIsLoadedKeepTheirNewerRows() {
+		long cube = saleCube.nextLoad();
+		// Sale 101 deleted and sale 102 updated after the cube was read, their reloads are applied first
+		saleCube.reloadSale(saleCube.nextLoad(), 101, Collections.emptyList());
+		saleCube.reloadSale(saleCube.nextLoad(), 102, Collections.singletonList(Fact.soldItem(new LocalDate(2010, 7, 1), 102, 1000, 1, 10, PaymentType.Cash, true, 1, 500)));
+
+		saleCube.load(cube, Arrays.asList(
+				Fact.soldItem(new LocalDate(2010, 3, 20), 101, 1001, 1, 10, PaymentType.Check, false, 1, 500),
+				Fact.soldItem(new LocalDate(2010, 7, 1), 102, 1000, 1, 10, PaymentType.Cash, true, 4, 2000),
+				Fact.soldItem(new LocalDate(2010, 9, 1), 104, 1000, 2, 0, PaymentType.Cash, true, 1, 2500)));
+
+		assertThat(saleCube.query(yearQuery().groupBy(Collections.singleton(Dimension.PERIOD))))
+				.extracting("period", "quantity", "amount")
+				.containsExactly(tuple(new LocalDate(2010, 7, 1), 1L, 500L), tuple(new LocalDate(2010, 9, 1), 1L, 2500L));
+
+		// An older load of the whole cube, finishing last, is discarded
+		saleCube.load(cube - 1, Collections.emptyList());
+		assertThat(saleCube.size()).isEqualTo(2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rangeIsBounded() {
+		new SaleCubeQuery(YEAR_START, YEAR_START.plusDays(SaleCubeQuery.MAX_DAYS + 1));
+	}
+
+	private static SaleCubeQuery yearQuery() {
+		return new SaleCubeQuery(YEAR_START, YEAR_START.plusYears(1));
+	}
+
+}
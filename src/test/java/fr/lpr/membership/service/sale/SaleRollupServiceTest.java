@@ -0,0 +1,182 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.domain.sale.SaleRollup;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.sale.SaleRollupRepository;
+import fr.lpr.membership.repository.sale.SaleRollupWriter;
+import fr.lpr.membership.service.AdhesionService;
+
+/**
+ * Test class for the monthly sale rollups.
+ *
+ * @see SaleRollupService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class SaleRollupServiceTest {
+
+	private static final LocalDate MARCH = new LocalDate(2009, 3, 1);
+
+	private static final LocalDate APRIL = MARCH.plusMonths(1);
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	@Inject
+	private SaleService saleService;
+
+	@Inject
+	private AdhesionService adhesionService;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private SaleRollupRepository saleRollupRepository;
+
+	@Inject
+	private SaleRollupWriter saleRollupWriter;
+
+	private Adherent adherent;
+
+	private Article article;
+
+	private final List<Sale> sales = new ArrayList<>();
+
+	@Before
+	public void initTest() {
+		adherent = new Adherent();
+		adherent.setPrenom("SAMPLE_TEXT");
+		adherent.setNom("SAMPLE_TEXT");
+		adherentRepository.save(adherent);
+
+		// Articles are only disabled when deleted, so their unique name cannot be reused by the next test
+		article = articleRepository.save(new Article().name("Pédale cumulée " + ARTICLE_COUNTER.incrementAndGet()).quantity(10).salePrice(500));
+	}
+
+	@After
+	public void cleanup() {
+		// The rollups are applied on commit, so the data is committed and has to be deleted
+		sales.forEach(sale -> saleService.delete(sale.getId()));
+		saleRollupRepository.deleteAll();
+		articleRepository.delete(article);
+		adherentRepository.delete(adherent.getId());
+	}
+
+	@Test
+	public void createdSalesAddToTheRollupAndDeletedOnesSubtractFromIt() {
+		newSale(new DateTime(2009, 3, 5, 10, 0), 2, 500);
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 2, 1000L));
+
+		newSale(new DateTime(2009, 3, 20, 10, 0), 1, 600);
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 3, 1600L));
+
+		saleService.delete(sales.remove(0).getId());
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 1, 600L));
+	}
+
+	@Test
+	public void unfinishedSalesAreOnlyCountedOnceFinished() {
+		Sale sale = newSale(new DateTime(2009, 3, 5, 10, 0), 2, 500).finished(false);
+		saleService.update(sale);
+
+		assertThat(rollups(MARCH, article.getName())).isEmpty();
+
+		sale.getSoldItems().iterator().next().changeQuantity(3);
+		saleService.update(sale.finished(true));
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 3, 1500L));
+	}
+
+	@Test
+	public void updatedSalesRebuildTheirMonth() {
+		Sale sale = newSale(new DateTime(2009, 3, 5, 10, 0), 2, 500);
+		newSale(new DateTime(2009, 3, 20, 10, 0), 1, 500);
+
+		sale.getSoldItems().iterator().next().changeQuantity(4);
+		saleService.update(sale.paymentType(PaymentType.Check));
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsOnly(
+				tuple(PaymentType.Cash, 1, 500L),
+				tuple(PaymentType.Check, 4, 2000L));
+	}
+
+	@Test
+	public void adhesionChangesRebuildTheMonthsTheyTouch() {
+		String label = TypeAdhesion.Simple.getLabel();
+		adhesionService.create(new Adhesion().typeAdhesion(TypeAdhesion.Simple).dateAdhesion(MARCH.plusDays(9)).paymentType(PaymentType.Cash).adherent(adherent));
+
+		assertThat(rollups(MARCH, label)).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 1, 2000L));
+
+		// The created adhesion is not the saved one, read it back to get its id
+		Adhesion adhesion = adherentRepository.findOne(adherent.getId()).getAdhesions().iterator().next();
+		adhesionService.update(adhesion.dateAdhesion(APRIL.plusDays(2)));
+
+		assertThat(rollups(MARCH, label)).isEmpty();
+		assertThat(rollups(APRIL, label)).extracting("paymentType", "quantity", "amount").containsExactly(
+				tuple(PaymentType.Cash, 1, 2000L));
+	}
+
+	@Test
+	public void incrementCreatesOrUpdatesTheRollup() {
+		saleRollupWriter.increment(MARCH, article.getName(), PaymentType.Check, 1, 500);
+		saleRollupWriter.increment(MARCH, article.getName(), PaymentType.Check, 2, 1000);
+		saleRollupWriter.increment(MARCH, article.getName(), PaymentType.Cash, 1, 500);
+
+		assertThat(rollups(MARCH, article.getName())).extracting("paymentType", "quantity", "amount").containsOnly(
+				tuple(PaymentType.Check, 3, 1500L),
+				tuple(PaymentType.Cash, 1, 500L));
+	}
+
+	private List<SaleRollup> rollups(LocalDate month, String itemName) {
+		return saleRollupRepository.findByMonthRange(month, month.plusMonths(1)).stream()
+				.filter(rollup -> rollup.getItemName().equals(itemName))
+				.collect(Collectors.toList());
+	}
+
+	private Sale newSale(DateTime createdAt, int quantity, int price) {
+		Sale sale = new Sale().adherent(adherent).paymentType(PaymentType.Cash).createdAt(createdAt).finished(true);
+		sale.addSoldItem(article, quantity, price);
+		Sale saved = saleService.newSale(sale);
+		sales.add(saved);
+		return saved;
+	}
+
+}
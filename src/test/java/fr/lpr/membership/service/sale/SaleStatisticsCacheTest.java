@@ -0,0 +1,124 @@
+package fr.lpr.membership.service.sale;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+
+/**
+ * Test class for the cache of the yearly sale statistics.
+ *
+ * @see SaleStatisticsCache
+ */
+public class SaleStatisticsCacheTest {
+
+	private static final int YEAR = 2012;
+
+	private static final int FIRST_YEAR = 2010;
+
+	private final SaleStatisticsService saleStatisticsService = mock(SaleStatisticsService.class);
+
+	private final SaleRepository saleRepository = mock(SaleRepository.class);
+
+	private final AdhesionRepository adhesionRepository = mock(AdhesionRepository.class);
+
+	private SaleStatisticsCache saleStatisticsCache;
+
+	@Before
+	public void initTest() {
+		when(saleStatisticsService.statsByMonths(any(DateTime.class))).thenReturn(new SaleStatistics<>());
+		when(saleRepository.findFirstFinishedSaleDate()).thenReturn(new DateTime(FIRST_YEAR + 1, 2, 1, 10, 0));
+		when(adhesionRepository.findFirstAdhesionDate()).thenReturn(new LocalDate(FIRST_YEAR, 9, 1));
+		saleStatisticsCache = new SaleStatisticsCache(saleStatisticsService, saleRepository, adhesionRepository, new ObjectMapper());
+	}
+
+	@Test
+	public void pastYearsAreComputedAtStartup() {
+		saleStatisticsCache.initialize();
+		int years = LocalDate.now().getYear() - FIRST_YEAR;
+		verify(saleStatisticsService, times(years)).statsByMonths(any(DateTime.class));
+
+		saleStatisticsCache.get(FIRST_YEAR);
+		saleStatisticsCache.get(YEAR);
+		verify(saleStatisticsService, times(years)).statsByMonths(any(DateTime.class));
+	}
+
+	@Test
+	public void yearsWithoutSalesAreNotCached() {
+		startUp();
+
+		saleStatisticsCache.get(FIRST_YEAR - 1);
+		saleStatisticsCache.get(FIRST_YEAR - 1);
+		saleStatisticsCache.get(LocalDate.now().getYear() + 1);
+		saleStatisticsCache.get(LocalDate.now().getYear() + 1);
+
+		verify(saleStatisticsService, times(4)).statsByMonths(any(DateTime.class));
+	}
+
+	@Test
+	public void evictionsOfOtherYearsDoNotPreventCaching() {
+		startUp();
+		when(saleStatisticsService.statsByMonths(any(DateTime.class))).thenAnswer(invocation -> {
+			// Another year modified while this one is computed
+			saleStatisticsCache.handleSaleEvent(new SaleUpdatedEvent(new Sale().createdAt(new DateTime(YEAR + 1, 6, 1, 10, 0)).finished(true), false));
+			return new SaleStatistics<>();
+		});
+
+		saleStatisticsCache.handleSaleEvent(new SaleUpdatedEvent(sale(true), false));
+		saleStatisticsCache.get(YEAR);
+		saleStatisticsCache.get(YEAR);
+
+		verify(saleStatisticsService, times(1)).statsByMonths(any(DateTime.class));
+	}
+
+	@Test
+	public void openCartsDoNotEvictTheYear() {
+		startUp();
+		saleStatisticsCache.handleSaleEvent(new SaleUpdatedEvent(sale(false), false));
+		saleStatisticsCache.handleSaleEvent(new SaleDeletedEvent(sale(false)));
+		saleStatisticsCache.get(YEAR);
+
+		verify(saleStatisticsService, never()).statsByMonths(any(DateTime.class));
+	}
+
+	@Test
+	public void finishedOrDeletedSalesEvictTheYear() {
+		startUp();
+		saleStatisticsCache.handleSaleEvent(new SaleUpdatedEvent(sale(true), false));
+		saleStatisticsCache.get(YEAR);
+		saleStatisticsCache.handleSaleEvent(new SaleDeletedEvent(sale(true)));
+		saleStatisticsCache.get(YEAR);
+
+		verify(saleStatisticsService, times(2)).statsByMonths(any(DateTime.class));
+	}
+
+	/**
+	 * Start the cache, then forget the past years it computed.
+	 */
+	private void startUp() {
+		saleStatisticsCache.initialize();
+		reset(saleStatisticsService);
+		when(saleStatisticsService.statsByMonths(any(DateTime.class))).thenReturn(new SaleStatistics<>());
+	}
+
+	private static Sale sale(boolean finished) {
+		return new Sale().createdAt(new DateTime(YEAR, 6, 1, 10, 0)).finished(finished);
+	}
+
+}
@@ -0,0 +1,179 @@
+package fr.lpr.membership.service.sale;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.TreeMultimap;
+
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.sale.PaymentType;
+
+/**
+ * Compares the matrix accumulator of the Excel export to the previous export code: the items in a {@link TreeMultimap} by period, then
+ * in a {@link HashMultimap} by item for each period, summed cell by cell.
+ *
+ * <p>
+ * Run {@link #main(String[])} from the test classpath: the benchmark forks a JVM with the same classpath, which {@code exec:java} does not
+ * set, e.g. {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt} then
+ * {@code java -cp target/test-classes:target/classes:$(cat cp.txt) fr.lpr.membership.service.sale.SaleStatisticsMatrixBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaleStatisticsMatrixBenchmark {
+
+	private static final int ITEMS = 200;
+
+	private static final LocalDate FROM = new LocalDate(2016, 1, 1);
+
+	private static final LocalDate TO = FROM.plusMonths(1);
+
+	private List<String> columnNames;
+
+	private List<SaleAggregate> aggregates;
+
+	private List<SalableItem> items;
+
+	private SaleStatisticsMatrix matrix;
+
+	@Setup
+	public void setup() {
+		columnNames = IntStream.range(0, ITEMS).mapToObj(i -> "Article " + i).sorted().collect(Collectors.toList());
+
+		// A month of daily statistics, as read for each chunk of a daily export
+		aggregates = new ArrayList<>();
+		for (LocalDate day = FROM; day.isBefore(TO); day = day.plusDays(1)) {
+			for (String name : columnNames) {
+				aggregates.add(new SaleAggregate(day, name, PaymentType.Cash, 2, 1000));
+				aggregates.add(new SaleAggregate(day, name, PaymentType.Check, 1, 500));
+			}
+		}
+
+		// The same statistics, as the sold items and adhesions were read before
+		items = new ArrayList<>();
+		for (SaleAggregate aggregate : aggregates) {
+			items.add(new Item((long) items.size(), aggregate));
+		}
+
+		matrix = new SaleStatisticsMatrix(Granularity.DAY, columnNames);
+	}
+
+	@Benchmark
+	public void monthlyStatByItem(Blackhole blackhole) {
+		Multimap<LocalDate, SalableItem> itemsByPeriod = TreeMultimap.create();
+		items.forEach(item -> itemsByPeriod.put(item.getSaleDate(), item));
+
+		for (LocalDate period : itemsByPeriod.keySet()) {
+			Multimap<String, SalableItem> statsByItem = monthlyStatByItem(itemsByPeriod.get(period));
+
+			for (String column : columnNames) {
+				int totalPrice = statsByItem.get(column).stream().map(SalableItem::getTotalPrice).reduce(Integer::sum).orElse(0);
+				blackhole.consume(totalPrice);
+			}
+		}
+	}
+
+	@Benchmark
+	public void matrix(Blackhole blackhole) {
+		matrix.reset(FROM, TO);
+		aggregates.forEach(matrix::add);
+
+		for (int row = 0; row != matrix.getRowCount(); ++row) {
+			if (matrix.getPeriod(row) != null) {
+				for (int column = 0; column != matrix.getColumnCount(); ++column) {
+					blackhole.consume(matrix.getTotal(row, column));
+				}
+			}
+		}
+	}
+
+	private static Multimap<String, SalableItem> monthlyStatByItem(Collection<SalableItem> items) {
+		Multimap<String, SalableItem> statsByItem = HashMultimap.create();
+		for (SalableItem item : items) {
+			statsByItem.put(item.getName(), item);
+		}
+		return statsByItem;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SaleStatisticsMatrixBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	/**
+	 * A sold item, as the proxies of the sold items and adhesions.
+	 */
+	private static class Item implements SalableItem {
+
+		private final Long id;
+
+		private final SaleAggregate aggregate;
+
+		Item(Long id, SaleAggregate aggregate) {
+			this.id = id;
+			this.aggregate = aggregate;
+		}
+
+		@Override
+		public Long getId() {
+			return id;
+		}
+
+		@Override
+		public LocalDate getSaleDate() {
+			return aggregate.getPeriod();
+		}
+
+		@Override
+		public String getName() {
+			return aggregate.getName();
+		}
+
+		@Override
+		public int getQuantity() {
+			return (int) aggregate.getQuantity();
+		}
+
+		@Override
+		public int getUnitPrice() {
+			return (int) (aggregate.getTotalPrice() / aggregate.getQuantity());
+		}
+
+		@Override
+		public PaymentType getPaymentType() {
+			return aggregate.getPaymentType();
+		}
+
+		@Override
+		public Adherent getAdherent() {
+			return null;
+		}
+
+	}
+
+}
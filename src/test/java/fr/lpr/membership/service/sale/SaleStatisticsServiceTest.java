@@ -0,0 +1,192 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.YearMonth;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Adhesion;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.TypeAdhesion;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.sale.SaleRollupRepository;
+import fr.lpr.membership.service.AdhesionService;
+
+/**
+ * Test class for the sale statistics.
+ *
+ * @see SaleStatisticsService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class SaleStatisticsServiceTest {
+
+	private static final DateTime YEAR_START = new DateTime(2010, 1, 1, 0, 0);
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	@Inject
+	private SaleStatisticsService saleStatisticsService;
+
+	@Inject
+	private SaleService saleService;
+
+	@Inject
+	private AdhesionService adhesionService;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private SaleRollupRepository saleRollupRepository;
+
+	private Adherent adherent;
+
+	private Article article;
+
+	private final List<Sale> sales = new ArrayList<>();
+
+	private final List<Adhesion> adhesions = new ArrayList<>();
+
+	@Before
+	public void initTest() {
+		adherent = new Adherent();
+		adherent.setPrenom("SAMPLE_TEXT");
+		adherent.setNom("SAMPLE_TEXT");
+		adherentRepository.save(adherent);
+
+		// Articles are only disabled when deleted, so their unique name cannot be reused by the next test
+		article = articleRepository.save(new Article().name("Chambre à air " + ARTICLE_COUNTER.incrementAndGet()).quantity(10).salePrice(500));
+	}
+
+	@After
+	public void cleanup() {
+		// The statistics are computed in other transactions, so the data is committed and has to be deleted
+		sales.forEach(sale -> saleService.delete(sale.getId()));
+		adhesions.forEach(adhesion -> adhesionService.delete(adhesion.getId()));
+		saleRollupRepository.deleteAll();
+		articleRepository.delete(article);
+		adherentRepository.delete(adherent);
+	}
+
+	@Test
+	public void aggregateByMonth() {
+		newSale(new DateTime(2010, 3, 5, 10, 0), 2, 500);
+		newSale(new DateTime(2010, 3, 20, 10, 0), 1, 600);
+		newSale(new DateTime(2010, 4, 1, 10, 0), 3, 500);
+		newAdhesion(new LocalDate(2010, 3, 10), TypeAdhesion.Simple);
+		newAdhesion(new LocalDate(2010, 3, 11), TypeAdhesion.Simple);
+
+		List<SaleAggregate> aggregates = saleStatisticsService.aggregate(YEAR_START, YEAR_START.plusYears(1), Granularity.MONTH);
+
+		assertThat(aggregates).extracting("period", "name", "quantity", "totalPrice").containsOnly(
+				tuple(new LocalDate(2010, 3, 1), article.getName(), 3L, 1600L),
+				tuple(new LocalDate(2010, 4, 1), article.getName(), 3L, 1500L),
+				tuple(new LocalDate(2010, 3, 1), TypeAdhesion.Simple.getLabel(), 2L, 4000L));
+	}
+
+	@Test
+	public void aggregateByDay() {
+		newSale(new DateTime(2010, 3, 5, 10, 0), 2, 500);
+		newSale(new DateTime(2010, 3, 5, 18, 0), 1, 500);
+		newSale(new DateTime(2010, 3, 20, 10, 0), 1, 600);
+		newAdhesion(new LocalDate(2010, 3, 10), TypeAdhesion.Simple);
+
+		List<SaleAggregate> aggregates = saleStatisticsService.statistics(YEAR_START, YEAR_START.plusYears(1), Granularity.DAY);
+
+		assertThat(aggregates).extracting("period", "name", "quantity", "totalPrice").containsOnly(
+				tuple(new LocalDate(2010, 3, 5), article.getName(), 3L, 1500L),
+				tuple(new LocalDate(2010, 3, 20), article.getName(), 1L, 600L),
+				tuple(new LocalDate(2010, 3, 10), TypeAdhesion.Simple.getLabel(), 1L, 2000L));
+	}
+
+	@Test
+	public void statsByMonthsFromRollups() {
+		newSale(new DateTime(2010, 3, 5, 10, 0), 2, 500);
+		newAdhesion(new LocalDate(2010, 3, 10), TypeAdhesion.Famille);
+		newAdhesion(new LocalDate(2011, 3, 10), TypeAdhesion.Famille);
+
+		SaleStatistics<YearMonth> statistics = saleStatisticsService.statsByMonths(YEAR_START);
+
+		assertThat(statistics.getItemsByPeriod().keySet()).containsExactly(new YearMonth(2010, 3));
+		assertThat(statistics.getItemsByPeriod().get(new YearMonth(2010, 3))).extracting("name", "quantity", "totalPrice").containsOnly(
+				tuple(article.getName(), 2L, 1000L),
+				tuple(TypeAdhesion.Famille.getLabel(), 1L, 4000L));
+	}
+
+	@Test
+	public void statisticsByWeekOverPartialMonths() {
+		newSale(new DateTime(2010, 3, 1, 10, 0), 1, 500);
+		newSale(new DateTime(2010, 3, 5, 10, 0), 1, 500);
+		newSale(new DateTime(2010, 3, 6, 10, 0), 2, 500);
+		newSale(new DateTime(2010, 4, 19, 10, 0), 1, 500);
+		newSale(new DateTime(2010, 4, 20, 10, 0), 1, 500);
+		newAdhesion(new LocalDate(2010, 4, 1), TypeAdhesion.Simple);
+
+		List<SaleAggregate> aggregates =
+				saleStatisticsService.statistics(new DateTime(2010, 3, 3, 0, 0), new DateTime(2010, 4, 20, 0, 0), Granularity.WEEK);
+
+		// Weeks start on monday
+		assertThat(aggregates).extracting("period", "name", "quantity", "totalPrice").containsExactly(
+				tuple(new LocalDate(2010, 3, 1), article.getName(), 3L, 1500L),
+				tuple(new LocalDate(2010, 3, 29), TypeAdhesion.Simple.getLabel(), 1L, 2000L),
+				tuple(new LocalDate(2010, 4, 19), article.getName(), 1L, 500L));
+	}
+
+	@Test
+	public void statisticsByQuarterFromRollupsAndPartialMonths() {
+		newSale(new DateTime(2010, 1, 10, 10, 0), 1, 500);
+		newSale(new DateTime(2010, 2, 15, 10, 0), 2, 500);
+		newSale(new DateTime(2010, 4, 1, 10, 0), 1, 500);
+		newSale(new DateTime(2010, 7, 20, 10, 0), 1, 500);
+		newAdhesion(new LocalDate(2010, 3, 10), TypeAdhesion.Famille);
+
+		SaleStatistics<LocalDate> statistics =
+				saleStatisticsService.statsByPeriods(new DateTime(2010, 1, 15, 0, 0), new DateTime(2010, 7, 15, 0, 0), Granularity.QUARTER);
+
+		assertThat(statistics.getItemsByPeriod().keySet()).containsExactly(new LocalDate(2010, 1, 1), new LocalDate(2010, 4, 1));
+		assertThat(statistics.getItemsByPeriod().get(new LocalDate(2010, 1, 1))).extracting("name", "quantity", "totalPrice").containsExactly(
+				tuple(TypeAdhesion.Famille.getLabel(), 1L, 4000L),
+				tuple(article.getName(), 2L, 1000L));
+		assertThat(statistics.getItemsByPeriod().get(new LocalDate(2010, 4, 1))).extracting("name", "quantity", "totalPrice").containsExactly(
+				tuple(article.getName(), 1L, 500L));
+	}
+
+	private void newSale(DateTime createdAt, int quantity, int price) {
+		Sale sale = new Sale().adherent(adherent).paymentType(PaymentType.Cash).createdAt(createdAt).finished(true);
+		sale.addSoldItem(article, quantity, price);
+		sales.add(saleService.newSale(sale));
+	}
+
+	private void newAdhesion(LocalDate dateAdhesion, TypeAdhesion typeAdhesion) {
+		Adhesion adhesion = new Adhesion();
+		adhesion.setTypeAdhesion(typeAdhesion);
+		adhesion.setDateAdhesion(dateAdhesion);
+		adhesion.setPaymentType(PaymentType.Cash);
+		adhesion.setAdherent(adherent);
+		adhesions.add(adhesionService.create(adhesion));
+	}
+
+}
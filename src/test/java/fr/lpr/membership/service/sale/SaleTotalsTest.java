@@ -0,0 +1,85 @@
+package fr.lpr.membership.service.sale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.service.sale.event.SaleCreatedEvent;
+import fr.lpr.membership.service.sale.event.SaleDeletedEvent;
+import fr.lpr.membership.service.sale.event.SaleUpdatedEvent;
+
+/**
+ * Test class for the running sale totals.
+ *
+ * @see SaleTotals
+ */
+public class SaleTotalsTest {
+
+	private final Article tube = new Article().id(1L).name("Chambre à air");
+
+	private final Article pump = new Article().id(2L).name("Pompe");
+
+	private SaleTotals saleTotals;
+
+	@Before
+	public void initTest() {
+		saleTotals = new SaleTotals(null);
+	}
+
+	@Test
+	public void totalsFollowTheSalesOfTheDay() {
+		Sale sale = newSale(1L, PaymentType.Cash);
+		sale.addSoldItem(tube, 2, 500);
+		saleTotals.handleSaleCreated(new SaleCreatedEvent(sale));
+
+		Sale otherSale = newSale(2L, PaymentType.Check);
+		otherSale.addSoldItem(tube, 1, 500);
+		otherSale.addSoldItem(pump, 1, 2500);
+		saleTotals.handleSaleCreated(new SaleCreatedEvent(otherSale));
+
+		// A sale of another day is ignored
+		Sale oldSale = newSale(3L, PaymentType.Cash).createdAt(DateTime.now().minusDays(2));
+		oldSale.addSoldItem(pump, 1, 2500);
+		saleTotals.handleSaleCreated(new SaleCreatedEvent(oldSale));
+
+		SaleTotalsSnapshot totals = saleTotals.snapshot();
+		assertThat(totals.isFull()).isTrue();
+		assertThat(totals.getByPaymentType()).contains(entry(PaymentType.Cash, 1000L), entry(PaymentType.Check, 3000L));
+		assertThat(totals.getByArticle()).containsOnly(entry(1L, 1500L), entry(2L, 2500L));
+
+		// The update replaces what the sale added
+		sale.paymentType(PaymentType.Check);
+		saleTotals.handleSaleUpdated(new SaleUpdatedEvent(sale, true));
+		saleTotals.handleSaleDeleted(new SaleDeletedEvent(otherSale));
+
+		SaleTotalsSnapshot changes = saleTotals.snapshot().since(totals);
+		assertThat(changes.isFull()).isFalse();
+		assertThat(changes.getByPaymentType()).containsOnly(entry(PaymentType.Cash, -1000L), entry(PaymentType.Check, -2000L));
+		assertThat(changes.getByArticle()).containsOnly(entry(1L, -500L), entry(2L, -2500L));
+	}
+
+	@Test
+	public void unfinishedSalesAreNotCounted() {
+		Sale sale = newSale(1L, PaymentType.Cash).finished(false);
+		sale.addSoldItem(tube, 2, 500);
+		saleTotals.handleSaleCreated(new SaleCreatedEvent(sale));
+
+		SaleTotalsSnapshot totals = saleTotals.snapshot();
+		assertThat(totals.getByPaymentType()).containsEntry(PaymentType.Cash, 0L);
+		assertThat(saleTotals.snapshot().since(totals).isEmpty()).isTrue();
+
+		saleTotals.handleSaleUpdated(new SaleUpdatedEvent(sale.finished(true), false));
+		assertThat(saleTotals.snapshot().since(totals).getByPaymentType()).containsOnly(entry(PaymentType.Cash, 1000L));
+	}
+
+	private static Sale newSale(Long id, PaymentType paymentType) {
+		return new Sale().id(id).paymentType(paymentType).finished(true);
+	}
+
+}
@@ -0,0 +1,69 @@
+package fr.lpr.membership.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import fr.lpr.membership.domain.Article;
+
+/**
+ * Test class for the index of the articles low in stock.
+ *
+ * @see LowStockIndex
+ */
+public class LowStockIndexTest {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+	private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+
+	private final LowStockIndex lowStockIndex = new LowStockIndex(jdbcTemplate, eventPublisher);
+
+	private final Article chain = new Article().id(1L).name("Chaîne").quantity(4).stockWarningLevel(3);
+
+	private final Article tube = new Article().id(2L).name("Chambre à air").quantity(2).stockWarningLevel(5);
+
+	@Before
+	public void initTest() {
+		lowStockIndex.articleSaved(chain);
+		lowStockIndex.articleSaved(tube);
+	}
+
+	@Test
+	public void sortsTheArticlesAtOrBelowTheirWarningLevel() {
+		lowStockIndex.handleStockQuantityChanged(StockQuantityChangedEvent.fromSale(chain, 3));
+
+		assertThat(lowStockIndex.lowStock()).extracting(LowStockArticle::getName).containsExactly("Chaîne", "Chambre à air");
+		assertThat(lowStockIndex.lowStock().get(0).getQuantity()).isEqualTo(1);
+	}
+
+	@Test
+	public void publishesOnlyTheTransitions() {
+		lowStockIndex.handleStockQuantityChanged(StockQuantityChangedEvent.fromSale(chain, 1));
+		verify(eventPublisher).publishEvent(new LowStockTransitionEvent(new LowStockArticle(1L, "Chaîne", 3, 3), true));
+
+		lowStockIndex.handleStockQuantityChanged(StockQuantityChangedEvent.forRepairing(chain));
+		lowStockIndex.handleStockQuantityChanged(StockQuantityChangedEvent.fromReassort(tube, 1));
+		verify(eventPublisher, never()).publishEvent(new LowStockTransitionEvent(new LowStockArticle(2L, "Chambre à air", 3, 5), false));
+
+		lowStockIndex.handleStockQuantityChanged(StockQuantityChangedEvent.fromReassort(tube, 10));
+		verify(eventPublisher).publishEvent(new LowStockTransitionEvent(new LowStockArticle(2L, "Chambre à air", 13, 5), false));
+		assertThat(lowStockIndex.lowStock()).extracting(LowStockArticle::getName).containsExactly("Chaîne");
+	}
+
+	@Test
+	public void forgetsTheDeletedArticles() {
+		lowStockIndex.articleDeleted(tube.getId());
+
+		assertThat(lowStockIndex.lowStock()).isEmpty();
+		verifyZeroInteractions(jdbcTemplate);
+	}
+
+}
@@ -0,0 +1,150 @@
+package fr.lpr.membership.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.stock.Reassort;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.service.exception.DeliveryNoteException;
+import fr.lpr.membership.service.stock.ReassortLineResult.Status;
+
+/**
+ * Test class for the reassorts.
+ *
+ * @see ReassortService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class ReassortServiceTest {
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	@Inject
+	private ReassortService reassortService;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private JdbcTemplate jdbcTemplate;
+
+	private Article chain;
+
+	private Article tube;
+
+	@Before
+	public void initTest() {
+		int counter = ARTICLE_COUNTER.incrementAndGet();
+		chain = articleRepository.save(new Article().name("Chaîne livrée " + counter).reference("CH-" + counter).quantity(2).salePrice(1500));
+		tube = articleRepository.save(new Article().name("Chambre à air livrée " + counter).reference("CA-" + counter).quantity(0).salePrice(500));
+	}
+
+	@After
+	public void cleanup() {
+		for (Article article : Arrays.asList(chain, tube)) {
+			jdbcTemplate.update("delete from stock_history where article_id = ?", article.getId());
+			jdbcTemplate.update("delete from article where id = ?", article.getId());
+		}
+	}
+
+	@Test
+	public void reportsEachLine() {
+		List<ReassortLineResult> results = reassortService.reassort(Arrays.asList(
+				new Reassort().id(chain.getId()).quantity(3),
+				new Reassort().id(tube.getId()).quantity(0),
+				new Reassort().id(-1L).quantity(4),
+				new Reassort().id(chain.getId()).quantity(2)));
+
+		assertThat(results).extracting(ReassortLineResult::getStatus).containsExactly(Status.APPLIED, Status.IGNORED, Status.UNKNOWN_ARTICLE,
+				Status.APPLIED);
+		assertThat(results.get(0).getName()).isEqualTo(chain.getName());
+		assertThat(quantity(chain)).isEqualTo(7);
+		assertThat(quantity(tube)).isEqualTo(0);
+		assertThat(historyCount(chain)).isEqualTo(2);
+	}
+
+	@Test
+	public void readsCsvDeliveryNotes() throws IOException {
+		String deliveryNote = "Designation;reference;quantity\n"
+				+ "Chaîne;" + chain.getReference() + ";5\n"
+				+ "Inconnu;XX-0;1\n"
+				+ ";;\n"
+				+ "Chambre à air;" + tube.getReference() + ";10\n";
+
+		List<ReassortLineResult> results = reassortService.reassort(new ByteArrayInputStream(deliveryNote.getBytes(StandardCharsets.UTF_8)),
+				"livraison.csv", null);
+
+		assertThat(results).extracting(ReassortLineResult::getReference).containsExactly(chain.getReference(), "XX-0", tube.getReference());
+		assertThat(results).extracting(ReassortLineResult::getStatus).containsExactly(Status.APPLIED, Status.UNKNOWN_ARTICLE, Status.APPLIED);
+		assertThat(quantity(chain)).isEqualTo(7);
+		assertThat(quantity(tube)).isEqualTo(10);
+	}
+
+	@Test
+	public void readsCsvDeliveryNotesWithByteOrderMark() throws IOException {
+		String deliveryNote = "\uFEFFreference,quantity\n" + chain.getReference() + ",4\n";
+
+		List<ReassortLineResult> results = reassortService.reassort(new ByteArrayInputStream(deliveryNote.getBytes(StandardCharsets.UTF_8)),
+				"livraison.csv", null);
+
+		assertThat(results).extracting(ReassortLineResult::getStatus).containsExactly(Status.APPLIED);
+		assertThat(quantity(chain)).isEqualTo(6);
+	}
+
+	@Test
+	public void readsXlsxDeliveryNotes() throws IOException {
+		ByteArrayOutputStream deliveryNote = new ByteArrayOutputStream();
+		try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+			Sheet sheet = workbook.createSheet();
+			Row header = sheet.createRow(0);
+			header.createCell(0).setCellValue("id");
+			header.createCell(2).setCellValue("quantity");
+			Row line = sheet.createRow(1);
+			line.createCell(0).setCellValue(chain.getId());
+			line.createCell(2).setCellValue(6);
+			workbook.write(deliveryNote);
+		}
+
+		List<ReassortLineResult> results = reassortService.reassort(new ByteArrayInputStream(deliveryNote.toByteArray()), "livraison.xlsx", null);
+
+		assertThat(results).extracting(ReassortLineResult::getStatus).containsExactly(Status.APPLIED);
+		assertThat(quantity(chain)).isEqualTo(8);
+	}
+
+	@Test(expected = DeliveryNoteException.class)
+	public void rejectsInvalidQuantities() throws IOException {
+		String deliveryNote = "reference,quantity\n" + chain.getReference() + ",beaucoup\n";
+		reassortService.reassort(new ByteArrayInputStream(deliveryNote.getBytes(StandardCharsets.UTF_8)), "livraison.csv", null);
+	}
+
+	private int quantity(Article article) {
+		return articleRepository.findOne(article.getId()).getQuantity();
+	}
+
+	private int historyCount(Article article) {
+		return jdbcTemplate.queryForObject("select count(*) from stock_history where article_id = ?", Integer.class, article.getId());
+	}
+
+}
@@ -0,0 +1,106 @@
+package fr.lpr.membership.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.stock.Reassort;
+import fr.lpr.membership.domain.stock.StockHistory;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.stock.StockHistoryRepository;
+
+/**
+ * Test class for the stock on a past date.
+ *
+ * @see StockCheckpointService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class StockCheckpointServiceTest {
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	@Inject
+	private StockCheckpointService stockCheckpointService;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private StockHistoryRepository stockHistoryRepository;
+
+	@Inject
+	private JdbcTemplate jdbcTemplate;
+
+	private final LocalDate today = LocalDate.now();
+
+	private Article article;
+
+	@Before
+	public void initTest() {
+		// 9 at the end of the 6th day before today, then +5, -3 and -1
+		article = articleRepository.save(new Article().name("Pneu inventorié " + ARTICLE_COUNTER.incrementAndGet()).quantity(10).salePrice(2000));
+		stockHistoryRepository.save(Arrays.asList(
+				StockHistory.from(new Reassort().id(article.getId()).quantity(5), article).createdAt(daysAgo(5).toDateTimeAtStartOfDay().plusHours(10)),
+				StockHistory.forSale(article, 3).createdAt(daysAgo(3).toDateTimeAtStartOfDay().plusHours(15)),
+				StockHistory.forRepairing(article).createdAt(daysAgo(1).toDateTimeAtStartOfDay().plusHours(9))));
+	}
+
+	@After
+	public void cleanup() {
+		jdbcTemplate.update("delete from stock_checkpoint");
+		jdbcTemplate.update("delete from stock_history where article_id = ?", article.getId());
+		jdbcTemplate.update("delete from article where id = ?", article.getId());
+	}
+
+	@Test
+	public void stockIsRolledBackFromTheCurrentQuantities() {
+		assertThat(stockAt(daysAgo(6))).isEqualTo(9);
+		assertThat(stockAt(daysAgo(4))).isEqualTo(14);
+		assertThat(stockAt(daysAgo(2))).isEqualTo(11);
+		assertThat(stockAt(today)).isEqualTo(10);
+	}
+
+	@Test
+	public void stockIsReadFromTheClosestCheckpoint() {
+		stockCheckpointService.checkpoint(daysAgo(4));
+		stockCheckpointService.checkpoint(daysAgo(4));
+
+		// Modified without stock history, the checkpoint keeps the stock of its day
+		article.setQuantity(100);
+		articleRepository.save(article);
+
+		assertThat(stockAt(daysAgo(6))).isEqualTo(9);
+		assertThat(stockAt(daysAgo(5))).isEqualTo(14);
+		assertThat(stockAt(daysAgo(4))).isEqualTo(14);
+		assertThat(stockAt(daysAgo(3))).isEqualTo(11);
+		assertThat(stockAt(daysAgo(1))).isEqualTo(100);
+	}
+
+	private LocalDate daysAgo(int days) {
+		return today.minusDays(days);
+	}
+
+	private int stockAt(LocalDate day) {
+		return stockCheckpointService.stockAt(day).stream()
+				.filter(stock -> stock.getArticleId().equals(article.getId()))
+				.findFirst()
+				.orElseThrow(() -> new AssertionError("Article absent"))
+				.getQuantity();
+	}
+
+}
@@ -0,0 +1,87 @@
+package fr.lpr.membership.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.repository.ArticleRepository;
+
+/**
+ * Test class for the eviction of the articles updated by the stock buffer, with the second level cache enabled.
+ *
+ * @see StockDeltaBuffer
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class, properties = {
+		// A database of its own, as the application started by this context runs its own jobs
+		"spring.datasource.url=jdbc:h2:mem:membership-cache;DB_CLOSE_DELAY=-1",
+		"spring.jpa.properties.hibernate.cache.use_second_level_cache=true",
+		"spring.jpa.properties.hibernate.cache.region.factory_class=org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory" })
+public class StockDeltaBufferCacheTest {
+
+	@Inject
+	private StockDeltaBuffer stockDeltaBuffer;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private JdbcTemplate jdbcTemplate;
+
+	@Inject
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	private TransactionTemplate otherTransactionTemplate;
+
+	private Article article;
+
+	@Before
+	public void initTest() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		otherTransactionTemplate = new TransactionTemplate(transactionManager);
+		otherTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		article = articleRepository.save(new Article().name("Gaine de frein").quantity(10).salePrice(300));
+	}
+
+	@After
+	public void cleanup() {
+		jdbcTemplate.update("delete from article where id = ?", article.getId());
+	}
+
+	@Test
+	public void articleReadBetweenTheUpdateAndTheCommitIsNotCachedWithItsOldQuantity() {
+		transactionTemplate.execute(status -> {
+			stockDeltaBuffer.add(article.getId(), -2);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void beforeCommit(boolean readOnly) {
+					// Registered after the buffer: the quantity is updated but not committed, another transaction still reads 10
+					assertThat(otherTransactionTemplate.execute(other -> articleRepository.findOne(article.getId())).getQuantity()).isEqualTo(10);
+				}
+
+			});
+			return null;
+		});
+
+		assertThat(otherTransactionTemplate.execute(status -> articleRepository.findOne(article.getId())).getQuantity()).isEqualTo(8);
+	}
+
+}
@@ -0,0 +1,149 @@
+package fr.lpr.membership.service.stock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.inject.Inject;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.repository.ArticleRepository;
+
+/**
+ * Test class for the buffering of the stock changes.
+ *
+ * @see StockDeltaBuffer
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+public class StockDeltaBufferTest {
+
+	@Inject
+	private StockDeltaBuffer stockDeltaBuffer;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private JdbcTemplate jdbcTemplate;
+
+	@Inject
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	private Article article;
+
+	@Before
+	public void initTest() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		article = articleRepository.save(new Article().name("Câble de frein").quantity(10).salePrice(300));
+	}
+
+	@After
+	public void cleanup() {
+		jdbcTemplate.update("delete from article where id = ?", article.getId());
+	}
+
+	@Test
+	public void changesAreMergedAndAppliedOnCommit() {
+		transactionTemplate.execute(status -> {
+			stockDeltaBuffer.add(article.getId(), -2);
+			stockDeltaBuffer.add(article.getId(), -1);
+			stockDeltaBuffer.add(article.getId(), 5);
+
+			assertThat(quantity()).isEqualTo(10);
+			return null;
+		});
+
+		assertThat(quantity()).isEqualTo(12);
+	}
+
+	@Test
+	public void changesAreDiscardedOnRollback() {
+		transactionTemplate.execute(status -> {
+			stockDeltaBuffer.add(article.getId(), -2);
+			status.setRollbackOnly();
+			return null;
+		});
+
+		assertThat(quantity()).isEqualTo(10);
+	}
+
+	@Test
+	public void flushAppliesTheChangesBeforeTheCommit() {
+		transactionTemplate.execute(status -> {
+			stockDeltaBuffer.add(article.getId(), -4);
+			stockDeltaBuffer.flush();
+
+			assertThat(quantity()).isEqualTo(6);
+			return null;
+		});
+
+		assertThat(quantity()).isEqualTo(6);
+	}
+
+	@Test
+	public void changesAreAppliedImmediatelyWithoutTransaction() {
+		stockDeltaBuffer.add(article.getId(), 3);
+
+		assertThat(quantity()).isEqualTo(13);
+	}
+
+	@Test
+	public void updatedArticlesAreEvictedFromTheCache() {
+		final Cache cache = mock(Cache.class);
+		final EntityManager entityManager = mock(EntityManager.class, RETURNS_DEEP_STUBS);
+		when(entityManager.getEntityManagerFactory().getCache()).thenReturn(cache);
+		final StockDeltaBuffer buffer = new StockDeltaBuffer(mock(JdbcTemplate.class));
+		ReflectionTestUtils.setField(buffer, "entityManager", entityManager);
+
+		buffer.add(1L, 3);
+		verify(cache).evict(Article.class, 1L);
+
+		TransactionSynchronizationManager.initSynchronization();
+		TransactionSynchronizationManager.setActualTransactionActive(true);
+		try {
+			buffer.add(2L, -1);
+			buffer.add(3L, 4);
+			verify(cache, never()).evict(Article.class, 2L);
+
+			TransactionSynchronizationUtils.triggerBeforeCommit(false);
+			verify(cache).evict(Article.class, 2L);
+			verify(cache).evict(Article.class, 3L);
+		} finally {
+			TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			TransactionSynchronizationManager.setActualTransactionActive(false);
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		// Evicted again once committed, in case a concurrent transaction has read the article in between
+		verify(cache, times(2)).evict(Article.class, 2L);
+		verify(cache, times(2)).evict(Article.class, 3L);
+	}
+
+	private int quantity() {
+		return jdbcTemplate.queryForObject("select quantity from article where id = ?", Integer.class, article.getId());
+	}
+
+}
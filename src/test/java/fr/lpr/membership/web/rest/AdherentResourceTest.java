@@ -1,6 +1,7 @@
 package fr.lpr.membership.web.rest;
 
 import com.google.common.collect.Sets;
+import com.jayway.jsonpath.JsonPath;
 import fr.lpr.membership.Application;
 import fr.lpr.membership.domain.Adherent;
 import fr.lpr.membership.domain.Adhesion;
@@ -8,7 +9,9 @@ import fr.lpr.membership.domain.Coordonnees;
 import fr.lpr.membership.domain.TypeAdhesion;
 import fr.lpr.membership.domain.sale.PaymentType;
 import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.RowCountEstimator;
 import fr.lpr.membership.repository.SearchAdherentRepository;
+import fr.lpr.membership.service.AdherentService;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
 import org.joda.time.LocalDate;
@@ -17,7 +20,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
@@ -27,11 +32,17 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -57,12 +68,20 @@ public class AdherentResourceTest {
 	private static final String DEFAULT_AUTRE_REMARQUE = "SAMPLE_TEXT";
 	private static final String UPDATED_AUTRE_REMARQUE = "UPDATED_TEXT";
 
+	private static final Pattern NEXT_CURSOR = Pattern.compile("cursor=([^&>]+)[^,]*rel=\"next\"");
+
 	@Inject
 	private AdherentRepository adherentRepository;
 
 	@Inject
 	private SearchAdherentRepository searchAdherentRepository;
 
+	@Inject
+	private RowCountEstimator rowCountEstimator;
+
+	@Inject
+	private AdherentService adherentService;
+
 	@Inject
 	private EntityManager entityManager;
 
@@ -73,7 +92,7 @@ public class AdherentResourceTest {
 	@PostConstruct
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
-		final AdherentResource adherentResource = new AdherentResource(adherentRepository, searchAdherentRepository, null, null, null);
+		final AdherentResource adherentResource = new AdherentResource(adherentRepository, searchAdherentRepository, rowCountEstimator, adherentService, null, null, null);
 		this.restAdherentMockMvc = MockMvcBuilders.standaloneSetup(adherentResource).build();
 	}
 
@@ -179,6 +198,52 @@ public class AdherentResourceTest {
 		.andExpect(jsonPath("$.[*].autreRemarque").value(hasItem(DEFAULT_AUTRE_REMARQUE)));
 	}
 
+	@Test
+	@Transactional
+	public void getAllAdherentsPaginatedByKeys() throws Exception {
+		final List<Long> created = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			final Adherent other = new Adherent();
+			other.setPrenom(DEFAULT_PRENOM);
+			other.setNom(DEFAULT_NOM + i);
+			created.add(adherentRepository.saveAndFlush(other).getId());
+		}
+
+		final List<Long> ids = new ArrayList<>();
+		String cursor = null;
+		do {
+			final MockHttpServletResponse response = restAdherentMockMvc.perform(cursor == null ? get("/api/adherents?keyset=true&per_page=2")
+					: get("/api/adherents?per_page=2&cursor=" + cursor))
+					.andExpect(status().isOk())
+					.andExpect(header().doesNotExist("X-Total-Count"))
+					.andReturn().getResponse();
+			final List<Number> pageIds = JsonPath.read(response.getContentAsString(), "$[*].id");
+			pageIds.forEach(id -> ids.add(id.longValue()));
+			final Matcher next = NEXT_CURSOR.matcher(response.getHeader(HttpHeaders.LINK));
+			cursor = next.find() ? next.group(1) : null;
+		} while (cursor != null);
+
+		assertThat(ids).doesNotHaveDuplicates().isSorted().containsAll(created);
+	}
+
+	@Test
+	@Transactional
+	public void getAllAdherentsWithoutCountOnlyLinksToTheNextPage() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			final Adherent other = new Adherent();
+			other.setPrenom(DEFAULT_PRENOM);
+			other.setNom(DEFAULT_NOM + i);
+			adherentRepository.saveAndFlush(other);
+		}
+
+		restAdherentMockMvc.perform(get("/api/adherents?page=1&per_page=2&count=false"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(header().doesNotExist("X-Total-Count"))
+				.andExpect(header().string(HttpHeaders.LINK, containsString("</api/adherents?page=2&per_page=2&count=false>; rel=\"next\"")))
+				.andExpect(header().string(HttpHeaders.LINK, not(containsString("rel=\"last\""))));
+	}
+
 	@Test
 	@Transactional
 	public void getAdherent() throws Exception {
@@ -7,6 +7,7 @@ import fr.lpr.membership.domain.TypeAdhesion;
 import fr.lpr.membership.domain.sale.PaymentType;
 import fr.lpr.membership.repository.AdherentRepository;
 import fr.lpr.membership.repository.AdhesionRepository;
+import fr.lpr.membership.service.AdhesionService;
 import org.joda.time.LocalDate;
 import org.junit.Before;
 import org.junit.Test;
@@ -53,6 +54,9 @@ public class AdhesionResourceTest {
 	@Inject
 	private AdherentRepository adherentRepository;
 
+	@Inject
+	private AdhesionService adhesionService;
+
 	private MockMvc restAdhesionMockMvc;
 
 	private Adhesion adhesion;
@@ -61,7 +65,7 @@ public class AdhesionResourceTest {
 	@PostConstruct
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
-		final AdhesionResource adhesionResource = new AdhesionResource(adhesionRepository, adherentRepository);
+		final AdhesionResource adhesionResource = new AdhesionResource(adhesionRepository, adherentRepository, adhesionService);
 		this.restAdhesionMockMvc = MockMvcBuilders.standaloneSetup(adhesionResource).build();
 	}
 
@@ -0,0 +1,175 @@
+package fr.lpr.membership.web.rest;
+
+import com.jayway.jsonpath.JsonPath;
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.RowCountEstimator;
+import fr.lpr.membership.service.stock.ArticleCatalog;
+import fr.lpr.membership.service.stock.StockService;
+import fr.lpr.membership.web.rest.dto.mapper.StockMapper;
+import fr.lpr.membership.web.rest.util.Cursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the ArticleResource REST controller.
+ *
+ * @see ArticleResource
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@WebAppConfiguration
+public class ArticleResourceTest {
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	private static final Pattern NEXT_CURSOR = Pattern.compile("cursor=([^&>]+)[^,]*rel=\"next\"");
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	@Inject
+	private StockService stockService;
+
+	@Inject
+	private ArticleCatalog articleCatalog;
+
+	@Inject
+	private StockMapper stockMapper;
+
+	@Inject
+	private RowCountEstimator rowCountEstimator;
+
+	@Inject
+	private JdbcTemplate jdbcTemplate;
+
+	private MockMvc restArticleMockMvc;
+
+	private Article article;
+
+	@PostConstruct
+	public void setup() {
+		final ArticleResource articleResource = new ArticleResource(articleRepository, null, stockService, null, stockMapper, rowCountEstimator, null,
+				articleCatalog);
+		this.restArticleMockMvc = MockMvcBuilders.standaloneSetup(articleResource).build();
+	}
+
+	@Before
+	public void initTest() {
+		article = articleRepository.save(new Article().name("Guidon catalogué " + ARTICLE_COUNTER.incrementAndGet()).quantity(4).salePrice(3000));
+		articleCatalog.invalidate();
+	}
+
+	@After
+	public void cleanup() {
+		jdbcTemplate.update("delete from stock_history where article_id = ?", article.getId());
+		jdbcTemplate.update("delete from article where id = ?", article.getId());
+	}
+
+	@Test
+	public void catalogIsServedFromTheSnapshotUntilTheStockChanges() throws Exception {
+		String etag = restArticleMockMvc.perform(get("/api/articles"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andExpect(content().string(containsString("\"name\":\"" + article.getName() + "\",")))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		restArticleMockMvc.perform(get("/api/articles").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		stockService.forRepairing(article);
+
+		MockHttpServletResponse response = restArticleMockMvc.perform(get("/api/articles")
+				.header(HttpHeaders.IF_NONE_MATCH, etag)
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andReturn().getResponse();
+		assertThat(response.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+		List<Integer> quantities = JsonPath.read(gunzip(response.getContentAsByteArray()), "$[?(@.id == " + article.getId() + ")].quantity");
+		assertThat(quantities).containsExactly(3);
+	}
+
+	@Test
+	public void stockHistoryIsPaginatedByKeys() throws Exception {
+		// Three entries, read two by two
+		for (int i = 0; i < 3; i++) {
+			stockService.forRepairing(article);
+		}
+
+		List<Integer> pageSizes = new ArrayList<>();
+		String cursor = null;
+		do {
+			String url = "/api/articles/" + article.getId() + "/history?keyset=true&per_page=2";
+			MockHttpServletResponse response = restArticleMockMvc.perform(get(cursor == null ? url : url + "&cursor=" + cursor))
+					.andExpect(status().isOk())
+					.andExpect(header().doesNotExist("X-Total-Count"))
+					.andReturn().getResponse();
+			List<String> events = JsonPath.read(response.getContentAsString(), "$[*].event");
+			pageSizes.add(events.size());
+			Matcher next = NEXT_CURSOR.matcher(response.getHeader(HttpHeaders.LINK));
+			cursor = next.find() ? next.group(1) : null;
+		} while (cursor != null);
+
+		assertThat(pageSizes).containsExactly(2, 1);
+	}
+
+	@Test
+	public void stockHistoryWithoutCountOnlyLinksToTheNextPage() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			stockService.forRepairing(article);
+		}
+
+		String url = "/api/articles/" + article.getId() + "/history";
+		restArticleMockMvc.perform(get(url + "?page=1&per_page=2&count=false"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(header().doesNotExist("X-Total-Count"))
+				.andExpect(header().string(HttpHeaders.LINK, containsString("<" + url + "?page=2&per_page=2&count=false>; rel=\"next\"")))
+				.andExpect(header().string(HttpHeaders.LINK, not(containsString("rel=\"last\""))));
+	}
+
+	@Test
+	public void stockHistoryRejectsCursorsWithoutDate() throws Exception {
+		restArticleMockMvc.perform(get("/api/articles/" + article.getId() + "/history?cursor=" + Cursor.of(42L)))
+				.andExpect(status().isBadRequest());
+	}
+
+	private static String gunzip(byte[] gzipped) throws IOException {
+		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+			return StreamUtils.copyToString(gzip, StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package fr.lpr.membership.web.rest;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the ExportJobResource REST controller.
+ *
+ * @see ExportJobResource
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@WebAppConfiguration
+public class ExportJobResourceTest {
+
+	private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+	@Inject
+	private ExportJobService exportJobService;
+
+	private MockMvc restExportJobMockMvc;
+
+	@PostConstruct
+	public void setup() {
+		this.restExportJobMockMvc = MockMvcBuilders.standaloneSetup(new ExportJobResource(exportJobService)).build();
+	}
+
+	@Test
+	public void jobIsRunInTheBackgroundAndItsFileDownloaded() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		ExportJob job = exportJobService.submit("test.txt", "text/plain", (outputStream, progress) -> {
+			outputStream.write(CONTENT, 0, 5);
+			progress.update(1, 2);
+			started.countDown();
+			await(resume);
+			outputStream.write(CONTENT, 5, 5);
+			progress.update(2, 2);
+		});
+
+		await(started);
+		restExportJobMockMvc.perform(get("/api/exports/{id}", job.getId()))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.status").value("RUNNING"))
+				.andExpect(jsonPath("$.percent").value(50));
+		restExportJobMockMvc.perform(get("/api/exports/{id}/file", job.getId()))
+				.andExpect(status().isConflict());
+
+		resume.countDown();
+		waitUntilFinished(job);
+		restExportJobMockMvc.perform(get("/api/exports/{id}/file", job.getId()))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"test.txt\""))
+				.andExpect(content().bytes(CONTENT));
+		restExportJobMockMvc.perform(get("/api/exports/{id}/file", job.getId()).header(HttpHeaders.RANGE, "bytes=5-"))
+				.andExpect(status().isPartialContent())
+				.andExpect(content().string("56789"));
+	}
+
+	@Test
+	public void failedJobHasNoFile() throws Exception {
+		ExportJob job = exportJobService.submit("failed.txt", "text/plain", (outputStream, progress) -> {
+			outputStream.write(CONTENT);
+			throw new IllegalStateException("Export impossible");
+		});
+
+		waitUntilFinished(job);
+		assertThat(job.getStatus()).isEqualTo(ExportJob.Status.FAILED);
+		assertThat(job.getError()).isEqualTo("Export impossible");
+		assertThat(Files.exists(job.getFile())).isFalse();
+	}
+
+	@Test
+	public void finishedJobsAreEvictedWithTheirFile() throws Exception {
+		ExportJob job = exportJobService.submit("evicted.txt", "text/plain", (outputStream, progress) -> outputStream.write(CONTENT));
+		waitUntilFinished(job);
+		assertThat(Files.exists(job.getFile())).isTrue();
+
+		exportJobService.evict();
+		assertThat(exportJobService.get(job.getId()).isPresent()).isTrue();
+
+		exportJobService.evict(System.currentTimeMillis() + 1);
+		assertThat(exportJobService.get(job.getId()).isPresent()).isFalse();
+		assertThat(Files.exists(job.getFile())).isFalse();
+		restExportJobMockMvc.perform(get("/api/exports/{id}", job.getId()))
+				.andExpect(status().isNotFound());
+	}
+
+	private static void waitUntilFinished(ExportJob job) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (job.getStatus() == ExportJob.Status.QUEUED || job.getStatus() == ExportJob.Status.RUNNING) {
+			assertThat(System.currentTimeMillis()).isLessThan(timeout);
+			Thread.sleep(10);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
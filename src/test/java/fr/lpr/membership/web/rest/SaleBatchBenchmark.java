@@ -0,0 +1,139 @@
+package fr.lpr.membership.web.rest;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.web.rest.dto.SaleBatchDTO;
+import fr.lpr.membership.web.rest.dto.SaleDTO;
+import fr.lpr.membership.web.rest.dto.SoldItemDTO;
+
+/**
+ * Compares the sales saved per second by single posts to the ones saved by a batch post, on the H2 database of the tests. The SQL and
+ * debug logs are disabled as printing them would dominate both.
+ *
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.mainClass=fr.lpr.membership.web.rest.SaleBatchBenchmark -Dexec.classpathScope=test}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaleBatchBenchmark {
+
+	private static final int SALES = 100;
+
+	private static final int ITEMS_PER_SALE = 3;
+
+	private ConfigurableApplicationContext context;
+
+	private MockMvc mockMvc;
+
+	private List<byte[]> singleSales;
+
+	private byte[] batch;
+
+	@Setup
+	public void setup() throws Exception {
+		context = new SpringApplicationBuilder(Application.class).properties("server.port=0", "spring.jpa.show-sql=false", "logging.level.fr.lpr.membership=WARN").run();
+		mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+
+		Adherent adherent = new Adherent();
+		adherent.setPrenom("Benchmark");
+		adherent.setNom("Benchmark");
+		adherent = context.getBean(AdherentRepository.class).save(adherent);
+		List<Article> articles = new ArrayList<>();
+		for (int i = 0; i != ITEMS_PER_SALE; ++i) {
+			articles.add(context.getBean(ArticleRepository.class).save(new Article().name("Benchmark " + i).quantity(1_000_000).salePrice(1000)));
+		}
+
+		List<SaleDTO> sales = new ArrayList<>();
+		singleSales = new ArrayList<>();
+		for (int i = 0; i != SALES; ++i) {
+			SaleDTO sale = newSaleDTO(adherent, articles);
+			sales.add(sale);
+			singleSales.add(TestUtil.convertObjectToJsonBytes(sale));
+		}
+		SaleBatchDTO saleBatch = new SaleBatchDTO();
+		saleBatch.setSales(sales);
+		batch = TestUtil.convertObjectToJsonBytes(saleBatch);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SALES)
+	public void singlePosts() throws Exception {
+		for (byte[] sale : singleSales) {
+			mockMvc.perform(post("/api/sales").contentType(TestUtil.APPLICATION_JSON_UTF8).content(sale)).andExpect(status().isCreated());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SALES)
+	public void batchPost() throws Exception {
+		mockMvc.perform(post("/api/sales/batch").contentType(TestUtil.APPLICATION_JSON_UTF8).content(batch)).andExpect(status().isCreated());
+	}
+
+	private static SaleDTO newSaleDTO(Adherent adherent, List<Article> articles) {
+		List<SoldItemDTO> items = new ArrayList<>();
+		for (Article article : articles) {
+			SoldItemDTO item = new SoldItemDTO();
+			item.setArticleId(article.getId());
+			item.setQuantity(1);
+			item.setPrice(article.getSalePrice());
+			items.add(item);
+		}
+
+		SaleDTO sale = new SaleDTO();
+		sale.setDate(DateTime.now());
+		sale.setAdherentId(adherent.getId());
+		sale.setPaymentType(PaymentType.Cash);
+		sale.setFinished(true);
+		sale.setSoldItems(Collections.unmodifiableList(items));
+		return sale;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SaleBatchBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,363 @@
+package fr.lpr.membership.web.rest;
+
+import com.jayway.jsonpath.JsonPath;
+import fr.lpr.membership.Application;
+import fr.lpr.membership.domain.Adherent;
+import fr.lpr.membership.domain.Article;
+import fr.lpr.membership.domain.sale.PaymentType;
+import fr.lpr.membership.domain.sale.Sale;
+import fr.lpr.membership.repository.AdherentRepository;
+import fr.lpr.membership.repository.ArticleRepository;
+import fr.lpr.membership.repository.RowCountEstimator;
+import fr.lpr.membership.repository.sale.SaleRepository;
+import fr.lpr.membership.repository.sale.SaleRollupRepository;
+import fr.lpr.membership.service.sale.OpenCartRegistry;
+import fr.lpr.membership.service.sale.SaleCube;
+import fr.lpr.membership.service.sale.SaleService;
+import fr.lpr.membership.service.sale.SaleStatisticsCache;
+import fr.lpr.membership.service.sale.SaleStatisticsService;
+import fr.lpr.membership.service.sale.SaleTotals;
+import fr.lpr.membership.web.rest.dto.SaleBatchDTO;
+import fr.lpr.membership.web.rest.dto.SaleDTO;
+import fr.lpr.membership.web.rest.dto.SoldItemDTO;
+import fr.lpr.membership.web.rest.dto.mapper.SaleMapper;
+import fr.lpr.membership.web.rest.util.Cursor;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the SaleResource REST controller.
+ *
+ * @see SaleResource
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = Application.class)
+@WebAppConfiguration
+public class SaleResourceTest {
+
+	private static final int YEAR = 2011;
+
+	private static final AtomicInteger ARTICLE_COUNTER = new AtomicInteger();
+
+	private static final Pattern NEXT_CURSOR = Pattern.compile("cursor=([^&>]+)[^,]*rel=\"next\"");
+
+	@Inject
+	private SaleRepository saleRepository;
+
+	@Inject
+	private SaleService saleService;
+
+	@Inject
+	private SaleMapper saleMapper;
+
+	@Inject
+	private SaleStatisticsService saleStatisticsService;
+
+	@Inject
+	private SaleStatisticsCache saleStatisticsCache;
+
+	@Inject
+	private SaleCube saleCube;
+
+	@Inject
+	private SaleTotals saleTotals;
+
+	@Inject
+	private OpenCartRegistry openCartRegistry;
+
+	@Inject
+	private RowCountEstimator rowCountEstimator;
+
+	@Inject
+	private SaleRollupRepository saleRollupRepository;
+
+	@Inject
+	private AdherentRepository adherentRepository;
+
+	@Inject
+	private ArticleRepository articleRepository;
+
+	private MockMvc restSaleMockMvc;
+
+	private Adherent adherent;
+
+	private Article article;
+
+	private final List<Sale> sales = new ArrayList<>();
+
+	@PostConstruct
+	public void setup() {
+		final SaleResource saleResource = new SaleResource(saleRepository, saleService, saleMapper, saleStatisticsService, saleStatisticsCache, saleCube,
+				saleTotals, openCartRegistry, rowCountEstimator, null, null);
+		this.restSaleMockMvc = MockMvcBuilders.standaloneSetup(saleResource).build();
+	}
+
+	@Before
+	public void initTest() {
+		adherent = new Adherent();
+		adherent.setPrenom("firstName");
+		adherent.setNom("lastName");
+		adherent.setBenevole(true);
+		adherent = adherentRepository.save(adherent);
+
+		// Articles are only disabled when deleted, so their unique name cannot be reused by the next test
+		article = articleRepository.save(new Article().name("Dérailleur " + ARTICLE_COUNTER.incrementAndGet()).quantity(10).salePrice(1500));
+	}
+
+	@After
+	public void cleanup() {
+		// Sales are committed so that the statistics are evicted, they have to be deleted
+		sales.forEach(sale -> saleService.delete(sale.getId()));
+		saleRollupRepository.deleteAll();
+		articleRepository.delete(article);
+		adherentRepository.delete(adherent);
+	}
+
+	@Test
+	public void statisticsAreCachedUntilASaleOfTheYearChanges() throws Exception {
+		String etag = restSaleMockMvc.perform(get("/api/sales/statistics/{year}", YEAR))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
+				.andExpect(header().string(HttpHeaders.ETAG, notNullValue()))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		// Unchanged statistics
+		restSaleMockMvc.perform(get("/api/sales/statistics/{year}", YEAR).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		// A sale of another year does not change the statistics
+		newSale(new DateTime(YEAR + 1, 3, 5, 10, 0));
+		restSaleMockMvc.perform(get("/api/sales/statistics/{year}", YEAR).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		// A sale of the year changes them
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		String newEtag = restSaleMockMvc.perform(get("/api/sales/statistics/{year}", YEAR).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.itemsByPeriod['2011-03'][0].name").value(article.getName()))
+				.andExpect(jsonPath("$.itemsByPeriod['2011-03'][0].totalPrice").value(3000))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertThat(newEtag).isNotEqualTo(etag);
+	}
+
+	@Test
+	public void statisticsRejectInvalidRanges() throws Exception {
+		restSaleMockMvc.perform(get("/api/sales/statistics")
+				.param("from", YEAR + "-03-01")
+				.param("to", YEAR + "-03-01"))
+				.andExpect(status().isBadRequest());
+
+		restSaleMockMvc.perform(get("/api/sales/statistics")
+				.param("from", YEAR + "-01-01")
+				.param("to", (YEAR + 2) + "-01-01")
+				.param("granularity", "DAY"))
+				.andExpect(status().isBadRequest());
+
+		restSaleMockMvc.perform(get("/api/sales/statistics")
+				.param("from", YEAR + "-01-01")
+				.param("to", (YEAR + 1) + "-01-01")
+				.param("granularity", "DAY"))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	public void exportRejectsTooManyYears() throws Exception {
+		restSaleMockMvc.perform(post("/api/sales/export/{year}", YEAR).param("years", "0"))
+				.andExpect(status().isBadRequest());
+
+		restSaleMockMvc.perform(post("/api/sales/export/{year}", YEAR).param("years", "11"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	public void cubeRejectsTooLongRanges() throws Exception {
+		restSaleMockMvc.perform(get("/api/sales/cube")
+				.param("from", "1900-01-01")
+				.param("to", YEAR + "-01-01"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	public void cubeGroupsSalesByTheRequestedDimensions() throws Exception {
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		newSale(new DateTime(YEAR, 3, 20, 10, 0), PaymentType.Check);
+		newSale(new DateTime(YEAR, 5, 2, 10, 0), PaymentType.Check);
+
+		restSaleMockMvc.perform(get("/api/sales/cube")
+				.param("from", YEAR + "-01-01")
+				.param("to", (YEAR + 1) + "-01-01")
+				.param("groupBy", "PERIOD,PAYMENT_TYPE")
+				.param("articleId", article.getId().toString()))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(3))
+				.andExpect(jsonPath("$[0].paymentType").value("Cash"))
+				.andExpect(jsonPath("$[0].amount").value(3000))
+				.andExpect(jsonPath("$[1].paymentType").value("Check"))
+				.andExpect(jsonPath("$[2].quantity").value(2));
+
+		restSaleMockMvc.perform(get("/api/sales/cube")
+				.param("from", YEAR + "-01-01")
+				.param("to", (YEAR + 1) + "-01-01")
+				.param("groupBy", "ITEM,BENEVOLE")
+				.param("articleId", article.getId().toString())
+				.param("paymentType", "Check"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(1))
+				.andExpect(jsonPath("$[0].name").value(article.getName()))
+				.andExpect(jsonPath("$[0].benevole").value(true))
+				.andExpect(jsonPath("$[0].quantity").value(4))
+				.andExpect(jsonPath("$[0].amount").value(6000));
+	}
+
+	@Test
+	public void batchSavesAllTheSalesAndUpdatesTheStockOnce() throws Exception {
+		SaleBatchDTO batch = new SaleBatchDTO();
+		batch.setSales(Arrays.asList(newSaleDTO(new DateTime(YEAR, 6, 1, 10, 0), 1), newSaleDTO(new DateTime(YEAR, 6, 1, 11, 0), 2),
+				newSaleDTO(new DateTime(YEAR, 6, 2, 9, 0), 3)));
+
+		String ids = restSaleMockMvc.perform(post("/api/sales/batch")
+				.contentType(TestUtil.APPLICATION_JSON_UTF8)
+				.content(TestUtil.convertObjectToJsonBytes(batch)))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.length()").value(3))
+				.andReturn().getResponse().getContentAsString();
+
+		for (String id : ids.replaceAll("[\\[\\]]", "").split(",")) {
+			Sale sale = saleRepository.findOne(Long.valueOf(id));
+			assertThat(sale.isFinished()).isTrue();
+			assertThat(sale.getSoldItems()).hasSize(1);
+			sales.add(sale);
+		}
+		assertThat(articleRepository.findOne(article.getId()).getQuantity()).isEqualTo(4);
+	}
+
+	@Test
+	public void batchRejectsExistingSales() throws Exception {
+		SaleDTO saleDTO = newSaleDTO(new DateTime(YEAR, 6, 1, 10, 0), 1);
+		saleDTO.setId(1L);
+		SaleBatchDTO batch = new SaleBatchDTO();
+		batch.setSales(Collections.singletonList(saleDTO));
+
+		restSaleMockMvc.perform(post("/api/sales/batch")
+				.contentType(TestUtil.APPLICATION_JSON_UTF8)
+				.content(TestUtil.convertObjectToJsonBytes(batch)))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	public void historyIsPaginatedByKeys() throws Exception {
+		// Two sales at the same time are ordered by identifier
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		newSale(new DateTime(YEAR, 4, 1, 10, 0));
+
+		List<Long> ids = new ArrayList<>();
+		String cursor = null;
+		do {
+			MockHttpServletResponse response = restSaleMockMvc.perform(cursor == null ? get("/api/sales/history?keyset=true&per_page=2")
+					: get("/api/sales/history?per_page=2&cursor=" + cursor))
+					.andExpect(status().isOk())
+					.andExpect(header().doesNotExist("X-Total-Count"))
+					.andReturn().getResponse();
+			List<Number> pageIds = JsonPath.read(response.getContentAsString(), "$[*].id");
+			pageIds.forEach(id -> ids.add(id.longValue()));
+			Matcher next = NEXT_CURSOR.matcher(response.getHeader(HttpHeaders.LINK));
+			cursor = next.find() ? next.group(1) : null;
+		} while (cursor != null);
+
+		assertThat(ids).doesNotHaveDuplicates();
+		assertThat(ids).containsSubsequence(sales.get(2).getId(), sales.get(1).getId(), sales.get(0).getId());
+	}
+
+	@Test
+	public void historyIsPaginatedByOffsetByDefault() throws Exception {
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		newSale(new DateTime(YEAR, 4, 1, 10, 0));
+
+		restSaleMockMvc.perform(get("/api/sales/history?per_page=1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(1)))
+				.andExpect(header().string("X-Total-Count", notNullValue()))
+				.andExpect(header().string(HttpHeaders.LINK, containsString("rel=\"last\"")));
+	}
+
+	@Test
+	public void historyWithoutCountOnlyLinksToTheNextPage() throws Exception {
+		newSale(new DateTime(YEAR, 3, 5, 10, 0));
+		newSale(new DateTime(YEAR, 3, 6, 10, 0));
+		newSale(new DateTime(YEAR, 4, 1, 10, 0));
+
+		restSaleMockMvc.perform(get("/api/sales/history?page=1&per_page=2&count=false"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(header().doesNotExist("X-Total-Count"))
+				.andExpect(header().string(HttpHeaders.LINK, containsString("<" + "/api/sales/history?page=2&per_page=2&count=false>; rel=\"next\"")))
+				.andExpect(header().string(HttpHeaders.LINK, not(containsString("rel=\"last\""))));
+	}
+
+	@Test
+	public void historyRejectsInvalidCursors() throws Exception {
+		restSaleMockMvc.perform(get("/api/sales/history?cursor=%25%25"))
+				.andExpect(status().isBadRequest());
+
+		// The sales are sorted by date first, an identifier alone is not a position
+		restSaleMockMvc.perform(get("/api/sales/history?cursor=" + Cursor.of(42L)))
+				.andExpect(status().isBadRequest());
+	}
+
+	private SaleDTO newSaleDTO(DateTime date, int quantity) {
+		SoldItemDTO item = new SoldItemDTO();
+		item.setArticleId(article.getId());
+		item.setQuantity(quantity);
+		item.setPrice(1500);
+
+		SaleDTO saleDTO = new SaleDTO();
+		saleDTO.setDate(date);
+		saleDTO.setAdherentId(adherent.getId());
+		saleDTO.setPaymentType(PaymentType.Cash);
+		saleDTO.setFinished(true);
+		saleDTO.setSoldItems(Collections.singletonList(item));
+		return saleDTO;
+	}
+
+	private void newSale(DateTime createdAt) {
+		newSale(createdAt, PaymentType.Cash);
+	}
+
+	private void newSale(DateTime createdAt, PaymentType paymentType) {
+		Sale sale = new Sale().adherent(adherent).paymentType(paymentType).createdAt(createdAt).finished(true);
+		sale.addSoldItem(article, 2, 1500);
+		sales.add(saleService.newSale(sale));
+	}
+
+}
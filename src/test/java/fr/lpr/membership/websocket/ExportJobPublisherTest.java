@@ -0,0 +1,45 @@
+package fr.lpr.membership.websocket;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import fr.lpr.membership.service.export.ExportJob;
+import fr.lpr.membership.service.export.ExportJobEvent;
+
+/**
+ * Test class for the publication of the export jobs.
+ *
+ * @see ExportJobPublisher
+ */
+public class ExportJobPublisherTest {
+
+	private final SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+
+	private final ExportJobPublisher publisher = new ExportJobPublisher(template);
+
+	@Test
+	public void jobIsSentToItsOwnerOnly() {
+		ExportJob job = mock(ExportJob.class);
+		when(job.getOwner()).thenReturn("user");
+
+		publisher.handleExportJob(new ExportJobEvent(job));
+
+		verify(template).convertAndSendToUser("user", "/queue/exportJobs", job);
+		verify(template, never()).convertAndSend(anyString(), any(Object.class));
+	}
+
+	@Test
+	public void jobWithoutOwnerIsNotSent() {
+		publisher.handleExportJob(new ExportJobEvent(mock(ExportJob.class)));
+
+		verify(template, never()).convertAndSendToUser(anyString(), anyString(), any(Object.class));
+	}
+
+}